@@ -1,10 +1,19 @@
 package com.banking.model;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serial;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 /**
  * The Account class models a bank account.
@@ -13,23 +22,146 @@ import java.util.List;
  * 
  * Note: This is an abstract class because we expect to have different types of accounts
  * (like SavingsAccount or CheckingAccount) that will extend this base class.
+ *
+ * Thread safety: every change to an account happens while holding the account's own
+ * monitor (synchronized on the Account object), so each account is its own lock and
+ * threads working on different accounts never wait for each other. The balance is
+ * volatile, so getBalance() never takes the lock and always sees the latest committed
+ * value. Code that must change two accounts together (such as a transfer) synchronizes
+ * on both through callWithBothLocked(), which always takes them in the same order.
+ *
+ * An account can keep its balance, creation time, ledger and type setting in a
+ * StateStore (see moveTo) instead of its own fields, for banks too large to hold every
+ * account's state on the heap; the account object is then only a handle to its record.
  */
 public abstract class Account implements Serializable {
+    // Unchanged since the first release: readObject converts the older field layout
     @Serial
     private static final long serialVersionUID = 1L;
 
+    // Taken before both account locks in the rare case two accounts cannot be ordered
+    private static final Object TIE_LOCK = new Object();
+
     // Unique account number to identify each account
     protected String accountNumber;
 
-    // Current balance of the account
-    protected double balance;
+    // Current balance of the account, in paise (see Money); written only under the account lock
+    protected volatile long balancePaise;
 
-    // List of all transactions performed on this account
-    protected List<Transaction> transactionList;
+    // All transactions performed on this account, stored column by column
+    protected TransactionLedger ledger;
 
     // Creation timestamp for the account
     protected LocalDateTime createdAt;
 
+    // Running totals per calendar month, oldest first; null until the first transaction
+    private TreeMap<YearMonth, MonthlySummary> monthlySummaries;
+
+    // Store holding the balance, creation time, ledger and setting instead of the fields
+    // above, or null; 'slot' is the account's record there, written before 'store'
+    private transient volatile StateStore store;
+    private transient int slot;
+
+    // Told about every transaction recorded from now on (e.g. the write-ahead journal)
+    private transient volatile TransactionListener transactionListener;
+
+    // Fills the ledger on first use when the account was loaded lazily, then null
+    private transient volatile LedgerLoader ledgerLoader;
+
+    // Whether the account changed since it was last checkpointed, and how many ledger
+    // rows that checkpoint holds (see DirtyTracker)
+    private transient volatile boolean dirty;
+    private transient int checkpointedRows;
+    private transient volatile DirtyTracker dirtyTracker;
+
+    // Summary of the month the last transaction fell in, and that month's bounds in epoch micros
+    private transient MonthlySummary currentSummary;
+    private transient long currentMonthStartMicros;
+    private transient long currentMonthEndMicros;
+
+    /**
+     * Listener notified after a transaction has been recorded on an account.
+     * It is called while the account lock is held, so it must be quick and must not
+     * wait for other accounts; the row it is given is final once the call returns.
+     * If it throws, the account undoes the transaction before the exception reaches the caller.
+     */
+    public interface TransactionListener {
+        /**
+         * @param account      The account the transaction was recorded on
+         * @param row          The transaction's row in the account's ledger
+         * @param counterparty For a transfer leg, the other account of the transfer; otherwise null
+         */
+        void transactionRecorded(Account account, int row, Account counterparty);
+    }
+
+    /**
+     * Fills an account's ledger with its stored rows the first time the ledger is
+     * used (e.g. from a memory-mapped snapshot). Called once, under the account lock.
+     */
+    public interface LedgerLoader {
+        void load(TransactionLedger ledger);
+    }
+
+    /**
+     * Keeps the state of accounts outside their objects, one record per account (see
+     * moveTo). Reads may come from any thread; writes are made under the account lock.
+     */
+    public interface StateStore {
+        /**
+         * Take in an account's current state and return the record now holding it.
+         *
+         * @param account   The account, locked by the caller
+         * @param parameter The setting of the account's type (overdraft limit, rate bits)
+         * @param ledger    The account's ledger, possibly still waiting for its loader
+         */
+        int add(Account account, long parameter, TransactionLedger ledger);
+
+        /**
+         * Free a record; the account has copied its state back.
+         */
+        void remove(int slot);
+
+        long getBalancePaise(int slot);
+
+        void setBalancePaise(int slot, long balancePaise);
+
+        long getParameter(int slot);
+
+        void setParameter(int slot, long parameter);
+
+        /**
+         * @return The creation time as encoded by encodeDateTime
+         */
+        long getCreatedAt(int slot);
+
+        void setCreatedAt(int slot, long createdAt);
+
+        /**
+         * @return The record's ledger, created empty on first use
+         */
+        TransactionLedger getLedger(int slot);
+
+        /**
+         * Encode a date-time exactly as nanoseconds from 1970-01-01T00:00 on the same
+         * clock (no time zone), or Long.MIN_VALUE for null. Covers the years 1678 to 2261.
+         */
+        static long encodeDateTime(LocalDateTime dateTime) {
+            if (dateTime == null) {
+                return Long.MIN_VALUE;
+            }
+            return Math.addExact(Math.multiplyExact(dateTime.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L),
+                    dateTime.getNano());
+        }
+
+        static LocalDateTime decodeDateTime(long encoded) {
+            if (encoded == Long.MIN_VALUE) {
+                return null;
+            }
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(encoded, 1_000_000_000L),
+                    (int) Math.floorMod(encoded, 1_000_000_000L), ZoneOffset.UTC);
+        }
+    }
+
     /**
      * Constructor to create a new Account with a given account number.
      * Initializes the balance to zero and creates an empty list for transactions.
@@ -38,9 +170,10 @@ public abstract class Account implements Serializable {
      */
     public Account(String accountNumber) {
         this.accountNumber = accountNumber;
-        this.balance = 0.0;  // Account starts with zero balance
-        this.transactionList = new ArrayList<>();  // No transactions at the beginning
+        this.balancePaise = 0L;  // Account starts with zero balance
+        this.ledger = new TransactionLedger();  // No transactions at the beginning
         this.createdAt = LocalDateTime.now();
+        this.dirty = true;
     }
 
     /**
@@ -58,16 +191,109 @@ public abstract class Account implements Serializable {
      * @return The current balance as a double
      */
     public double getBalance() {
-        return balance;
+        return Money.toRupees(balance());
+    }
+
+    /**
+     * Get the current balance of the account in paise.
+     *
+     * @return The exact current balance
+     */
+    public long getBalancePaise() {
+        return balance();
     }
 
     /**
      * Get the list of all past transactions for this account.
+     * The list is a read-only view over the ledger; it is not copied.
      * 
      * @return A List of Transaction objects
      */
     public List<Transaction> getTransactionList() {
-        return transactionList;
+        return ledger().asList();
+    }
+
+    /**
+     * Get the columnar ledger behind getTransactionList(), for callers that want
+     * to read amounts and timestamps without creating Transaction objects.
+     *
+     * @return The transaction ledger of this account
+     */
+    public TransactionLedger getLedger() {
+        return ledger();
+    }
+
+    /**
+     * Get the transactions made between two points in time.
+     * Uses a binary search over the ledger's timestamps, so the cost does not
+     * depend on how much older or newer history the account has.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
+     * @return A read-only list of the matching transactions, oldest first
+     */
+    public List<Transaction> transactionsBetween(LocalDateTime from, LocalDateTime to) {
+        return ledger().rangeBetween(from, to);
+    }
+
+    /**
+     * Get the transactions made in one calendar month.
+     *
+     * @param month The month to look at
+     * @return A read-only list of the matching transactions, oldest first
+     */
+    public List<Transaction> transactionsInMonth(YearMonth month) {
+        return ledger().rangeInMonth(month);
+    }
+
+    /**
+     * Open a cursor over the transactions of one calendar month, for callers that
+     * want to read amounts and balances without creating Transaction objects.
+     *
+     * @param month The month to look at
+     * @return A cursor positioned before the first transaction of the month
+     */
+    public TransactionLedger.Cursor monthCursor(YearMonth month) {
+        return ledger().monthCursor(month);
+    }
+
+    /**
+     * Get the running totals for one calendar month.
+     *
+     * @param month The month to look at
+     * @return A copy of the month's summary, or null if there were no transactions that month
+     */
+    public synchronized MonthlySummary getMonthlySummary(YearMonth month) {
+        MonthlySummary summary = monthlySummaries == null ? null : monthlySummaries.get(month);
+        return summary == null ? null : summary.copy();
+    }
+
+    /**
+     * Get the running totals of every month that had transactions, oldest first.
+     *
+     * @return Copies of the monthly summaries
+     */
+    public synchronized List<MonthlySummary> getMonthlySummaries() {
+        List<MonthlySummary> copies = new ArrayList<>();
+        if (monthlySummaries == null) {
+            return copies;
+        }
+        for (MonthlySummary summary : monthlySummaries.values()) {
+            copies.add(summary.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * Put back a monthly summary that was saved earlier (used by persistence code).
+     * Replaces any summary already held for the same month.
+     *
+     * @param summary The saved summary
+     */
+    public synchronized void restoreMonthlySummary(MonthlySummary summary) {
+        summaries().put(summary.getMonth(), summary.copy());
+        currentSummary = null;
+        markDirty();
     }
 
     /**
@@ -75,7 +301,11 @@ public abstract class Account implements Serializable {
      * @return LocalDateTime when the account was created
      */
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        StateStore current = store;
+        if (current == null) {
+            return createdAt;
+        }
+        return StateStore.decodeDateTime(current.getCreatedAt(slot));
     }
 
     /**
@@ -85,10 +315,27 @@ public abstract class Account implements Serializable {
      * @param amount The amount to deposit (must be > 0)
      */
     public void deposit(double amount) {
-        if (amount > 0) {
-            balance += amount;  // Add amount to balance
+        long amountPaise;
+        try {
+            amountPaise = Money.ofRupees(amount);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            System.out.println("Deposit amount is not a valid amount.");
+            return;
+        }
+        depositPaise(amountPaise);
+    }
+
+    /**
+     * Deposit a positive amount, given in paise, into the account.
+     * This is the allocation-free path used by deposit(double).
+     *
+     * @param amountPaise The amount to deposit (must be > 0)
+     */
+    public synchronized void depositPaise(long amountPaise) {
+        if (amountPaise > 0) {
+            setBalance(Money.add(balance(), amountPaise));  // Add amount to balance
             // Record this deposit transaction
-            transactionList.add(new Transaction("deposit", amount, balance));
+            record(TransactionType.DEPOSIT, amountPaise);
         } else {
             System.out.println("Deposit amount must be positive.");
         }
@@ -101,17 +348,501 @@ public abstract class Account implements Serializable {
      * @param amount The amount to withdraw (must be > 0 and <= balance)
      */
     public boolean withdraw(double amount) {
-        if (amount <= 0) {
+        long amountPaise;
+        try {
+            amountPaise = Money.ofRupees(amount);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            System.out.println("Withdrawal amount is not a valid amount.");
+            return false;
+        }
+        return withdrawPaise(amountPaise);
+    }
+
+    /**
+     * Withdraw a positive amount, given in paise, if the account allows it.
+     * Subclasses change what is allowed by overriding coversWithdrawal.
+     *
+     * @param amountPaise The amount to withdraw (must be > 0)
+     * @return true if the withdrawal was made
+     */
+    public synchronized boolean withdrawPaise(long amountPaise) {
+        if (amountPaise <= 0) {
             System.out.println("Withdrawal amount must be positive.");
             return false;
         }
-        if (balance >= amount) {
-            balance -= amount;  // Deduct amount from balance
+        if (coversWithdrawal(amountPaise)) {
+            setBalance(Money.subtract(balance(), amountPaise));  // Deduct amount from balance
             // Record this withdrawal transaction
-            transactionList.add(new Transaction("withdrawal", amount, balance));
+            record(TransactionType.WITHDRAWAL, amountPaise);
             return true;
         }
-        System.out.println("Insufficient balance.");
+        reportDeclinedWithdrawal();
         return false;
     }
+
+    /**
+     * Take money out of this account as the debit leg of a transfer.
+     * The same rules as withdrawPaise apply, but a refusal is reported to the caller
+     * only (no message is printed), since the transfer decides how to report it.
+     *
+     * @param amountPaise The amount to move (must be > 0)
+     * @param transferId  The id shared by both legs of the transfer
+     * @param payee       The account that will receive the credit leg
+     * @return true if the debit was made, false if the account does not allow it
+     */
+    public synchronized boolean debitForTransfer(long amountPaise, TransactionId transferId, Account payee) {
+        if (amountPaise <= 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive");
+        }
+        if (!coversWithdrawal(amountPaise)) {
+            return false;
+        }
+        setBalance(Money.subtract(balance(), amountPaise));
+        record(TransactionType.WITHDRAWAL, amountPaise, transferId.getHigh(), transferId.getLow(), payee);
+        return true;
+    }
+
+    /**
+     * Put money into this account as the credit leg of a transfer.
+     *
+     * @param amountPaise The amount to move (must be > 0)
+     * @param transferId  The id shared by both legs of the transfer
+     * @param payer       The account the debit leg was taken from
+     */
+    public synchronized void creditForTransfer(long amountPaise, TransactionId transferId, Account payer) {
+        if (amountPaise <= 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive");
+        }
+        setBalance(Money.add(balance(), amountPaise));
+        record(TransactionType.DEPOSIT, amountPaise, transferId.getHigh(), transferId.getLow(), payer);
+    }
+
+    /**
+     * Re-apply a transaction recorded elsewhere (a journal or event stream) on top of
+     * the current state. The ledger row keeps its original timestamp and ids, and the
+     * balance becomes the recorded resulting balance. Listeners are not notified,
+     * since the transaction is already durable where it came from.
+     *
+     * @return The ledger row of the transaction
+     * @throws IllegalArgumentException if the timestamp is earlier than the last row
+     */
+    public synchronized int replayTransaction(long timestampMicros, TransactionType type, long amountPaise,
+                                              long resultingBalancePaise, long idHigh, long idLow,
+                                              long transferHigh, long transferLow) {
+        int row = ledger().appendExisting(timestampMicros, type, amountPaise, resultingBalancePaise,
+                idHigh, idLow, transferHigh, transferLow);
+        setBalance(resultingBalancePaise);
+        summarize(row, type, amountPaise);
+        markDirty();
+        return row;
+    }
+
+    /**
+     * Set the balance and creation time of an account whose ledger and monthly
+     * summaries have been filled from saved data (used by persistence code).
+     *
+     * @param balancePaise The saved balance
+     * @param createdAt    When the account was opened, or null to keep the current value
+     */
+    public synchronized void restoreState(long balancePaise, LocalDateTime createdAt) {
+        setBalance(balancePaise);
+        if (createdAt != null) {
+            StateStore current = store;
+            if (current == null) {
+                this.createdAt = createdAt;
+            } else {
+                current.setCreatedAt(slot, StateStore.encodeDateTime(createdAt));
+            }
+        }
+        currentSummary = null;
+        markDirty();
+    }
+
+    /**
+     * Set the listener told about every transaction recorded from now on (null for none).
+     */
+    public void setTransactionListener(TransactionListener listener) {
+        this.transactionListener = listener;
+    }
+
+    public TransactionListener getTransactionListener() {
+        return transactionListener;
+    }
+
+    /**
+     * Set the tracker told when this account first changes after a checkpoint (null for
+     * none). If the account is already dirty, the tracker is told at once.
+     */
+    public void setDirtyTracker(DirtyTracker tracker) {
+        this.dirtyTracker = tracker;
+        if (tracker != null && dirty) {
+            tracker.accountChanged(this);
+        }
+    }
+
+    /**
+     * Check whether the account changed since it was last checkpointed.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Get how many ledger rows the last checkpoint of this account holds; rows from
+     * this index on have not been saved yet.
+     */
+    public synchronized int getCheckpointedRows() {
+        return checkpointedRows;
+    }
+
+    /**
+     * Record that the account has been saved with its first 'rows' ledger rows and
+     * clear the dirty flag. Call while holding the account lock, right after saving.
+     */
+    public synchronized void markCheckpointed(int rows) {
+        checkpointedRows = rows;
+        dirty = false;
+    }
+
+    // Set the dirty flag, telling the tracker if it was clear; callers hold the account lock
+    protected void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            DirtyTracker tracker = dirtyTracker;
+            if (tracker != null) {
+                tracker.accountChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Have the ledger's stored rows read by the given loader when the ledger is first
+     * used, instead of now. The account's balance and monthly summaries must already
+     * be restored, and the ledger must still be empty.
+     */
+    public synchronized void setLedgerLoader(LedgerLoader loader) {
+        if (rawLedger().size() != 0) {
+            throw new IllegalStateException("Ledger of account " + accountNumber + " is already filled");
+        }
+        this.ledgerLoader = loader;
+    }
+
+    /**
+     * Check whether the ledger is still waiting to be read by its loader.
+     */
+    public boolean isLedgerLoaded() {
+        return ledgerLoader == null;
+    }
+
+    // The ledger, read first if it was loaded lazily
+    private TransactionLedger ledger() {
+        if (ledgerLoader != null) {
+            synchronized (this) {
+                LedgerLoader loader = ledgerLoader;
+                if (loader != null) {
+                    loader.load(rawLedger());
+                    ledgerLoader = null;
+                }
+            }
+        }
+        return rawLedger();
+    }
+
+    // The ledger as it is, without running the loader
+    private TransactionLedger rawLedger() {
+        StateStore current = store;
+        return current == null ? ledger : current.getLedger(slot);
+    }
+
+    /**
+     * Get the current balance in paise, from the store when the account is in one.
+     * Subclasses read the balance through this rather than the field.
+     */
+    protected long balance() {
+        StateStore current = store;
+        return current == null ? balancePaise : current.getBalancePaise(slot);
+    }
+
+    /**
+     * Set the balance in paise; callers hold the account lock.
+     */
+    protected void setBalance(long value) {
+        StateStore current = store;
+        if (current == null) {
+            balancePaise = value;
+        } else {
+            current.setBalancePaise(slot, value);
+        }
+    }
+
+    // The setting of the account's type as the store holds it, or the given field value
+    // when the account is not in a store
+    long parameter(long fieldValue) {
+        StateStore current = store;
+        return current == null ? fieldValue : current.getParameter(slot);
+    }
+
+    // Write the setting of the account's type to the store; false when the account is
+    // not in one, so the caller sets its field instead. Callers hold the account lock.
+    boolean storeParameter(long value) {
+        StateStore current = store;
+        if (current == null) {
+            return false;
+        }
+        current.setParameter(slot, value);
+        return true;
+    }
+
+    // The setting of the account's type as a long (overdraft limit, rate bits); none here
+    long parameterBits() {
+        return 0L;
+    }
+
+    // Put the setting back in the subclass field when leaving a store
+    void restoreParameterBits(long bits) {
+    }
+
+    /**
+     * Move the account's balance, creation time, ledger and type setting into a store,
+     * which keeps them from now on; this object becomes a handle to its record there.
+     * An account already in another store leaves it first.
+     */
+    public synchronized void moveTo(StateStore target) {
+        if (store == target) {
+            return;
+        }
+        moveToHeap();
+        slot = target.add(this, parameterBits(), ledger);
+        store = target;
+        ledger = null;
+        createdAt = null;
+    }
+
+    /**
+     * Take the account's state back from its store into its own fields and free its
+     * record. Does nothing for an account not in a store.
+     */
+    public synchronized void moveToHeap() {
+        StateStore current = store;
+        if (current == null) {
+            return;
+        }
+        copyFromStore(current);
+        store = null;
+        current.remove(slot);
+    }
+
+    /**
+     * @return The store holding the account's state, or null if it is kept in the account
+     */
+    public StateStore getStateStore() {
+        return store;
+    }
+
+    // Copy the stored state into the fields; caller holds the lock
+    private void copyFromStore(StateStore current) {
+        balancePaise = current.getBalancePaise(slot);
+        createdAt = StateStore.decodeDateTime(current.getCreatedAt(slot));
+        ledger = current.getLedger(slot);
+        restoreParameterBits(current.getParameter(slot));
+    }
+
+    // Serialize under the account lock so a snapshot taken while the bank is running
+    // holds a balance that matches the last ledger row
+    @Serial
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ledger();
+        StateStore current = store;
+        if (current == null) {
+            out.defaultWriteObject();
+            return;
+        }
+        // The fields only stand in for the record while it is written
+        copyFromStore(current);
+        try {
+            out.defaultWriteObject();
+        } finally {
+            ledger = null;
+            createdAt = null;
+        }
+    }
+
+    // Read either field layout. Streams from before amounts were kept in paise hold the
+    // balance in rupees as 'balance' and the history as 'transactionList'; those are
+    // converted to paise, a ledger and monthly summaries.
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        accountNumber = (String) fields.get("accountNumber", null);
+        createdAt = (LocalDateTime) fields.get("createdAt", null);
+        if (!hasField(fields, "balance")) {
+            balancePaise = fields.get("balancePaise", 0L);
+            ledger = (TransactionLedger) fields.get("ledger", null);
+            monthlySummaries = (TreeMap<YearMonth, MonthlySummary>) fields.get("monthlySummaries", null);
+            if (ledger == null) {
+                ledger = new TransactionLedger();
+            }
+            return;
+        }
+        ledger = new TransactionLedger();
+        List<Transaction> transactions = (List<Transaction>) fields.get("transactionList", null);
+        if (transactions != null) {
+            for (Transaction transaction : transactions) {
+                appendLegacy(transaction);
+            }
+        }
+        balancePaise = Money.ofRupees(fields.get("balance", 0.0));
+    }
+
+    // Add one transaction of an old stream to the ledger and its month's summary
+    private void appendLegacy(Transaction transaction) throws InvalidObjectException {
+        TransactionType type = TransactionType.fromLabel(transaction.getType());
+        if (type == null || transaction.getDate() == null) {
+            throw new InvalidObjectException("Unreadable transaction in account " + accountNumber);
+        }
+        try {
+            TransactionId id = TransactionId.fromString(transaction.getTransactionId());
+            // The summary takes its balances from the balance field, so it follows each row
+            balancePaise = transaction.getResultingBalancePaise();
+            int row = ledger.appendExisting(TransactionLedger.toEpochMicros(transaction.getDate()), type,
+                    transaction.getAmountPaise(), balancePaise, id.getHigh(), id.getLow());
+            summarize(row, type, transaction.getAmountPaise());
+        } catch (IllegalArgumentException e) {
+            InvalidObjectException invalid = new InvalidObjectException("Unreadable transaction in account "
+                    + accountNumber + ": " + e.getMessage());
+            invalid.initCause(e);
+            throw invalid;
+        }
+    }
+
+    /**
+     * Check whether a serialized object's stream holds a field, for classes whose
+     * readObject accepts more than one field layout.
+     */
+    static boolean hasField(ObjectInputStream.GetField fields, String name) {
+        ObjectStreamClass streamClass = fields.getObjectStreamClass();
+        return streamClass.getField(name) != null;
+    }
+
+    private void record(TransactionType type, long amountPaise) {
+        record(type, amountPaise, 0L, 0L, null);
+    }
+
+    /**
+     * Record a transaction that has already been applied to the balance:
+     * append it to the ledger, tell the listener, then add it to the running totals of
+     * its month. If the listener fails (e.g. the journal cannot write the record) the row
+     * and the balance change are undone before the exception propagates, so memory never
+     * holds a transaction the journal does not. In the common case the month is unchanged
+     * and this is O(1) with no allocation.
+     */
+    private void record(TransactionType type, long amountPaise, long transferHigh, long transferLow,
+                        Account counterparty) {
+        TransactionLedger ledger = ledger();
+        int row = ledger.append(type, amountPaise, balance(), transferHigh, transferLow);
+        TransactionListener listener = transactionListener;
+        if (listener != null) {
+            try {
+                listener.transactionRecorded(this, row, counterparty);
+            } catch (RuntimeException e) {
+                ledger.removeLast();
+                setBalance(type == TransactionType.DEPOSIT
+                        ? Money.subtract(balance(), amountPaise)
+                        : Money.add(balance(), amountPaise));
+                throw e;
+            }
+        }
+        summarize(row, type, amountPaise);
+        markDirty();
+    }
+
+    // Add a ledger row to the summary of its month
+    private void summarize(int row, TransactionType type, long amountPaise) {
+        long timestamp = ledger().getTimestampMicros(row);
+        if (currentSummary == null || timestamp < currentMonthStartMicros || timestamp >= currentMonthEndMicros) {
+            switchMonth(timestamp, type, amountPaise);
+        }
+        currentSummary.record(type, amountPaise, balance());
+    }
+
+    // Find or start the summary for the month containing the given timestamp
+    private void switchMonth(long timestampMicros, TransactionType type, long amountPaise) {
+        YearMonth month = YearMonth.from(TransactionLedger.toLocalDateTime(timestampMicros));
+        MonthlySummary summary = summaries().get(month);
+        if (summary == null) {
+            long opening = type == TransactionType.DEPOSIT
+                    ? Money.subtract(balance(), amountPaise)
+                    : Money.add(balance(), amountPaise);
+            summary = new MonthlySummary(month, opening);
+            monthlySummaries.put(month, summary);
+        }
+        currentSummary = summary;
+        currentMonthStartMicros = TransactionLedger.toEpochMicros(month.atDay(1).atStartOfDay());
+        currentMonthEndMicros = TransactionLedger.toEpochMicros(month.plusMonths(1).atDay(1).atStartOfDay());
+    }
+
+    private TreeMap<YearMonth, MonthlySummary> summaries() {
+        if (monthlySummaries == null) {
+            monthlySummaries = new TreeMap<>();
+        }
+        return monthlySummaries;
+    }
+
+    /**
+     * Run an action while holding the locks of two accounts.
+     * The locks are always taken in the same global order (by account number, then
+     * identity), so two threads locking the same pair in opposite roles cannot deadlock.
+     *
+     * @param a      One account
+     * @param b      The other account (may be the same object as a)
+     * @param action The work to do while both accounts are locked
+     * @return Whatever the action returns
+     */
+    public static <T> T callWithBothLocked(Account a, Account b, Supplier<T> action) {
+        if (a == b) {
+            synchronized (a) {
+                return action.get();
+            }
+        }
+        int cmp = a.accountNumber.compareTo(b.accountNumber);
+        if (cmp == 0) {
+            cmp = Integer.compare(System.identityHashCode(a), System.identityHashCode(b));
+        }
+        if (cmp == 0) {
+            // Indistinguishable pair: serialize through a shared tie-breaker lock
+            synchronized (TIE_LOCK) {
+                synchronized (a) {
+                    synchronized (b) {
+                        return action.get();
+                    }
+                }
+            }
+        }
+        Account first = cmp < 0 ? a : b;
+        Account second = cmp < 0 ? b : a;
+        synchronized (first) {
+            synchronized (second) {
+                return action.get();
+            }
+        }
+    }
+
+    /**
+     * Check whether the current balance allows withdrawing the given amount.
+     * A plain account can never go below zero.
+     *
+     * @param amountPaise The amount to withdraw, in paise
+     * @return true if the withdrawal is allowed
+     */
+    protected boolean coversWithdrawal(long amountPaise) {
+        return Money.compare(balance(), amountPaise) >= 0;
+    }
+
+    /**
+     * Tell the user why a withdrawal was declined.
+     */
+    protected void reportDeclinedWithdrawal() {
+        System.out.println("Insufficient balance.");
+    }
 }
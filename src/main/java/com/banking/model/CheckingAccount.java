@@ -1,5 +1,7 @@
 package com.banking.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 
 /**
@@ -7,11 +9,12 @@ import java.io.Serial;
  * It extends Account and optionally allows overdraft (negative balance).
  */
 public class CheckingAccount extends Account {
+    // Unchanged since the first release: readObject converts the older field layout
     @Serial
     private static final long serialVersionUID = 1L;
 
-    // Overdraft limit allowed; how far below zero the balance can go
-    private double overdraftLimit;
+    // Overdraft limit allowed in paise; how far below zero the balance can go
+    private volatile long overdraftLimitPaise;
 
     /**
      * Constructor to create a CheckingAccount with account number and overdraft limit.
@@ -21,7 +24,7 @@ public class CheckingAccount extends Account {
      */
     public CheckingAccount(String accountNumber, double overdraftLimit) {
         super(accountNumber);  // Call superclass constructor
-        this.overdraftLimit = overdraftLimit;
+        this.overdraftLimitPaise = Money.ofRupees(overdraftLimit);
     }
 
     /**
@@ -30,7 +33,16 @@ public class CheckingAccount extends Account {
      * @return The overdraft limit amount
      */
     public double getOverdraftLimit() {
-        return overdraftLimit;
+        return Money.toRupees(getOverdraftLimitPaise());
+    }
+
+    /**
+     * Get the overdraft limit in paise.
+     *
+     * @return The exact overdraft limit
+     */
+    public long getOverdraftLimitPaise() {
+        return parameter(overdraftLimitPaise);
     }
 
     /**
@@ -38,27 +50,54 @@ public class CheckingAccount extends Account {
      *
      * @param overdraftLimit New overdraft limit amount
      */
-    public void setOverdraftLimit(double overdraftLimit) {
-        this.overdraftLimit = overdraftLimit;
+    public synchronized void setOverdraftLimit(double overdraftLimit) {
+        setOverdraftLimitPaise(Money.ofRupees(overdraftLimit));
     }
 
     /**
-     * Override withdraw method to allow overdraft up to the limit.
+     * Set a new overdraft limit in paise.
      *
-     * @param amount The amount to withdraw
+     * @param overdraftLimitPaise New overdraft limit amount
      */
-    @Override
-    public boolean withdraw(double amount) {
-        if (amount <= 0) {
-            System.out.println("Withdrawal amount must be positive.");
-            return false;
-        }
-        if ((balance - amount) >= -overdraftLimit) {
-            balance -= amount;
-            transactionList.add(new Transaction("withdrawal", amount, balance));
-            return true;
+    public synchronized void setOverdraftLimitPaise(long overdraftLimitPaise) {
+        if (!storeParameter(overdraftLimitPaise)) {
+            this.overdraftLimitPaise = overdraftLimitPaise;
         }
+        markDirty();
+    }
+
+    /**
+     * Allow overdraft: the balance may go down to minus the overdraft limit.
+     *
+     * @param amountPaise The amount to withdraw, in paise
+     */
+    @Override
+    protected boolean coversWithdrawal(long amountPaise) {
+        long remaining = Money.subtract(balance(), amountPaise);
+        return Money.compare(remaining, -getOverdraftLimitPaise()) >= 0;
+    }
+
+    @Override
+    long parameterBits() {
+        return overdraftLimitPaise;
+    }
+
+    @Override
+    void restoreParameterBits(long bits) {
+        overdraftLimitPaise = bits;
+    }
+
+    // Streams from before amounts were kept in paise hold the limit in rupees as 'overdraftLimit'
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        overdraftLimitPaise = hasField(fields, "overdraftLimit")
+                ? Money.ofRupees(fields.get("overdraftLimit", 0.0))
+                : fields.get("overdraftLimitPaise", 0L);
+    }
+
+    @Override
+    protected void reportDeclinedWithdrawal() {
         System.out.println("Withdrawal denied: Overdraft limit exceeded.");
-        return false;
     }
 }
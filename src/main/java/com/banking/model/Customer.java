@@ -2,12 +2,13 @@ package com.banking.model;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Customer class represents a bank customer.
  * It holds personal details, login credentials (User), and a list of accounts.
+ * The account list is copy-on-write, so it can be iterated while another thread adds an account.
  */
 public class Customer implements Serializable {
     @Serial
@@ -18,11 +19,26 @@ public class Customer implements Serializable {
     private User user;  // Associated User object for authentication
     private List<Account> accounts;
 
+    // Told about every account added through addAccount (e.g. BankService's account index)
+    private transient volatile List<AccountListener> accountListeners;
+
+    // Whether the customer is new or gained an account since it was last saved (see DirtyTracker)
+    private transient volatile boolean dirty;
+    private transient volatile DirtyTracker dirtyTracker;
+
+    /**
+     * Listener notified after an account has been added to a customer.
+     */
+    public interface AccountListener {
+        void accountAdded(Customer customer, Account account);
+    }
+
     public Customer(String name, String email, User user) {
         this.name = name;
         this.email = email;
         this.user = user;
-        this.accounts = new ArrayList<>();
+        this.accounts = new CopyOnWriteArrayList<>();
+        this.dirty = true;
     }
 
     // Get customer's full name
@@ -45,8 +61,60 @@ public class Customer implements Serializable {
         return accounts;
     }
 
-    // Add a new bank account for this customer
+    // Add a new bank account for this customer and notify any listeners
     public void addAccount(Account account) {
         accounts.add(account);
+        markDirty();
+        List<AccountListener> listeners = accountListeners;
+        if (listeners != null) {
+            for (AccountListener listener : listeners) {
+                listener.accountAdded(this, account);
+            }
+        }
+    }
+
+    // Register a listener for accounts added from now on
+    public synchronized void addAccountListener(AccountListener listener) {
+        if (accountListeners == null) {
+            accountListeners = new CopyOnWriteArrayList<>();
+        }
+        accountListeners.add(listener);
+    }
+
+    // Stop notifying a listener
+    public synchronized void removeAccountListener(AccountListener listener) {
+        if (accountListeners != null) {
+            accountListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Set the tracker told when this customer first changes after it was saved (null
+     * for none). If the customer is already dirty, the tracker is told at once.
+     */
+    public void setDirtyTracker(DirtyTracker tracker) {
+        this.dirtyTracker = tracker;
+        if (tracker != null && dirty) {
+            tracker.customerChanged(this);
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    // Clear the dirty flag; persistence code calls this before it saves the customer
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            DirtyTracker tracker = dirtyTracker;
+            if (tracker != null) {
+                tracker.customerChanged(this);
+            }
+        }
     }
 }
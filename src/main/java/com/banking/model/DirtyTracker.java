@@ -0,0 +1,20 @@
+package com.banking.model;
+
+/**
+ * DirtyTracker is told when a user, customer or account first changes after it was
+ * last saved, so incremental snapshots can write only what changed.
+ *
+ * Each object reports itself once per save: the call is made when its dirty flag goes
+ * from clear to set, and again only after persistence code has cleared the flag.
+ * Objects are dirty when created, and setting a tracker on a dirty object reports it
+ * at once. Calls may come from any thread, and Account calls while holding its lock,
+ * so implementations should only queue the object.
+ */
+public interface DirtyTracker {
+
+    void userChanged(User user);
+
+    void customerChanged(Customer customer);
+
+    void accountChanged(Account account);
+}
@@ -0,0 +1,113 @@
+package com.banking.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money contains the fixed-point arithmetic used for balances and amounts.
+ * Every amount is a primitive long count of paise (1/100 of a rupee), so adding,
+ * subtracting and comparing amounts is exact and never allocates.
+ *
+ * BigDecimal is only used where a fractional rate has to be applied (interest)
+ * and at the JDBC edge, where the database expects DECIMAL(15,2) values.
+ */
+public final class Money {
+
+    // Number of decimal places stored for an amount
+    public static final int SCALE = 2;
+
+    // Number of paise in one rupee
+    public static final long PAISE_PER_RUPEE = 100L;
+
+    // Largest rupee value that still converts to paise without losing precision
+    private static final double MAX_RUPEES = (double) (1L << 53) / PAISE_PER_RUPEE;
+
+    private Money() {
+        // Utility class, no instances
+    }
+
+    /**
+     * Convert a rupee amount (as typed by a user) to paise, rounding to the nearest paisa.
+     *
+     * @param rupees Amount in rupees, e.g. 250.75
+     * @return The same amount in paise, e.g. 25075
+     * @throws IllegalArgumentException if the amount is NaN or infinite
+     * @throws ArithmeticException if the amount is too large to be represented exactly
+     */
+    public static long ofRupees(double rupees) {
+        if (!Double.isFinite(rupees)) {
+            throw new IllegalArgumentException("Amount is not finite: " + rupees);
+        }
+        if (Math.abs(rupees) > MAX_RUPEES) {
+            throw new ArithmeticException("Amount out of range: " + rupees);
+        }
+        return Math.round(rupees * PAISE_PER_RUPEE);
+    }
+
+    /**
+     * Convert paise back to rupees for display or legacy double-based callers.
+     *
+     * @param paise Amount in paise
+     * @return Amount in rupees
+     */
+    public static double toRupees(long paise) {
+        return paise / (double) PAISE_PER_RUPEE;
+    }
+
+    /**
+     * Exact addition of two amounts.
+     *
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long add(long paise, long otherPaise) {
+        return Math.addExact(paise, otherPaise);
+    }
+
+    /**
+     * Exact subtraction of two amounts.
+     *
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long subtract(long paise, long otherPaise) {
+        return Math.subtractExact(paise, otherPaise);
+    }
+
+    /**
+     * Compare two amounts.
+     *
+     * @return negative, zero or positive as the first amount is less than, equal to or greater than the second
+     */
+    public static int compare(long paise, long otherPaise) {
+        return Long.compare(paise, otherPaise);
+    }
+
+    /**
+     * Apply a fractional rate (e.g. 0.05 for 5%) to an amount and round the result to whole paise.
+     *
+     * @param paise The base amount in paise
+     * @param rate  The rate in decimal form
+     * @param mode  How to round fractions of a paisa
+     * @return The rounded result in paise
+     */
+    public static long applyRate(long paise, double rate, RoundingMode mode) {
+        return BigDecimal.valueOf(paise)
+                .multiply(BigDecimal.valueOf(rate))
+                .setScale(0, mode)
+                .longValueExact();
+    }
+
+    /**
+     * Convert paise to a BigDecimal with two decimal places (for JDBC).
+     */
+    public static BigDecimal toBigDecimal(long paise) {
+        return BigDecimal.valueOf(paise, SCALE);
+    }
+
+    /**
+     * Convert a BigDecimal rupee amount (from JDBC) to paise.
+     * Values with more than two decimal places are rounded half-even.
+     */
+    public static long fromBigDecimal(BigDecimal rupees) {
+        return rupees.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+}
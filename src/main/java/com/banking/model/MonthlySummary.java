@@ -0,0 +1,135 @@
+package com.banking.model;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.YearMonth;
+
+/**
+ * MonthlySummary holds the running totals of one account for one calendar month:
+ * how many deposits and withdrawals were made and their sums, the balance at the
+ * start and end of the month, and the lowest and highest balance reached.
+ *
+ * Account updates the summary of the current month on every deposit and withdrawal,
+ * so statements and dashboards can read these figures without going through the
+ * transaction history. All amounts are in paise.
+ */
+public class MonthlySummary implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final YearMonth month;
+    private int depositCount;
+    private long depositTotalPaise;
+    private int withdrawalCount;
+    private long withdrawalTotalPaise;
+    private final long openingBalancePaise;
+    private long closingBalancePaise;
+    private long minBalancePaise;
+    private long maxBalancePaise;
+
+    /**
+     * Start an empty summary for a month.
+     *
+     * @param month               The calendar month
+     * @param openingBalancePaise The balance before the first transaction of the month
+     */
+    public MonthlySummary(YearMonth month, long openingBalancePaise) {
+        this(month, 0, 0L, 0, 0L, openingBalancePaise, openingBalancePaise, openingBalancePaise, openingBalancePaise);
+    }
+
+    /**
+     * Rebuild a summary with every figure given (used when loading saved data).
+     */
+    public MonthlySummary(YearMonth month, int depositCount, long depositTotalPaise,
+                          int withdrawalCount, long withdrawalTotalPaise,
+                          long openingBalancePaise, long closingBalancePaise,
+                          long minBalancePaise, long maxBalancePaise) {
+        if (month == null) {
+            throw new IllegalArgumentException("month must not be null");
+        }
+        this.month = month;
+        this.depositCount = depositCount;
+        this.depositTotalPaise = depositTotalPaise;
+        this.withdrawalCount = withdrawalCount;
+        this.withdrawalTotalPaise = withdrawalTotalPaise;
+        this.openingBalancePaise = openingBalancePaise;
+        this.closingBalancePaise = closingBalancePaise;
+        this.minBalancePaise = minBalancePaise;
+        this.maxBalancePaise = maxBalancePaise;
+    }
+
+    /**
+     * Add one transaction to the totals.
+     *
+     * @param type         Deposit or withdrawal
+     * @param amountPaise  The amount of the transaction
+     * @param balancePaise The balance after the transaction
+     */
+    void record(TransactionType type, long amountPaise, long balancePaise) {
+        if (type == TransactionType.DEPOSIT) {
+            depositCount++;
+            depositTotalPaise = Money.add(depositTotalPaise, amountPaise);
+        } else {
+            withdrawalCount++;
+            withdrawalTotalPaise = Money.add(withdrawalTotalPaise, amountPaise);
+        }
+        closingBalancePaise = balancePaise;
+        if (balancePaise < minBalancePaise) {
+            minBalancePaise = balancePaise;
+        }
+        if (balancePaise > maxBalancePaise) {
+            maxBalancePaise = balancePaise;
+        }
+    }
+
+    /**
+     * Create an independent copy of this summary.
+     */
+    public MonthlySummary copy() {
+        return new MonthlySummary(month, depositCount, depositTotalPaise, withdrawalCount, withdrawalTotalPaise,
+                openingBalancePaise, closingBalancePaise, minBalancePaise, maxBalancePaise);
+    }
+
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public int getDepositCount() {
+        return depositCount;
+    }
+
+    public long getDepositTotalPaise() {
+        return depositTotalPaise;
+    }
+
+    public int getWithdrawalCount() {
+        return withdrawalCount;
+    }
+
+    public long getWithdrawalTotalPaise() {
+        return withdrawalTotalPaise;
+    }
+
+    public long getOpeningBalancePaise() {
+        return openingBalancePaise;
+    }
+
+    public long getClosingBalancePaise() {
+        return closingBalancePaise;
+    }
+
+    public long getMinBalancePaise() {
+        return minBalancePaise;
+    }
+
+    public long getMaxBalancePaise() {
+        return maxBalancePaise;
+    }
+
+    /**
+     * Get the total number of transactions in the month.
+     */
+    public int getTransactionCount() {
+        return depositCount + withdrawalCount;
+    }
+}
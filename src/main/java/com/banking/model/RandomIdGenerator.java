@@ -0,0 +1,18 @@
+package com.banking.model;
+
+import java.util.UUID;
+
+/**
+ * RandomIdGenerator produces random (version 4) UUIDs, like the original
+ * UUID.randomUUID() ids. Every call goes through the shared SecureRandom,
+ * so it is slower under contention than TimeOrderedIdGenerator.
+ */
+public class RandomIdGenerator implements TransactionIdGenerator {
+
+    @Override
+    public void nextInto(long[] high, long[] low, int index) {
+        UUID uuid = UUID.randomUUID();
+        high[index] = uuid.getMostSignificantBits();
+        low[index] = uuid.getLeastSignificantBits();
+    }
+}
@@ -1,6 +1,7 @@
 package com.banking.model;
 
 import java.io.Serial;
+import java.math.RoundingMode;
 
 /**
  * SavingsAccount class represents a savings bank account.
@@ -11,7 +12,7 @@ public class SavingsAccount extends Account {
     private static final long serialVersionUID = 1L;
 
     // Interest rate for this savings account, e.g., 0.05 for 5%
-    private double interestRate;
+    private volatile double interestRate;
 
     /**
      * Constructor to create a SavingsAccount with an account number and interest rate.
@@ -30,7 +31,7 @@ public class SavingsAccount extends Account {
      * @return Interest rate as a decimal (e.g., 0.05 for 5%)
      */
     public double getInterestRate() {
-        return interestRate;
+        return Double.longBitsToDouble(parameter(Double.doubleToRawLongBits(interestRate)));
     }
 
     /**
@@ -38,16 +39,42 @@ public class SavingsAccount extends Account {
      *
      * @param interestRate New interest rate (decimal form)
      */
-    public void setInterestRate(double interestRate) {
-        this.interestRate = interestRate;
+    public synchronized void setInterestRate(double interestRate) {
+        if (!storeParameter(Double.doubleToRawLongBits(interestRate))) {
+            this.interestRate = interestRate;
+        }
+        markDirty();
     }
 
     /**
      * Apply interest to the current balance based on the interest rate.
      * This method increases the balance and records a deposit transaction for the earned interest.
+     * Fractions of a paisa are rounded half-even (banker's rounding).
      */
     public void applyInterest() {
-        double interest = balance * interestRate;  // Calculate interest amount
-        deposit(interest);  // Use deposit method to add interest and record transaction
+        applyInterest(RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Apply interest to the current balance, rounding fractions of a paisa with the given mode.
+     *
+     * The interest is computed and credited under the account lock, so a concurrent
+     * deposit or withdrawal cannot change the balance in between.
+     *
+     * @param roundingMode How to round the interest to whole paise (e.g. HALF_EVEN, DOWN)
+     */
+    public synchronized void applyInterest(RoundingMode roundingMode) {
+        long interestPaise = Money.applyRate(balance(), getInterestRate(), roundingMode);  // Calculate interest amount
+        depositPaise(interestPaise);  // Use deposit method to add interest and record transaction
+    }
+
+    @Override
+    long parameterBits() {
+        return Double.doubleToRawLongBits(interestRate);
+    }
+
+    @Override
+    void restoreParameterBits(long bits) {
+        interestRate = Double.longBitsToDouble(bits);
     }
 }
@@ -1,10 +1,11 @@
 package com.banking.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.text.NumberFormat;
 import java.time.LocalDateTime;
-import java.util.UUID;
 import java.util.Locale;
 
 /**
@@ -13,6 +14,7 @@ import java.util.Locale;
  * including the type, amount, timestamp, and resulting balance.
  */
 public class Transaction implements Serializable {
+    // Unchanged since the first release: readObject converts the older field layout
     @Serial
     private static final long serialVersionUID = 1L;
 
@@ -25,11 +27,14 @@ public class Transaction implements Serializable {
     // Type of transaction - either "deposit" or "withdrawal"
     private String type;
 
-    // Amount of money involved in the transaction
-    private double amount;
+    // Amount of money involved in the transaction, in paise
+    private long amountPaise;
 
-    // Account balance immediately after this transaction
-    private double resultingBalance;
+    // Account balance immediately after this transaction, in paise
+    private long resultingBalancePaise;
+
+    // Id shared by both legs of a transfer, or null if this is not part of a transfer
+    private String transferId;
 
     // Currency formatter for Indian Rupees
     private static final NumberFormat INR = NumberFormat.getCurrencyInstance(Locale.forLanguageTag("en-IN"));
@@ -43,15 +48,38 @@ public class Transaction implements Serializable {
      * @param resultingBalance The account balance after the transaction
      */
     public Transaction(String type, double amount, double resultingBalance) {
-        // Generate a unique transaction ID using UUID
-        this.transactionId = UUID.randomUUID().toString();
+        this(type, Money.ofRupees(amount), Money.ofRupees(resultingBalance));
+    }
+
+    private Transaction(String type, long amountPaise, long resultingBalancePaise) {
+        // Generate a unique transaction ID with the configured generator
+        this.transactionId = TransactionIds.generator().next().toString();
 
         // Capture the exact time when the transaction is created
         this.date = LocalDateTime.now();
 
         this.type = type;
-        this.amount = amount;
-        this.resultingBalance = resultingBalance;
+        this.amountPaise = amountPaise;
+        this.resultingBalancePaise = resultingBalancePaise;
+    }
+
+    /**
+     * Create a transaction with every field given (used to detach ledger rows).
+     */
+    Transaction(String transactionId, LocalDateTime date, String type, long amountPaise, long resultingBalancePaise,
+                String transferId) {
+        this.transactionId = transactionId;
+        this.date = date;
+        this.type = type;
+        this.amountPaise = amountPaise;
+        this.resultingBalancePaise = resultingBalancePaise;
+        this.transferId = transferId;
+    }
+
+    /**
+     * Constructor for read-only views that override every getter (see TransactionLedger).
+     */
+    Transaction() {
     }
 
     // Getter methods to access transaction details
@@ -69,11 +97,28 @@ public class Transaction implements Serializable {
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toRupees(getAmountPaise());
     }
 
     public double getResultingBalance() {
-        return resultingBalance;
+        return Money.toRupees(getResultingBalancePaise());
+    }
+
+    public long getAmountPaise() {
+        return amountPaise;
+    }
+
+    public long getResultingBalancePaise() {
+        return resultingBalancePaise;
+    }
+
+    /**
+     * Get the id linking this transaction to the other leg of its transfer.
+     *
+     * @return The transfer id, or null if this is a plain deposit or withdrawal
+     */
+    public String getTransferId() {
+        return transferId;
     }
 
     /**
@@ -83,6 +128,24 @@ public class Transaction implements Serializable {
      * @return A descriptive string of the transaction details
      */
     public String getDescription() {
-        return date.toString() + " - " + type.toUpperCase() + ": " + INR.format(amount) + ", Balance: " + INR.format(resultingBalance);
+        return getDate().toString() + " - " + getType().toUpperCase() + ": " + INR.format(getAmount()) + ", Balance: " + INR.format(getResultingBalance());
+    }
+
+    // Streams from before amounts were kept in paise hold them in rupees as 'amount'
+    // and 'resultingBalance', and have no transfer id
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        transactionId = (String) fields.get("transactionId", null);
+        date = (LocalDateTime) fields.get("date", null);
+        type = (String) fields.get("type", null);
+        if (Account.hasField(fields, "amount")) {
+            amountPaise = Money.ofRupees(fields.get("amount", 0.0));
+            resultingBalancePaise = Money.ofRupees(fields.get("resultingBalance", 0.0));
+        } else {
+            amountPaise = fields.get("amountPaise", 0L);
+            resultingBalancePaise = fields.get("resultingBalancePaise", 0L);
+            transferId = (String) fields.get("transferId", null);
+        }
     }
 }
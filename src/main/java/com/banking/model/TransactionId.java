@@ -0,0 +1,166 @@
+package com.banking.model;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * TransactionId is a 128-bit transaction identifier.
+ *
+ * The binary form is two longs (or 16 big-endian bytes), which is what the ledger
+ * stores. The familiar 36-character UUID string (8-4-4-4-12 lower-case hex) is only
+ * built when toString() is called, so it stays compatible with the VARCHAR(36)
+ * transaction_id column.
+ */
+public final class TransactionId implements Comparable<TransactionId>, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Number of bytes in the binary form
+    public static final int BYTES = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long high;
+    private final long low;
+
+    public TransactionId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Get the UUID version nibble (7 for time-ordered ids, 4 for random ones).
+     */
+    public int version() {
+        return (int) ((high >>> 12) & 0xF);
+    }
+
+    /**
+     * Get the creation time in epoch milliseconds for a time-ordered (version 7) id.
+     *
+     * @return The embedded timestamp, or -1 if this is not a time-ordered id
+     */
+    public long timestampMillis() {
+        return version() == 7 ? high >>> 16 : -1L;
+    }
+
+    /**
+     * Get the 16-byte big-endian binary form.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Rebuild an id from its 16-byte binary form.
+     */
+    public static TransactionId fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != BYTES) {
+            throw new IllegalArgumentException("A transaction id has exactly " + BYTES + " bytes");
+        }
+        long high = 0L;
+        long low = 0L;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new TransactionId(high, low);
+    }
+
+    /**
+     * Parse the 36-character string form.
+     *
+     * @throws IllegalArgumentException if the text is not a valid id
+     */
+    public static TransactionId fromString(String text) {
+        if (text == null || text.length() != 36
+                || text.charAt(8) != '-' || text.charAt(13) != '-'
+                || text.charAt(18) != '-' || text.charAt(23) != '-') {
+            throw new IllegalArgumentException("Invalid transaction id: " + text);
+        }
+        long high = 0L;
+        long low = 0L;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = text.charAt(i);
+            if (c == '-') {
+                continue;
+            }
+            int value = Character.digit(c, 16);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid transaction id: " + text);
+            }
+            if (digits < 16) {
+                high = (high << 4) | value;
+            } else {
+                low = (low << 4) | value;
+            }
+            digits++;
+        }
+        return new TransactionId(high, low);
+    }
+
+    /**
+     * Format two id halves as the 36-character string without creating an id object.
+     */
+    public static String format(long high, long low) {
+        char[] chars = new char[36];
+        writeHex(chars, 0, high >>> 32, 8);
+        chars[8] = '-';
+        writeHex(chars, 9, high >>> 16, 4);
+        chars[13] = '-';
+        writeHex(chars, 14, high, 4);
+        chars[18] = '-';
+        writeHex(chars, 19, low >>> 48, 4);
+        chars[23] = '-';
+        writeHex(chars, 24, low, 12);
+        return new String(chars);
+    }
+
+    private static void writeHex(char[] chars, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Ids compare as unsigned 128-bit numbers, which for time-ordered ids is creation order.
+     */
+    @Override
+    public int compareTo(TransactionId other) {
+        int cmp = Long.compareUnsigned(high, other.high);
+        return cmp != 0 ? cmp : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TransactionId)) return false;
+        TransactionId other = (TransactionId) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
+    }
+
+    @Override
+    public String toString() {
+        return format(high, low);
+    }
+}
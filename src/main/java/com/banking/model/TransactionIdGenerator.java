@@ -0,0 +1,32 @@
+package com.banking.model;
+
+/**
+ * TransactionIdGenerator creates 128-bit ids for new transactions.
+ *
+ * Implementations write the two halves of the id straight into caller-supplied
+ * arrays, so the ledger can fill its id columns without creating any objects.
+ * The generator used for new transactions is chosen with TransactionIds.use().
+ */
+public interface TransactionIdGenerator {
+
+    /**
+     * Generate the next id and store it at the given index.
+     *
+     * @param high  Receives the most significant 64 bits
+     * @param low   Receives the least significant 64 bits
+     * @param index Position to write in both arrays
+     */
+    void nextInto(long[] high, long[] low, int index);
+
+    /**
+     * Generate the next id as an object.
+     *
+     * @return A new transaction id
+     */
+    default TransactionId next() {
+        long[] high = new long[1];
+        long[] low = new long[1];
+        nextInto(high, low, 0);
+        return new TransactionId(high[0], low[0]);
+    }
+}
@@ -0,0 +1,33 @@
+package com.banking.model;
+
+/**
+ * TransactionIds holds the id generator used for every new transaction.
+ * Time-ordered ids are the default; RandomIdGenerator restores the old random UUIDs.
+ */
+public final class TransactionIds {
+
+    private static volatile TransactionIdGenerator generator = new TimeOrderedIdGenerator();
+
+    private TransactionIds() {
+        // Utility class, no instances
+    }
+
+    /**
+     * Get the generator currently in use.
+     */
+    public static TransactionIdGenerator generator() {
+        return generator;
+    }
+
+    /**
+     * Replace the generator used for new transactions.
+     *
+     * @param newGenerator The generator to use from now on
+     */
+    public static void use(TransactionIdGenerator newGenerator) {
+        if (newGenerator == null) {
+            throw new IllegalArgumentException("generator must not be null");
+        }
+        generator = newGenerator;
+    }
+}
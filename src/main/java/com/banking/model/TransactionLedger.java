@@ -0,0 +1,618 @@
+package com.banking.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * TransactionLedger stores the transaction history of one account in columns.
+ *
+ * Instead of one Transaction object per row (an id String, a LocalDateTime, a type
+ * String and two amounts), every field lives in its own growable primitive array:
+ * timestamps, amounts and resulting balances as longs, the type as a one-byte code,
+ * and the 128-bit id as two longs. That is 41 bytes per transaction (57 once the
+ * ledger holds a transfer).
+ *
+ * Callers that want Transaction objects use asList(), which returns a read-only view
+ * whose elements are small flyweights reading straight from the columns.
+ *
+ * Rows are appended in time order and the timestamp column never decreases, so a
+ * time range (for example one calendar month) is found with two binary searches
+ * and read in O(log n + k) through rangeBetween() or a Cursor.
+ *
+ * The two legs of a transfer (a withdrawal from one account and a deposit into
+ * another) carry the same transfer id. The transfer id columns are only allocated
+ * once the first transfer is recorded, so ledgers without transfers pay nothing.
+ *
+ * A ledger has a single writer at a time (its account appends while holding the
+ * account lock) but can be read from any thread. Rows are written before the volatile
+ * size is published, and grown columns are published through volatile references,
+ * so a reader that sees size n also sees the complete contents of rows 0..n-1.
+ */
+public final class TransactionLedger implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long[] NO_LONGS = new long[0];
+    private static final byte[] NO_BYTES = new byte[0];
+
+    // Number of transactions recorded
+    private volatile int size;
+
+    // Columns; only the first 'size' entries are in use
+    private transient volatile long[] timestamps;   // UTC epoch microseconds
+    private transient volatile long[] amounts;      // paise
+    private transient volatile long[] balances;     // paise, after the transaction
+    private transient volatile byte[] types;        // TransactionType codes
+    private transient volatile long[] idHigh;       // most significant 64 bits of the id
+    private transient volatile long[] idLow;        // least significant 64 bits of the id
+    // Transfer id columns, null until the first transfer. transferLow is always published
+    // before transferHigh, so a reader that sees transferHigh also sees transferLow.
+    private transient volatile long[] transferHigh; // transfer id, high bits
+    private transient volatile long[] transferLow;  // transfer id, low bits; 0/0 means not a transfer
+
+    // Whether the transfer id columns are in use (and therefore serialized)
+    private boolean hasTransfers;
+
+    // Cached read-only view handed out by asList()
+    private transient List<Transaction> view;
+
+    public TransactionLedger() {
+        allocate(0);
+    }
+
+    /**
+     * Record a new transaction stamped with the current time and a fresh id.
+     *
+     * @param type         The kind of transaction
+     * @param amountPaise  The amount involved, in paise
+     * @param balancePaise The account balance after the transaction, in paise
+     * @return The index of the new row
+     */
+    public int append(TransactionType type, long amountPaise, long balancePaise) {
+        return append(type, amountPaise, balancePaise, 0L, 0L);
+    }
+
+    /**
+     * Record one leg of a transfer, stamped with the current time and a fresh id.
+     * Both legs of a transfer are recorded with the same transfer id.
+     *
+     * @param type         WITHDRAWAL for the debit leg, DEPOSIT for the credit leg
+     * @param amountPaise  The amount involved, in paise
+     * @param balancePaise The account balance after the transaction, in paise
+     * @param transferHigh Most significant 64 bits of the transfer id (0 with transferLow 0 for none)
+     * @param transferLow  Least significant 64 bits of the transfer id
+     * @return The index of the new row
+     */
+    public int append(TransactionType type, long amountPaise, long balancePaise, long transferHigh, long transferLow) {
+        ensureCapacity(size + 1);
+        int row = size;
+        long now = System.currentTimeMillis() * 1000L;
+        // Keep the column sorted even if the wall clock steps backwards
+        timestamps[row] = (row > 0 && timestamps[row - 1] > now) ? timestamps[row - 1] : now;
+        amounts[row] = amountPaise;
+        balances[row] = balancePaise;
+        types[row] = type.getCode();
+        TransactionIds.generator().nextInto(idHigh, idLow, row);
+        setTransfer(row, transferHigh, transferLow);
+        size = row + 1;
+        return row;
+    }
+
+    /**
+     * Append a transaction that already exists elsewhere (a snapshot, the database
+     * or a journal), keeping its original timestamp and id.
+     *
+     * @param timestampMicros UTC epoch microseconds of the transaction
+     * @param type            The kind of transaction
+     * @param amountPaise     The amount involved, in paise
+     * @param balancePaise    The account balance after the transaction, in paise
+     * @param high            Most significant 64 bits of the id
+     * @param low             Least significant 64 bits of the id
+     * @return The index of the new row
+     * @throws IllegalArgumentException if the timestamp is earlier than the last row
+     */
+    public int appendExisting(long timestampMicros, TransactionType type, long amountPaise, long balancePaise,
+                              long high, long low) {
+        return appendExisting(timestampMicros, type, amountPaise, balancePaise, high, low, 0L, 0L);
+    }
+
+    /**
+     * Append an existing transaction that may be one leg of a transfer.
+     *
+     * @param transferHigh Most significant 64 bits of the transfer id (0 with transferLow 0 for none)
+     * @param transferLow  Least significant 64 bits of the transfer id
+     * @see #appendExisting(long, TransactionType, long, long, long, long)
+     */
+    public int appendExisting(long timestampMicros, TransactionType type, long amountPaise, long balancePaise,
+                              long high, long low, long transferHigh, long transferLow) {
+        if (size > 0 && timestamps[size - 1] > timestampMicros) {
+            throw new IllegalArgumentException("Transactions must be added in time order");
+        }
+        ensureCapacity(size + 1);
+        int row = size;
+        timestamps[row] = timestampMicros;
+        amounts[row] = amountPaise;
+        balances[row] = balancePaise;
+        types[row] = type.getCode();
+        idHigh[row] = high;
+        idLow[row] = low;
+        setTransfer(row, transferHigh, transferLow);
+        size = row + 1;
+        return row;
+    }
+
+    /**
+     * Drop the newest row again, for a transaction whose recording failed after the row
+     * was appended. Only the writer that appended the row may call this.
+     */
+    void removeLast() {
+        int row = size - 1;
+        if (row < 0) {
+            throw new IllegalStateException("Ledger is empty");
+        }
+        size = row;
+        if (transferHigh != null) {
+            transferHigh[row] = 0L;
+            transferLow[row] = 0L;
+        }
+    }
+
+    /**
+     * Make room for at least the given number of rows, e.g. before appending a known
+     * number of existing transactions.
+     *
+     * @param rows The total number of rows the ledger should hold without growing
+     */
+    public void reserve(int rows) {
+        ensureCapacity(rows);
+    }
+
+    /**
+     * Get the number of recorded transactions.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Column accessors, one row at a time
+
+    public long getTimestampMicros(int row) {
+        return timestamps[checkRow(row)];
+    }
+
+    public LocalDateTime getDate(int row) {
+        return toLocalDateTime(getTimestampMicros(row));
+    }
+
+    public long getAmountPaise(int row) {
+        return amounts[checkRow(row)];
+    }
+
+    public long getResultingBalancePaise(int row) {
+        return balances[checkRow(row)];
+    }
+
+    public TransactionType getType(int row) {
+        return TransactionType.fromCode(types[checkRow(row)]);
+    }
+
+    public long getIdHigh(int row) {
+        return idHigh[checkRow(row)];
+    }
+
+    public long getIdLow(int row) {
+        return idLow[checkRow(row)];
+    }
+
+    public TransactionId getId(int row) {
+        checkRow(row);
+        return new TransactionId(idHigh[row], idLow[row]);
+    }
+
+    /**
+     * Check whether a row is one leg of a transfer.
+     */
+    public boolean isTransfer(int row) {
+        checkRow(row);
+        return isTransferRow(row);
+    }
+
+    public long getTransferIdHigh(int row) {
+        checkRow(row);
+        long[] high = transferHigh;
+        return high == null ? 0L : high[row];
+    }
+
+    public long getTransferIdLow(int row) {
+        checkRow(row);
+        long[] low = transferLow;
+        return low == null ? 0L : low[row];
+    }
+
+    /**
+     * Get the id shared by both legs of a transfer.
+     *
+     * @return The transfer id, or null if the row is not part of a transfer
+     */
+    public TransactionId getTransferId(int row) {
+        checkRow(row);
+        long[] high = transferHigh;
+        if (high == null) {
+            return null;
+        }
+        long[] low = transferLow;
+        return (high[row] | low[row]) != 0L ? new TransactionId(high[row], low[row]) : null;
+    }
+
+    /**
+     * Build the textual id of a row. The string is created on demand and not kept.
+     */
+    public String getTransactionId(int row) {
+        checkRow(row);
+        return TransactionId.format(idHigh[row], idLow[row]);
+    }
+
+    /**
+     * Get a read-only List view of the ledger. Elements are flyweights that read
+     * from the columns, so creating the view or iterating it copies nothing.
+     *
+     * @return An unmodifiable, random-access list of transactions
+     */
+    public List<Transaction> asList() {
+        if (view == null) {
+            view = new View(0, -1);
+        }
+        return view;
+    }
+
+    /**
+     * Find the first row whose timestamp is at or after the given time.
+     *
+     * @param epochMicros UTC epoch microseconds
+     * @return A row index between 0 and size() inclusive
+     */
+    public int firstRowAtOrAfter(long epochMicros) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] < epochMicros) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get the transactions with from <= date < to as a read-only view.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
+     * @return The matching transactions, oldest first
+     */
+    public List<Transaction> rangeBetween(LocalDateTime from, LocalDateTime to) {
+        int start = firstRowAtOrAfter(toEpochMicros(from));
+        int end = Math.max(start, firstRowAtOrAfter(toEpochMicros(to)));
+        return new View(start, end);
+    }
+
+    /**
+     * Get the transactions of one calendar month as a read-only view.
+     */
+    public List<Transaction> rangeInMonth(YearMonth month) {
+        return rangeBetween(month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+    }
+
+    /**
+     * Open a cursor over the transactions with from <= date < to.
+     */
+    public Cursor cursor(LocalDateTime from, LocalDateTime to) {
+        int start = firstRowAtOrAfter(toEpochMicros(from));
+        int end = Math.max(start, firstRowAtOrAfter(toEpochMicros(to)));
+        return new Cursor(start, end);
+    }
+
+    /**
+     * Open a cursor over the transactions of one calendar month.
+     */
+    public Cursor monthCursor(YearMonth month) {
+        return cursor(month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+    }
+
+    /**
+     * Convert a stored timestamp to the local date-time shown to users.
+     */
+    public static LocalDateTime toLocalDateTime(long epochMicros) {
+        long seconds = Math.floorDiv(epochMicros, 1_000_000L);
+        long nanos = Math.floorMod(epochMicros, 1_000_000L) * 1000L;
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(seconds, nanos), ZoneId.systemDefault());
+    }
+
+    /**
+     * Convert a local date-time to the stored timestamp form (UTC epoch microseconds).
+     */
+    public static long toEpochMicros(LocalDateTime dateTime) {
+        Instant instant = dateTime.atZone(ZoneId.systemDefault()).toInstant();
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1000L);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for ledger of size " + size);
+        }
+        return row;
+    }
+
+    // Write a row's transfer id, allocating the transfer columns on first use
+    private void setTransfer(int row, long high, long low) {
+        if ((high | low) == 0L) {
+            return;
+        }
+        if (transferHigh == null) {
+            // Fill the new columns before publishing them, low before high
+            long[] newLow = new long[types.length];
+            long[] newHigh = new long[types.length];
+            newLow[row] = low;
+            newHigh[row] = high;
+            hasTransfers = true;
+            transferLow = newLow;
+            transferHigh = newHigh;
+            return;
+        }
+        transferLow[row] = low;
+        transferHigh[row] = high;
+    }
+
+    // Read whichever transfer columns are published; transferHigh is read first, so a
+    // non-null transferHigh guarantees a non-null transferLow
+    private boolean isTransferRow(int row) {
+        long[] high = transferHigh;
+        return high != null && (high[row] | transferLow[row]) != 0L;
+    }
+
+    private void allocate(int capacity) {
+        if (capacity == 0) {
+            timestamps = amounts = balances = idHigh = idLow = NO_LONGS;
+            types = NO_BYTES;
+        } else {
+            timestamps = new long[capacity];
+            amounts = new long[capacity];
+            balances = new long[capacity];
+            types = new byte[capacity];
+            idHigh = new long[capacity];
+            idLow = new long[capacity];
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        int capacity = types.length;
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+        if (newCapacity < required) {
+            newCapacity = required;
+        }
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        balances = Arrays.copyOf(balances, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        idHigh = Arrays.copyOf(idHigh, newCapacity);
+        idLow = Arrays.copyOf(idLow, newCapacity);
+        if (transferHigh != null) {
+            transferLow = Arrays.copyOf(transferLow, newCapacity);
+            transferHigh = Arrays.copyOf(transferHigh, newCapacity);
+        }
+    }
+
+    // Only the used part of each column is written
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i = 0; i < size; i++) {
+            out.writeLong(timestamps[i]);
+            out.writeLong(amounts[i]);
+            out.writeLong(balances[i]);
+            out.writeByte(types[i]);
+            out.writeLong(idHigh[i]);
+            out.writeLong(idLow[i]);
+        }
+        if (hasTransfers) {
+            for (int i = 0; i < size; i++) {
+                out.writeLong(transferHigh[i]);
+                out.writeLong(transferLow[i]);
+            }
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (size < 0) {
+            throw new java.io.InvalidObjectException("Negative ledger size: " + size);
+        }
+        allocate(size);
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = in.readLong();
+            amounts[i] = in.readLong();
+            balances[i] = in.readLong();
+            types[i] = in.readByte();
+            idHigh[i] = in.readLong();
+            idLow[i] = in.readLong();
+        }
+        if (hasTransfers) {
+            transferHigh = new long[size];
+            transferLow = new long[size];
+            for (int i = 0; i < size; i++) {
+                transferHigh[i] = in.readLong();
+                transferLow[i] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Read-only list over a range of ledger rows.
+     * An end of -1 means the view follows the ledger as it grows.
+     */
+    private final class View extends AbstractList<Transaction> implements RandomAccess {
+        private final int start;
+        private final int end;
+
+        View(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Transaction get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+            }
+            return new Row(TransactionLedger.this, start + index);
+        }
+
+        @Override
+        public int size() {
+            return (end < 0 ? size : end) - start;
+        }
+    }
+
+    /**
+     * Cursor walks a range of rows without creating an object per row.
+     * Call next() to move to the following row, then read it with the getters.
+     */
+    public final class Cursor {
+        private final int end;
+        private int row;
+
+        Cursor(int start, int end) {
+            this.row = start - 1;
+            this.end = end;
+        }
+
+        /**
+         * Move to the next row.
+         *
+         * @return false when the range is exhausted
+         */
+        public boolean next() {
+            if (row + 1 >= end) {
+                return false;
+            }
+            row++;
+            return true;
+        }
+
+        /**
+         * Get the number of rows in the cursor's range that have not been visited yet.
+         */
+        public int remaining() {
+            return end - row - 1;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public long timestampMicros() {
+            return timestamps[row];
+        }
+
+        public LocalDateTime date() {
+            return toLocalDateTime(timestamps[row]);
+        }
+
+        public TransactionType type() {
+            return TransactionType.fromCode(types[row]);
+        }
+
+        public long amountPaise() {
+            return amounts[row];
+        }
+
+        public long resultingBalancePaise() {
+            return balances[row];
+        }
+
+        public boolean isTransfer() {
+            return isTransferRow(row);
+        }
+
+        public Transaction transaction() {
+            return new Row(TransactionLedger.this, row);
+        }
+    }
+
+    /**
+     * A Transaction that reads its fields from one ledger row.
+     * It only holds a reference to the ledger and the row number.
+     */
+    private static final class Row extends Transaction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient TransactionLedger ledger;
+        private final transient int row;
+
+        Row(TransactionLedger ledger, int row) {
+            this.ledger = ledger;
+            this.row = row;
+        }
+
+        @Override
+        public String getTransactionId() {
+            return ledger.getTransactionId(row);
+        }
+
+        @Override
+        public LocalDateTime getDate() {
+            return ledger.getDate(row);
+        }
+
+        @Override
+        public String getType() {
+            return ledger.getType(row).getLabel();
+        }
+
+        @Override
+        public long getAmountPaise() {
+            return ledger.getAmountPaise(row);
+        }
+
+        @Override
+        public long getResultingBalancePaise() {
+            return ledger.getResultingBalancePaise(row);
+        }
+
+        @Override
+        public String getTransferId() {
+            TransactionId transferId = ledger.getTransferId(row);
+            return transferId == null ? null : transferId.toString();
+        }
+
+        // Serialize a detached copy rather than the whole ledger
+        @Serial
+        private Object writeReplace() {
+            return new Transaction(getTransactionId(), getDate(), getType(), getAmountPaise(), getResultingBalancePaise(),
+                    getTransferId());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.banking.model;
+
+/**
+ * TransactionType lists the kinds of transactions an account can record.
+ * Each type has a one-byte code, which is what the transaction ledger stores,
+ * and the lower-case label that Transaction.getType() has always returned.
+ */
+public enum TransactionType {
+    DEPOSIT((byte) 0, "deposit"),
+    WITHDRAWAL((byte) 1, "withdrawal");
+
+    // Lookup table from code to type; codes are dense and start at zero
+    private static final TransactionType[] BY_CODE = values();
+
+    private final byte code;
+    private final String label;
+
+    TransactionType(byte code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    /**
+     * Get the compact code stored in the ledger.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Get the label shown to users, e.g. "deposit".
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Find the type for a ledger code.
+     *
+     * @param code The stored code
+     * @return The matching type
+     * @throws IllegalArgumentException if the code is unknown
+     */
+    public static TransactionType fromCode(byte code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("Unknown transaction type code: " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Find the type for a label such as "deposit" (case-insensitive).
+     *
+     * @param label The label to look up
+     * @return The matching type, or null if there is none
+     */
+    public static TransactionType fromLabel(String label) {
+        for (TransactionType type : BY_CODE) {
+            if (type.label.equalsIgnoreCase(label)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
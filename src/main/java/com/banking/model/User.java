@@ -5,6 +5,7 @@ import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 
@@ -21,9 +22,19 @@ public class User implements Serializable {
     private static final int PBKDF2_ITERATIONS = 100_000;
     private static final String PBKDF2_ALG = "PBKDF2WithHmacSHA256";
 
+    // Separates the parts of stored credentials (see toStoredCredentials)
+    private static final char STORED_SEPARATOR = '$';
+
     private String username;
     private byte[] passwordSalt;
     private byte[] passwordHash;
+    // How the hash was made; null and 0 in users serialized before these were kept, meaning the defaults
+    private String passwordAlgorithm;
+    private int passwordIterations;
+
+    // Whether the user has not been saved yet (see DirtyTracker); users do not change afterwards
+    private transient volatile boolean dirty = true;
+    private transient volatile DirtyTracker dirtyTracker;
 
     public User(String username, String plainPassword) {
         if (username == null || username.isBlank()) {
@@ -34,13 +45,153 @@ public class User implements Serializable {
         }
         this.username = username;
         this.passwordSalt = generateSalt();
-        this.passwordHash = hashPassword(plainPassword.toCharArray(), passwordSalt);
+        this.passwordAlgorithm = PBKDF2_ALG;
+        this.passwordIterations = PBKDF2_ITERATIONS;
+        this.passwordHash = hashPassword(plainPassword.toCharArray(), passwordSalt, PBKDF2_ALG, PBKDF2_ITERATIONS,
+                HASH_BYTES);
+    }
+
+    // Rebuild a user from stored credentials, without hashing again
+    private User(String username, String passwordAlgorithm, int passwordIterations,
+                 byte[] passwordSalt, byte[] passwordHash) {
+        if (username == null || username.isBlank()) {
+            throw new IllegalArgumentException("username must not be blank");
+        }
+        if (passwordSalt == null || passwordHash == null) {
+            throw new IllegalArgumentException("stored credentials must not be null");
+        }
+        if (passwordAlgorithm == null || passwordAlgorithm.isBlank() || passwordIterations <= 0
+                || passwordHash.length == 0) {
+            throw new IllegalArgumentException("stored credentials are incomplete");
+        }
+        this.username = username;
+        this.passwordAlgorithm = passwordAlgorithm;
+        this.passwordIterations = passwordIterations;
+        this.passwordSalt = passwordSalt.clone();
+        this.passwordHash = passwordHash.clone();
+    }
+
+    /**
+     * Rebuild a user from the salt and hash saved by persistence code.
+     *
+     * @param username     The username
+     * @param passwordSalt The salt returned by getPasswordSalt()
+     * @param passwordHash The hash returned by getPasswordHash()
+     */
+    public static User fromStored(String username, byte[] passwordSalt, byte[] passwordHash) {
+        return new User(username, PBKDF2_ALG, PBKDF2_ITERATIONS, passwordSalt, passwordHash);
+    }
+
+    /**
+     * Rebuild a user from credentials saved with their hashing parameters, so a hash
+     * made with another algorithm or iteration count still authenticates.
+     *
+     * @param passwordAlgorithm  The SecretKeyFactory algorithm, from getPasswordAlgorithm()
+     * @param passwordIterations The iteration count, from getPasswordIterations()
+     */
+    public static User fromStored(String username, String passwordAlgorithm, int passwordIterations,
+                                  byte[] passwordSalt, byte[] passwordHash) {
+        return new User(username, passwordAlgorithm, passwordIterations, passwordSalt, passwordHash);
+    }
+
+    /**
+     * Rebuild a user from the text made by toStoredCredentials().
+     *
+     * @throws IllegalArgumentException if the text is not stored credentials
+     */
+    public static User fromStoredCredentials(String username, String credentials) {
+        String[] parts = credentials == null ? new String[0] : credentials.split("\\" + STORED_SEPARATOR, -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Not stored credentials");
+        }
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            return new User(username, parts[0], Integer.parseInt(parts[1]),
+                    base64.decode(parts[2]), base64.decode(parts[3]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not stored credentials: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Check whether text is in the form made by toStoredCredentials(), e.g. to tell it
+     * from a value saved by something else.
+     */
+    public static boolean isStoredCredentials(String credentials) {
+        if (credentials == null) {
+            return false;
+        }
+        try {
+            fromStoredCredentials("check", credentials);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
     public String getUsername() {
         return username;
     }
 
+    /**
+     * Get a copy of the password salt (for persistence code).
+     */
+    public byte[] getPasswordSalt() {
+        return passwordSalt.clone();
+    }
+
+    /**
+     * Get a copy of the PBKDF2 password hash (for persistence code).
+     */
+    public byte[] getPasswordHash() {
+        return passwordHash.clone();
+    }
+
+    /**
+     * Get the SecretKeyFactory algorithm the password hash was made with.
+     */
+    public String getPasswordAlgorithm() {
+        return passwordAlgorithm != null ? passwordAlgorithm : PBKDF2_ALG;
+    }
+
+    /**
+     * Get the iteration count the password hash was made with.
+     */
+    public int getPasswordIterations() {
+        return passwordIterations > 0 ? passwordIterations : PBKDF2_ITERATIONS;
+    }
+
+    /**
+     * Encode the algorithm, iteration count, salt and hash as one line of text for
+     * persistence code, as algorithm$iterations$salt$hash with the salt and hash in
+     * Base64. fromStoredCredentials() reads it back without hashing.
+     */
+    public String toStoredCredentials() {
+        Base64.Encoder base64 = Base64.getEncoder();
+        return getPasswordAlgorithm() + STORED_SEPARATOR + getPasswordIterations() + STORED_SEPARATOR
+                + base64.encodeToString(passwordSalt) + STORED_SEPARATOR + base64.encodeToString(passwordHash);
+    }
+
+    /**
+     * Set the tracker told when this user needs saving (null for none). A new user is
+     * dirty, so the tracker is told at once until the user has been saved.
+     */
+    public void setDirtyTracker(DirtyTracker tracker) {
+        this.dirtyTracker = tracker;
+        if (tracker != null && dirty) {
+            tracker.userChanged(this);
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    // Clear the dirty flag; persistence code calls this before it saves the user
+    public void clearDirty() {
+        dirty = false;
+    }
+
     /**
      * Checks if the provided password matches this user's password.
      * @param password The password to validate
@@ -48,7 +199,8 @@ public class User implements Serializable {
      */
     public boolean authenticate(String password) {
         if (password == null) return false;
-        byte[] testHash = hashPassword(password.toCharArray(), passwordSalt);
+        byte[] testHash = hashPassword(password.toCharArray(), passwordSalt, getPasswordAlgorithm(),
+                getPasswordIterations(), passwordHash.length);
         return constantTimeEquals(passwordHash, testHash);
     }
 
@@ -58,10 +210,10 @@ public class User implements Serializable {
         return salt;
     }
 
-    private static byte[] hashPassword(char[] password, byte[] salt) {
+    private static byte[] hashPassword(char[] password, byte[] salt, String algorithm, int iterations, int hashBytes) {
         try {
-            PBEKeySpec spec = new PBEKeySpec(password, salt, PBKDF2_ITERATIONS, HASH_BYTES * 8);
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(PBKDF2_ALG);
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, hashBytes * 8);
+            SecretKeyFactory skf = SecretKeyFactory.getInstance(algorithm);
             return skf.generateSecret(spec).getEncoded();
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new IllegalStateException("Password hashing unavailable", e);
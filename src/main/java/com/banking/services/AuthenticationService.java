@@ -1,5 +1,6 @@
 package com.banking.services;
 
+import com.banking.model.DirtyTracker;
 import com.banking.model.User;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +14,9 @@ public class AuthenticationService {
     // In-memory storage of users (username mapped to User object)
     private Map<String, User> users = new HashMap<>();
 
+    // Told about new users (incremental snapshots), or null
+    private volatile DirtyTracker dirtyTracker;
+
     // Simple login attempt tracking
     private final Map<String, Integer> loginAttempts = new ConcurrentHashMap<>();
     private final int maxLoginAttempts = 5;
@@ -23,14 +27,16 @@ public class AuthenticationService {
      * @param password The user’s password
      * @return true if successful, false if username already exists
      */
-    public boolean registerUser(String username, String password) {
+    public synchronized boolean registerUser(String username, String password) {
         if (users.containsKey(username)) {
             return false;  // User already exists
         }
         if (!isPasswordStrong(password)) {
             return false; // Enforce simple strength rules
         }
-        users.put(username, new User(username, password));
+        User user = new User(username, password);
+        users.put(username, user);
+        user.setDirtyTracker(dirtyTracker);
         return true;
     }
 
@@ -45,7 +51,7 @@ public class AuthenticationService {
         if (loginAttempts.getOrDefault(username, 0) >= maxLoginAttempts) {
             return null;
         }
-        User user = users.get(username);
+        User user = getUser(username);
         if (user != null && user.authenticate(password)) {
             loginAttempts.remove(username);
             return user;
@@ -57,7 +63,7 @@ public class AuthenticationService {
     /**
      * Retrieve the User object by username, or null if not found.
      */
-    public User getUser(String username) {
+    public synchronized User getUser(String username) {
         return users.get(username);
     }
 
@@ -70,15 +76,29 @@ public class AuthenticationService {
     }
 
     // Persistence helpers
-    public Map<String, User> exportUsers() {
+    public synchronized Map<String, User> exportUsers() {
         return new HashMap<>(users);
     }
 
-    public void importUsers(Map<String, User> imported) {
+    public synchronized void importUsers(Map<String, User> imported) {
         users.clear();
         if (imported != null) {
             users.putAll(imported);
         }
         loginAttempts.clear();
+        for (User user : users.values()) {
+            user.setDirtyTracker(dirtyTracker);
+        }
+    }
+
+    /**
+     * Attach a dirty tracker (or detach with null) to every user and to users
+     * registered later.
+     */
+    public synchronized void setDirtyTracker(DirtyTracker tracker) {
+        this.dirtyTracker = tracker;
+        for (User user : users.values()) {
+            user.setDirtyTracker(tracker);
+        }
     }
 }
@@ -2,26 +2,109 @@ package com.banking.services;
 
 import com.banking.model.Account;
 import com.banking.model.Customer;
+import com.banking.model.DirtyTracker;
+import com.banking.model.Money;
 import com.banking.model.User;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
 /**
  * BankService handles business logic related to customers and their bank accounts.
+ * It is safe to share between request threads: the customer list and indexes are
+ * concurrent collections and each account guards its own balance, so only transfers
+ * need to lock two accounts.
+ *
+ * Customers are indexed by username and accounts by account number in hash maps, so
+ * lookups take the same time whether the bank has a thousand customers or millions.
+ * When two customers share a username, or two accounts share a number, the one added
+ * last wins. The account index follows Customer.addAccount through an AccountListener.
+ *
+ * When a Journal is attached, every balance change is logged to it, and the operations
+ * on this class return only once their changes are durable (see Journal).
+ *
+ * A bank loaded from a MappedSnapshot starts with no customers in memory: lookups
+ * that miss the indexes decode the customer from the snapshot and index it, and
+ * exportCustomers() decodes the rest.
+ *
+ * Every balance change made through this class, its TransferEngine or a
+ * ShardedCommandPipeline passes a MutationGate, so callQuiesced() can see all accounts
+ * at a point where no transfer is half done (see CheckpointService). Changes made by
+ * calling Account methods directly bypass the gate.
+ *
+ * With an OffHeapAccountStore set, the state of every account in the bank is kept in
+ * the store instead of the Account objects (see setAccountStore); nothing else about
+ * the bank changes.
  */
 public class BankService {
 
-    // List to store all customers
-    private List<Customer> customers = new ArrayList<>();
+    // All customers, in the order they were added (used for export)
+    private final Queue<Customer> customers = new ConcurrentLinkedQueue<>();
+
+    // username -> customer
+    private final Map<String, Customer> customersByUsername = new ConcurrentHashMap<>();
+
+    // account number -> owning customer and account
+    private final Map<String, AccountEntry> accountsByNumber = new ConcurrentHashMap<>();
+
+    // Keeps the account index up to date when a customer opens an account
+    private final Customer.AccountListener accountIndexer = this::accountAdded;
+
+    // Counts balance changes and lets checkpoints wait for a point with none in progress
+    private final MutationGate mutationGate = new MutationGate();
+
+    // Moves money between accounts found through the account index
+    private final TransferEngine transferEngine = new TransferEngine(this);
+
+    // Write-ahead journal for balance changes, or null when changes are only kept in memory
+    private volatile Journal journal;
+
+    // Told about changed customers and accounts (incremental snapshots), or null
+    private volatile DirtyTracker dirtyTracker;
+
+    // Snapshot the customers loaded last are decoded from on first use, or null.
+    // Those customers are not in 'customers'; customers added later are.
+    private volatile MappedSnapshot mappedSnapshot;
+
+    // Holds the state of the bank's accounts off the heap, or null to keep it in the accounts
+    private volatile OffHeapAccountStore accountStore;
+
+    /**
+     * An account together with the customer who owns it.
+     */
+    public static final class AccountEntry {
+        private final Customer customer;
+        private final Account account;
+
+        AccountEntry(Customer customer, Account account) {
+            this.customer = customer;
+            this.account = account;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public Account getAccount() {
+            return account;
+        }
+    }
 
     /**
      * Add a new customer to the bank.
      *
      * @param customer The Customer object to add
      */
-    public void addCustomer(Customer customer) {
+    public synchronized void addCustomer(Customer customer) {
         customers.add(customer);
+        index(customer);
+        mutationGate.recordChange();
     }
 
     /**
@@ -31,13 +114,12 @@ public class BankService {
      * @return The Customer object if found, otherwise null
      */
     public Customer findCustomerByUsername(String username) {
-        for (Customer customer : customers) {
-            User user = customer.getUser();
-            if (user != null && user.getUsername().equals(username)) {
-                return customer;
-            }
+        if (username == null) return null;
+        Customer customer = customersByUsername.get(username);
+        if (customer == null && mappedSnapshot != null) {
+            customer = decodeByUsername(username);
         }
-        return null; // Customer not found
+        return customer;
     }
 
     /**
@@ -60,15 +142,39 @@ public class BankService {
      */
     public Account findAccount(String username, String accountNumber) {
         Customer customer = findCustomerByUsername(username);
-        if (customer == null) return null;
+        if (customer == null || accountNumber == null) return null;
+        AccountEntry entry = accountsByNumber.get(accountNumber);
+        if (entry != null && entry.customer == customer) {
+            return entry.account;
+        }
+        // Not indexed for this customer (added straight to getAccounts(), or the number is
+        // shared with another customer's account); fall back to the customer's own short list
         for (Account a : customer.getAccounts()) {
             if (a.getAccountNumber().equals(accountNumber)) return a;
         }
         return null;
     }
 
+    /**
+     * Find any customer's account by its number.
+     *
+     * @param accountNumber The account number
+     * @return The account and its owner, or null if no such account is known
+     */
+    public AccountEntry findAccountByNumber(String accountNumber) {
+        if (accountNumber == null) return null;
+        AccountEntry entry = accountsByNumber.get(accountNumber);
+        if (entry == null && mappedSnapshot != null) {
+            entry = decodeByAccountNumber(accountNumber);
+        }
+        return entry;
+    }
+
     /**
      * Transfer funds between two accounts of the same user.
+     * Both accounts are locked for the whole transfer, so no other thread can observe
+     * the money withdrawn from one account but not yet deposited in the other.
+     * The two legs are recorded with a shared transfer id (see TransferEngine).
      * Returns true on success.
      */
     public boolean transfer(String username, String fromAccountNumber, String toAccountNumber, double amount) {
@@ -77,19 +183,373 @@ public class BankService {
         Account from = findAccount(username, fromAccountNumber);
         Account to = findAccount(username, toAccountNumber);
         if (from == null || to == null) return false;
-        boolean withdrawn = from.withdraw(amount);
+        long amountPaise;
+        try {
+            amountPaise = Money.ofRupees(amount);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            return false;
+        }
+        TransferResult result = transferEngine.transfer(from, to, amountPaise);
+        awaitDurable();
+        return result.isSuccess();
+    }
+
+    /**
+     * Transfer funds from one of the user's accounts to any account in the bank (a payee).
+     *
+     * @param username           The user sending the money; must own the source account
+     * @param fromAccountNumber  The user's account to debit
+     * @param payeeAccountNumber The account to credit, which may belong to another customer
+     * @param amount             The amount in rupees
+     * @return The outcome of the transfer
+     */
+    public TransferResult transferToPayee(String username, String fromAccountNumber, String payeeAccountNumber,
+                                          double amount) {
+        long amountPaise;
+        try {
+            amountPaise = Money.ofRupees(amount);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            return TransferResult.failed(TransferResult.Status.INVALID_AMOUNT);
+        }
+        Account from = findAccount(username, fromAccountNumber);
+        AccountEntry payee = findAccountByNumber(payeeAccountNumber);
+        if (from == null || payee == null) {
+            return TransferResult.failed(TransferResult.Status.UNKNOWN_ACCOUNT);
+        }
+        TransferResult result = transferEngine.transfer(from, payee.getAccount(), amountPaise);
+        awaitDurable();
+        return result;
+    }
+
+    /**
+     * Run a batch of transfers between any accounts of the bank (e.g. a payroll file).
+     *
+     * @param requests The transfers, in the order they should apply to each account
+     * @return One result per request, in the same order
+     * @see TransferEngine#transferBatch(List)
+     */
+    public List<TransferResult> transferBatch(List<TransferRequest> requests) {
+        List<TransferResult> results = transferEngine.transferBatch(requests);
+        Journal current = journal;
+        if (current != null) {
+            // The transfers ran on pool threads, so wait for everything appended so far
+            try {
+                current.flush();
+            } catch (IOException e) {
+                throw new Journal.JournalException("Journal flush failed", e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Deposit into one of the user's accounts.
+     *
+     * @return true if the deposit was made
+     */
+    public boolean deposit(String username, String accountNumber, double amount) {
+        Account account = findAccount(username, accountNumber);
+        if (account == null || amount <= 0) return false;
+        long amountPaise;
+        try {
+            amountPaise = Money.ofRupees(amount);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            return false;
+        }
+        mutationGate.enter();
+        try {
+            account.depositPaise(amountPaise);
+        } finally {
+            mutationGate.exit();
+        }
+        awaitDurable();
+        return true;
+    }
+
+    /**
+     * Withdraw from one of the user's accounts.
+     *
+     * @return true if the withdrawal was made
+     */
+    public boolean withdraw(String username, String accountNumber, double amount) {
+        Account account = findAccount(username, accountNumber);
+        if (account == null) return false;
+        boolean withdrawn;
+        mutationGate.enter();
+        try {
+            withdrawn = account.withdraw(amount);
+        } finally {
+            mutationGate.exit();
+        }
         if (!withdrawn) return false;
-        to.deposit(amount);
+        awaitDurable();
         return true;
     }
 
+    /**
+     * Attach a journal (or detach with null). Every account of the bank, and every
+     * account added later, logs its transactions to it.
+     */
+    public synchronized void setJournal(Journal journal) {
+        this.journal = journal;
+        for (AccountEntry entry : accountsByNumber.values()) {
+            entry.account.setTransactionListener(journal);
+        }
+        for (Customer customer : loadedCustomers()) {
+            for (Account account : customer.getAccounts()) {
+                account.setTransactionListener(journal);
+            }
+        }
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Keep the balance, creation time, ledger and setting of every account in the given
+     * store, or with null in the accounts themselves again. Accounts already in the bank
+     * are moved now, and accounts added later as they are indexed. Accounts leave the
+     * store when the bank lets go of them (e.g. on import), so the store can be closed
+     * once it has been replaced.
+     */
+    public synchronized void setAccountStore(OffHeapAccountStore store) {
+        OffHeapAccountStore previous = accountStore;
+        this.accountStore = store;
+        for (Customer customer : loadedCustomers()) {
+            for (Account account : customer.getAccounts()) {
+                if (store != null) {
+                    account.moveTo(store);
+                } else if (previous != null && account.getStateStore() == previous) {
+                    account.moveToHeap();
+                }
+            }
+        }
+    }
+
+    public OffHeapAccountStore getAccountStore() {
+        return accountStore;
+    }
+
+    /**
+     * Attach a dirty tracker (or detach with null) to every customer and account of the
+     * bank and to those added later. Customers are attached before their accounts.
+     */
+    public synchronized void setDirtyTracker(DirtyTracker tracker) {
+        this.dirtyTracker = tracker;
+        for (Customer customer : loadedCustomers()) {
+            customer.setDirtyTracker(tracker);
+            for (Account account : customer.getAccounts()) {
+                account.setDirtyTracker(tracker);
+            }
+        }
+    }
+
+    /**
+     * Wait until every change the current thread has made is in the journal on disk.
+     * Returns at once when no journal is attached.
+     */
+    public void awaitDurable() {
+        Journal current = journal;
+        if (current != null) {
+            current.awaitDurable();
+        }
+    }
+
+    /**
+     * Get the number of changes made so far: balance changes through this service, its
+     * TransferEngine or a pipeline, plus customers and accounts added. Only the
+     * difference between two readings means anything.
+     */
+    public long getChangeCount() {
+        return mutationGate.getChangeCount();
+    }
+
+    /**
+     * Run an action while no balance change is in progress. Changes already started
+     * finish first, and new ones wait until the action returns, so the action should
+     * only copy what it needs.
+     */
+    public <T> T callQuiesced(Supplier<T> action) {
+        return mutationGate.callClosed(action);
+    }
+
+    MutationGate getMutationGate() {
+        return mutationGate;
+    }
+
+    /**
+     * Get the engine used for transfers between any two accounts of this bank.
+     */
+    public TransferEngine getTransferEngine() {
+        return transferEngine;
+    }
+
     // Persistence helpers
     public List<Customer> exportCustomers() {
-        return new ArrayList<>(customers);
+        if (mappedSnapshot == null) {
+            return new ArrayList<>(customers);
+        }
+        synchronized (this) {
+            MappedSnapshot snapshot = mappedSnapshot;
+            if (snapshot == null) {
+                return new ArrayList<>(customers);
+            }
+            List<Customer> all = new ArrayList<>(snapshot.size() + customers.size());
+            for (int position = 0; position < snapshot.size(); position++) {
+                Customer customer = decode(snapshot, position);
+                if (customer != null) {
+                    all.add(customer);
+                }
+            }
+            all.addAll(customers);
+            return all;
+        }
+    }
+
+    public synchronized void importCustomers(List<Customer> imported) {
+        clear();
+        if (imported != null) {
+            for (Customer customer : imported) {
+                customers.add(customer);
+                index(customer);
+            }
+        }
+    }
+
+    /**
+     * Replace all customers with those of a mapped snapshot, to be decoded on first use.
+     */
+    synchronized void importMapped(MappedSnapshot snapshot) {
+        clear();
+        mappedSnapshot = snapshot;
     }
 
-    public void importCustomers(List<Customer> imported) {
+    /**
+     * Get how many customers of a mapped snapshot have been decoded so far.
+     */
+    public synchronized int getMappedDecodedCount() {
+        return mappedSnapshot == null ? 0 : mappedSnapshot.getDecodedCount();
+    }
+
+    private void clear() {
+        for (Customer customer : loadedCustomers()) {
+            customer.removeAccountListener(accountIndexer);
+            if (accountStore != null) {
+                for (Account account : customer.getAccounts()) {
+                    if (account.getStateStore() == accountStore) {
+                        account.moveToHeap();
+                    }
+                }
+            }
+        }
         customers.clear();
-        if (imported != null) customers.addAll(imported);
+        customersByUsername.clear();
+        accountsByNumber.clear();
+        mappedSnapshot = null;
+    }
+
+    // Customers in memory: those decoded from the mapped snapshot, then the rest
+    private List<Customer> loadedCustomers() {
+        MappedSnapshot snapshot = mappedSnapshot;
+        if (snapshot == null) {
+            return new ArrayList<>(customers);
+        }
+        List<Customer> loaded = snapshot.decoded();
+        loaded.addAll(customers);
+        return loaded;
+    }
+
+    private synchronized Customer decodeByUsername(String username) {
+        Customer customer = customersByUsername.get(username);
+        MappedSnapshot snapshot = mappedSnapshot;
+        if (customer == null && snapshot != null) {
+            int position = snapshot.findByUsername(username);
+            if (position >= 0) {
+                decode(snapshot, position);
+                customer = customersByUsername.get(username);
+            }
+        }
+        return customer;
+    }
+
+    private synchronized AccountEntry decodeByAccountNumber(String accountNumber) {
+        AccountEntry entry = accountsByNumber.get(accountNumber);
+        MappedSnapshot snapshot = mappedSnapshot;
+        if (entry == null && snapshot != null) {
+            int position = snapshot.findByAccountNumber(accountNumber);
+            if (position >= 0) {
+                decode(snapshot, position);
+                entry = accountsByNumber.get(accountNumber);
+            }
+        }
+        return entry;
+    }
+
+    // Decode a mapped customer and index it, or return null if its chunk is damaged; caller holds the lock
+    private Customer decode(MappedSnapshot snapshot, int position) {
+        Customer customer = snapshot.getDecoded(position);
+        if (customer != null) {
+            return customer;
+        }
+        customer = snapshot.decode(position);
+        if (customer == null) {
+            return null;
+        }
+        // Index only what the snapshot's own index gives to this customer, and never
+        // replace a customer or account added since the snapshot was loaded
+        User user = customer.getUser();
+        if (user != null && snapshot.findByUsername(user.getUsername()) == position) {
+            customersByUsername.putIfAbsent(user.getUsername(), customer);
+        }
+        customer.addAccountListener(accountIndexer);
+        customer.setDirtyTracker(dirtyTracker);
+        for (Account account : customer.getAccounts()) {
+            if (snapshot.findByAccountNumber(account.getAccountNumber()) == position) {
+                accountsByNumber.putIfAbsent(account.getAccountNumber(), new AccountEntry(customer, account));
+            }
+            account.setTransactionListener(journal);
+            account.setDirtyTracker(dirtyTracker);
+            place(account);
+        }
+        return customer;
+    }
+
+    // Add a customer and its current accounts to the indexes and watch for new accounts
+    private void index(Customer customer) {
+        User user = customer.getUser();
+        if (user != null) {
+            customersByUsername.put(user.getUsername(), customer);
+        }
+        customer.addAccountListener(accountIndexer);
+        customer.setDirtyTracker(dirtyTracker);
+        for (Account account : customer.getAccounts()) {
+            indexAccount(customer, account);
+        }
+    }
+
+    private void indexAccount(Customer customer, Account account) {
+        accountsByNumber.put(account.getAccountNumber(), new AccountEntry(customer, account));
+        account.setTransactionListener(journal);
+        account.setDirtyTracker(dirtyTracker);
+        place(account);
+    }
+
+    // Put an account's state in the store, if the bank has one
+    private void place(Account account) {
+        OffHeapAccountStore store = accountStore;
+        if (store != null) {
+            account.moveTo(store);
+        }
+    }
+
+    // A customer opened a new account: index it and log the opening
+    private void accountAdded(Customer customer, Account account) {
+        indexAccount(customer, account);
+        mutationGate.recordChange();
+        Journal current = journal;
+        if (current != null) {
+            current.accountOpened(customer, account);
+        }
     }
 }
@@ -0,0 +1,104 @@
+package com.banking.services;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Locale;
+
+/**
+ * BlockCodec compresses independent blocks of bytes. Every block is compressed on its
+ * own, so blocks can be compressed on parallel workers and decompressed one at a time
+ * (see SnapshotCodec chunks and BlockOutputStream).
+ *
+ * The codec's id is stored in the files it writes, so a reader can pick the matching
+ * codec with forId(). The level of a Deflate codec is only needed when writing.
+ */
+public interface BlockCodec {
+
+    int NONE_ID = 0;
+    int DEFLATE_ID = 1;
+    int LZ_ID = 2;
+
+    /**
+     * @return The id stored in files written with this codec
+     */
+    int getId();
+
+    String getName();
+
+    /**
+     * Compress a block into dst, which must have room for length - 1 bytes.
+     *
+     * @return The compressed length, or -1 if compressing would not make the block
+     *         smaller (callers then store the block as it is)
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+    /**
+     * Decompress a block that is known to expand to exactly dstLength bytes.
+     *
+     * @throws StreamCorruptedException if the block is damaged
+     */
+    void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException;
+
+    /**
+     * A codec that never compresses; blocks are always stored as they are.
+     */
+    static BlockCodec none() {
+        return NoBlockCodec.INSTANCE;
+    }
+
+    /**
+     * The JDK's Deflater, from level 1 (fastest) to 9 (smallest).
+     */
+    static BlockCodec deflate(int level) {
+        return new DeflateBlockCodec(level);
+    }
+
+    /**
+     * A fast LZ77 codec in pure Java: worse ratios than Deflate, several times faster.
+     */
+    static BlockCodec lz() {
+        return LzBlockCodec.INSTANCE;
+    }
+
+    /**
+     * Find the codec for an id read from a file.
+     */
+    static BlockCodec forId(int id) throws StreamCorruptedException {
+        switch (id) {
+            case NONE_ID:
+                return none();
+            case DEFLATE_ID:
+                return deflate(DeflateBlockCodec.DEFAULT_LEVEL);
+            case LZ_ID:
+                return lz();
+            default:
+                throw new StreamCorruptedException("Unknown compression codec " + id);
+        }
+    }
+
+    /**
+     * Parse a codec setting: "none", "lz", "deflate" or "deflate:level".
+     */
+    static BlockCodec forName(String name) {
+        String value = name.trim().toLowerCase(Locale.ROOT);
+        if (value.isEmpty() || value.equals("none")) {
+            return none();
+        }
+        if (value.equals("lz")) {
+            return lz();
+        }
+        if (value.equals("deflate")) {
+            return deflate(DeflateBlockCodec.DEFAULT_LEVEL);
+        }
+        if (value.startsWith("deflate:")) {
+            try {
+                return deflate(Integer.parseInt(value.substring("deflate:".length())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad Deflate level in " + name);
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec " + name);
+    }
+}
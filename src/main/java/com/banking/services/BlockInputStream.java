@@ -0,0 +1,136 @@
+package com.banking.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * BlockInputStream reads a stream written by BlockOutputStream, decompressing one
+ * block at a time, so only the current block is held in memory.
+ */
+public class BlockInputStream extends InputStream {
+
+    // Larger blocks than this are taken as corruption rather than allocated
+    private static final int MAX_BLOCK_SIZE = 256 << 20;
+
+    private final InputStream in;
+    private final BlockCodec codec;
+
+    private byte[] stored = new byte[0];
+    private byte[] block = new byte[0];
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    public BlockInputStream(InputStream in) throws IOException {
+        this.in = in;
+        if (!BlockOutputStream.hasMagic(in)) {
+            throw new StreamCorruptedException("Not a compressed block stream");
+        }
+        int id = in.read();
+        if (id < 0) {
+            throw new EOFException("Compressed stream ends in its header");
+        }
+        this.codec = BlockCodec.forId(id);
+    }
+
+    /**
+     * @return The codec the stream was written with
+     */
+    public BlockCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(length, limit - position);
+        System.arraycopy(block, position, bytes, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Read and decompress the next non-empty block; false at the end of the stream
+    private boolean nextBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        int length = getVarInt();
+        if (length == 0) {
+            finished = true;
+            return false;
+        }
+        int storedLength = getVarInt();
+        if (length > MAX_BLOCK_SIZE || storedLength > length) {
+            throw new StreamCorruptedException("Bad block lengths " + length + "/" + storedLength);
+        }
+        if (stored.length < storedLength) {
+            stored = new byte[storedLength];
+        }
+        readFully(stored, storedLength);
+        if (block.length < length) {
+            block = new byte[length];
+        }
+        if (storedLength == length) {
+            System.arraycopy(stored, 0, block, 0, length);
+        } else {
+            codec.decompress(stored, 0, storedLength, block, 0, length);
+        }
+        position = 0;
+        limit = length;
+        return true;
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Compressed stream ends inside a block");
+            }
+            read += n;
+        }
+    }
+
+    private int getVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Compressed stream is truncated");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new StreamCorruptedException("Bad block length");
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Bad block length");
+    }
+}
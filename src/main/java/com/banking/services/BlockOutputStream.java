@@ -0,0 +1,210 @@
+package com.banking.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * BlockOutputStream compresses a stream in independent blocks with a BlockCodec.
+ *
+ * Bytes are gathered into blocks (1 MB unless told otherwise); each full block is
+ * compressed on the ForkJoinPool while the caller goes on filling the next one, and
+ * blocks are written in order as they finish. At most two blocks per pool thread are
+ * in flight, so memory stays bounded however long the stream is.
+ *
+ * Layout: int magic "BNKZ", one byte codec id, then per block the varint length of
+ * the original bytes and the varint length stored (equal when the block did not
+ * compress and is stored as it is), then the stored bytes. A block length of 0 ends
+ * the stream. BlockInputStream reads it back one block at a time.
+ */
+public class BlockOutputStream extends OutputStream {
+
+    static final int MAGIC = 0x424E4B5A; // "BNKZ"
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final OutputStream out;
+    private final BlockCodec codec;
+    private final int blockSize;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+
+    private byte[] block;
+    private int count;
+    private boolean closed;
+
+    public BlockOutputStream(OutputStream out, BlockCodec codec) throws IOException {
+        this(out, codec, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param blockSize The number of bytes compressed together
+     * @param pool      The pool that compresses blocks; blocks are compressed on the
+     *                  writing thread when it has a single thread
+     */
+    public BlockOutputStream(OutputStream out, BlockCodec codec, int blockSize, ForkJoinPool pool)
+            throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1");
+        }
+        this.out = out;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.pool = pool;
+        this.maxInFlight = pool.getParallelism() > 1 ? pool.getParallelism() * 2 : 0;
+        this.block = new byte[blockSize];
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(codec.getId());
+    }
+
+    /**
+     * Check whether a stream starts like a BlockOutputStream. Reads four bytes.
+     */
+    static boolean hasMagic(InputStream in) throws IOException {
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            magic = magic << 8 | b;
+        }
+        return magic == MAGIC;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (count == blockSize) {
+            submit();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        checkOpen();
+        while (length > 0) {
+            if (count == blockSize) {
+                submit();
+            }
+            int n = Math.min(length, blockSize - count);
+            System.arraycopy(bytes, offset, block, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write out every byte so far, ending the current block early.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if (count > 0) {
+            submit();
+        }
+        while (!inFlight.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            putVarInt(0);
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Hand the current block to the pool (or compress it here) and start a new one
+    private void submit() throws IOException {
+        checkOpen();
+        byte[] full = block;
+        int length = count;
+        block = new byte[blockSize];
+        count = 0;
+        if (maxInFlight == 0) {
+            writeBlock(encode(full, length));
+            return;
+        }
+        inFlight.add(CompletableFuture.supplyAsync(() -> encode(full, length), pool));
+        while (inFlight.size() > maxInFlight) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        byte[] encoded;
+        try {
+            encoded = inFlight.poll().join();
+        } catch (CompletionException e) {
+            throw new IOException("Compressing a block failed", e.getCause());
+        }
+        writeBlock(encoded);
+    }
+
+    // Header and stored bytes of one block
+    private byte[] encode(byte[] raw, int length) {
+        byte[] compressed = new byte[length];
+        int stored = codec.compress(raw, 0, length, compressed, 0);
+        byte[] source = compressed;
+        if (stored < 0) {
+            stored = length;
+            source = raw;
+        }
+        byte[] encoded = new byte[varIntSize(length) + varIntSize(stored) + stored];
+        int p = putVarInt(encoded, 0, length);
+        p = putVarInt(encoded, p, stored);
+        System.arraycopy(source, 0, encoded, p, stored);
+        return encoded;
+    }
+
+    private void writeBlock(byte[] encoded) throws IOException {
+        out.write(encoded);
+    }
+
+    private void putVarInt(int value) throws IOException {
+        byte[] bytes = new byte[5];
+        out.write(bytes, 0, putVarInt(bytes, 0, value));
+    }
+
+    private static int putVarInt(byte[] bytes, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[p++] = (byte) value;
+        return p;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,294 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.Customer;
+import com.banking.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CheckpointService saves the bank on a background thread, as often as the rate of
+ * change calls for, and keeps the last few checkpoints.
+ *
+ * A checkpoint first copies the bank while it is quiesced (see BankService.callQuiesced):
+ * per account only its header and the length of its ledger, so the pause is short and
+ * every account is seen at the same moment, with no transfer half done. The file is then
+ * written from that copy while the bank keeps running; ledgers only grow, so the rows
+ * appended meanwhile are simply left for the next checkpoint.
+ *
+ * Each checkpoint goes to a temporary file that is forced to disk and then renamed to
+ * checkpoint-N.snap, with N one more than the newest checkpoint, so a crash mid-write
+ * never touches an earlier one. Only the newest generations are kept. restore() loads
+ * the newest checkpoint that reads back cleanly, falling back to older ones.
+ *
+ * The scheduler takes a checkpoint once a target number of changes (see
+ * BankService.getChangeCount) has been made since the last one, but not sooner than a
+ * minimum interval; a bank with any change at all is checkpointed after a maximum
+ * interval. The interval therefore follows the target divided by the rate of change,
+ * kept between the two bounds.
+ */
+public class CheckpointService implements Closeable {
+
+    static final String PREFIX = "checkpoint-";
+    static final String SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final AuthenticationService authenticationService;
+    private final BankService bankService;
+    private final ForkJoinPool pool;
+    private final int generations;
+    private final long targetChanges;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+
+    private Thread scheduler;
+    private volatile boolean closed;
+    private volatile long changesAtLastCheckpoint;
+    private volatile long lastAttemptNanos;
+    private volatile long checkpointCount;
+    private volatile Path lastCheckpoint;
+
+    // Change count read while the bank was quiesced for the current checkpoint
+    private long capturedChanges;
+
+    /**
+     * @param directory     The directory holding the checkpoints (created if missing)
+     * @param generations   How many checkpoints to keep
+     * @param targetChanges Take a checkpoint after this many changes ...
+     * @param minInterval   ... but not sooner than this after the last one
+     * @param maxInterval   Take a checkpoint after this long, if anything changed
+     */
+    public CheckpointService(Path directory, AuthenticationService authenticationService, BankService bankService,
+                             int generations, long targetChanges, long minInterval, long maxInterval, TimeUnit unit) {
+        if (generations < 1) {
+            throw new IllegalArgumentException("generations must be at least 1");
+        }
+        if (targetChanges < 1) {
+            throw new IllegalArgumentException("targetChanges must be at least 1");
+        }
+        if (minInterval > maxInterval) {
+            throw new IllegalArgumentException("minInterval must not exceed maxInterval");
+        }
+        this.directory = directory;
+        this.authenticationService = authenticationService;
+        this.bankService = bankService;
+        this.pool = ForkJoinPool.commonPool();
+        this.generations = generations;
+        this.targetChanges = targetChanges;
+        this.minIntervalNanos = unit.toNanos(minInterval);
+        this.maxIntervalNanos = unit.toNanos(maxInterval);
+    }
+
+    /**
+     * Keep 3 checkpoints, taken every 10,000 changes but at most once a second, and at
+     * least every 5 minutes while anything changes.
+     */
+    public CheckpointService(Path directory, AuthenticationService authenticationService, BankService bankService) {
+        this(directory, authenticationService, bankService, 3, 10_000, 1, 300, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Load the newest checkpoint that can be read into the services. A checkpoint that
+     * fails to read is skipped, and the services are only changed once one has been
+     * read completely.
+     *
+     * @return The checkpoint loaded, or null if there is none that can be read
+     */
+    public synchronized Path restore() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        List<Path> files = new ArrayList<>(list().values());
+        for (int i = files.size() - 1; i >= 0; i--) {
+            Path file = files.get(i);
+            SnapshotCodec.Snapshot snapshot;
+            try {
+                snapshot = SnapshotCodec.read(file, pool);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Skipping checkpoint " + file.getFileName() + ": " + e.getMessage());
+                continue;
+            }
+            authenticationService.importUsers(snapshot.users);
+            bankService.importCustomers(snapshot.customers);
+            changesAtLastCheckpoint = bankService.getChangeCount();
+            lastCheckpoint = file;
+            return file;
+        }
+        return null;
+    }
+
+    /**
+     * Start taking checkpoints in the background. Temporary files left by a crash are
+     * deleted.
+     */
+    public synchronized void start() throws IOException {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started");
+        }
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + TEMP_SUFFIX)) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+        changesAtLastCheckpoint = bankService.getChangeCount();
+        lastAttemptNanos = System.nanoTime();
+        scheduler = new Thread(this::runScheduler, "checkpoint-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    /**
+     * Take a checkpoint now, on the calling thread.
+     *
+     * @return The new checkpoint file
+     */
+    public synchronized Path checkpoint() throws IOException {
+        lastAttemptNanos = System.nanoTime();
+        Files.createDirectories(directory);
+        Map<String, User> users = authenticationService.exportUsers();
+        List<Customer> customers = bankService.exportCustomers();
+        // Read mapped ledgers now rather than while the bank waits
+        for (Customer customer : customers) {
+            for (Account account : customer.getAccounts()) {
+                account.getLedger();
+            }
+        }
+        SnapshotCodec.View view = bankService.callQuiesced(() -> {
+            capturedChanges = bankService.getChangeCount();
+            return SnapshotCodec.View.capture(users, customers);
+        });
+
+        TreeMap<Long, Path> existing = list();
+        long sequence = existing.isEmpty() ? 1 : existing.lastKey() + 1;
+        Path target = directory.resolve(PREFIX + sequence + SUFFIX);
+        Path temp = directory.resolve(PREFIX + sequence + SUFFIX + TEMP_SUFFIX);
+        try {
+            SnapshotCodec.write(temp, view, pool, BlockCodec.none());
+            PersistenceService.moveDurably(temp, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        changesAtLastCheckpoint = capturedChanges;
+        lastCheckpoint = target;
+        checkpointCount++;
+
+        existing.put(sequence, target);
+        while (existing.size() > generations) {
+            Files.deleteIfExists(existing.pollFirstEntry().getValue());
+        }
+        return target;
+    }
+
+    /**
+     * Check whether enough has changed, or enough time has passed, for a checkpoint.
+     */
+    boolean checkpointDue() {
+        long changes = bankService.getChangeCount() - changesAtLastCheckpoint;
+        if (changes <= 0) {
+            return false;
+        }
+        long elapsed = System.nanoTime() - lastAttemptNanos;
+        return elapsed >= maxIntervalNanos || (changes >= targetChanges && elapsed >= minIntervalNanos);
+    }
+
+    /**
+     * @return The checkpoint files on disk, oldest first
+     */
+    public List<Path> getGenerations() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(list().values());
+    }
+
+    public long getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    /**
+     * @return The checkpoint written or restored last, or null
+     */
+    public Path getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    // Checkpoints by sequence number
+    private TreeMap<Long, Path> list() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    private void runScheduler() {
+        // Check often enough to keep close to the targets without busy waiting
+        long checkNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(minIntervalNanos / 4,
+                TimeUnit.SECONDS.toNanos(1)));
+        while (!closed) {
+            // Parked rather than sleeping, so close() never interrupts a checkpoint's file writes
+            LockSupport.parkNanos(this, checkNanos);
+            try {
+                if (!closed && checkpointDue()) {
+                    checkpoint();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Checkpoint failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop the scheduler and take a last checkpoint if anything changed since the
+     * previous one.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = scheduler;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (bankService.getChangeCount() != changesAtLastCheckpoint) {
+            checkpoint();
+        }
+    }
+}
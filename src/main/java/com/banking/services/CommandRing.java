@@ -0,0 +1,138 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CommandRing is a fixed-size ring of preallocated command slots with many
+ * producers and a single consumer (one ring per shard of ShardedCommandPipeline).
+ *
+ * A producer claims the next sequence number, fills in the slot at that position and
+ * publishes it by writing the sequence number into the slot. The consumer reads slots
+ * strictly in sequence order and only once they are published. Slots are reused, so
+ * submitting a command allocates nothing except the caller's CompletableFuture.
+ * When the ring is full, producers wait for the consumer to catch up (back-pressure).
+ */
+final class CommandRing {
+
+    static final byte DEPOSIT = 0;
+    static final byte WITHDRAW = 1;
+    static final byte TRANSFER = 2;          // debit on the source shard, then credit
+    static final byte TRANSFER_CREDIT = 3;   // second step of a cross-shard transfer
+
+    /**
+     * One reusable command slot. Fields are written by the producer before the
+     * volatile sequence is published and read by the consumer after it sees it.
+     */
+    static final class Slot {
+        volatile long sequence = -1;
+        byte kind;
+        Account account;
+        Account counterparty;
+        long amountPaise;
+        long transferHigh;
+        long transferLow;
+        CompletableFuture<Boolean> done;
+        CompletableFuture<TransferResult> transferDone;
+
+        void clear() {
+            account = null;
+            counterparty = null;
+            done = null;
+            transferDone = null;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    // Next sequence number to hand to a producer
+    private final AtomicLong claimed = new AtomicLong();
+
+    // Every sequence number below this has been processed by the consumer
+    private volatile long consumed;
+
+    CommandRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * Claim the next slot, waiting while the ring is full.
+     *
+     * @return The claimed sequence number
+     */
+    long claim() {
+        long sequence = claimed.getAndIncrement();
+        while (sequence - consumed >= slots.length) {
+            Thread.yield();
+        }
+        return sequence;
+    }
+
+    /**
+     * Claim the next slot only if the ring has room.
+     *
+     * @return The claimed sequence number, or -1 if the ring is full
+     */
+    long tryClaim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                return -1L;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    Slot slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        slots[(int) sequence & mask].sequence = sequence;
+    }
+
+    /**
+     * Get the next published slot for the consumer, or null if it has not been published yet.
+     */
+    Slot poll() {
+        long next = consumed;
+        Slot slot = slots[(int) next & mask];
+        return slot.sequence == next ? slot : null;
+    }
+
+    /**
+     * Release the slot returned by poll() once it has been processed.
+     */
+    void release(Slot slot) {
+        slot.clear();
+        consumed = consumed + 1;  // single consumer
+    }
+
+    boolean hasPublished() {
+        long next = consumed;
+        return slots[(int) next & mask].sequence == next;
+    }
+
+    /**
+     * Check whether every claimed command has been processed.
+     */
+    boolean isDrained() {
+        return consumed == claimed.get();
+    }
+
+    long consumedCount() {
+        return consumed;
+    }
+}
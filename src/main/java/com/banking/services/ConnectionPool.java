@@ -0,0 +1,506 @@
+package com.banking.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ConnectionPool keeps JDBC connections open between uses, so DatabaseService does not
+ * connect to the database for every operation.
+ *
+ * At most maxSize connections exist at once; a borrower finding them all in use waits
+ * up to the connection timeout for one to be returned. Idle connections are kept most
+ * recently used first, so the warmest one is handed out and the rest can age out.
+ *
+ * Borrowed connections are proxies: close() returns the connection to the pool, after
+ * rolling back any open transaction and restoring the auto-commit, read-only and
+ * isolation settings the connection had when it was opened, and any later use of the
+ * proxy fails. A connection idle for longer than the validation interval is
+ * checked with isValid() before it is handed out, and one older than the maximum
+ * lifetime is closed instead of being reused, so the database or a proxy in between
+ * can drop old connections without the pool handing them out.
+ *
+ * A connection held for longer than the leak threshold is reported once on stderr,
+ * with the stack trace of the code that borrowed it, by a background thread that also
+ * retires idle connections past their lifetime.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    // How long a pooled connection may be checked before it counts as broken
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Opens a new physical connection.
+     */
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    /**
+     * Counters and gauges of a pool at one moment.
+     */
+    public static final class Metrics {
+        private final int active;
+        private final int idle;
+        private final int waiting;
+        private final long borrowCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long created;
+        private final long closed;
+        private final long leaks;
+
+        Metrics(int active, int idle, int waiting, long borrowCount, long totalWaitNanos, long maxWaitNanos,
+                long timeouts, long created, long closed, long leaks) {
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.borrowCount = borrowCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.closed = closed;
+            this.leaks = leaks;
+        }
+
+        /**
+         * @return Connections borrowed and not yet returned
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return Open connections waiting in the pool
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return Threads waiting for a connection
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        /**
+         * @return Time spent by borrowers waiting for a connection, including opening new ones
+         */
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public double getAverageWaitMillis() {
+            return borrowCount == 0 ? 0.0 : totalWaitNanos / 1e6 / borrowCount;
+        }
+
+        /**
+         * @return Borrows that gave up after the connection timeout
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /**
+         * @return Physical connections opened
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return Physical connections closed (broken, expired or at shutdown)
+         */
+        public long getClosed() {
+            return closed;
+        }
+
+        /**
+         * @return Borrowed connections reported as held past the leak threshold
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d, idle=%d, waiting=%d, borrows=%d, avgWait=%.3f ms, maxWait=%.3f ms, "
+                            + "timeouts=%d, created=%d, closed=%d, leaks=%d", active, idle, waiting, borrowCount,
+                    getAverageWaitMillis(), maxWaitNanos / 1e6, timeouts, created, closed, leaks);
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long connectionTimeoutNanos;
+    private final long validationIntervalNanos;
+    private final long maxLifetimeNanos;
+    private final long leakThresholdNanos;
+
+    // One permit per connection that may be handed out
+    private final Semaphore permits;
+    // Most recently returned first
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Map<PooledConnection, Lease> borrowed = new ConcurrentHashMap<>();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    // Started with the first borrow, so a pool that is never used costs no thread
+    private volatile Thread housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * @param maxSize            The most connections open at once
+     * @param connectionTimeout  How long a borrower waits for a connection
+     * @param validationInterval Check connections idle for longer than this before use
+     * @param maxLifetime        Close connections older than this instead of reusing them (0 for no limit)
+     * @param leakThreshold      Report connections held for longer than this (0 for never)
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long connectionTimeout, long validationInterval,
+                          long maxLifetime, long leakThreshold, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.connectionTimeoutNanos = unit.toNanos(connectionTimeout);
+        this.validationIntervalNanos = unit.toNanos(validationInterval);
+        this.maxLifetimeNanos = unit.toNanos(maxLifetime);
+        this.leakThresholdNanos = unit.toNanos(leakThreshold);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Up to 10 connections, a 30 second connection timeout, validation after 30 seconds
+     * idle, a 30 minute lifetime and leaks reported after 60 seconds.
+     */
+    public ConnectionPool(ConnectionFactory factory) {
+        this(factory, 10, 30_000, 30_000, 30 * 60_000, 60_000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection; close it to give it back.
+     *
+     * @throws SQLTransientConnectionException if none became free within the connection timeout
+     * @throws SQLException                    if a new connection could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        checkOpen();
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("No connection became free within "
+                        + TimeUnit.NANOSECONDS.toMillis(connectionTimeoutNanos) + " ms (" + getMetrics() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+        PooledConnection connection;
+        try {
+            connection = takeIdle();
+            if (connection == null) {
+                connection = open();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        long waited = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        Lease lease = new Lease(connection);
+        borrowed.put(connection, lease);
+        if (housekeeper == null) {
+            startHousekeeper();
+        }
+        return lease.proxy;
+    }
+
+    // Open a physical connection and note its settings, which every borrower gets back
+    private PooledConnection open() throws SQLException {
+        Connection physical = factory.connect();
+        try {
+            PooledConnection connection = new PooledConnection(physical, System.nanoTime());
+            created.incrementAndGet();
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                physical.close();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void startHousekeeper() {
+        if (housekeeper == null && !closed) {
+            Thread thread = new Thread(this::runHousekeeper, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            thread.start();
+            housekeeper = thread;
+        }
+    }
+
+    /**
+     * @return The pool's counters and gauges now
+     */
+    public Metrics getMetrics() {
+        return new Metrics(borrowed.size(), idle.size(), permits.getQueueLength(), borrowCount.get(),
+                totalWaitNanos.get(), maxWaitNanos.get(), timeouts.get(), created.get(), closedCount.get(),
+                leaks.get());
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Close the idle connections and stop handing out new ones. Connections still
+     * borrowed are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            if (housekeeper != null) {
+                LockSupport.unpark(housekeeper);
+            }
+        }
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    // The most recently used idle connection that is still good, or null to open one
+    private PooledConnection takeIdle() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            long now = System.nanoTime();
+            if (expired(connection, now)) {
+                discard(connection);
+                continue;
+            }
+            if (now - connection.returnedAt > validationIntervalNanos && !isValid(connection)) {
+                discard(connection);
+                continue;
+            }
+            return connection;
+        }
+        return null;
+    }
+
+    private boolean expired(PooledConnection connection, long now) {
+        return maxLifetimeNanos > 0 && now - connection.createdAt > maxLifetimeNanos;
+    }
+
+    private static boolean isValid(PooledConnection connection) {
+        try {
+            return connection.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // A borrower closed its proxy: reset the connection and pool it, or close it if it cannot be reused
+    private void giveBack(Lease lease) {
+        PooledConnection connection = lease.connection;
+        borrowed.remove(connection);
+        try {
+            boolean reusable = !closed && !expired(connection, System.nanoTime()) && reset(connection);
+            if (reusable) {
+                connection.returnedAt = System.nanoTime();
+                idle.addFirst(connection);
+                if (closed && idle.remove(connection)) {
+                    discard(connection);
+                }
+            } else {
+                discard(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Undo what a borrower may have left behind; false if the connection is no longer usable
+    private static boolean reset(PooledConnection connection) {
+        Connection physical = connection.physical;
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+            }
+            // Only settings a borrower changed through the proxy are set again, since
+            // reading the isolation level can cost a round trip
+            if (connection.readOnlyChanged) {
+                physical.setReadOnly(connection.defaultReadOnly);
+                connection.readOnlyChanged = false;
+            }
+            if (connection.isolationChanged) {
+                physical.setTransactionIsolation(connection.defaultIsolation);
+                connection.isolationChanged = false;
+            }
+            if (physical.getAutoCommit() != connection.defaultAutoCommit) {
+                physical.setAutoCommit(connection.defaultAutoCommit);
+            }
+            physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        closedCount.incrementAndGet();
+        try {
+            connection.physical.close();
+        } catch (SQLException e) {
+            // already broken; nothing more to release
+        }
+    }
+
+    private void runHousekeeper() {
+        long checkNanos = TimeUnit.SECONDS.toNanos(1);
+        if (leakThresholdNanos > 0) {
+            checkNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(checkNanos, leakThresholdNanos / 2));
+        }
+        while (!closed) {
+            LockSupport.parkNanos(this, checkNanos);
+            long now = System.nanoTime();
+            if (leakThresholdNanos > 0) {
+                for (Lease lease : borrowed.values()) {
+                    if (now - lease.borrowedAt > leakThresholdNanos && lease.reported.compareAndSet(false, true)) {
+                        leaks.incrementAndGet();
+                        System.err.println("Possible connection leak: held for "
+                                + TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedAt) + " ms, borrowed at:");
+                        lease.borrowedBy.printStackTrace();
+                    }
+                }
+            }
+            // Retire idle connections past their lifetime rather than waiting for a borrower to find them
+            for (PooledConnection connection : idle) {
+                if (expired(connection, now) && idle.remove(connection)) {
+                    discard(connection);
+                }
+            }
+        }
+    }
+
+    // A physical connection, its settings when opened, and when it was opened and last returned
+    private static final class PooledConnection {
+        final Connection physical;
+        final long createdAt;
+        volatile long returnedAt;
+        final boolean defaultAutoCommit;
+        final boolean defaultReadOnly;
+        final int defaultIsolation;
+
+        // Set by the current borrower's proxy; only one borrower holds the connection at a time
+        boolean readOnlyChanged;
+        boolean isolationChanged;
+
+        PooledConnection(Connection physical, long createdAt) throws SQLException {
+            this.physical = physical;
+            this.createdAt = createdAt;
+            this.returnedAt = createdAt;
+            this.defaultAutoCommit = physical.getAutoCommit();
+            this.defaultReadOnly = physical.isReadOnly();
+            this.defaultIsolation = physical.getTransactionIsolation();
+        }
+    }
+
+    // One borrow of a connection: the proxy handed out and where it was taken
+    private final class Lease implements InvocationHandler {
+        final PooledConnection connection;
+        final long borrowedAt = System.nanoTime();
+        final Connection proxy;
+        final AtomicBoolean returned = new AtomicBoolean();
+        final AtomicBoolean reported = new AtomicBoolean();
+        final Exception borrowedBy;
+
+        Lease(PooledConnection connection) {
+            this.connection = connection;
+            this.borrowedBy = leakThresholdNanos > 0 ? new Exception("Connection borrowed here") : null;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        giveBack(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || connection.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + connection.physical;
+                default:
+                    break;
+            }
+            if (returned.get()) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (method.getName().equals("setReadOnly")) {
+                connection.readOnlyChanged = true;
+            } else if (method.getName().equals("setTransactionIsolation")) {
+                connection.isolationChanged = true;
+            }
+            try {
+                return method.invoke(connection.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
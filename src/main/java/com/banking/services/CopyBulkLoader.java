@@ -0,0 +1,481 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CopyBulkLoader pushes customers, accounts and their transactions into PostgreSQL
+ * with binary COPY instead of batched INSERTs, for migrations and nightly loads of
+ * tens of millions of rows (see DatabaseService.bulkLoad).
+ *
+ * The load runs in two steps:
+ *   1. Users, customers, accounts and monthly summaries are saved in one transaction.
+ *      Accounts are copied into a temporary stage table and upserted from it, which
+ *      returns each account's high-water mark of ledger rows already saved.
+ *   2. Transactions past each high-water mark are split into partitions by account
+ *      number, one per writer. The calling thread encodes rows into chunks of about
+ *      1 MB, one chunk for each partition in turn, and hands each chunk to its
+ *      partition's writer through a bounded queue, so all writers stream at once;
+ *      when a writer falls behind, its queue fills and the encoder waits for it.
+ *      Each writer copies its chunks into a stage table on its own pooled connection,
+ *      inserts them into transactions and moves its accounts' high-water marks, all
+ *      in one transaction per partition.
+ *
+ * A partition is saved entirely or not at all, together with its high-water marks, so
+ * a load that fails part way can be run again and only sends what is missing.
+ */
+public class CopyBulkLoader {
+
+    /**
+     * Opens a COPY ... FROM STDIN on a connection.
+     */
+    interface CopyStarter {
+        CopyIn start(Connection conn, String sql) throws SQLException;
+    }
+
+    static final CopyStarter PGJDBC = (conn, sql) -> conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+
+    static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+    // Chunks waiting per writer before the encoder has to wait
+    static final int QUEUE_CHUNKS = 4;
+
+    static final String COPY_ACCOUNTS = "COPY accounts_stage (account_number, username, account_type, balance, " +
+            "interest_rate, overdraft_limit, created_at) FROM STDIN (FORMAT BINARY)";
+    static final String COPY_TRANSACTIONS = "COPY transactions_stage (transaction_id, account_number, " +
+            "transaction_type, amount, resulting_balance, transaction_date, transfer_id) FROM STDIN (FORMAT BINARY)";
+
+    private static final String CREATE_ACCOUNTS_STAGE = """
+        CREATE TEMP TABLE accounts_stage (
+            account_number VARCHAR(20),
+            username VARCHAR(50),
+            account_type VARCHAR(20),
+            balance DECIMAL(15,2),
+            interest_rate DECIMAL(5,4),
+            overdraft_limit DECIMAL(15,2),
+            created_at TIMESTAMP
+        ) ON COMMIT DROP
+        """;
+
+    // New accounts start with no saved rows; existing ones keep their high-water mark
+    private static final String UPSERT_ACCOUNTS = "INSERT INTO accounts (account_number, customer_id, account_type, " +
+            "balance, interest_rate, overdraft_limit, created_at) " +
+            "SELECT s.account_number, c.id, s.account_type, s.balance, s.interest_rate, s.overdraft_limit, " +
+            "COALESCE(s.created_at, CURRENT_TIMESTAMP) FROM accounts_stage s JOIN customers c ON c.username = s.username " +
+            "ON CONFLICT (account_number) DO UPDATE SET " +
+            "balance = EXCLUDED.balance, interest_rate = EXCLUDED.interest_rate, " +
+            "overdraft_limit = EXCLUDED.overdraft_limit " +
+            "RETURNING account_number, persisted_rows";
+
+    private static final String CREATE_TRANSACTIONS_STAGE =
+            "CREATE TEMP TABLE transactions_stage (LIKE transactions INCLUDING DEFAULTS) ON COMMIT DROP";
+
+    private static final String INSERT_TRANSACTIONS = "INSERT INTO transactions (transaction_id, account_number, " +
+            "transaction_type, amount, resulting_balance, transaction_date, transfer_id) " +
+            "SELECT transaction_id, account_number, transaction_type, amount, resulting_balance, " +
+            "transaction_date, transfer_id FROM transactions_stage " +
+            "ON CONFLICT (transaction_id) DO NOTHING";
+
+    private static final String UPDATE_PERSISTED_ROWS =
+            "UPDATE accounts SET persisted_rows = ? WHERE account_number = ?";
+
+    // Tells a writer that its partition has been sent
+    private static final byte[] END = new byte[0];
+
+    private static final int BATCH_SIZE = 10_000;
+
+    /**
+     * What a bulk load sent.
+     */
+    public static final class Result {
+        private final int customers;
+        private final int accounts;
+        private final long transactions;
+        private final int partitions;
+        private final long stalls;
+        private final long elapsedNanos;
+
+        Result(int customers, int accounts, long transactions, int partitions, long stalls, long elapsedNanos) {
+            this.customers = customers;
+            this.accounts = accounts;
+            this.transactions = transactions;
+            this.partitions = partitions;
+            this.stalls = stalls;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getCustomers() {
+            return customers;
+        }
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * @return Transaction rows copied, i.e. those past the accounts' high-water marks
+         */
+        public long getTransactions() {
+            return transactions;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        /**
+         * @return How many chunks had to wait for a writer with a full queue
+         */
+        public long getStalls() {
+            return stalls;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d customers, %,d accounts, %,d transactions over %d writers in %,.0f ms"
+                            + " (%,d stalls)", customers, accounts, transactions, partitions, elapsedNanos / 1e6, stalls);
+        }
+    }
+
+    private final DatabaseService database;
+    private final int writers;
+    private final int chunkBytes;
+    private final CopyStarter copy;
+
+    CopyBulkLoader(DatabaseService database, int writers, int chunkBytes, CopyStarter copy) {
+        if (writers < 1) {
+            throw new IllegalArgumentException("At least one writer is needed");
+        }
+        this.database = database;
+        this.writers = writers;
+        this.chunkBytes = chunkBytes;
+        this.copy = copy;
+    }
+
+    /**
+     * Customers without a login are left out: rows are keyed by username.
+     */
+    Result load(List<Customer> all) throws SQLException {
+        long start = System.nanoTime();
+        List<Customer> customers = new ArrayList<>(all.size());
+        for (Customer customer : all) {
+            if (customer.getUser() != null) {
+                customers.add(customer);
+            }
+        }
+        List<Account> accounts = new ArrayList<>();
+        List<String> owners = new ArrayList<>();
+        for (Customer customer : customers) {
+            for (Account account : customer.getAccounts()) {
+                accounts.add(account);
+                owners.add(customer.getUser().getUsername());
+            }
+        }
+        // Balance and ledger length are read together, so the saved balance matches the last saved row
+        int count = accounts.size();
+        long[] balances = new long[count];
+        int[] to = new int[count];
+        for (int i = 0; i < count; i++) {
+            Account account = accounts.get(i);
+            synchronized (account) {
+                balances[i] = account.getBalancePaise();
+                to[i] = account.getLedger().size();
+            }
+        }
+
+        Map<String, Integer> persisted;
+        try (Connection conn = database.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                database.saveUsers(conn, DatabaseService.usersOf(customers));
+                database.upsertCustomers(conn, customers);
+                persisted = copyAccounts(conn, accounts, owners, balances);
+                database.saveMonthlySummaries(conn, accounts);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+
+        int[] from = new int[count];
+        for (int i = 0; i < count; i++) {
+            from[i] = Math.min(persisted.getOrDefault(accounts.get(i).getAccountNumber(), 0), to[i]);
+        }
+        long[] sent = new long[2];
+        copyTransactions(accounts, from, to, sent);
+        return new Result(customers.size(), count, sent[0], writers, sent[1], System.nanoTime() - start);
+    }
+
+    // Copy the accounts into the stage table and upsert them; returns the high-water marks
+    private Map<String, Integer> copyAccounts(Connection conn, List<Account> accounts, List<String> owners,
+                                              long[] balances) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_ACCOUNTS_STAGE);
+        }
+        CopyIn copyIn = copy.start(conn, COPY_ACCOUNTS);
+        try {
+            PgCopyEncoder encoder = new PgCopyEncoder(chunkBytes + 256).header();
+            for (int i = 0; i < accounts.size(); i++) {
+                Account account = accounts.get(i);
+                encoder.row(7)
+                        .text(account.getAccountNumber())
+                        .text(owners.get(i))
+                        .text(DatabaseService.getAccountType(account))
+                        .numeric(balances[i], 2);
+                if (account instanceof SavingsAccount) {
+                    BigDecimal rate = BigDecimal.valueOf(((SavingsAccount) account).getInterestRate())
+                            .setScale(4, RoundingMode.HALF_EVEN);
+                    encoder.numeric(rate.unscaledValue().longValueExact(), 4).nullField();
+                } else if (account instanceof CheckingAccount) {
+                    encoder.nullField().numeric(((CheckingAccount) account).getOverdraftLimitPaise(), 2);
+                } else {
+                    encoder.nullField().nullField();
+                }
+                encoder.timestamp(account.getCreatedAt());
+                if (encoder.size() >= chunkBytes) {
+                    copyIn.writeToCopy(encoder.buffer(), 0, encoder.size());
+                    encoder.reset();
+                }
+            }
+            encoder.trailer();
+            copyIn.writeToCopy(encoder.buffer(), 0, encoder.size());
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+
+        Map<String, Integer> persisted = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(UPSERT_ACCOUNTS)) {
+            while (rs.next()) {
+                persisted.put(rs.getString("account_number"), rs.getInt("persisted_rows"));
+            }
+        }
+        return persisted;
+    }
+
+    // Encode rows from[i] up to to[i] of each account into its partition's queue; sent[0] counts rows, sent[1] stalls
+    private void copyTransactions(List<Account> accounts, int[] from, int[] to, long[] sent) throws SQLException {
+        List<List<Integer>> members = new ArrayList<>();
+        List<BlockingQueue<byte[]>> queues = new ArrayList<>();
+        PgCopyEncoder[] encoders = new PgCopyEncoder[writers];
+        for (int p = 0; p < writers; p++) {
+            members.add(new ArrayList<>());
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CHUNKS));
+            encoders[p] = new PgCopyEncoder(chunkBytes + 256).header();
+        }
+        for (int i = 0; i < accounts.size(); i++) {
+            if (from[i] < to[i]) {
+                members.get(partitionOf(accounts.get(i).getAccountNumber())).add(i);
+            }
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(writers, task -> {
+            Thread thread = new Thread(task, "copy-writer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int p = 0; p < writers; p++) {
+            List<Integer> partition = members.get(p);
+            BlockingQueue<byte[]> queue = queues.get(p);
+            futures.add(executor.submit(() -> write(queue, accounts, partition, to)));
+        }
+
+        boolean done = false;
+        try {
+            // One chunk per partition in turn, so every writer has work from the start
+            int[][] cursors = new int[writers][];
+            for (int p = 0; p < writers; p++) {
+                List<Integer> partition = members.get(p);
+                cursors[p] = new int[] {0, partition.isEmpty() ? 0 : from[partition.get(0)]};
+            }
+            int open = writers;
+            while (open > 0) {
+                for (int p = 0; p < writers; p++) {
+                    if (cursors[p] == null) {
+                        continue;
+                    }
+                    PgCopyEncoder encoder = encoders[p];
+                    if (encodeChunk(encoder, accounts, members.get(p), cursors[p], from, to, sent)) {
+                        encoder.trailer();
+                        sent[1] += send(queues.get(p), encoder.toByteArray(), futures);
+                        sent[1] += send(queues.get(p), END, futures);
+                        cursors[p] = null;
+                        open--;
+                    } else {
+                        sent[1] += send(queues.get(p), encoder.toByteArray(), futures);
+                        encoder.reset();
+                    }
+                }
+            }
+            SQLException failure = null;
+            for (Future<Void> future : futures) {
+                SQLException e = failureOf(future, true);
+                if (e != null && failure == null) {
+                    failure = e;
+                } else if (e != null) {
+                    failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Writers still copying are interrupted and roll back their partitions
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Encode a partition's rows from its cursor {member, row} until the chunk is full; true once none are left
+    private boolean encodeChunk(PgCopyEncoder encoder, List<Account> accounts, List<Integer> partition, int[] cursor,
+                                int[] from, int[] to, long[] sent) {
+        while (cursor[0] < partition.size()) {
+            int i = partition.get(cursor[0]);
+            String accountNumber = accounts.get(i).getAccountNumber();
+            TransactionLedger ledger = accounts.get(i).getLedger();
+            while (cursor[1] < to[i]) {
+                int row = cursor[1]++;
+                encoder.row(7)
+                        .text(ledger.getTransactionId(row))
+                        .text(accountNumber)
+                        .text(ledger.getType(row).getLabel())
+                        .numeric(ledger.getAmountPaise(row), 2)
+                        .numeric(ledger.getResultingBalancePaise(row), 2)
+                        .timestamp(ledger.getDate(row))
+                        .text(ledger.isTransfer(row)
+                                ? TransactionId.format(ledger.getTransferIdHigh(row), ledger.getTransferIdLow(row))
+                                : null);
+                sent[0]++;
+                if (encoder.size() >= chunkBytes) {
+                    return false;
+                }
+            }
+            if (++cursor[0] < partition.size()) {
+                cursor[1] = from[partition.get(cursor[0])];
+            }
+        }
+        return true;
+    }
+
+    int partitionOf(String accountNumber) {
+        return Math.floorMod(accountNumber.hashCode(), writers);
+    }
+
+    // Queue a chunk, waiting while the writer's queue is full; returns 1 if it had to wait
+    private static int send(BlockingQueue<byte[]> queue, byte[] chunk, List<Future<Void>> futures)
+            throws SQLException {
+        if (queue.offer(chunk)) {
+            return 0;
+        }
+        try {
+            while (!queue.offer(chunk, 50, TimeUnit.MILLISECONDS)) {
+                // A writer that stopped early has failed; stop feeding the others
+                for (Future<Void> future : futures) {
+                    SQLException e = failureOf(future, false);
+                    if (e != null) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Bulk load interrupted", e);
+        }
+        return 1;
+    }
+
+    // The failure of a writer, or null if it succeeded (or, without waiting, is still running)
+    private static SQLException failureOf(Future<Void> future, boolean wait) {
+        if (!wait && !future.isDone()) {
+            return null;
+        }
+        try {
+            future.get();
+            return wait ? null : new SQLException("Bulk load writer stopped before its partition was sent");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof SQLException ? (SQLException) cause
+                    : new SQLException("Bulk load writer failed: " + cause, cause);
+        } catch (CancellationException e) {
+            return new SQLException("Bulk load writer was cancelled", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new SQLException("Bulk load interrupted", e);
+        }
+    }
+
+    // One writer: copy a partition's chunks, insert them and move its accounts' high-water marks
+    private Void write(BlockingQueue<byte[]> queue, List<Account> accounts, List<Integer> partition, int[] to)
+            throws Exception {
+        try (Connection conn = database.getConnection()) {
+            conn.setAutoCommit(false);
+            CopyIn copyIn = null;
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(CREATE_TRANSACTIONS_STAGE);
+                }
+                copyIn = copy.start(conn, COPY_TRANSACTIONS);
+                for (byte[] chunk = queue.take(); chunk != END; chunk = queue.take()) {
+                    copyIn.writeToCopy(chunk, 0, chunk.length);
+                }
+                copyIn.endCopy();
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(INSERT_TRANSACTIONS);
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(UPDATE_PERSISTED_ROWS)) {
+                    int pending = 0;
+                    for (int i : partition) {
+                        pstmt.setInt(1, to[i]);
+                        pstmt.setString(2, accounts.get(i).getAccountNumber());
+                        pstmt.addBatch();
+                        if (++pending == BATCH_SIZE) {
+                            pstmt.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    if (pending > 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                conn.commit();
+                return null;
+            } catch (Exception e) {
+                if (copyIn != null && copyIn.isActive()) {
+                    try {
+                        copyIn.cancelCopy();
+                    } catch (SQLException cancel) {
+                        e.addSuppressed(cancel);
+                    }
+                }
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -1,16 +1,56 @@
 package com.banking.services;
 
 import com.banking.model.*;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseService saves and loads users, customers and accounts in PostgreSQL.
+ *
+ * Connections come from a ConnectionPool, so an operation borrows an open connection
+ * instead of connecting; each public method borrows one and passes it to the helpers
+ * it calls. The pool holds up to db.pool.size connections (10 by default) and is
+ * closed with close().
+ *
+ * Saving is batched: saveCustomers() writes any number of customers, their users,
+ * accounts, new transactions and monthly summaries over one connection, in one
+ * database transaction, with one batched statement per table (the driver rewrites
+ * the batches into multi-row INSERTs). Each account row keeps a high-water mark,
+ * persisted_rows, of how many of its ledger rows are already in the database, so
+ * saving an account again only sends the rows added since.
+ *
+ * Loading is set-based too: loadAllCustomers() reads customers, accounts, monthly
+ * summaries and transactions with one query per table, streamed in pages of
+ * FETCH_SIZE rows, and restores balances and ledgers as the rows arrive. Users are
+ * rebuilt from their stored hash, salt and hashing parameters, so loading never runs
+ * the password hash.
+ *
+ * For migrations and nightly loads, bulkLoad() and bulkLoadSnapshot() send the same
+ * data with binary COPY through parallel writers instead (see CopyBulkLoader).
+ */
+public class DatabaseService implements AutoCloseable {
+    private static final int DEFAULT_POOL_SIZE = 10;
+    // Rows sent per executeBatch, bounding the memory a long ledger needs
+    private static final int BATCH_SIZE = 10_000;
+    // Rows fetched per round trip when loading
+    private static final int FETCH_SIZE = 10_000;
 
-public class DatabaseService {
     private String url;
     private String user;
     private String password;
+    private final ConnectionPool pool;
+    // How bulk loads open COPY streams; replaced in tests
+    CopyBulkLoader.CopyStarter copyStarter = CopyBulkLoader.PGJDBC;
     
     public DatabaseService() {
+        int poolSize = DEFAULT_POOL_SIZE;
         try {
             Properties props = new Properties();
             try (InputStream input = getClass().getClassLoader().getResourceAsStream("config.properties")) {
@@ -19,6 +59,7 @@ public class DatabaseService {
                     this.url = props.getProperty("db.url", "jdbc:postgresql://localhost:5432/bankdb");
                     this.user = props.getProperty("db.username", "postgres");
                     this.password = props.getProperty("db.password", "admin");
+                    poolSize = Integer.parseInt(props.getProperty("db.pool.size", String.valueOf(DEFAULT_POOL_SIZE)));
                 } else {
                     // Use defaults if config file not found
                     this.url = "jdbc:postgresql://localhost:5432/bankdb";
@@ -32,16 +73,64 @@ public class DatabaseService {
             this.user = "postgres";
             this.password = "admin";
         }
+        this.pool = newPool(poolSize);
     }
     
     public DatabaseService(String url, String user, String password) {
+        this(url, user, password, DEFAULT_POOL_SIZE);
+    }
+    
+    public DatabaseService(String url, String user, String password, int poolSize) {
         this.url = url;
         this.user = user;
         this.password = password;
+        this.pool = newPool(poolSize);
+    }
+    
+    /**
+     * Use connections from the given pool (e.g. one shared with other services).
+     */
+    public DatabaseService(ConnectionPool pool) {
+        this.pool = pool;
     }
     
+    private ConnectionPool newPool(int size) {
+        return new ConnectionPool(this::connect, size, 30, 30, 30 * 60, 60, TimeUnit.SECONDS);
+    }
+    
+    private Connection connect() throws SQLException {
+        Properties props = new Properties();
+        if (user != null) {
+            props.setProperty("user", user);
+        }
+        if (password != null) {
+            props.setProperty("password", password);
+        }
+        // Send batched INSERTs as multi-row statements
+        props.setProperty("reWriteBatchedInserts", "true");
+        return DriverManager.getConnection(url, props);
+    }
+    
+    /**
+     * Borrow a pooled connection; closing it returns it to the pool.
+     */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return pool.getConnection();
+    }
+    
+    /**
+     * @return Wait times and active/idle counts of the connection pool
+     */
+    public ConnectionPool.Metrics getPoolMetrics() {
+        return pool.getMetrics();
+    }
+    
+    /**
+     * Close the pooled connections.
+     */
+    @Override
+    public void close() {
+        pool.close();
     }
     
     public void initializeDatabase() throws SQLException {
@@ -81,10 +170,19 @@ public class DatabaseService {
                 balance DECIMAL(15,2) DEFAULT 0.00,
                 interest_rate DECIMAL(5,4),
                 overdraft_limit DECIMAL(15,2),
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                persisted_rows INTEGER NOT NULL DEFAULT 0
             )
             """;
         
+        // The customer upsert needs usernames to be unique
+        String createCustomersUsernameIndex =
+            "CREATE UNIQUE INDEX IF NOT EXISTS customers_username_key ON customers (username)";
+        
+        // How many ledger rows of each account are saved; added after the first release
+        String addPersistedRowsColumn =
+            "ALTER TABLE accounts ADD COLUMN IF NOT EXISTS persisted_rows INTEGER NOT NULL DEFAULT 0";
+        
         // Transactions table
         String createTransactionsTable = """
             CREATE TABLE IF NOT EXISTS transactions (
@@ -93,24 +191,83 @@ public class DatabaseService {
                 transaction_type VARCHAR(20) NOT NULL,
                 amount DECIMAL(15,2) NOT NULL,
                 resulting_balance DECIMAL(15,2) NOT NULL,
-                transaction_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                transaction_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                transfer_id VARCHAR(36)
+            )
+            """;
+        
+        // Tables created before transfers were linked lack the transfer_id column
+        String addTransferIdColumn = "ALTER TABLE transactions ADD COLUMN IF NOT EXISTS transfer_id VARCHAR(36)";
+        
+        // Lets a load read each account's transactions in order without sorting the table
+        String createTransactionsAccountIndex = "CREATE INDEX IF NOT EXISTS transactions_account_date_idx " +
+            "ON transactions (account_number, transaction_date, transaction_id)";
+        
+        // Monthly running totals per account
+        String createMonthlySummariesTable = """
+            CREATE TABLE IF NOT EXISTS account_monthly_summaries (
+                account_number VARCHAR(20) REFERENCES accounts(account_number),
+                month DATE NOT NULL,
+                deposit_count INTEGER NOT NULL,
+                deposit_total DECIMAL(15,2) NOT NULL,
+                withdrawal_count INTEGER NOT NULL,
+                withdrawal_total DECIMAL(15,2) NOT NULL,
+                opening_balance DECIMAL(15,2) NOT NULL,
+                closing_balance DECIMAL(15,2) NOT NULL,
+                min_balance DECIMAL(15,2) NOT NULL,
+                max_balance DECIMAL(15,2) NOT NULL,
+                PRIMARY KEY (account_number, month)
             )
             """;
         
         try (Statement stmt = conn.createStatement()) {
             stmt.execute(createUsersTable);
             stmt.execute(createCustomersTable);
+            stmt.execute(createCustomersUsernameIndex);
             stmt.execute(createAccountsTable);
+            stmt.execute(addPersistedRowsColumn);
             stmt.execute(createTransactionsTable);
+            stmt.execute(addTransferIdColumn);
+            stmt.execute(createTransactionsAccountIndex);
+            stmt.execute(createMonthlySummariesTable);
         }
     }
     
-    // User operations - Note: User class doesn't expose password hash directly
-    // We'll need to store a serialized version or modify the approach
+    // User operations
+    
+    /**
+     * Save a user's credentials: the hash with its salt, algorithm and iteration count
+     * (see User.toStoredCredentials), so loading the user does not hash again.
+     */
     public void saveUser(User user) throws SQLException {
-        // For now, we'll skip user saving since we can't access the password hash
-        // This would need to be modified in the User class to expose a serialization method
-        System.out.println("User saving not implemented - requires User class modification");
+        if (user == null) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            saveUsers(conn, List.of(user));
+        }
+    }
+    
+    // Insert or update users in one batch; the caller owns the transaction
+    void saveUsers(Connection conn, List<User> users) throws SQLException {
+        String sql = "INSERT INTO users (username, password_hash) VALUES (?, ?) " +
+                    "ON CONFLICT (username) DO UPDATE SET password_hash = EXCLUDED.password_hash";
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (User user : users) {
+                pstmt.setString(1, user.getUsername());
+                pstmt.setString(2, user.toStoredCredentials());
+                pstmt.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    pstmt.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+            }
+        }
     }
     
     public User loadUser(String username) throws SQLException {
@@ -122,7 +279,7 @@ public class DatabaseService {
             
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new User(rs.getString("username"), rs.getString("password_hash"));
+                    return restoreUser(rs.getString("username"), rs.getString("password_hash"));
                 }
             }
         }
@@ -138,184 +295,460 @@ public class DatabaseService {
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                users.add(new User(rs.getString("username"), rs.getString("password_hash")));
+                users.add(restoreUser(rs.getString("username"), rs.getString("password_hash")));
             }
         }
         return users;
     }
     
+    // Rebuild a user from its password_hash column without hashing. Rows written before
+    // credentials were saved hold something else, which earlier versions read as the
+    // plain password; those are still read that way, and hashed once.
+    private static User restoreUser(String username, String stored) {
+        if (User.isStoredCredentials(stored)) {
+            return User.fromStoredCredentials(username, stored);
+        }
+        return new User(username, stored != null ? stored : "");
+    }
+    
     // Customer operations
+    
+    /**
+     * Save one customer with its accounts; see saveCustomers.
+     */
     public void saveCustomer(Customer customer) throws SQLException {
-        // First save the user
-        saveUser(customer.getUser());
-        
+        saveCustomers(List.of(customer));
+    }
+    
+    /**
+     * Save customers with their accounts, the transactions added since each account
+     * was last saved, and their monthly summaries, in one database transaction: either
+     * everything is saved or, on failure, nothing is.
+     */
+    public void saveCustomers(List<Customer> customers) throws SQLException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                saveUsers(conn, usersOf(customers));
+                upsertCustomers(conn, customers);
+                
+                List<Account> accounts = new ArrayList<>();
+                List<String> owners = new ArrayList<>();
+                for (Customer customer : customers) {
+                    for (Account account : customer.getAccounts()) {
+                        accounts.add(account);
+                        owners.add(customer.getUser().getUsername());
+                    }
+                }
+                saveAccounts(conn, accounts, owners);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+    
+    // The users of customers that have one, each once
+    static List<User> usersOf(List<Customer> customers) {
+        Map<String, User> users = new LinkedHashMap<>();
+        for (Customer customer : customers) {
+            if (customer.getUser() != null) {
+                users.putIfAbsent(customer.getUser().getUsername(), customer.getUser());
+            }
+        }
+        return new ArrayList<>(users.values());
+    }
+    
+    // Insert or update customers in one batch; the caller owns the transaction
+    void upsertCustomers(Connection conn, List<Customer> customers) throws SQLException {
         String sql = "INSERT INTO customers (username, email, name) " +
                     "VALUES (?, ?, ?) " +
                     "ON CONFLICT (username) DO UPDATE SET " +
                     "email = EXCLUDED.email, name = EXCLUDED.name";
         
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, customer.getUser().getUsername());
-            pstmt.setString(2, customer.getEmail());
-            pstmt.setString(3, customer.getName());
-            pstmt.executeUpdate();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Customer customer : customers) {
+                pstmt.setString(1, customer.getUser().getUsername());
+                pstmt.setString(2, customer.getEmail());
+                pstmt.setString(3, customer.getName());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
         }
-        
-        // Save accounts
-        for (Account account : customer.getAccounts()) {
-            saveAccount(account, customer.getUser().getUsername());
+    }
+    
+    /**
+     * Save customers, their accounts and all their unsaved transactions with binary
+     * COPY, the transactions split across parallel writers (see CopyBulkLoader). Meant
+     * for migrations and nightly loads; saveCustomers suits everyday saves.
+     *
+     * @param writers Connections copying transactions at once, at most the pool size
+     */
+    public CopyBulkLoader.Result bulkLoad(List<Customer> customers, int writers) throws SQLException {
+        int partitions = Math.max(1, Math.min(writers, pool.getMaxSize()));
+        return new CopyBulkLoader(this, partitions, CopyBulkLoader.DEFAULT_CHUNK_BYTES, copyStarter)
+                .load(customers);
+    }
+    
+    /**
+     * Bulk load everything in a snapshot written by PersistenceService, read as
+     * PersistenceService.loadMapped reads it. A damaged snapshot loads what survived.
+     */
+    public CopyBulkLoader.Result bulkLoadSnapshot(Path file, int writers)
+            throws IOException, ClassNotFoundException, SQLException {
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException(file.toString());
+        }
+        BankService bank = new BankService();
+        PersistenceService.LoadReport report = new PersistenceService().loadMapped(file, new AuthenticationService(), bank);
+        if (report.isDamaged()) {
+            System.err.println("Bulk loading what survived of a damaged snapshot: " + report);
         }
+        return bulkLoad(bank.exportCustomers(), writers);
     }
     
     public Customer loadCustomer(String username) throws SQLException {
-        String sql = "SELECT c.*, u.username, u.password_hash FROM customers c " +
-                    "JOIN users u ON c.username = u.username WHERE c.username = ?";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, username);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    // Note: We can't reconstruct User without password, so we'll create a dummy one
-                    // This is a limitation of the current User class design
-                    User user = new User(rs.getString("username"), "dummy_password");
-                    Customer customer = new Customer(
-                        rs.getString("name") != null ? rs.getString("name") : username,
+        try (Connection conn = getConnection()) {
+            List<Customer> customers = loadCustomers(conn, username);
+            return customers.isEmpty() ? null : customers.get(0);
+        }
+    }
+    
+    /**
+     * Load every customer with its accounts, their balances, ledgers and monthly
+     * summaries, in four queries (one per table) whatever the number of customers.
+     */
+    public List<Customer> loadAllCustomers() throws SQLException {
+        try (Connection conn = getConnection()) {
+            return loadCustomers(conn, null);
+        }
+    }
+    
+    // Load all customers, or the one with a username. Each table is read with one
+    // streamed query and its rows attached to the objects read before them, so the
+    // whole graph is built in one pass without holding any result set in memory.
+    private List<Customer> loadCustomers(Connection conn, String username) throws SQLException {
+        int isolation = conn.getTransactionIsolation();
+        // The queries see one snapshot, and streaming with a fetch size needs a transaction
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        conn.setAutoCommit(false);
+        try {
+            Map<Integer, Customer> customersById = new LinkedHashMap<>();
+            String sql = "SELECT c.id, c.username, c.name, c.email, u.password_hash FROM customers c " +
+                        "JOIN users u ON c.username = u.username" +
+                        (username != null ? " WHERE c.username = ?" : "");
+            try (PreparedStatement pstmt = streamed(conn, sql, username);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    User user = restoreUser(rs.getString("username"), rs.getString("password_hash"));
+                    customersById.put(rs.getInt("id"), new Customer(
+                        rs.getString("name") != null ? rs.getString("name") : rs.getString("username"),
                         rs.getString("email"),
                         user
-                    );
-                    
-                    // Load accounts for this customer
-                    List<Account> accounts = loadAccountsForCustomer(username);
-                    for (Account account : accounts) {
-                        customer.addAccount(account);
-                    }
-                    
-                    return customer;
+                    ));
                 }
             }
+            
+            Map<String, Account> accounts = loadAccounts(conn, username, customersById);
+            loadMonthlySummaries(conn, username, accounts);
+            loadTransactions(conn, username, accounts);
+            conn.commit();
+            return new ArrayList<>(customersById.values());
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+            conn.setTransactionIsolation(isolation);
         }
-        return null;
     }
     
-    public List<Customer> loadAllCustomers() throws SQLException {
-        List<Customer> customers = new ArrayList<>();
-        String sql = "SELECT DISTINCT username FROM customers";
-        
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            while (rs.next()) {
-                String username = rs.getString("username");
-                Customer customer = loadCustomer(username);
-                if (customer != null) {
-                    customers.add(customer);
-                }
-            }
+    // A query whose rows are fetched FETCH_SIZE at a time, with an optional username parameter
+    private PreparedStatement streamed(Connection conn, String sql, String username) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        pstmt.setFetchSize(FETCH_SIZE);
+        if (username != null) {
+            pstmt.setString(1, username);
         }
-        return customers;
+        return pstmt;
     }
     
     // Account operations
-    private void saveAccount(Account account, String username) throws SQLException {
+    
+    // Upsert accounts and send their unsaved ledger rows and their monthly summaries;
+    // the caller owns the transaction
+    private void saveAccounts(Connection conn, List<Account> accounts, List<String> usernames) throws SQLException {
+        // Balance and ledger length are read together, so the saved balance matches the last saved row
+        int count = accounts.size();
+        long[] balances = new long[count];
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            Account account = accounts.get(i);
+            synchronized (account) {
+                balances[i] = account.getBalancePaise();
+                rows[i] = account.getLedger().size();
+            }
+        }
+        Map<String, Integer> persisted = loadPersistedRows(conn, accounts);
+        
         String sql = "INSERT INTO accounts (account_number, customer_id, account_type, balance, " +
-                    "interest_rate, overdraft_limit) VALUES (?, " +
-                    "(SELECT id FROM customers WHERE username = ?), ?, ?, ?, ?) " +
+                    "interest_rate, overdraft_limit, persisted_rows) VALUES (?, " +
+                    "(SELECT id FROM customers WHERE username = ?), ?, ?, ?, ?, ?) " +
                     "ON CONFLICT (account_number) DO UPDATE SET " +
                     "balance = EXCLUDED.balance, interest_rate = EXCLUDED.interest_rate, " +
-                    "overdraft_limit = EXCLUDED.overdraft_limit";
+                    "overdraft_limit = EXCLUDED.overdraft_limit, persisted_rows = EXCLUDED.persisted_rows";
         
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, account.getAccountNumber());
-            pstmt.setString(2, username);
-            pstmt.setString(3, getAccountType(account));
-            pstmt.setBigDecimal(4, java.math.BigDecimal.valueOf(account.getBalance()));
-            
-            if (account instanceof SavingsAccount) {
-                pstmt.setBigDecimal(5, java.math.BigDecimal.valueOf(((SavingsAccount) account).getInterestRate()));
-                pstmt.setNull(6, Types.DECIMAL);
-            } else if (account instanceof CheckingAccount) {
-                pstmt.setNull(5, Types.DECIMAL);
-                pstmt.setBigDecimal(6, java.math.BigDecimal.valueOf(((CheckingAccount) account).getOverdraftLimit()));
-            } else {
-                pstmt.setNull(5, Types.DECIMAL);
-                pstmt.setNull(6, Types.DECIMAL);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                Account account = accounts.get(i);
+                pstmt.setString(1, account.getAccountNumber());
+                pstmt.setString(2, usernames.get(i));
+                pstmt.setString(3, getAccountType(account));
+                pstmt.setBigDecimal(4, Money.toBigDecimal(balances[i]));
+                
+                if (account instanceof SavingsAccount) {
+                    pstmt.setBigDecimal(5, java.math.BigDecimal.valueOf(((SavingsAccount) account).getInterestRate()));
+                    pstmt.setNull(6, Types.DECIMAL);
+                } else if (account instanceof CheckingAccount) {
+                    pstmt.setNull(5, Types.DECIMAL);
+                    pstmt.setBigDecimal(6, Money.toBigDecimal(((CheckingAccount) account).getOverdraftLimitPaise()));
+                } else {
+                    pstmt.setNull(5, Types.DECIMAL);
+                    pstmt.setNull(6, Types.DECIMAL);
+                }
+                pstmt.setInt(7, rows[i]);
+                pstmt.addBatch();
             }
-            
-            pstmt.executeUpdate();
+            pstmt.executeBatch();
         }
         
-        // Save transactions
-        for (Transaction transaction : account.getTransactionList()) {
-            saveTransaction(transaction, account.getAccountNumber());
+        // Save transactions past each account's high-water mark
+        int[] from = new int[count];
+        for (int i = 0; i < count; i++) {
+            from[i] = Math.min(persisted.getOrDefault(accounts.get(i).getAccountNumber(), 0), rows[i]);
         }
+        saveTransactions(conn, accounts, from, rows);
+        
+        saveMonthlySummaries(conn, accounts);
     }
     
-    private List<Account> loadAccountsForCustomer(String username) throws SQLException {
-        List<Account> accounts = new ArrayList<>();
-        String sql = "SELECT * FROM accounts WHERE customer_id = (SELECT id FROM customers WHERE username = ?)";
+    // account number -> ledger rows already saved, for the accounts that have a row
+    private Map<String, Integer> loadPersistedRows(Connection conn, List<Account> accounts) throws SQLException {
+        Map<String, Integer> persisted = new HashMap<>();
+        if (accounts.isEmpty()) {
+            return persisted;
+        }
+        String[] numbers = new String[accounts.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = accounts.get(i).getAccountNumber();
+        }
+        String sql = "SELECT account_number, persisted_rows FROM accounts WHERE account_number = ANY (?)";
         
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, username);
-            
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setArray(1, conn.createArrayOf("varchar", numbers));
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    String accountNumber = rs.getString("account_number");
-                    String accountType = rs.getString("account_type");
-                    
-                    Account account;
-                    if ("SavingsAccount".equals(accountType)) {
-                        double interestRate = rs.getBigDecimal("interest_rate").doubleValue();
-                        account = new SavingsAccount(accountNumber, interestRate);
-                    } else if ("CheckingAccount".equals(accountType)) {
-                        double overdraftLimit = rs.getBigDecimal("overdraft_limit").doubleValue();
-                        account = new CheckingAccount(accountNumber, overdraftLimit);
-                    } else {
-                        account = new Account(accountNumber) {};
-                    }
-                    
-                    // Note: Account class doesn't have setBalance or addTransaction methods
-                    // We'll need to modify the Account class or use reflection
-                    // For now, we'll skip this functionality
-                    System.out.println("Account balance and transaction loading not implemented - requires Account class modification");
-                    
-                    accounts.add(account);
+                    persisted.put(rs.getString("account_number"), rs.getInt("persisted_rows"));
                 }
             }
         }
+        return persisted;
+    }
+    
+    // Accounts of the loaded customers with their balances, by account number
+    private Map<String, Account> loadAccounts(Connection conn, String username, Map<Integer, Customer> customersById)
+            throws SQLException {
+        Map<String, Account> accounts = new HashMap<>();
+        String sql = "SELECT a.account_number, a.customer_id, a.account_type, a.balance, a.interest_rate, " +
+                    "a.overdraft_limit, a.created_at, a.persisted_rows FROM accounts a" +
+                    (username != null ? " JOIN customers c ON c.id = a.customer_id WHERE c.username = ?" : "");
+        
+        try (PreparedStatement pstmt = streamed(conn, sql, username);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Customer customer = customersById.get(rs.getInt("customer_id"));
+                if (customer == null) {
+                    continue;
+                }
+                String accountNumber = rs.getString("account_number");
+                String accountType = rs.getString("account_type");
+                
+                Account account;
+                if ("SavingsAccount".equals(accountType)) {
+                    double interestRate = rs.getBigDecimal("interest_rate").doubleValue();
+                    account = new SavingsAccount(accountNumber, interestRate);
+                } else if ("CheckingAccount".equals(accountType)) {
+                    CheckingAccount checking = new CheckingAccount(accountNumber, 0.0);
+                    checking.setOverdraftLimitPaise(Money.fromBigDecimal(rs.getBigDecimal("overdraft_limit")));
+                    account = checking;
+                } else {
+                    account = new Account(accountNumber) {};
+                }
+                
+                BigDecimal balance = rs.getBigDecimal("balance");
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                account.restoreState(balance != null ? Money.fromBigDecimal(balance) : 0L,
+                        createdAt != null ? createdAt.toLocalDateTime() : null);
+                // The saved ledger length, so the ledger is sized once
+                account.getLedger().reserve(rs.getInt("persisted_rows"));
+                
+                customer.addAccount(account);
+                accounts.put(accountNumber, account);
+            }
+        }
         return accounts;
     }
     
-    private String getAccountType(Account account) {
+    static String getAccountType(Account account) {
         if (account instanceof SavingsAccount) return "SavingsAccount";
         if (account instanceof CheckingAccount) return "CheckingAccount";
         return "Account";
     }
     
+    // Monthly summary operations
+    void saveMonthlySummaries(Connection conn, List<Account> accounts) throws SQLException {
+        String sql = "INSERT INTO account_monthly_summaries (account_number, month, deposit_count, deposit_total, " +
+                    "withdrawal_count, withdrawal_total, opening_balance, closing_balance, min_balance, max_balance) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (account_number, month) DO UPDATE SET " +
+                    "deposit_count = EXCLUDED.deposit_count, deposit_total = EXCLUDED.deposit_total, " +
+                    "withdrawal_count = EXCLUDED.withdrawal_count, withdrawal_total = EXCLUDED.withdrawal_total, " +
+                    "closing_balance = EXCLUDED.closing_balance, min_balance = EXCLUDED.min_balance, " +
+                    "max_balance = EXCLUDED.max_balance";
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (Account account : accounts) {
+                for (MonthlySummary summary : account.getMonthlySummaries()) {
+                    pstmt.setString(1, account.getAccountNumber());
+                    pstmt.setDate(2, java.sql.Date.valueOf(summary.getMonth().atDay(1)));
+                    pstmt.setInt(3, summary.getDepositCount());
+                    pstmt.setBigDecimal(4, Money.toBigDecimal(summary.getDepositTotalPaise()));
+                    pstmt.setInt(5, summary.getWithdrawalCount());
+                    pstmt.setBigDecimal(6, Money.toBigDecimal(summary.getWithdrawalTotalPaise()));
+                    pstmt.setBigDecimal(7, Money.toBigDecimal(summary.getOpeningBalancePaise()));
+                    pstmt.setBigDecimal(8, Money.toBigDecimal(summary.getClosingBalancePaise()));
+                    pstmt.setBigDecimal(9, Money.toBigDecimal(summary.getMinBalancePaise()));
+                    pstmt.setBigDecimal(10, Money.toBigDecimal(summary.getMaxBalancePaise()));
+                    pstmt.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        pstmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+    
+    private void loadMonthlySummaries(Connection conn, String username, Map<String, Account> accounts)
+            throws SQLException {
+        String sql = "SELECT s.* FROM account_monthly_summaries s" +
+                    (username != null ? " JOIN accounts a ON a.account_number = s.account_number " +
+                            "JOIN customers c ON c.id = a.customer_id WHERE c.username = ?" : "") +
+                    " ORDER BY s.account_number, s.month";
+        
+        try (PreparedStatement pstmt = streamed(conn, sql, username);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Account account = accounts.get(rs.getString("account_number"));
+                if (account == null) {
+                    continue;
+                }
+                account.restoreMonthlySummary(new MonthlySummary(
+                    java.time.YearMonth.from(rs.getDate("month").toLocalDate()),
+                    rs.getInt("deposit_count"),
+                    Money.fromBigDecimal(rs.getBigDecimal("deposit_total")),
+                    rs.getInt("withdrawal_count"),
+                    Money.fromBigDecimal(rs.getBigDecimal("withdrawal_total")),
+                    Money.fromBigDecimal(rs.getBigDecimal("opening_balance")),
+                    Money.fromBigDecimal(rs.getBigDecimal("closing_balance")),
+                    Money.fromBigDecimal(rs.getBigDecimal("min_balance")),
+                    Money.fromBigDecimal(rs.getBigDecimal("max_balance"))
+                ));
+            }
+        }
+    }
+    
     // Transaction operations
-    private void saveTransaction(Transaction transaction, String accountNumber) throws SQLException {
+    
+    // Insert ledger rows from[i] up to to[i] of each account, read straight from the ledger's columns
+    private void saveTransactions(Connection conn, List<Account> accounts, int[] from, int[] to) throws SQLException {
         String sql = "INSERT INTO transactions (transaction_id, account_number, transaction_type, " +
-                    "amount, resulting_balance, transaction_date) VALUES (?, ?, ?, ?, ?, ?) " +
+                    "amount, resulting_balance, transaction_date, transfer_id) VALUES (?, ?, ?, ?, ?, ?, ?) " +
                     "ON CONFLICT (transaction_id) DO NOTHING";
         
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, transaction.getTransactionId());
-            pstmt.setString(2, accountNumber);
-            pstmt.setString(3, transaction.getType());
-            pstmt.setBigDecimal(4, java.math.BigDecimal.valueOf(transaction.getAmount()));
-            pstmt.setBigDecimal(5, java.math.BigDecimal.valueOf(transaction.getResultingBalance()));
-            pstmt.setTimestamp(6, java.sql.Timestamp.valueOf(transaction.getDate()));
-            pstmt.executeUpdate();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (int i = 0; i < accounts.size(); i++) {
+                String accountNumber = accounts.get(i).getAccountNumber();
+                TransactionLedger ledger = accounts.get(i).getLedger();
+                for (int row = from[i]; row < to[i]; row++) {
+                    pstmt.setString(1, ledger.getTransactionId(row));
+                    pstmt.setString(2, accountNumber);
+                    pstmt.setString(3, ledger.getType(row).getLabel());
+                    pstmt.setBigDecimal(4, Money.toBigDecimal(ledger.getAmountPaise(row)));
+                    pstmt.setBigDecimal(5, Money.toBigDecimal(ledger.getResultingBalancePaise(row)));
+                    pstmt.setTimestamp(6, java.sql.Timestamp.valueOf(ledger.getDate(row)));
+                    pstmt.setString(7, ledger.isTransfer(row)
+                            ? TransactionId.format(ledger.getTransferIdHigh(row), ledger.getTransferIdLow(row)) : null);
+                    pstmt.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        pstmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+            }
         }
     }
     
-
+    // Fill the ledgers in saved order; rows of one account arrive together, in time order
+    private void loadTransactions(Connection conn, String username, Map<String, Account> accounts)
+            throws SQLException {
+        String sql = "SELECT t.account_number, t.transaction_id, t.transaction_type, t.amount, " +
+                    "t.resulting_balance, t.transaction_date, t.transfer_id FROM transactions t" +
+                    (username != null ? " JOIN accounts a ON a.account_number = t.account_number " +
+                            "JOIN customers c ON c.id = a.customer_id WHERE c.username = ?" : "") +
+                    " ORDER BY t.account_number, t.transaction_date, t.transaction_id";
+        
+        try (PreparedStatement pstmt = streamed(conn, sql, username);
+             ResultSet rs = pstmt.executeQuery()) {
+            String accountNumber = null;
+            TransactionLedger ledger = null;
+            while (rs.next()) {
+                String number = rs.getString("account_number");
+                if (!number.equals(accountNumber)) {
+                    accountNumber = number;
+                    Account account = accounts.get(number);
+                    ledger = account != null ? account.getLedger() : null;
+                }
+                if (ledger == null) {
+                    continue;
+                }
+                TransactionType type = TransactionType.fromLabel(rs.getString("transaction_type"));
+                if (type == null) {
+                    throw new SQLException("Unknown transaction type " + rs.getString("transaction_type") +
+                            " in account " + accountNumber);
+                }
+                TransactionId id = TransactionId.fromString(rs.getString("transaction_id"));
+                String transferId = rs.getString("transfer_id");
+                TransactionId transfer = transferId != null ? TransactionId.fromString(transferId) : null;
+                ledger.appendExisting(
+                    TransactionLedger.toEpochMicros(rs.getTimestamp("transaction_date").toLocalDateTime()),
+                    type,
+                    Money.fromBigDecimal(rs.getBigDecimal("amount")),
+                    Money.fromBigDecimal(rs.getBigDecimal("resulting_balance")),
+                    id.getHigh(), id.getLow(),
+                    transfer != null ? transfer.getHigh() : 0L, transfer != null ? transfer.getLow() : 0L);
+            }
+        }
+    }
     
     // Test connection
     public boolean testConnection() {
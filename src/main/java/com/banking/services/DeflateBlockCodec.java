@@ -0,0 +1,84 @@
+package com.banking.services;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks with the JDK's Deflater as raw Deflate data (no zlib header or
+ * checksum; the block lengths are kept by the container).
+ */
+final class DeflateBlockCodec implements BlockCodec {
+
+    static final int DEFAULT_LEVEL = 6;
+
+    private final int level;
+
+    DeflateBlockCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be 1 to 9: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public int getId() {
+        return DEFLATE_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        if (length < 2) {
+            return -1;
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(src, srcOffset, length);
+            deflater.finish();
+            int limit = length - 1;
+            int written = 0;
+            while (!deflater.finished() && written < limit) {
+                written += deflater.deflate(dst, dstOffset + written, limit - written);
+            }
+            return deflater.finished() ? written : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(src, srcOffset, srcLength);
+            int read = 0;
+            while (read < dstLength) {
+                int n = inflater.inflate(dst, dstOffset + read, dstLength - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read == dstLength && !inflater.finished()) {
+                // The output may fill up just before the end of the stream is read
+                byte[] extra = new byte[1];
+                read += inflater.inflate(extra);
+            }
+            if (read != dstLength || !inflater.finished()) {
+                throw new StreamCorruptedException("Deflate block does not have the expected length");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Bad Deflate block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.Customer;
+import com.banking.model.DirtyTracker;
+import com.banking.model.TransactionType;
+import com.banking.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * IncrementalSnapshotStore saves the bank as a base snapshot followed by deltas that
+ * hold only what changed since the previous save, so a save costs time in proportion
+ * to the changes rather than to the size of the bank.
+ *
+ * The store registers itself as the DirtyTracker of the bank's users, customers and
+ * accounts and queues each object the first time it changes after a save. A delta
+ * holds the new users, the new customers and, for each changed account, its header
+ * (balance, limits, monthly summaries) and the ledger rows appended since the account
+ * was last saved. Customers are referred to by their position in the bank, which only
+ * grows.
+ *
+ * The directory holds base-N.snap, in the SnapshotCodec format, and delta-M.snap for
+ * the deltas written after it (M > N). Loading reads the newest base and applies its
+ * deltas in order. A background compactor writes a new base, and deletes the files it
+ * replaces, once there are too many deltas or they have grown too large.
+ *
+ * Bases and deltas copy the accounts they save while the bank is quiesced (see
+ * BankService.callQuiesced), as checkpoints do, so neither holds half a transfer; the
+ * copy is encoded and written after the bank has moved on.
+ *
+ * Load the bank through open() rather than importing into the services while the
+ * store is open, since that would change the customers' positions.
+ */
+public class IncrementalSnapshotStore implements DirtyTracker, Closeable {
+
+    static final int DELTA_MAGIC = 0x424E4B44; // "BNKD"
+    static final int DELTA_VERSION = 1;
+
+    static final String BASE_PREFIX = "base-";
+    static final String DELTA_PREFIX = "delta-";
+    static final String SUFFIX = ".snap";
+
+    private static final int DELTA_BUFFER_SIZE = 256 << 10;
+
+    private final Path directory;
+    private final AuthenticationService authenticationService;
+    private final BankService bankService;
+    private final int compactAfterDeltas;
+    private final long compactAfterBytes;
+
+    // Objects that changed since they were last saved; may hold duplicates and objects
+    // a base has saved since, both of which a delta skips
+    private final ConcurrentLinkedQueue<User> dirtyUsers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Customer> dirtyCustomers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Account> dirtyAccounts = new ConcurrentLinkedQueue<>();
+
+    // Each customer's position in the bank, which is how deltas refer to customers
+    private final Object ordinalLock = new Object();
+    private final Map<Customer, Integer> ordinals = new IdentityHashMap<>();
+
+    // Serializes saves; the fields below are guarded by it
+    private final Object saveLock = new Object();
+    private long sequence;
+    private int deltaCount;
+    private long deltaBytes;
+    private boolean baseNeeded = true;
+
+    private Thread compactor;
+    private volatile boolean closed;
+    private volatile long deltasWritten;
+    private volatile long basesWritten;
+
+    /**
+     * @param directory          Where base and delta files are kept (created if missing)
+     * @param compactAfterDeltas Write a new base once this many deltas follow the current one
+     * @param compactAfterBytes  ... or once the deltas take up this many bytes
+     */
+    public IncrementalSnapshotStore(Path directory, AuthenticationService authenticationService,
+                                    BankService bankService, int compactAfterDeltas, long compactAfterBytes) {
+        if (compactAfterDeltas < 1) {
+            throw new IllegalArgumentException("compactAfterDeltas must be at least 1");
+        }
+        this.directory = directory;
+        this.authenticationService = authenticationService;
+        this.bankService = bankService;
+        this.compactAfterDeltas = compactAfterDeltas;
+        this.compactAfterBytes = compactAfterBytes;
+    }
+
+    /**
+     * Compact after 64 deltas or 64 MB of deltas.
+     */
+    public IncrementalSnapshotStore(Path directory, AuthenticationService authenticationService,
+                                    BankService bankService) {
+        this(directory, authenticationService, bankService, 64, 64L << 20);
+    }
+
+    // ---- DirtyTracker ----
+
+    @Override
+    public void userChanged(User user) {
+        dirtyUsers.add(user);
+    }
+
+    @Override
+    public void customerChanged(Customer customer) {
+        // Customers are added to the bank one at a time, so new ones get the next position
+        synchronized (ordinalLock) {
+            ordinals.putIfAbsent(customer, ordinals.size());
+            dirtyCustomers.add(customer);
+        }
+    }
+
+    @Override
+    public void accountChanged(Account account) {
+        dirtyAccounts.add(account);
+    }
+
+    // ---- Opening ----
+
+    /**
+     * Load the newest base and the deltas after it into the services (if there is
+     * one), start tracking changes and start the background compactor.
+     */
+    public void open() throws IOException {
+        synchronized (saveLock) {
+            if (compactor != null) {
+                throw new IllegalStateException("Already open");
+            }
+            Files.createDirectories(directory);
+            TreeMap<Long, Path> bases = list(BASE_PREFIX);
+            if (!bases.isEmpty()) {
+                long baseSequence = bases.lastKey();
+                SnapshotCodec.Snapshot snapshot = SnapshotCodec.read(bases.lastEntry().getValue());
+                sequence = baseSequence;
+                for (Map.Entry<Long, Path> delta : list(DELTA_PREFIX).tailMap(baseSequence, false).entrySet()) {
+                    applyDelta(delta.getValue(), snapshot.users, snapshot.customers);
+                    sequence = delta.getKey();
+                    deltaCount++;
+                    deltaBytes += Files.size(delta.getValue());
+                }
+                authenticationService.importUsers(snapshot.users);
+                bankService.importCustomers(snapshot.customers);
+
+                // What was just loaded is saved already
+                for (User user : snapshot.users.values()) {
+                    user.clearDirty();
+                }
+                for (Customer customer : snapshot.customers) {
+                    customer.clearDirty();
+                    for (Account account : customer.getAccounts()) {
+                        synchronized (account) {
+                            account.markCheckpointed(account.getLedger().size());
+                        }
+                    }
+                }
+                baseNeeded = false;
+            }
+            synchronized (ordinalLock) {
+                ordinals.clear();
+                for (Customer customer : bankService.exportCustomers()) {
+                    ordinals.put(customer, ordinals.size());
+                }
+            }
+            authenticationService.setDirtyTracker(this);
+            bankService.setDirtyTracker(this);
+
+            compactor = new Thread(this::runCompactor, "snapshot-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    // Files with the given prefix, by sequence number
+    private TreeMap<Long, Path> list(String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    // ---- Saving ----
+
+    /**
+     * Save the changes made since the last save as a delta (or write a base if there is
+     * none yet). Changes made while the save runs are either in this delta or the next.
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            checkOpen();
+            if (baseNeeded) {
+                writeBase();
+            } else {
+                writeDelta();
+            }
+        }
+    }
+
+    /**
+     * Write a new base holding the whole bank and delete the files it replaces.
+     */
+    public void saveBase() throws IOException {
+        synchronized (saveLock) {
+            checkOpen();
+            writeBase();
+        }
+    }
+
+    private void checkOpen() {
+        if (compactor == null) {
+            throw new IllegalStateException("Call open() first");
+        }
+    }
+
+    private void writeBase() throws IOException {
+        Map<String, User> users = authenticationService.exportUsers();
+        List<Customer> customers;
+        synchronized (ordinalLock) {
+            customers = bankService.exportCustomers();
+            ordinals.clear();
+            for (Customer customer : customers) {
+                ordinals.put(customer, ordinals.size());
+            }
+        }
+        // Read mapped ledgers now rather than while the bank waits
+        for (Customer customer : customers) {
+            for (Account account : customer.getAccounts()) {
+                account.getLedger();
+            }
+        }
+        long baseSequence = sequence + 1;
+        Path target = directory.resolve(BASE_PREFIX + baseSequence + SUFFIX);
+        Path temp = directory.resolve(BASE_PREFIX + baseSequence + SUFFIX + ".tmp");
+        // If this base fails, the flags the capture cleared are lost; the next save writes a base
+        baseNeeded = true;
+        SnapshotCodec.View view = bankService.callQuiesced(() -> SnapshotCodec.View.capture(users, customers,
+                new SnapshotCodec.WriteListener() {
+                    @Override
+                    public void userWritten(User user) {
+                        user.clearDirty();
+                    }
+
+                    @Override
+                    public void customerWritten(Customer customer) {
+                        customer.clearDirty();
+                    }
+
+                    @Override
+                    public void accountWritten(Account account, int rows) {
+                        account.markCheckpointed(rows);
+                    }
+                }));
+        try {
+            SnapshotCodec.write(temp, view, ForkJoinPool.commonPool(), BlockCodec.none());
+            PersistenceService.moveDurably(temp, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        sequence = baseSequence;
+        baseNeeded = false;
+        deltaCount = 0;
+        deltaBytes = 0;
+        basesWritten++;
+
+        for (Path old : list(BASE_PREFIX).headMap(baseSequence, false).values()) {
+            Files.deleteIfExists(old);
+        }
+        for (Path old : list(DELTA_PREFIX).headMap(baseSequence, false).values()) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private void writeDelta() throws IOException {
+        // Accounts first, then customers, then users: an object that changes while we
+        // drain refers only to owners queued before it, so those are drained too
+        List<Account> accounts = drainDirty(dirtyAccounts);
+        List<Customer> customers = drainDirty(dirtyCustomers);
+        List<User> users = drainDirty(dirtyUsers);
+        if (accounts.isEmpty() && customers.isEmpty() && users.isEmpty()) {
+            return;
+        }
+
+        // Objects no longer in the bank (replaced by an import) have no position and are left out
+        List<Integer> customerOrdinals = new ArrayList<>(customers.size());
+        List<Integer> accountOwners = new ArrayList<>(accounts.size());
+        synchronized (ordinalLock) {
+            customers.removeIf(customer -> !ordinals.containsKey(customer));
+            customers.sort((a, b) -> Integer.compare(ordinals.get(a), ordinals.get(b)));
+            for (Customer customer : customers) {
+                customerOrdinals.add(ordinals.get(customer));
+            }
+            List<Account> owned = new ArrayList<>(accounts.size());
+            for (Account account : accounts) {
+                Customer owner = ownerOf(account);
+                Integer ordinal = owner == null ? null : ordinals.get(owner);
+                if (ordinal != null) {
+                    owned.add(account);
+                    accountOwners.add(ordinal);
+                }
+            }
+            accounts = owned;
+        }
+
+        // Read mapped ledgers now rather than while the bank waits
+        for (Account account : accounts) {
+            account.getLedger();
+        }
+        long deltaSequence = sequence + 1;
+        Path target = directory.resolve(DELTA_PREFIX + deltaSequence + SUFFIX);
+        Path temp = directory.resolve(DELTA_PREFIX + deltaSequence + SUFFIX + ".tmp");
+        // If this delta fails, the flags it cleared are lost; the next save writes a base
+        baseNeeded = true;
+        // Copy every changed account at one point in time; later changes mark it dirty again
+        List<Account> changed = accounts;
+        int[] from = new int[changed.size()];
+        SnapshotCodec.AccountHeader[] headers = bankService.callQuiesced(() -> {
+            SnapshotCodec.AccountHeader[] captured = new SnapshotCodec.AccountHeader[changed.size()];
+            for (int i = 0; i < captured.length; i++) {
+                Account account = changed.get(i);
+                synchronized (account) {
+                    from[i] = account.getCheckpointedRows();
+                    captured[i] = SnapshotCodec.AccountHeader.capture(account);
+                    account.markCheckpointed(captured[i].rows);
+                }
+            }
+            return captured;
+        });
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotCodec.Output out = new SnapshotCodec.Output(channel, DELTA_BUFFER_SIZE);
+            out.putInt(DELTA_MAGIC);
+            out.putVarLong(DELTA_VERSION);
+            out.putVarLong(deltaSequence);
+            SnapshotCodec.writeTypes(out);
+
+            out.putVarLong(users.size());
+            for (User user : users) {
+                user.clearDirty();
+                SnapshotCodec.writeUser(out, user);
+            }
+
+            out.putVarLong(customers.size());
+            for (int i = 0; i < customers.size(); i++) {
+                Customer customer = customers.get(i);
+                customer.clearDirty();
+                out.putVarLong(customerOrdinals.get(i));
+                SnapshotCodec.writeCustomerHeader(out, customer, authenticationService::getUser);
+            }
+
+            out.putVarLong(headers.length);
+            for (int i = 0; i < headers.length; i++) {
+                SnapshotCodec.AccountHeader header = headers[i];
+                out.putVarLong(accountOwners.get(i));
+                SnapshotCodec.writeAccountHeader(out, header);
+                out.putVarLong(from[i]);
+                // Rows appended since the capture are left for the next delta
+                SnapshotCodec.writeRows(out, header.ledger, from[i], header.rows);
+            }
+            out.putInt(SnapshotCodec.END_MAGIC);
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        PersistenceService.moveDurably(temp, target);
+        sequence = deltaSequence;
+        baseNeeded = false;
+        deltaCount++;
+        deltaBytes += Files.size(target);
+        deltasWritten++;
+    }
+
+    // Take everything queued, without duplicates and without objects saved since they were queued
+    private static <T> List<T> drainDirty(ConcurrentLinkedQueue<T> queue) {
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<T> drained = new ArrayList<>();
+        for (T item; (item = queue.poll()) != null; ) {
+            if (seen.add(item) && isDirty(item)) {
+                drained.add(item);
+            }
+        }
+        return drained;
+    }
+
+    private static boolean isDirty(Object item) {
+        if (item instanceof Account account) {
+            return account.isDirty();
+        }
+        if (item instanceof Customer customer) {
+            return customer.isDirty();
+        }
+        return ((User) item).isDirty();
+    }
+
+    private Customer ownerOf(Account account) {
+        BankService.AccountEntry entry = bankService.findAccountByNumber(account.getAccountNumber());
+        if (entry != null && entry.getAccount() == account) {
+            return entry.getCustomer();
+        }
+        // Another account has the same number and won the index; look the owner up directly
+        for (Customer customer : bankService.exportCustomers()) {
+            for (Account owned : customer.getAccounts()) {
+                if (owned == account) {
+                    return customer;
+                }
+            }
+        }
+        return null;
+    }
+
+    // ---- Loading deltas ----
+
+    private static void applyDelta(Path file, Map<String, User> users, List<Customer> customers) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SnapshotCodec.Input in = new SnapshotCodec.Input(channel, DELTA_BUFFER_SIZE);
+            if (in.getInt() != DELTA_MAGIC) {
+                throw new StreamCorruptedException("Not a snapshot delta: " + file);
+            }
+            long version = in.getVarLong();
+            if (version != DELTA_VERSION) {
+                throw new StreamCorruptedException("Unsupported delta version " + version);
+            }
+            in.getVarLong(); // sequence, also in the file name
+            TransactionType[] types = SnapshotCodec.readTypes(in);
+
+            int userCount = in.getCount();
+            for (int i = 0; i < userCount; i++) {
+                User user = SnapshotCodec.readUser(in);
+                users.put(user.getUsername(), user);
+            }
+
+            int customerCount = in.getCount();
+            for (int i = 0; i < customerCount; i++) {
+                int ordinal = in.getCount();
+                Customer customer = SnapshotCodec.readCustomerHeader(in, users);
+                if (ordinal == customers.size()) {
+                    customers.add(customer);
+                } else if (ordinal > customers.size()) {
+                    throw new StreamCorruptedException("Delta skips customer " + customers.size());
+                }
+                // else an existing customer that gained an account; its accounts follow
+            }
+
+            int accountCount = in.getCount();
+            for (int i = 0; i < accountCount; i++) {
+                int ordinal = in.getCount();
+                if (ordinal >= customers.size()) {
+                    throw new StreamCorruptedException("Delta refers to unknown customer " + ordinal);
+                }
+                Customer owner = customers.get(ordinal);
+                SnapshotCodec.AccountHeader header = SnapshotCodec.readAccountHeader(in);
+                Account account = null;
+                for (Account owned : owner.getAccounts()) {
+                    if (owned.getAccountNumber().equals(header.number)) {
+                        account = owned;
+                        break;
+                    }
+                }
+                boolean opened = account == null;
+                if (opened) {
+                    account = header.newAccount();
+                }
+                int from = in.getCount();
+                SnapshotCodec.readRows(in, account.getLedger(), from, types);
+                header.restore(account);
+                if (opened) {
+                    owner.addAccount(account);
+                }
+            }
+            if (in.getInt() != SnapshotCodec.END_MAGIC) {
+                throw new StreamCorruptedException("Delta is truncated or corrupt: " + file);
+            }
+        }
+    }
+
+    // ---- Compaction ----
+
+    /**
+     * Check whether the deltas since the last base have passed a compaction threshold.
+     */
+    boolean compactionDue() {
+        synchronized (saveLock) {
+            return deltaCount >= compactAfterDeltas || deltaBytes >= compactAfterBytes;
+        }
+    }
+
+    private void runCompactor() {
+        while (!closed) {
+            // Parked rather than sleeping, so close() never interrupts a base's file writes
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            try {
+                if (!closed && compactionDue()) {
+                    saveBase();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot compaction failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getDeltasWritten() {
+        return deltasWritten;
+    }
+
+    public long getBasesWritten() {
+        return basesWritten;
+    }
+
+    /**
+     * Stop the compactor, waiting for a base it is writing to finish, and stop tracking
+     * changes. Nothing is saved; call save() first to keep the latest changes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread;
+        synchronized (saveLock) {
+            thread = compactor;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        authenticationService.setDirtyTracker(null);
+        bankService.setDirtyTracker(null);
+    }
+}
@@ -0,0 +1,797 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.CheckingAccount;
+import com.banking.model.Customer;
+import com.banking.model.Money;
+import com.banking.model.SavingsAccount;
+import com.banking.model.TransactionId;
+import com.banking.model.TransactionLedger;
+import com.banking.model.TransactionType;
+import com.banking.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal is an append-only write-ahead log of every balance change.
+ *
+ * Each transaction recorded on an account (deposit, withdrawal, interest, either leg
+ * of a transfer) is appended as a small binary record that carries the account number,
+ * the ledger row and every column of that row. New accounts are logged as well, so
+ * accounts opened since the last snapshot can be recreated. After a crash, replay()
+ * applies the records on top of the last snapshot; rows the snapshot already contains
+ * are skipped by their row number, so replaying is idempotent.
+ *
+ * Group commit: records are appended to an in-memory buffer while the account lock is
+ * held, which is cheap. A thread that needs its changes on disk calls awaitDurable()
+ * after releasing the lock. The first waiter becomes the leader: it optionally waits
+ * for the group-commit window so other threads can join, writes everything buffered so
+ * far and calls force() once for all of them. A background thread also flushes every
+ * so often, so changes made without waiting still reach the disk shortly afterwards.
+ *
+ * The journal is split into numbered segment files. mark() starts a new segment and
+ * truncateBefore() deletes older ones once a snapshot that covers them has been saved.
+ *
+ * Record framing: int payload length, int CRC32C of the payload, payload. A torn or
+ * corrupt record ends the replay of its segment.
+ */
+public class Journal implements Account.TransactionListener, Closeable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    static final byte RECORD_TRANSACTION = 1;
+    static final byte RECORD_ACCOUNT_OPENED = 2;
+
+    static final byte KIND_SAVINGS = 0;
+    static final byte KIND_CHECKING = 1;
+
+    private static final int FRAME_HEADER = 8;
+    private static final int MAX_RECORD = 64 * 1024;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final long windowNanos;
+
+    // Serializes appends, buffer writes and segment changes (never held while forcing)
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_RECORD + FRAME_HEADER);
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private long segment;
+
+    // Bytes appended since the journal was opened, and how many of them are forced to disk
+    private long appendedPosition;
+    private volatile long durablePosition;
+
+    // Transactions appended since the journal was opened or last marked
+    private volatile long eventsSinceMark;
+
+    // Held by the group-commit leader while it writes and forces
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Object durableSignal = new Object();
+
+    // Position of the last record each thread appended
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+    // Segments that existed when the journal was opened; these are what replay() reads
+    private final List<Path> recoverySegments;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile long forceCount;
+
+    /**
+     * Open (or create) a journal directory. Existing segments are kept for replay() and
+     * a new segment is started for writing.
+     *
+     * @param directory     Where the segment files live
+     * @param commitWindow  How long a group-commit leader waits for others to join (0 for none)
+     * @param flushInterval How often buffered records are flushed when nobody is waiting
+     */
+    public Journal(Path directory, long commitWindow, long flushInterval, TimeUnit unit) throws IOException {
+        this.directory = directory;
+        this.windowNanos = unit.toNanos(commitWindow);
+        Files.createDirectories(directory);
+        this.recoverySegments = listSegments(directory);
+        long last = recoverySegments.isEmpty() ? 0 : segmentNumber(recoverySegments.get(recoverySegments.size() - 1));
+        openSegment(last + 1);
+
+        long flushNanos = Math.max(1L, unit.toNanos(flushInterval));
+        this.flusher = new Thread(() -> {
+            while (!closed) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(flushNanos);
+                    if (durablePosition < appendedPosition()) {
+                        flush();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Journal flush failed: " + e.getMessage());
+                }
+            }
+        }, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Open a journal with a 1 ms group-commit window and a 50 ms background flush.
+     */
+    public Journal(Path directory) throws IOException {
+        this(directory, 1, 50, TimeUnit.MILLISECONDS);
+    }
+
+    // ---- Writing ----
+
+    /**
+     * Called by an account, under its lock, for every transaction it records.
+     */
+    @Override
+    public void transactionRecorded(Account account, int row, Account counterparty) {
+        appendTransaction(account, row, counterparty);
+    }
+
+    /**
+     * Log a newly opened account together with any transactions it already has.
+     *
+     * @param owner   The customer the account was added to
+     * @param account The new account
+     */
+    public void accountOpened(Customer owner, Account account) {
+        User user = owner.getUser();
+        synchronized (account) {
+            appendLock.lock();
+            try {
+                ByteBuffer out = beginRecord(RECORD_ACCOUNT_OPENED);
+                putString(out, user == null ? "" : user.getUsername());
+                putString(out, account.getAccountNumber());
+                if (account instanceof CheckingAccount checking) {
+                    out.put(KIND_CHECKING);
+                    out.putLong(checking.getOverdraftLimitPaise());
+                } else {
+                    out.put(KIND_SAVINGS);
+                    double rate = account instanceof SavingsAccount savings ? savings.getInterestRate() : 0.0;
+                    out.putLong(Double.doubleToLongBits(rate));
+                }
+                endRecord();
+            } finally {
+                appendLock.unlock();
+            }
+            for (int row = 0; row < account.getLedger().size(); row++) {
+                appendTransaction(account, row, null);
+            }
+        }
+    }
+
+    private void appendTransaction(Account account, int row, Account counterparty) {
+        TransactionLedger ledger = account.getLedger();
+        appendLock.lock();
+        try {
+            ByteBuffer out = beginRecord(RECORD_TRANSACTION);
+            putString(out, account.getAccountNumber());
+            out.putInt(row);
+            out.putLong(ledger.getTimestampMicros(row));
+            out.put(ledger.getType(row).getCode());
+            out.putLong(ledger.getAmountPaise(row));
+            out.putLong(ledger.getResultingBalancePaise(row));
+            out.putLong(ledger.getIdHigh(row));
+            out.putLong(ledger.getIdLow(row));
+            out.putLong(ledger.getTransferIdHigh(row));
+            out.putLong(ledger.getTransferIdLow(row));
+            putString(out, counterparty == null ? "" : counterparty.getAccountNumber());
+            endRecord();
+            eventsSinceMark++;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private ByteBuffer beginRecord(byte recordType) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        frame.clear();
+        frame.position(FRAME_HEADER);
+        frame.put(recordType);
+        return frame;
+    }
+
+    // Frame the record, copy it into the buffer and remember its end for the current thread
+    private void endRecord() {
+        int length = frame.position() - FRAME_HEADER;
+        crc.reset();
+        crc.update(frame.array(), FRAME_HEADER, length);
+        frame.putInt(0, length);
+        frame.putInt(4, (int) crc.getValue());
+        frame.flip();
+        if (frame.remaining() > buffer.remaining()) {
+            try {
+                writeBuffer();
+            } catch (IOException e) {
+                throw new JournalException("Journal write failed", e);
+            }
+        }
+        appendedPosition += frame.remaining();
+        buffer.put(frame);
+        lastAppended.get()[0] = appendedPosition;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    // Hand the buffered bytes to the file; caller holds appendLock
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private long appendedPosition() {
+        appendLock.lock();
+        try {
+            return appendedPosition;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // ---- Group commit ----
+
+    /**
+     * Wait until every record appended by the current thread is on disk.
+     * Concurrent callers share a single force(); see the class comment.
+     */
+    public void awaitDurable() {
+        awaitDurable(lastAppended.get()[0]);
+    }
+
+    private void awaitDurable(long position) {
+        while (durablePosition < position) {
+            if (flushLock.tryLock()) {
+                try {
+                    if (durablePosition >= position) {
+                        return;
+                    }
+                    if (windowNanos > 0) {
+                        // Give other writers a moment to join this commit
+                        long deadline = System.nanoTime() + windowNanos;
+                        long remaining;
+                        while ((remaining = deadline - System.nanoTime()) > 0) {
+                            TimeUnit.NANOSECONDS.sleep(remaining);
+                        }
+                    }
+                    flushLocked();
+                } catch (IOException e) {
+                    throw new JournalException("Journal force failed", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JournalException("Interrupted while waiting for the journal", e);
+                } finally {
+                    flushLock.unlock();
+                }
+            } else {
+                synchronized (durableSignal) {
+                    if (durablePosition < position) {
+                        try {
+                            durableSignal.wait(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new JournalException("Interrupted while waiting for the journal", e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write and force everything appended so far.
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        long target;
+        FileChannel forced;
+        appendLock.lock();
+        try {
+            writeBuffer();
+            target = appendedPosition;
+            forced = channel;
+        } finally {
+            appendLock.unlock();
+        }
+        if (target > durablePosition) {
+            forced.force(false);
+            forceCount++;
+            durablePosition = target;
+            synchronized (durableSignal) {
+                durableSignal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Get how many transactions were appended since the journal was opened or last marked,
+     * i.e. how many a recovery from the latest snapshot would have to replay.
+     */
+    public long getEventsSinceMark() {
+        return eventsSinceMark;
+    }
+
+    /**
+     * Get how many times the journal has been forced to disk (for benchmarks).
+     */
+    public long getForceCount() {
+        return forceCount;
+    }
+
+    // ---- Segments ----
+
+    /**
+     * Start a new segment and return its number. Records appended before the call are
+     * in older segments; pass the number to truncateBefore() once a snapshot taken
+     * after this call has been saved.
+     */
+    public long mark() throws IOException {
+        flushLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                writeBuffer();
+                channel.force(false);
+                durablePosition = appendedPosition;
+                channel.close();
+                openSegment(segment + 1);
+                eventsSinceMark = 0;
+                return segment;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Delete every segment older than the given mark.
+     */
+    public void truncateBefore(long mark) throws IOException {
+        for (Path file : listSegments(directory)) {
+            if (segmentNumber(file) < mark) {
+                Files.deleteIfExists(file);
+            }
+        }
+        recoverySegments.removeIf(file -> segmentNumber(file) < mark);
+    }
+
+    private void openSegment(long number) throws IOException {
+        Path file = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segment = number;
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        flusher.interrupt();
+        appendLock.lock();
+        try {
+            channel.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // ---- Replay ----
+
+    /**
+     * What replay() did.
+     */
+    public static final class ReplayResult {
+        private int applied;
+        private int skipped;
+        private int accountsOpened;
+        private int unknownAccounts;
+        private int transfersCompleted;
+        private final List<String> problems = new ArrayList<>();
+
+        /** Transactions added to ledgers. */
+        public int getApplied() {
+            return applied;
+        }
+
+        /** Transactions that were already in the snapshot. */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getAccountsOpened() {
+            return accountsOpened;
+        }
+
+        /** Records for accounts (or owners) the bank does not know. */
+        public int getUnknownAccounts() {
+            return unknownAccounts;
+        }
+
+        /** Transfers whose credit leg was missing and was applied at the end of replay. */
+        public int getTransfersCompleted() {
+            return transfersCompleted;
+        }
+
+        /** Torn or corrupt records and gaps in ledger rows. */
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        @Override
+        public String toString() {
+            return "applied=" + applied + ", skipped=" + skipped + ", accountsOpened=" + accountsOpened
+                    + ", unknownAccounts=" + unknownAccounts + ", transfersCompleted=" + transfersCompleted
+                    + ", problems=" + problems.size();
+        }
+    }
+
+    /**
+     * Replay the segments that existed when this journal was opened on top of the bank's
+     * current state (normally a freshly loaded snapshot), on the common pool.
+     *
+     * @see #replay(BankService, ForkJoinPool)
+     */
+    public ReplayResult replay(BankService bank) throws IOException {
+        return replay(bank, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Replay the segments that existed when this journal was opened on top of the bank's
+     * current state (normally a freshly loaded snapshot).
+     *
+     * The segments are read once, in order, and their transactions are collected per
+     * account. Accounts are then rebuilt in parallel on the given pool: each account's
+     * rows are applied in journal order, and accounts do not depend on each other.
+     *
+     * A transfer whose debit was journaled but whose credit was not (the process stopped
+     * in between) is completed at the end by crediting the payee; if this journal is
+     * attached to the bank, that credit is journaled like any other. A payee whose ledger
+     * already has a row with the transfer id (the snapshot holds the credit) is skipped,
+     * and a transfer whose payer is unknown or lacks the debit row (its rows stopped at a
+     * gap) is reported as a problem instead of being credited.
+     */
+    public ReplayResult replay(BankService bank, ForkJoinPool pool) throws IOException {
+        ReplayResult result = new ReplayResult();
+        // Account number -> its journaled rows, in journal order
+        Map<String, PendingRows> rowsByAccount = new LinkedHashMap<>();
+        // Transfer id -> payee and amount, for debits whose credit has not been seen yet
+        Map<TransactionId, PendingCredit> pending = new HashMap<>();
+        for (Path file : new ArrayList<>(recoverySegments)) {
+            readSegment(file, bank, result, rowsByAccount, pending);
+        }
+
+        List<ReplayAccountTask> tasks = new ArrayList<>(rowsByAccount.size());
+        for (Map.Entry<String, PendingRows> entry : rowsByAccount.entrySet()) {
+            tasks.add(new ReplayAccountTask(bank, entry.getKey(), entry.getValue()));
+        }
+        if (pool.getParallelism() > 1 && tasks.size() > 1) {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (ReplayAccountTask task : tasks) {
+                task.compute();
+            }
+        }
+        for (ReplayAccountTask task : tasks) {
+            result.applied += task.applied;
+            result.skipped += task.skipped;
+            if (task.unknown) {
+                result.unknownAccounts += task.rows.size;
+            }
+            if (task.problem != null) {
+                result.problems.add(task.problem);
+            }
+        }
+
+        for (Map.Entry<TransactionId, PendingCredit> entry : pending.entrySet()) {
+            PendingCredit credit = entry.getValue();
+            BankService.AccountEntry payee = bank.findAccountByNumber(credit.payee);
+            BankService.AccountEntry payer = bank.findAccountByNumber(credit.payer);
+            if (payee == null) {
+                result.problems.add("Cannot complete transfer " + entry.getKey() + ": unknown payee " + credit.payee);
+                continue;
+            }
+            // Credit only a debit that was really applied: the payer may be missing, or its
+            // rows may have stopped at a gap before the debit
+            if (payer == null) {
+                result.problems.add("Cannot complete transfer " + entry.getKey() + ": unknown payer " + credit.payer);
+                continue;
+            }
+            Account payerAccount = payer.getAccount();
+            boolean debited;
+            synchronized (payerAccount) {
+                debited = hasTransferRow(payerAccount.getLedger(), entry.getKey());
+            }
+            if (!debited) {
+                result.problems.add("Cannot complete transfer " + entry.getKey() + ": its debit is missing from "
+                        + credit.payer);
+                continue;
+            }
+            Account payeeAccount = payee.getAccount();
+            synchronized (payeeAccount) {
+                if (hasTransferRow(payeeAccount.getLedger(), entry.getKey())) {
+                    result.skipped++;
+                    continue;
+                }
+                payeeAccount.creditForTransfer(credit.amountPaise, entry.getKey(), payerAccount);
+            }
+            result.transfersCompleted++;
+        }
+        return result;
+    }
+
+    // Newest rows first: a missing credit, if present at all, was recorded recently
+    private static boolean hasTransferRow(TransactionLedger ledger, TransactionId transferId) {
+        for (int row = ledger.size() - 1; row >= 0; row--) {
+            if (ledger.getTransferIdHigh(row) == transferId.getHigh()
+                    && ledger.getTransferIdLow(row) == transferId.getLow()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void readSegment(Path file, BankService bank, ReplayResult result,
+                                    Map<String, PendingRows> rowsByAccount,
+                                    Map<TransactionId, PendingCredit> pending) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CRC32C check = new CRC32C();
+        while (in.remaining() >= FRAME_HEADER) {
+            int start = in.position();
+            int length = in.getInt();
+            int expected = in.getInt();
+            if (length <= 0 || length > MAX_RECORD || length > in.remaining()) {
+                result.problems.add(file.getFileName() + ": torn record at offset " + start);
+                return;
+            }
+            check.reset();
+            check.update(bytes, in.position(), length);
+            if ((int) check.getValue() != expected) {
+                result.problems.add(file.getFileName() + ": corrupt record at offset " + start);
+                return;
+            }
+            ByteBuffer record = in.slice(in.position(), length);
+            in.position(in.position() + length);
+            byte recordType = record.get();
+            if (recordType == RECORD_TRANSACTION) {
+                readTransaction(record, rowsByAccount, pending);
+            } else if (recordType == RECORD_ACCOUNT_OPENED) {
+                // Applied straight away, so the account exists before its rows are replayed
+                replayAccountOpened(record, bank, result);
+            } else {
+                result.problems.add(file.getFileName() + ": unknown record type " + recordType + " at offset " + start);
+            }
+        }
+        if (in.hasRemaining()) {
+            result.problems.add(file.getFileName() + ": torn record at offset " + in.position());
+        }
+    }
+
+    private static void replayAccountOpened(ByteBuffer record, BankService bank, ReplayResult result) {
+        String username = getString(record);
+        String accountNumber = getString(record);
+        byte kind = record.get();
+        long parameter = record.getLong();
+        if (bank.findAccountByNumber(accountNumber) != null) {
+            return;  // already in the snapshot
+        }
+        Customer owner = bank.findCustomerByUsername(username);
+        if (owner == null) {
+            result.unknownAccounts++;
+            return;
+        }
+        Account account = kind == KIND_CHECKING
+                ? new CheckingAccount(accountNumber, Money.toRupees(parameter))
+                : new SavingsAccount(accountNumber, Double.longBitsToDouble(parameter));
+        owner.addAccount(account);
+        result.accountsOpened++;
+    }
+
+    private static void readTransaction(ByteBuffer record, Map<String, PendingRows> rowsByAccount,
+                                        Map<TransactionId, PendingCredit> pending) {
+        String accountNumber = getString(record);
+        PendingRows rows = rowsByAccount.computeIfAbsent(accountNumber, number -> new PendingRows());
+        int i = rows.add();
+        rows.row[i] = record.getInt();
+        rows.timestamp[i] = record.getLong();
+        rows.type[i] = record.get();
+        rows.amount[i] = record.getLong();
+        rows.balance[i] = record.getLong();
+        rows.idHigh[i] = record.getLong();
+        rows.idLow[i] = record.getLong();
+        long transferHigh = rows.transferHigh[i] = record.getLong();
+        long transferLow = rows.transferLow[i] = record.getLong();
+        String counterparty = getString(record);
+
+        if ((transferHigh | transferLow) != 0L) {
+            TransactionId transferId = new TransactionId(transferHigh, transferLow);
+            if (rows.type[i] == TransactionType.WITHDRAWAL.getCode() && !counterparty.isEmpty()) {
+                pending.put(transferId, new PendingCredit(accountNumber, counterparty, rows.amount[i]));
+            } else {
+                pending.remove(transferId);
+            }
+        }
+    }
+
+    /**
+     * The journaled rows of one account, in columns like TransactionLedger.
+     */
+    private static final class PendingRows {
+        int size;
+        int[] row = new int[8];
+        long[] timestamp = new long[8];
+        byte[] type = new byte[8];
+        long[] amount = new long[8];
+        long[] balance = new long[8];
+        long[] idHigh = new long[8];
+        long[] idLow = new long[8];
+        long[] transferHigh = new long[8];
+        long[] transferLow = new long[8];
+
+        int add() {
+            if (size == row.length) {
+                int capacity = size * 2;
+                row = Arrays.copyOf(row, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                type = Arrays.copyOf(type, capacity);
+                amount = Arrays.copyOf(amount, capacity);
+                balance = Arrays.copyOf(balance, capacity);
+                idHigh = Arrays.copyOf(idHigh, capacity);
+                idLow = Arrays.copyOf(idLow, capacity);
+                transferHigh = Arrays.copyOf(transferHigh, capacity);
+                transferLow = Arrays.copyOf(transferLow, capacity);
+            }
+            return size++;
+        }
+    }
+
+    /**
+     * Applies one account's journaled rows; runs in parallel with other accounts.
+     */
+    private static final class ReplayAccountTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final BankService bank;
+        private final String accountNumber;
+        private final PendingRows rows;
+        int applied;
+        int skipped;
+        boolean unknown;
+        String problem;
+
+        ReplayAccountTask(BankService bank, String accountNumber, PendingRows rows) {
+            this.bank = bank;
+            this.accountNumber = accountNumber;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            BankService.AccountEntry entry = bank.findAccountByNumber(accountNumber);
+            if (entry == null) {
+                unknown = true;
+                return;
+            }
+            Account account = entry.getAccount();
+            synchronized (account) {
+                for (int i = 0; i < rows.size; i++) {
+                    int size = account.getLedger().size();
+                    if (rows.row[i] < size) {
+                        skipped++;
+                    } else if (rows.row[i] == size) {
+                        account.replayTransaction(rows.timestamp[i], TransactionType.fromCode(rows.type[i]),
+                                rows.amount[i], rows.balance[i], rows.idHigh[i], rows.idLow[i],
+                                rows.transferHigh[i], rows.transferLow[i]);
+                        applied++;
+                    } else {
+                        // Rows after a gap cannot be trusted to build on the right balance
+                        problem = "Gap in " + accountNumber + ": expected row " + size + " but found " + rows.row[i];
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static final class PendingCredit {
+        final String payer;
+        final String payee;
+        final long amountPaise;
+
+        PendingCredit(String payer, String payee, long amountPaise) {
+            this.payer = payer;
+            this.payee = payee;
+            this.amountPaise = amountPaise;
+        }
+    }
+
+    /**
+     * Unchecked wrapper for I/O failures raised inside account operations, which
+     * cannot throw IOException.
+     */
+    public static class JournalException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public JournalException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.banking.services;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 block codec in pure Java, in the style of LZ4: a single pass with a hash
+ * table of recent 4-byte sequences, no entropy coding, and a decoder that only copies
+ * bytes. It trades compression ratio for speed; snapshot rows are full of repeated
+ * zeros and similar varints, which it still shrinks well.
+ *
+ * A block is a series of sequences. Each starts with a token byte: the high nibble is
+ * the number of literal bytes and the low nibble the match length minus 4, where 15
+ * means "more follows" as bytes of 255 ended by a smaller byte. Then come the literals,
+ * a 2-byte little-endian match offset (1 to 65535 bytes back) and any extra match
+ * length. The last sequence has literals only and ends the block.
+ */
+final class LzBlockCodec implements BlockCodec {
+
+    static final LzBlockCodec INSTANCE = new LzBlockCodec();
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+    // The last bytes of a block are always literals, so the matcher never reads past the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MIN_LENGTH = 13;
+
+    // Hash tables are reused per thread; entries are positions + 1, 0 meaning empty
+    private static final ThreadLocal<int[]> TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    private LzBlockCodec() {
+    }
+
+    @Override
+    public int getId() {
+        return LZ_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        if (length < MIN_LENGTH) {
+            return -1;
+        }
+        int[] table = TABLES.get();
+        Arrays.fill(table, 0);
+        int end = srcOffset + length;
+        int matchLimit = end - LAST_LITERALS;
+        int searchLimit = end - MIN_LENGTH + 1;
+        // Output must come out smaller than the input
+        int limit = dstOffset + length - 1;
+
+        int dp = dstOffset;
+        int anchor = srcOffset;
+        int ip = srcOffset;
+        while (ip < searchLimit) {
+            int value = (int) INT.get(src, ip);
+            int h = hash(value);
+            int candidate = table[h] - 1;
+            table[h] = ip + 1;
+            if (candidate < srcOffset || ip - candidate > MAX_OFFSET || (int) INT.get(src, candidate) != value) {
+                // Skip faster through data that does not compress
+                ip += 1 + ((ip - anchor) >>> 6);
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[candidate + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+            dp = writeSequence(src, anchor, ip - anchor, ip - candidate, matchLength, dst, dp, limit);
+            if (dp < 0) {
+                return -1;
+            }
+            ip += matchLength;
+            anchor = ip;
+        }
+        dp = writeSequence(src, anchor, end - anchor, 0, 0, dst, dp, limit);
+        return dp < 0 ? -1 : dp - dstOffset;
+    }
+
+    // Write one sequence; a match length of 0 marks the last one. Returns the new output position, or -1 if full.
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int dp, int limit) {
+        int extraMatch = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        int needed = 1 + literals + literals / 255 + 1 + (matchLength == 0 ? 0 : 2 + extraMatch / 255 + 1);
+        if (dp + needed > limit) {
+            return -1;
+        }
+        int token = (Math.min(literals, 15) << 4) | (matchLength == 0 ? 0 : Math.min(extraMatch, 15));
+        dst[dp++] = (byte) token;
+        if (literals >= 15) {
+            dp = writeLength(dst, dp, literals - 15);
+        }
+        System.arraycopy(src, literalStart, dst, dp, literals);
+        dp += literals;
+        if (matchLength == 0) {
+            return dp;
+        }
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        if (extraMatch >= 15) {
+            dp = writeLength(dst, dp, extraMatch - 15);
+        }
+        return dp;
+    }
+
+    private static int writeLength(byte[] dst, int dp, int remaining) {
+        while (remaining >= 255) {
+            dst[dp++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[dp++] = (byte) remaining;
+        return dp;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        int sp = srcOffset;
+        int srcEnd = srcOffset + srcLength;
+        int dp = dstOffset;
+        int dstEnd = dstOffset + dstLength;
+        while (true) {
+            if (sp >= srcEnd) {
+                throw new StreamCorruptedException("LZ block ends in the middle of a sequence");
+            }
+            int token = src[sp++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int more;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new StreamCorruptedException("LZ block ends in a literal length");
+                    }
+                    more = src[sp++] & 0xFF;
+                    literals += more;
+                } while (more == 255);
+            }
+            if (literals > srcEnd - sp || literals > dstEnd - dp) {
+                throw new StreamCorruptedException("LZ literals run past the block");
+            }
+            System.arraycopy(src, sp, dst, dp, literals);
+            sp += literals;
+            dp += literals;
+            if (sp == srcEnd) {
+                break;
+            }
+            if (srcEnd - sp < 2) {
+                throw new StreamCorruptedException("LZ block ends in a match offset");
+            }
+            int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+            sp += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int more;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new StreamCorruptedException("LZ block ends in a match length");
+                    }
+                    more = src[sp++] & 0xFF;
+                    matchLength += more;
+                } while (more == 255);
+            }
+            matchLength += MIN_MATCH;
+            int from = dp - offset;
+            if (offset == 0 || from < dstOffset || matchLength > dstEnd - dp) {
+                throw new StreamCorruptedException("Bad LZ match at output position " + (dp - dstOffset));
+            }
+            if (offset >= matchLength) {
+                System.arraycopy(dst, from, dst, dp, matchLength);
+                dp += matchLength;
+            } else {
+                // Overlapping match: repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dp++] = dst[from + i];
+                }
+            }
+        }
+        if (dp != dstEnd) {
+            throw new StreamCorruptedException("LZ block does not have the expected length");
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.Customer;
+import com.banking.model.TransactionType;
+import com.banking.model.User;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MappedSnapshot serves a snapshot file from a read-only memory mapping, so a bank
+ * can be used before its customers have been read.
+ *
+ * Opening the file reads only the users and the snapshot's index: username and
+ * account number to customer position, plus where each customer's record starts and
+ * how long each ledger is. A customer and its accounts are decoded the first time
+ * they are looked up (see BankService), and an account's ledger rows only when its
+ * ledger is first used (see Account.LedgerLoader). Chunks of the file that are never
+ * touched are never read, so memory follows the customers in use rather than the
+ * size of the file.
+ *
+ * Only indexed, uncompressed snapshots (version 2 and later) up to 2 GB can be mapped;
+ * open() returns null for anything else, and callers load such files the usual way. The file must not be
+ * changed in place while mapped; PersistenceService replaces files with a rename.
+ *
+ * Opening a checksummed snapshot (version 5) checks only the header, users, chunk
+ * directory and index; if the index is damaged, open() returns null as well. Each
+ * chunk is checked against its CRC32C the first time one of its customers is decoded,
+ * which covers the ledgers it holds too. A damaged chunk is reported to the LoadReport
+ * given to open() at that point, and its customers stay lost, as a full load would
+ * skip them. checkChunks() checks every chunk up front instead.
+ *
+ * Not thread-safe: BankService decodes customers while holding its lock.
+ */
+final class MappedSnapshot {
+
+    private final Path file;
+    private final MappedByteBuffer mapped;
+    private final TransactionType[] types;
+    private final Map<String, User> users;
+
+    // Customer c's record starts at customerOffsets[c]; its accounts' ledger lengths are
+    // ledgerBytes[firstAccount[c]] up to ledgerBytes[firstAccount[c + 1] - 1]
+    private final long[] customerOffsets;
+    private final int[] firstAccount;
+    private final long[] ledgerBytes;
+
+    // Positions of the customers with a username / owning an account number; the last wins
+    private final Map<String, Integer> positionByUsername;
+    private final Map<String, Integer> positionByAccountNumber;
+
+    // Decoded customers, by position
+    private final Customer[] customers;
+    private int decodedCount;
+
+    private static final byte UNCHECKED = 0;
+    private static final byte INTACT = 1;
+    private static final byte DAMAGED = 2;
+
+    // Chunk i holds customers chunkStarts[i] up to chunkStarts[i + 1] - 1; both are null
+    // for files without chunk checksums
+    private final SnapshotCodec.Directory directory;
+    private final int[] chunkStarts;
+    private final byte[] chunkStates;
+    private final PersistenceService.LoadReport report;
+
+    private MappedSnapshot(Path file, MappedByteBuffer mapped, TransactionType[] types, Map<String, User> users,
+                           long[] customerOffsets, int[] firstAccount, long[] ledgerBytes,
+                           Map<String, Integer> positionByUsername, Map<String, Integer> positionByAccountNumber,
+                           SnapshotCodec.Directory directory, int[] chunkStarts, PersistenceService.LoadReport report) {
+        this.file = file;
+        this.mapped = mapped;
+        this.types = types;
+        this.users = users;
+        this.customerOffsets = customerOffsets;
+        this.firstAccount = firstAccount;
+        this.ledgerBytes = ledgerBytes;
+        this.positionByUsername = positionByUsername;
+        this.positionByAccountNumber = positionByAccountNumber;
+        this.customers = new Customer[customerOffsets.length];
+        this.directory = directory;
+        this.chunkStarts = chunkStarts;
+        this.chunkStates = chunkStarts == null ? null : new byte[chunkStarts.length - 1];
+        this.report = report;
+    }
+
+    /**
+     * Map a snapshot file and read its users and index.
+     *
+     * @param report Where damaged chunks are reported when they are found, or null
+     * @return The mapped snapshot, or null if the file has no index, is too large to map
+     *         or has a damaged index
+     */
+    static MappedSnapshot open(Path file, PersistenceService.LoadReport report) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || size < SnapshotCodec.TRAILER_SIZE + 5) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        SnapshotCodec.Input in = new SnapshotCodec.Input(mapped, 0);
+        if (in.getInt() != SnapshotCodec.MAGIC) {
+            return null;
+        }
+        long version = in.getVarLong();
+        if (version < SnapshotCodec.FIRST_INDEXED_VERSION || version > SnapshotCodec.VERSION) {
+            return null;
+        }
+        // Compressed chunks cannot be decoded in place
+        if (version >= SnapshotCodec.FIRST_COMPRESSED_VERSION && in.getVarLong() != BlockCodec.NONE_ID) {
+            return null;
+        }
+        int limit = mapped.limit();
+        if (mapped.getInt(limit - 4) != SnapshotCodec.END_MAGIC) {
+            throw new StreamCorruptedException("Snapshot is truncated or corrupt: " + file);
+        }
+        // The trailer points at the index, or at the chunk directory just before it
+        long footerOffset = mapped.getLong(limit - SnapshotCodec.TRAILER_SIZE);
+        if (footerOffset < 0 || footerOffset > limit - SnapshotCodec.TRAILER_SIZE) {
+            throw new StreamCorruptedException("Bad index offset " + footerOffset + " in " + file);
+        }
+        boolean chunked = version >= SnapshotCodec.FIRST_CHUNKED_VERSION;
+        SnapshotCodec.Directory checked = null;
+
+        TransactionType[] types = SnapshotCodec.readTypes(in);
+        int userCount = in.getCount();
+        Map<String, User> users = new HashMap<>(Math.max(16, userCount * 4 / 3 + 1));
+        for (int i = 0; i < userCount; i++) {
+            User user = SnapshotCodec.readUser(in);
+            users.put(user.getUsername(), user);
+        }
+        long customersStart = in.position();
+
+        in = new SnapshotCodec.Input(mapped, footerOffset);
+        long indexEnd = limit - SnapshotCodec.TRAILER_SIZE;
+        if (chunked) {
+            SnapshotCodec.Directory directory = SnapshotCodec.readDirectory(in, version, customersStart, footerOffset,
+                    file);
+            if (directory.checksummed) {
+                if (directory.headerLength != customersStart
+                        || in.checksum(0, customersStart) != directory.headerChecksum) {
+                    throw new StreamCorruptedException("Snapshot header or users fail their checksum: " + file);
+                }
+                indexEnd -= SnapshotCodec.CHECKSUM_SIZE;
+                if (!directory.indexIntact(in, indexEnd)) {
+                    return null;
+                }
+                checked = directory;
+            }
+        }
+        int customerCount = in.getCount();
+        in.checkFits(customerCount);
+        int[] chunkStarts = null;
+        if (checked != null) {
+            chunkStarts = new int[checked.size() + 1];
+            for (int i = 0; i < checked.size(); i++) {
+                chunkStarts[i + 1] = chunkStarts[i] + checked.counts[i];
+            }
+            if (chunkStarts[checked.size()] != customerCount) {
+                throw new StreamCorruptedException("Snapshot index does not match its chunks: " + file);
+            }
+        }
+        long[] customerOffsets = new long[customerCount];
+        int[] firstAccount = new int[customerCount + 1];
+        long[] ledgerBytes = new long[Math.max(16, customerCount * 2)];
+        Map<String, Integer> positionByUsername = new HashMap<>(Math.max(16, customerCount * 4 / 3 + 1));
+        Map<String, Integer> positionByAccountNumber = new HashMap<>(Math.max(16, customerCount * 8 / 3 + 1));
+        long offset = 0;
+        int accounts = 0;
+        for (int c = 0; c < customerCount; c++) {
+            // Chunks may be in any order, so offsets can go backwards between them
+            offset += chunked ? in.getZigZag() : in.getVarLong();
+            if (offset < customersStart || offset >= footerOffset) {
+                throw new StreamCorruptedException("Bad customer offset " + offset + " in " + file);
+            }
+            customerOffsets[c] = offset;
+            String username = in.getNullableString();
+            if (username != null) {
+                positionByUsername.put(username, c);
+            }
+            firstAccount[c] = accounts;
+            int accountCount = in.getCount();
+            for (int a = 0; a < accountCount; a++) {
+                positionByAccountNumber.put(in.getString(), c);
+                if (accounts == ledgerBytes.length) {
+                    ledgerBytes = Arrays.copyOf(ledgerBytes, accounts * 2);
+                }
+                ledgerBytes[accounts++] = in.getVarLong();
+            }
+        }
+        firstAccount[customerCount] = accounts;
+        if (in.position() != indexEnd) {
+            throw new StreamCorruptedException("Snapshot index is corrupt: " + file);
+        }
+        return new MappedSnapshot(file, mapped, types, users, customerOffsets, firstAccount, ledgerBytes,
+                positionByUsername, positionByAccountNumber, checked, chunkStarts, report);
+    }
+
+    /**
+     * Check every chunk now rather than on first use, e.g. before a journal replay that
+     * needs to know which customers were lost.
+     */
+    void checkChunks() {
+        if (chunkStates != null) {
+            for (int chunk = 0; chunk < chunkStates.length; chunk++) {
+                checkChunk(chunk);
+            }
+        }
+    }
+
+    // Check a chunk against its checksum the first time it is used; a damaged one is reported once
+    private boolean checkChunk(int chunk) {
+        if (chunkStates[chunk] == UNCHECKED) {
+            long offset = directory.offsets[chunk];
+            boolean intact;
+            try {
+                SnapshotCodec.Input in = new SnapshotCodec.Input(mapped, 0);
+                intact = in.checksum(offset, offset + directory.lengths[chunk]) == directory.checksums[chunk];
+            } catch (IOException e) {
+                intact = false;
+            }
+            chunkStates[chunk] = intact ? INTACT : DAMAGED;
+            if (!intact && report != null) {
+                report.chunkLost("Chunk " + chunk + " at offset " + offset + " fails its checksum",
+                        directory.counts[chunk]);
+                boolean[] damaged = new boolean[chunkStates.length];
+                damaged[chunk] = true;
+                try {
+                    SnapshotCodec.readLostCustomers(new SnapshotCodec.Input(mapped, directory.indexStart), directory,
+                            damaged, report);
+                } catch (IOException e) {
+                    report.addProblem("Cannot tell which customers were lost: the index is damaged too");
+                }
+            }
+        }
+        return chunkStates[chunk] == INTACT;
+    }
+
+    // The chunk holding the customer at a position; empty chunks hold none
+    private int chunkOf(int position) {
+        int lo = 0;
+        int hi = chunkStarts.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (chunkStarts[mid] <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    Map<String, User> getUsers() {
+        return users;
+    }
+
+    int size() {
+        return customers.length;
+    }
+
+    /**
+     * @return The position of the customer with this username, or -1
+     */
+    int findByUsername(String username) {
+        Integer position = positionByUsername.get(username);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @return The position of the customer owning this account number, or -1
+     */
+    int findByAccountNumber(String accountNumber) {
+        Integer position = positionByAccountNumber.get(accountNumber);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @return The customer at a position if it has been decoded, otherwise null
+     */
+    Customer getDecoded(int position) {
+        return customers[position];
+    }
+
+    int getDecodedCount() {
+        return decodedCount;
+    }
+
+    /**
+     * Decode the customer at a position with its accounts (each account's ledger is
+     * read when first used). Returns the same object on later calls.
+     *
+     * @return The customer, or null if its chunk fails its checksum
+     */
+    Customer decode(int position) {
+        Customer customer = customers[position];
+        if (customer != null) {
+            return customer;
+        }
+        if (chunkStates != null && !checkChunk(chunkOf(position))) {
+            return null;
+        }
+        try {
+            SnapshotCodec.Input in = new SnapshotCodec.Input(mapped, customerOffsets[position]);
+            customer = SnapshotCodec.readCustomerHeader(in, users);
+            int accountCount = in.getCount();
+            if (accountCount != firstAccount[position + 1] - firstAccount[position]) {
+                throw new StreamCorruptedException("Customer " + position + " does not match the index");
+            }
+            for (int a = 0; a < accountCount; a++) {
+                SnapshotCodec.AccountHeader header = SnapshotCodec.readAccountHeader(in);
+                Account account = header.newAccount();
+                header.restore(account);
+                long ledgerOffset = in.position();
+                in.skip(ledgerBytes[firstAccount[position] + a]);
+                account.setLedgerLoader(ledger -> {
+                    try {
+                        SnapshotCodec.readRows(new SnapshotCodec.Input(mapped, ledgerOffset), ledger, 0, types);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot read the ledger of account "
+                                + header.number + " from " + file, e);
+                    }
+                });
+                customer.addAccount(account);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read customer " + position + " from " + file, e);
+        }
+        customers[position] = customer;
+        decodedCount++;
+        return customer;
+    }
+
+    /**
+     * @return The customers decoded so far, in snapshot order
+     */
+    List<Customer> decoded() {
+        List<Customer> decoded = new ArrayList<>(decodedCount);
+        for (Customer customer : customers) {
+            if (customer != null) {
+                decoded.add(customer);
+            }
+        }
+        return decoded;
+    }
+}
@@ -3,6 +3,7 @@ package com.banking.services;
 import com.banking.model.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -125,7 +126,20 @@ public class MonthlyStatementService {
             for (Account account : accounts) {
                 statement.append("Account: ").append(account.getAccountNumber()).append("\n");
                 statement.append("Type: ").append(getAccountType(account)).append("\n");
-                statement.append("Balance: ").append(formatCurrency(account.getBalance())).append("\n");
+                statement.append("Balance: ").append(formatCurrency(account.getBalancePaise())).append("\n");
+                
+                // Month totals are kept up to date by the account itself
+                MonthlySummary summary = account.getMonthlySummary(YearMonth.from(lastMonth));
+                if (summary != null) {
+                    statement.append("Opening Balance: ").append(formatCurrency(summary.getOpeningBalancePaise())).append("\n");
+                    statement.append("Deposits: ").append(summary.getDepositCount())
+                             .append(" totalling ").append(formatCurrency(summary.getDepositTotalPaise())).append("\n");
+                    statement.append("Withdrawals: ").append(summary.getWithdrawalCount())
+                             .append(" totalling ").append(formatCurrency(summary.getWithdrawalTotalPaise())).append("\n");
+                    statement.append("Closing Balance: ").append(formatCurrency(summary.getClosingBalancePaise())).append("\n");
+                    statement.append("Lowest / Highest Balance: ").append(formatCurrency(summary.getMinBalancePaise()))
+                             .append(" / ").append(formatCurrency(summary.getMaxBalancePaise())).append("\n");
+                }
                 
                 // Get transactions for last month
                 List<Transaction> monthlyTransactions = getTransactionsForMonth(account, lastMonth);
@@ -136,8 +150,8 @@ public class MonthlyStatementService {
                     for (Transaction transaction : monthlyTransactions) {
                         statement.append(transaction.getDate().format(DateTimeFormatter.ofPattern("dd/MM")));
                         statement.append(" - ").append(transaction.getType().toUpperCase());
-                        statement.append(": ").append(formatCurrency(transaction.getAmount()));
-                        statement.append(" | Balance: ").append(formatCurrency(transaction.getResultingBalance())).append("\n");
+                        statement.append(": ").append(formatCurrency(transaction.getAmountPaise()));
+                        statement.append(" | Balance: ").append(formatCurrency(transaction.getResultingBalancePaise())).append("\n");
                     }
                 } else {
                     statement.append("\nNo transactions for ").append(lastMonth.format(DateTimeFormatter.ofPattern("MMMM yyyy"))).append("\n");
@@ -163,23 +177,17 @@ public class MonthlyStatementService {
     }
     
     /**
-     * Format currency amount
+     * Format currency amount given in paise
      */
-    private String formatCurrency(double amount) {
-        return String.format("₹%.2f", amount);
+    private String formatCurrency(long paise) {
+        return "₹" + Money.toBigDecimal(paise).toPlainString();
     }
     
     /**
-     * Get transactions for a specific month
+     * Get transactions for a specific month (indexed lookup on the account's ledger)
      */
     private List<Transaction> getTransactionsForMonth(Account account, LocalDate month) {
-        return account.getTransactionList().stream()
-            .filter(t -> {
-                LocalDate transactionDate = t.getDate().toLocalDate();
-                return transactionDate.getMonth() == month.getMonth() && 
-                       transactionDate.getYear() == month.getYear();
-            })
-            .toList();
+        return account.transactionsInMonth(YearMonth.from(month));
     }
     
     /**
@@ -0,0 +1,135 @@
+package com.banking.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * MutationGate lets a checkpoint look at the whole bank at one point in time without
+ * putting a global lock on every deposit and transfer.
+ *
+ * Each balance change runs between enter() and exit(), which only increment and
+ * decrement a per-thread stripe of a padded counter array, so threads on different
+ * cores do not contend. callClosed() shuts the gate, waits until every change already
+ * inside has left, runs its action and opens the gate again; changes that arrive
+ * meanwhile wait at enter(). A transfer enters once for both legs, so the action never
+ * sees money that has left one account but not yet arrived in the other.
+ *
+ * The gate is not reentrant: a thread inside must not enter again, or call callClosed().
+ */
+final class MutationGate {
+
+    // Counters are this many longs (128 bytes) apart, so stripes never share a cache line
+    private static final int PAD = 16;
+
+    private final int stripeMask;
+    private final AtomicLongArray inFlight;
+    private final Object monitor = new Object();
+    private volatile boolean closed;
+
+    // Changes that have left the gate, plus those recorded with recordChange()
+    private final LongAdder changes = new LongAdder();
+
+    MutationGate() {
+        int stripes = Integer.highestOneBit(Math.max(8, Runtime.getRuntime().availableProcessors() * 4) * 2 - 1);
+        stripeMask = stripes - 1;
+        inFlight = new AtomicLongArray(stripes * PAD);
+    }
+
+    /**
+     * Wait while the gate is closed, then count the current thread as inside.
+     */
+    void enter() {
+        int index = index();
+        while (true) {
+            inFlight.getAndIncrement(index);
+            // Either callClosed() sees the increment, or this thread sees it closed
+            if (!closed) {
+                return;
+            }
+            inFlight.getAndDecrement(index);
+            awaitOpen();
+        }
+    }
+
+    /**
+     * Leave the gate after a change; must run on the thread that entered.
+     */
+    void exit() {
+        inFlight.getAndDecrement(index());
+        changes.increment();
+    }
+
+    /**
+     * Count a change that did not need the gate, such as a new customer.
+     */
+    void recordChange() {
+        changes.increment();
+    }
+
+    long getChangeCount() {
+        return changes.sum();
+    }
+
+    /**
+     * Run an action while no change is in progress. Changes started before the call
+     * finish first; changes started during it wait until it returns.
+     */
+    synchronized <T> T callClosed(Supplier<T> action) {
+        closed = true;
+        try {
+            awaitEmpty();
+            return action.get();
+        } finally {
+            synchronized (monitor) {
+                closed = false;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    private void awaitEmpty() {
+        int spins = 0;
+        while (!isEmpty()) {
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                // Changes are short; a sleeping thread holding an account lock is the slow case
+                LockSupport.parkNanos(10_000L);
+            }
+        }
+    }
+
+    // Each stripe only goes up before it goes down, so a sum of zero means nothing is inside
+    private boolean isEmpty() {
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            if (inFlight.get(stripe * PAD) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void awaitOpen() {
+        boolean interrupted = false;
+        synchronized (monitor) {
+            while (closed) {
+                try {
+                    monitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A thread always uses the same stripe, so its exit() undoes its own enter()
+    private int index() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & stripeMask) * PAD;
+    }
+}
@@ -0,0 +1,39 @@
+package com.banking.services;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Stores blocks without compressing them.
+ */
+final class NoBlockCodec implements BlockCodec {
+
+    static final NoBlockCodec INSTANCE = new NoBlockCodec();
+
+    private NoBlockCodec() {
+    }
+
+    @Override
+    public int getId() {
+        return NONE_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        return -1;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        if (srcLength != dstLength) {
+            throw new StreamCorruptedException("Stored block has the wrong length");
+        }
+        System.arraycopy(src, srcOffset, dst, dstOffset, dstLength);
+    }
+}
@@ -0,0 +1,322 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.CheckingAccount;
+import com.banking.model.SavingsAccount;
+import com.banking.model.TransactionLedger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * OffHeapAccountStore keeps the state of accounts in fixed-width records outside the
+ * Java heap, so the garbage collector does not have to trace it (see Account.moveTo
+ * and BankService.setAccountStore). The Account objects stay as thin handles holding
+ * their number, locks and listeners.
+ *
+ * Records are 64 bytes in slabs of 1M records (64 MB), allocated as the store grows.
+ * Slabs are direct buffers, or regions of a memory-mapped file when the store is given
+ * one; the file is working space that lets the OS page records out, and is started
+ * afresh when the store is opened.
+ *
+ * Record layout, in native byte order:
+ *   0  long balance in paise
+ *   8  long setting of the account type: overdraft limit in paise, or interest rate bits
+ *  16  long creation time (see Account.StateStore.encodeDateTime), Long.MIN_VALUE if unknown
+ *  24  int  ledger pointer, an index into the store's table of ledgers, -1 for none yet
+ *  28  byte account type (KIND_*)
+ *  29  byte length of the account number, 0 if it is longer than 32 bytes
+ *  30  the account number in UTF-8, up to 32 bytes
+ *
+ * Ledgers stay on the heap; an account that has never had a transaction and whose
+ * ledger has not been asked for has none. Fields are read and written with volatile
+ * access, so readers on any thread see the last value written under the account lock.
+ */
+public class OffHeapAccountStore implements Account.StateStore, Closeable {
+
+    static final int RECORD_SIZE = 64;
+    static final int MAX_NUMBER_BYTES = 32;
+
+    static final byte KIND_OTHER = 0;
+    static final byte KIND_SAVINGS = 1;
+    static final byte KIND_CHECKING = 2;
+
+    private static final int SLAB_SHIFT = 20;
+    private static final int RECORDS_PER_SLAB = 1 << SLAB_SHIFT;
+    private static final int SLAB_BYTES = RECORDS_PER_SLAB * RECORD_SIZE;
+
+    private static final int BALANCE = 0;
+    private static final int PARAMETER = 8;
+    private static final int CREATED_AT = 16;
+    private static final int LEDGER = 24;
+    private static final int KIND = 28;
+    private static final int NUMBER_LENGTH = 29;
+    private static final int NUMBER = 30;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final FileChannel channel;
+
+    // Grown by copying, so readers that saw a slot always find its slab
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private volatile TransactionLedger[] ledgers = new TransactionLedger[1024];
+
+    // Guarded by this
+    private int nextSlot;
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount;
+    private int nextLedger;
+    private int[] freeLedgers = new int[64];
+    private int freeLedgerCount;
+    private int size;
+    private boolean closed;
+
+    /**
+     * A store in direct memory.
+     */
+    public OffHeapAccountStore() {
+        this.file = null;
+        this.channel = null;
+    }
+
+    /**
+     * A store mapped from a file, which is created or emptied.
+     */
+    public OffHeapAccountStore(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return The file behind the store, or null for one in direct memory
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of accounts held
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The bytes taken by the slabs allocated so far
+     */
+    public synchronized long getCapacityBytes() {
+        return (long) slabs.length * SLAB_BYTES;
+    }
+
+    @Override
+    public synchronized int add(Account account, long parameter, TransactionLedger ledger) {
+        if (closed) {
+            throw new IllegalStateException("Account store is closed");
+        }
+        int slot = allocateSlot();
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        LONG.setVolatile(slab, offset + BALANCE, account.getBalancePaise());
+        LONG.setVolatile(slab, offset + PARAMETER, parameter);
+        LONG.setVolatile(slab, offset + CREATED_AT, Account.StateStore.encodeDateTime(account.getCreatedAt()));
+        INT.setVolatile(slab, offset + LEDGER, ledger != null && ledger.size() > 0 ? addLedger(ledger) : -1);
+        slab.put(offset + KIND, kindOf(account));
+        byte[] number = account.getAccountNumber() == null ? new byte[0]
+                : account.getAccountNumber().getBytes(StandardCharsets.UTF_8);
+        if (number.length > MAX_NUMBER_BYTES) {
+            number = new byte[0];
+        }
+        slab.put(offset + NUMBER_LENGTH, (byte) number.length);
+        slab.put(offset + NUMBER, number);
+        size++;
+        return slot;
+    }
+
+    @Override
+    public synchronized void remove(int slot) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        int pointer = (int) INT.getVolatile(slab, offset + LEDGER);
+        if (pointer >= 0) {
+            ledgers[pointer] = null;
+            freeLedgers = push(freeLedgers, freeLedgerCount++, pointer);
+        }
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            LONG.setVolatile(slab, offset + i, 0L);
+        }
+        freeSlots = push(freeSlots, freeSlotCount++, slot);
+        size--;
+    }
+
+    @Override
+    public long getBalancePaise(int slot) {
+        return (long) LONG.getVolatile(slab(slot), offset(slot) + BALANCE);
+    }
+
+    @Override
+    public void setBalancePaise(int slot, long balancePaise) {
+        LONG.setVolatile(slab(slot), offset(slot) + BALANCE, balancePaise);
+    }
+
+    @Override
+    public long getParameter(int slot) {
+        return (long) LONG.getVolatile(slab(slot), offset(slot) + PARAMETER);
+    }
+
+    @Override
+    public void setParameter(int slot, long parameter) {
+        LONG.setVolatile(slab(slot), offset(slot) + PARAMETER, parameter);
+    }
+
+    @Override
+    public long getCreatedAt(int slot) {
+        return (long) LONG.getVolatile(slab(slot), offset(slot) + CREATED_AT);
+    }
+
+    @Override
+    public void setCreatedAt(int slot, long createdAt) {
+        LONG.setVolatile(slab(slot), offset(slot) + CREATED_AT, createdAt);
+    }
+
+    @Override
+    public TransactionLedger getLedger(int slot) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        // Pointer first: the table read after it is at least as new as the pointer
+        int pointer = (int) INT.getVolatile(slab, offset + LEDGER);
+        if (pointer >= 0) {
+            return ledgers[pointer];
+        }
+        synchronized (this) {
+            pointer = (int) INT.getVolatile(slab, offset + LEDGER);
+            if (pointer < 0) {
+                pointer = addLedger(new TransactionLedger());
+                INT.setVolatile(slab, offset + LEDGER, pointer);
+            }
+            return ledgers[pointer];
+        }
+    }
+
+    /**
+     * @return The account number kept in a record, or null if it was too long to keep
+     */
+    public String getAccountNumber(int slot) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        int length = slab.get(offset + NUMBER_LENGTH);
+        if (length == 0) {
+            return null;
+        }
+        byte[] number = new byte[length];
+        slab.get(offset + NUMBER, number);
+        return new String(number, StandardCharsets.UTF_8);
+    }
+
+    // The account type of a record (KIND_*)
+    byte getKind(int slot) {
+        return slab(slot).get(offset(slot) + KIND);
+    }
+
+    /**
+     * Release the slabs and close the file. Every account must have left the store
+     * first (see BankService.setAccountStore).
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (size != 0) {
+            throw new IllegalStateException("Account store still holds " + size + " accounts");
+        }
+        closed = true;
+        slabs = new ByteBuffer[0];
+        ledgers = new TransactionLedger[0];
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer slab(int slot) {
+        return slabs[slot >>> SLAB_SHIFT];
+    }
+
+    private static int offset(int slot) {
+        return (slot & (RECORDS_PER_SLAB - 1)) * RECORD_SIZE;
+    }
+
+    private static byte kindOf(Account account) {
+        if (account instanceof SavingsAccount) {
+            return KIND_SAVINGS;
+        }
+        if (account instanceof CheckingAccount) {
+            return KIND_CHECKING;
+        }
+        return KIND_OTHER;
+    }
+
+    // Caller holds the lock
+    private int allocateSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (nextSlot == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Account store is full");
+        }
+        int slot = nextSlot;
+        if ((slot >>> SLAB_SHIFT) == slabs.length) {
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slabs.length] = newSlab(slabs.length);
+            slabs = grown;
+        }
+        nextSlot++;
+        return slot;
+    }
+
+    private ByteBuffer newSlab(int index) {
+        if (channel == null) {
+            // Aligned so that volatile access to the 8-byte fields is allowed
+            return ByteBuffer.allocateDirect(SLAB_BYTES + 8).alignedSlice(8);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SLAB_BYTES, SLAB_BYTES);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow account store " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Caller holds the lock; the ledger is in the table before any record points to it
+    private int addLedger(TransactionLedger ledger) {
+        int pointer;
+        if (freeLedgerCount > 0) {
+            pointer = freeLedgers[--freeLedgerCount];
+        } else {
+            pointer = nextLedger++;
+            if (pointer == ledgers.length) {
+                ledgers = Arrays.copyOf(ledgers, ledgers.length * 2);
+            }
+        }
+        ledgers[pointer] = ledger;
+        return pointer;
+    }
+
+    private static int[] push(int[] stack, int index, int value) {
+        if (index == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[index] = value;
+        return stack;
+    }
+}
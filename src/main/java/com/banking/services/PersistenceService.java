@@ -1,20 +1,127 @@
 package com.banking.services;
 
+import com.banking.model.Account;
 import com.banking.model.Customer;
+import com.banking.model.User;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Simple binary serialization-based persistence for demo purposes.
+ * Saves and loads the bank's users and customers.
+ *
+ * save() writes the compact binary snapshot format (see SnapshotCodec). load() reads
+ * that format and still accepts files written by older versions with Java
+ * serialization, back to the first release, whose rupee amounts the model classes
+ * convert to paise as they are read. Those files are read through an
+ * ObjectInputFilter that only admits the bank's own model classes and the JDK types
+ * they are made of.
+ *
+ * Snapshots are split into chunks of customers that are encoded and decoded in
+ * parallel on the service's ForkJoinPool (the common pool unless one is given). With
+ * a BlockCodec other than "none", each chunk is also compressed by the worker that
+ * encoded it; load() finds the codec in the file.
+ *
+ * loadMapped() memory-maps a snapshot instead and decodes customers only as they are
+ * used (see MappedSnapshot). save() writes to a temporary file, forces it to disk
+ * and renames it over the target, then syncs the directory: a crash leaves either the
+ * old file or the new one, and a file that is mapped is never changed underneath its
+ * readers.
+ *
+ * Every chunk carries a CRC32C. A load skips chunks that fail it (or cannot be
+ * decoded) rather than failing outright, and returns a LoadReport naming the customers
+ * and accounts they held. Given a journal, the load then replays it: lost customers
+ * whose user survived get a stand-in record first, so any account the journal saw
+ * opened is rebuilt with all of its transactions.
  */
 public class PersistenceService {
 
+    // Classes a legacy snapshot may contain; anything else is rejected before it is created
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=64;maxarray=100000000;"
+                    + "com.banking.model.*;java.util.*;java.util.concurrent.*;java.time.*;java.lang.*;[B;[J;[I;!*");
+
+    private final ForkJoinPool pool;
+    private final BlockCodec codec;
+
+    public PersistenceService() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool The pool that encodes and decodes snapshot chunks
+     */
+    public PersistenceService(ForkJoinPool pool) {
+        this(pool, BlockCodec.none());
+    }
+
+    /**
+     * @param pool  The pool that encodes, compresses, decompresses and decodes snapshot chunks
+     * @param codec How save() compresses chunks
+     */
+    public PersistenceService(ForkJoinPool pool, BlockCodec codec) {
+        this.pool = pool;
+        this.codec = codec;
+    }
+
+    /**
+     * Save the bank as one point in time: every account is copied while the bank is
+     * quiesced (see BankService.callQuiesced), so no transfer is caught half done, and
+     * the copy is encoded and written after the bank has moved on.
+     */
     public void save(Path file, AuthenticationService auth, BankService bank) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Map<String, User> users = auth.exportUsers();
+        List<Customer> customers = bank.exportCustomers();
+        // Read mapped ledgers now rather than while the bank waits
+        for (Customer customer : customers) {
+            for (Account account : customer.getAccounts()) {
+                account.getLedger();
+            }
+        }
+        SnapshotCodec.View view = bank.callQuiesced(() -> SnapshotCodec.View.capture(users, customers));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            SnapshotCodec.write(temp, view, pool, codec);
+            moveDurably(temp, file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Atomically rename a file that is already on disk over the target, then sync the
+     * directory so the rename itself survives a crash.
+     */
+    static void moveDurably(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path directory = target.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory for syncing; the rename is still atomic
+        }
+    }
+
+    /**
+     * Save in the old Java serialization format, for tools that still expect it.
+     */
+    public void saveSerialized(Path file, AuthenticationService auth, BankService bank) throws IOException {
         Path parent = file.getParent();
         if (parent != null) {
             Files.createDirectories(parent);
@@ -25,10 +132,181 @@ public class PersistenceService {
         }
     }
 
+    /**
+     * Load a snapshot, skipping damaged chunks.
+     *
+     * @return What was found damaged, if anything
+     */
+    public LoadReport load(Path file, AuthenticationService auth, BankService bank)
+            throws IOException, ClassNotFoundException {
+        return load(file, auth, bank, null);
+    }
+
+    /**
+     * Load a snapshot, skipping damaged chunks, then replay a journal on top of it and
+     * rebuild what it can of the lost customers.
+     *
+     * @param journal The journal to replay, or null for none
+     */
+    public LoadReport load(Path file, AuthenticationService auth, BankService bank, Journal journal)
+            throws IOException, ClassNotFoundException {
+        LoadReport report = new LoadReport();
+        if (Files.exists(file)) {
+            if (SnapshotCodec.isSnapshot(file)) {
+                SnapshotCodec.Snapshot snapshot = SnapshotCodec.read(file, pool, report);
+                auth.importUsers(snapshot.users);
+                bank.importCustomers(snapshot.customers);
+            } else {
+                loadSerialized(file, auth, bank);
+            }
+        }
+        if (journal != null) {
+            replay(report, auth, bank, journal);
+        }
+        return report;
+    }
+
+    /**
+     * Load a snapshot lazily: map the file, read its users and index, and leave
+     * customers and ledgers to be decoded on first use. Files that cannot be mapped
+     * (older formats, compressed, with a damaged index, or larger than 2 GB) are loaded
+     * in full with load().
+     *
+     * A chunk is checked the first time one of its customers is used, so a damaged
+     * chunk is added to the returned report then, and its customers are not found.
+     */
+    public LoadReport loadMapped(Path file, AuthenticationService auth, BankService bank)
+            throws IOException, ClassNotFoundException {
+        return loadMapped(file, auth, bank, null);
+    }
+
+    /**
+     * Load a snapshot lazily, then replay a journal on top of it (see load()). With a
+     * journal every chunk is checked before the replay, so lost customers are known in
+     * time to be rebuilt.
+     *
+     * @param journal The journal to replay, or null for none
+     */
+    public LoadReport loadMapped(Path file, AuthenticationService auth, BankService bank, Journal journal)
+            throws IOException, ClassNotFoundException {
+        LoadReport report = new LoadReport();
+        MappedSnapshot snapshot = Files.exists(file) ? MappedSnapshot.open(file, report) : null;
+        if (snapshot == null) {
+            return load(file, auth, bank, journal);
+        }
+        if (journal != null) {
+            snapshot.checkChunks();
+        }
+        auth.importUsers(snapshot.getUsers());
+        bank.importMapped(snapshot);
+        if (journal != null) {
+            replay(report, auth, bank, journal);
+        }
+        return report;
+    }
+
+    // Give lost customers whose user survived a stand-in, so the journal can reopen their accounts, then replay it
+    private void replay(LoadReport report, AuthenticationService auth, BankService bank, Journal journal)
+            throws IOException {
+        for (String username : report.lostUsernames) {
+            User user = auth.getUser(username);
+            if (user != null && bank.findCustomerByUsername(username) == null) {
+                // The name and email were in the damaged chunk
+                bank.addCustomer(new Customer(username, null, user));
+            }
+        }
+        report.replay = journal.replay(bank, pool);
+        for (String accountNumber : report.lostAccounts.keySet()) {
+            if (bank.findAccountByNumber(accountNumber) != null) {
+                report.rebuiltAccounts++;
+            }
+        }
+    }
+
+    /**
+     * What a load found damaged in a snapshot, and what a journal replay rebuilt.
+     */
+    public static final class LoadReport {
+        private int damagedChunks;
+        private int lostCustomers;
+        private final List<String> lostUsernames = new ArrayList<>();
+        // Account number -> owner's username ("" for none), in snapshot order
+        private final Map<String, String> lostAccounts = new LinkedHashMap<>();
+        private final List<String> problems = new ArrayList<>();
+        private int rebuiltAccounts;
+        private Journal.ReplayResult replay;
+
+        void chunkLost(String problem, int customers) {
+            damagedChunks++;
+            lostCustomers += customers;
+            problems.add(problem);
+        }
+
+        void customerLost(String username, List<String> accountNumbers) {
+            if (username != null) {
+                lostUsernames.add(username);
+            }
+            for (String accountNumber : accountNumbers) {
+                lostAccounts.put(accountNumber, username == null ? "" : username);
+            }
+        }
+
+        void addProblem(String problem) {
+            problems.add(problem);
+        }
+
+        /** Whether anything in the snapshot was damaged. */
+        public boolean isDamaged() {
+            return !problems.isEmpty();
+        }
+
+        /** Chunks skipped because they failed their checksum or could not be decoded. */
+        public int getDamagedChunks() {
+            return damagedChunks;
+        }
+
+        /** Customers in the skipped chunks. */
+        public int getLostCustomers() {
+            return lostCustomers;
+        }
+
+        /** Usernames of the customers in the skipped chunks, where the index names them. */
+        public List<String> getLostUsernames() {
+            return Collections.unmodifiableList(lostUsernames);
+        }
+
+        /** Account numbers in the skipped chunks, with their owner's username ("" for none). */
+        public Map<String, String> getLostAccounts() {
+            return Collections.unmodifiableMap(lostAccounts);
+        }
+
+        /** Lost accounts that exist again after the journal replay. */
+        public int getRebuiltAccounts() {
+            return rebuiltAccounts;
+        }
+
+        /** What the journal replay did, or null if no journal was given. */
+        public Journal.ReplayResult getReplay() {
+            return replay;
+        }
+
+        /** What was damaged, one line per chunk or section. */
+        public List<String> getProblems() {
+            return Collections.unmodifiableList(problems);
+        }
+
+        @Override
+        public String toString() {
+            return "damagedChunks=" + damagedChunks + ", lostCustomers=" + lostCustomers + ", lostAccounts="
+                    + lostAccounts.size() + ", rebuiltAccounts=" + rebuiltAccounts + ", problems=" + problems.size();
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    public void load(Path file, AuthenticationService auth, BankService bank) throws IOException, ClassNotFoundException {
-        if (!Files.exists(file)) return;
+    private void loadSerialized(Path file, AuthenticationService auth, BankService bank)
+            throws IOException, ClassNotFoundException {
         try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.setObjectInputFilter(LEGACY_FILTER);
             Object usersObj = in.readObject();
             Object customersObj = in.readObject();
             Map<String, com.banking.model.User> importedUsers =
@@ -40,5 +318,3 @@ public class PersistenceService {
         }
     }
 }
-
-
@@ -0,0 +1,202 @@
+package com.banking.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Encodes rows in PostgreSQL's binary COPY format into a growable buffer.
+ *
+ * A stream is the header, then each row as a 16-bit field count followed by every
+ * field as a 32-bit length (-1 for NULL) and its bytes in the type's binary send
+ * format, then the trailer. All numbers are big-endian. Only the types the banking
+ * tables use are supported: text, int4, int8, numeric and timestamp.
+ */
+final class PgCopyEncoder {
+
+    static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    static final int NUMERIC_POSITIVE = 0x0000;
+    static final int NUMERIC_NEGATIVE = 0x4000;
+
+    // Seconds from 1970-01-01 to PostgreSQL's epoch, 2000-01-01
+    static final long POSTGRES_EPOCH_SECONDS = 946_684_800L;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000};
+
+    private byte[] buffer;
+    private int size;
+
+    PgCopyEncoder(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 64)];
+    }
+
+    /**
+     * Start a stream: signature, flags (no OIDs) and an empty header extension.
+     */
+    PgCopyEncoder header() {
+        ensure(SIGNATURE.length + 8);
+        System.arraycopy(SIGNATURE, 0, buffer, size, SIGNATURE.length);
+        size += SIGNATURE.length;
+        putInt(0);
+        putInt(0);
+        return this;
+    }
+
+    /**
+     * End a stream.
+     */
+    PgCopyEncoder trailer() {
+        ensure(2);
+        putShort(-1);
+        return this;
+    }
+
+    PgCopyEncoder row(int fields) {
+        ensure(2);
+        putShort(fields);
+        return this;
+    }
+
+    PgCopyEncoder nullField() {
+        ensure(4);
+        putInt(-1);
+        return this;
+    }
+
+    /**
+     * A text or varchar field in UTF-8, or NULL.
+     */
+    PgCopyEncoder text(String value) {
+        if (value == null) {
+            return nullField();
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        putInt(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    PgCopyEncoder int4(int value) {
+        ensure(8);
+        putInt(4);
+        putInt(value);
+        return this;
+    }
+
+    PgCopyEncoder int8(long value) {
+        ensure(12);
+        putInt(8);
+        putLong(value);
+        return this;
+    }
+
+    /**
+     * A numeric field worth unscaled * 10^-scale, e.g. paise with scale 2.
+     *
+     * Numerics are sent as base-10000 digits: a count of digits, the weight of the first
+     * digit (the power of 10000 it multiplies), a sign and the display scale. Leading
+     * and trailing zero digits are left out, as the server does.
+     *
+     * @param scale Digits after the decimal point, 0 to 4
+     * @throws ArithmeticException if the value is too large to pad to a whole base-10000 fraction
+     */
+    PgCopyEncoder numeric(long unscaled, int scale) {
+        if (scale < 0 || scale > 4) {
+            throw new IllegalArgumentException("Unsupported numeric scale: " + scale);
+        }
+        int sign = unscaled < 0 ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE;
+        // Pad the fraction to one base-10000 digit
+        int fractionDigits = scale == 0 ? 0 : 1;
+        long magnitude = Math.multiplyExact(Math.absExact(unscaled), POWERS_OF_TEN[fractionDigits * 4 - scale]);
+
+        // Least significant digit first
+        short[] digits = new short[6];
+        int count = 0;
+        while (magnitude != 0) {
+            digits[count++] = (short) (magnitude % 10_000);
+            magnitude /= 10_000;
+        }
+        int weight = count - fractionDigits - 1;
+        int low = 0;
+        while (low < count && digits[low] == 0) {
+            low++;
+        }
+        int ndigits = count - low;
+        if (ndigits == 0) {
+            weight = 0;
+            sign = NUMERIC_POSITIVE;
+        }
+
+        ensure(4 + 8 + 2 * ndigits);
+        putInt(8 + 2 * ndigits);
+        putShort(ndigits);
+        putShort(weight);
+        putShort(sign);
+        putShort(scale);
+        for (int i = count - 1; i >= low; i--) {
+            putShort(digits[i]);
+        }
+        return this;
+    }
+
+    /**
+     * A timestamp (without time zone) field: microseconds from 2000-01-01 00:00 on the
+     * same wall clock, or NULL.
+     */
+    PgCopyEncoder timestamp(LocalDateTime value) {
+        if (value == null) {
+            return nullField();
+        }
+        return int8(toPostgresMicros(value));
+    }
+
+    static long toPostgresMicros(LocalDateTime value) {
+        return (value.toEpochSecond(ZoneOffset.UTC) - POSTGRES_EPOCH_SECONDS) * 1_000_000L + value.getNano() / 1_000;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The buffer holding the encoded bytes; valid up to size()
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    private void ensure(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+
+    private void putShort(int value) {
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    private void putInt(int value) {
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+}
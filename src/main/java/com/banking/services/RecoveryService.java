@@ -0,0 +1,182 @@
+package com.banking.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecoveryService runs a bank in event-sourcing mode: the journal of transaction
+ * events is the record of truth, and snapshots only shorten recovery.
+ *
+ * A data directory holds the latest snapshot (snapshot.dat) and the journal. On start,
+ * recover() loads the snapshot and replays only the journal segments written after it,
+ * rebuilding accounts in parallel. Every transaction carries its resulting balance, so
+ * an account's state follows from its last replayed event. The snapshot is memory-mapped
+ * (see MappedSnapshot), so only the customers the journal touches are decoded up front.
+ * Chunks of the snapshot that fail their checksum are skipped, and the journal rebuilds
+ * what it can of them (see PersistenceService.load); the damaged file is kept as
+ * snapshot.dat.damaged, since the next snapshot replaces it.
+ *
+ * While the bank runs, a background thread takes a new snapshot once N events have
+ * been journaled or T has passed since the last one (whichever comes first), then
+ * deletes the journal segments the snapshot covers. Snapshots are taken while the bank
+ * keeps serving requests: a change made during a snapshot is in the new journal
+ * segment and replays on top of it, or is skipped if the snapshot already has it.
+ */
+public class RecoveryService implements Closeable {
+
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+    static final String JOURNAL_DIRECTORY = "journal";
+    static final String DAMAGED_SUFFIX = ".damaged";
+
+    private final Path directory;
+    private final AuthenticationService authenticationService;
+    private final BankService bankService;
+    private final PersistenceService persistenceService = new PersistenceService();
+    private final long snapshotEveryEvents;
+    private final long snapshotEveryNanos;
+
+    private Journal journal;
+    private Thread scheduler;
+    private volatile boolean closed;
+    private volatile long lastSnapshotNanos;
+    private volatile long snapshotCount;
+    private PersistenceService.LoadReport loadReport;
+
+    /**
+     * @param directory           The data directory (created if missing)
+     * @param snapshotEveryEvents Take a snapshot after this many journaled events
+     * @param snapshotEvery       ... or after this long, if any event was journaled
+     */
+    public RecoveryService(Path directory, AuthenticationService authenticationService, BankService bankService,
+                           long snapshotEveryEvents, long snapshotEvery, TimeUnit unit) {
+        if (snapshotEveryEvents < 1) {
+            throw new IllegalArgumentException("snapshotEveryEvents must be at least 1");
+        }
+        this.directory = directory;
+        this.authenticationService = authenticationService;
+        this.bankService = bankService;
+        this.snapshotEveryEvents = snapshotEveryEvents;
+        this.snapshotEveryNanos = unit.toNanos(snapshotEvery);
+    }
+
+    /**
+     * Use a snapshot every 100,000 events or 5 minutes.
+     */
+    public RecoveryService(Path directory, AuthenticationService authenticationService, BankService bankService) {
+        this(directory, authenticationService, bankService, 100_000, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Load the latest snapshot, replay the journal on top of it, attach the journal to
+     * the bank and start taking periodic snapshots.
+     *
+     * @param pool The pool that rebuilds accounts in parallel
+     * @return What the journal replay did
+     */
+    public synchronized Journal.ReplayResult recover(ForkJoinPool pool) throws IOException, ClassNotFoundException {
+        if (journal != null) {
+            throw new IllegalStateException("Already recovered");
+        }
+        Files.createDirectories(directory);
+        journal = new Journal(directory.resolve(JOURNAL_DIRECTORY));
+        bankService.setJournal(journal);
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        loadReport = new PersistenceService(pool).loadMapped(snapshotFile, authenticationService, bankService,
+                journal);
+        if (loadReport.isDamaged()) {
+            Files.copy(snapshotFile, directory.resolve(SNAPSHOT_FILE + DAMAGED_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Snapshot was damaged: " + loadReport + " " + loadReport.getProblems());
+        }
+        Journal.ReplayResult result = loadReport.getReplay();
+        lastSnapshotNanos = System.nanoTime();
+
+        scheduler = new Thread(this::runScheduler, "snapshot-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+        return result;
+    }
+
+    public Journal.ReplayResult recover() throws IOException, ClassNotFoundException {
+        return recover(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Take a snapshot now and drop the journal segments it covers.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Call recover() first");
+        }
+        // Everything journaled before the mark is in the snapshot written after it
+        long mark = journal.mark();
+        // Written to a temporary file and renamed, so the mapped snapshot stays intact
+        persistenceService.save(directory.resolve(SNAPSHOT_FILE), authenticationService, bankService);
+        journal.truncateBefore(mark);
+        lastSnapshotNanos = System.nanoTime();
+        snapshotCount++;
+    }
+
+    /**
+     * Check whether the event or time threshold has been reached.
+     */
+    boolean snapshotDue() {
+        long events = journal.getEventsSinceMark();
+        return events >= snapshotEveryEvents
+                || (events > 0 && System.nanoTime() - lastSnapshotNanos >= snapshotEveryNanos);
+    }
+
+    /**
+     * @return What recover() found damaged in the snapshot and rebuilt, or null before recover()
+     */
+    public PersistenceService.LoadReport getLoadReport() {
+        return loadReport;
+    }
+
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    private void runScheduler() {
+        // Check often enough to keep close to the event threshold without busy waiting
+        long checkNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(snapshotEveryNanos / 10,
+                TimeUnit.SECONDS.toNanos(1)));
+        while (!closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(checkNanos);
+                if (!closed && snapshotDue()) {
+                    snapshot();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop the scheduler and close the journal. No final snapshot is taken; the journal
+     * already holds every change.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.interrupt();
+        }
+        if (journal != null) {
+            bankService.setJournal(null);
+            journal.close();
+        }
+    }
+}
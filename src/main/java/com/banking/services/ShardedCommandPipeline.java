@@ -0,0 +1,422 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.TransactionId;
+import com.banking.model.TransactionIds;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ShardedCommandPipeline is an optional way of driving a BankService with
+ * single-writer threads instead of many threads competing for account locks.
+ *
+ * Accounts are split into N shards by the hash of their account number. Each shard
+ * has one thread that is the only writer of the shard's accounts; it takes deposit,
+ * withdrawal and transfer commands from its own preallocated CommandRing, in order.
+ * Callers on any thread submit commands and get a CompletableFuture back.
+ *
+ * A transfer between two accounts of the same shard runs in one step. A transfer
+ * across shards runs in two: the source shard debits the payer and then posts a
+ * credit command, carrying the same transfer id, to the payee's shard, which credits
+ * the payee and completes the future. Between the two steps the money is in flight
+ * and shows in neither balance. Shard threads never wait for each other: a credit
+ * that does not fit into a full ring is kept and retried by the sending shard.
+ *
+ * Accounts keep their own locks, so code that bypasses the pipeline (statements,
+ * the UI, BankService.transfer) stays correct; in the pipeline those locks are only
+ * ever taken by the owning shard thread and are therefore uncontended.
+ *
+ * Every command passes the bank's MutationGate. The two steps of a cross-shard
+ * transfer pass it separately, so a checkpoint can catch such a transfer in flight;
+ * the journal completes it on recovery.
+ *
+ * When the bank has a journal, a future is only completed once the command's journal
+ * records are on disk. A shard drains every command already published to its ring,
+ * executes them, waits once for the journal to make that whole batch durable and only
+ * then completes the batch's futures, so commands that arrive together share a force.
+ * A cross-shard transfer completes on the payee's shard after the credit, whose record
+ * follows the debit's in the journal.
+ */
+public class ShardedCommandPipeline implements AutoCloseable {
+
+    // Idle shard threads spin this many times before parking
+    private static final int SPINS_BEFORE_PARK = 200;
+
+    // Most commands a shard executes before it waits for the journal and completes them
+    private static final int MAX_BATCH = 1024;
+
+    private final BankService bankService;
+    private final Shard[] shards;
+    private volatile boolean closed;
+
+    /**
+     * Create and start a pipeline.
+     *
+     * @param bankService  The bank whose accounts the pipeline drives
+     * @param shardCount   Number of shards (and shard threads)
+     * @param ringCapacity Commands each shard can queue; must be a power of two
+     */
+    public ShardedCommandPipeline(BankService bankService, int shardCount, int ringCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.bankService = bankService;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, ringCapacity);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Get the shard that owns an account number.
+     */
+    public int shardOf(String accountNumber) {
+        return Math.floorMod(accountNumber.hashCode(), shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Queue a deposit.
+     *
+     * @return A future completed with true once the deposit is made, false if it was refused
+     */
+    public CompletableFuture<Boolean> deposit(String accountNumber, long amountPaise) {
+        return submit(CommandRing.DEPOSIT, accountNumber, amountPaise);
+    }
+
+    /**
+     * Queue a withdrawal.
+     *
+     * @return A future completed with true once the withdrawal is made, false if it was refused
+     */
+    public CompletableFuture<Boolean> withdraw(String accountNumber, long amountPaise) {
+        return submit(CommandRing.WITHDRAW, accountNumber, amountPaise);
+    }
+
+    /**
+     * Queue a transfer between any two accounts of the bank.
+     *
+     * @return A future completed with the outcome once the payee has been credited
+     *         (or as soon as the transfer is refused)
+     */
+    public CompletableFuture<TransferResult> transfer(String fromAccountNumber, String toAccountNumber,
+                                                      long amountPaise) {
+        checkOpen();
+        CompletableFuture<TransferResult> future = new CompletableFuture<>();
+        if (amountPaise <= 0) {
+            future.complete(TransferResult.failed(TransferResult.Status.INVALID_AMOUNT));
+            return future;
+        }
+        if (fromAccountNumber == null || fromAccountNumber.equals(toAccountNumber)) {
+            future.complete(TransferResult.failed(TransferResult.Status.SAME_ACCOUNT));
+            return future;
+        }
+        Account from = lookup(fromAccountNumber);
+        Account to = lookup(toAccountNumber);
+        if (from == null || to == null) {
+            future.complete(TransferResult.failed(TransferResult.Status.UNKNOWN_ACCOUNT));
+            return future;
+        }
+        TransactionId transferId = TransactionIds.generator().next();
+        CommandRing ring = shards[shardOf(fromAccountNumber)].ring;
+        long sequence = ring.claim();
+        CommandRing.Slot slot = ring.slot(sequence);
+        slot.kind = CommandRing.TRANSFER;
+        slot.account = from;
+        slot.counterparty = to;
+        slot.amountPaise = amountPaise;
+        slot.transferHigh = transferId.getHigh();
+        slot.transferLow = transferId.getLow();
+        slot.transferDone = future;
+        publish(shardOf(fromAccountNumber), sequence);
+        return future;
+    }
+
+    /**
+     * Stop accepting commands, wait until every queued command (including the credit
+     * step of cross-shard transfers) has been processed, then stop the shard threads.
+     * Callers should stop submitting before they close the pipeline.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        while (!isQuiescent()) {
+            Thread.yield();
+        }
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(byte kind, String accountNumber, long amountPaise) {
+        checkOpen();
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Account account = lookup(accountNumber);
+        if (account == null || amountPaise <= 0) {
+            future.complete(false);
+            return future;
+        }
+        int shardIndex = shardOf(accountNumber);
+        CommandRing ring = shards[shardIndex].ring;
+        long sequence = ring.claim();
+        CommandRing.Slot slot = ring.slot(sequence);
+        slot.kind = kind;
+        slot.account = account;
+        slot.amountPaise = amountPaise;
+        slot.done = future;
+        publish(shardIndex, sequence);
+        return future;
+    }
+
+    private Account lookup(String accountNumber) {
+        BankService.AccountEntry entry = bankService.findAccountByNumber(accountNumber);
+        return entry == null ? null : entry.getAccount();
+    }
+
+    private void publish(int shardIndex, long sequence) {
+        Shard shard = shards[shardIndex];
+        shard.ring.publish(sequence);
+        if (shard.parked) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+    }
+
+    // True when no shard has queued, running or pending work. Progress between the two
+    // passes (a credit moving from one shard to another) shows up as a changed total.
+    private boolean isQuiescent() {
+        long before = totalConsumed();
+        for (Shard shard : shards) {
+            if (!shard.ring.isDrained() || shard.pendingCredits > 0) {
+                return false;
+            }
+        }
+        return totalConsumed() == before;
+    }
+
+    private long totalConsumed() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.ring.consumedCount();
+        }
+        return total;
+    }
+
+    /**
+     * One shard: a ring of commands and the thread that executes them.
+     */
+    private final class Shard implements Runnable {
+        private final CommandRing ring;
+        private final Thread thread;
+
+        // Credits for other shards that did not fit into their rings yet (shard thread only)
+        private final ArrayDeque<CommandRing.Slot> overflow = new ArrayDeque<>();
+        private volatile int pendingCredits;
+
+        // Futures of the current batch and their outcomes, completed once the batch is
+        // durable (shard thread only). An outcome that is a Throwable fails its future.
+        private final ArrayList<CompletableFuture<?>> batchFutures = new ArrayList<>();
+        private final ArrayList<Object> batchOutcomes = new ArrayList<>();
+
+        private volatile boolean running = true;
+        private volatile boolean parked;
+
+        Shard(int index, int ringCapacity) {
+            this.ring = new CommandRing(ringCapacity);
+            this.thread = new Thread(this, "bank-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                boolean worked = flushOverflow();
+                int drained = 0;
+                CommandRing.Slot slot;
+                while (drained < MAX_BATCH && (slot = ring.poll()) != null) {
+                    execute(slot);
+                    ring.release(slot);
+                    drained++;
+                }
+                if (drained > 0) {
+                    completeBatch();
+                    worked = true;
+                }
+                if (worked) {
+                    idle = 0;
+                } else if (++idle < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    parked = true;
+                    if (!ring.hasPublished() && overflow.isEmpty() && running) {
+                        LockSupport.park(this);
+                    } else if (!overflow.isEmpty()) {
+                        // Waiting for room in another shard's ring
+                        LockSupport.parkNanos(this, 50_000L);
+                    }
+                    parked = false;
+                    idle = 0;
+                }
+            }
+        }
+
+        private void execute(CommandRing.Slot slot) {
+            Account account = slot.account;
+            long amount = slot.amountPaise;
+            MutationGate gate = bankService.getMutationGate();
+            gate.enter();
+            try {
+                switch (slot.kind) {
+                    case CommandRing.DEPOSIT -> {
+                        account.depositPaise(amount);
+                        completeLater(slot.done, Boolean.TRUE);
+                    }
+                    case CommandRing.WITHDRAW -> completeLater(slot.done, account.withdrawPaise(amount));
+                    case CommandRing.TRANSFER -> executeTransfer(slot);
+                    case CommandRing.TRANSFER_CREDIT -> {
+                        TransactionId transferId = new TransactionId(slot.transferHigh, slot.transferLow);
+                        account.creditForTransfer(amount, transferId, slot.counterparty);
+                        completeLater(slot.transferDone, TransferResult.completed(transferId));
+                    }
+                    default -> throw new IllegalStateException("Unknown command " + slot.kind);
+                }
+            } catch (RuntimeException e) {
+                if (slot.done != null) completeLater(slot.done, e);
+                if (slot.transferDone != null) completeLater(slot.transferDone, e);
+            } finally {
+                gate.exit();
+            }
+        }
+
+        private void executeTransfer(CommandRing.Slot slot) {
+            Account from = slot.account;
+            Account to = slot.counterparty;
+            TransactionId transferId = new TransactionId(slot.transferHigh, slot.transferLow);
+            int target = shardOf(to.getAccountNumber());
+            if (shards[target] == this) {
+                // Both accounts live here: one step
+                Account.callWithBothLocked(from, to, () -> {
+                    if (from.debitForTransfer(slot.amountPaise, transferId, to)) {
+                        to.creditForTransfer(slot.amountPaise, transferId, from);
+                        completeLater(slot.transferDone, TransferResult.completed(transferId));
+                    } else {
+                        completeLater(slot.transferDone, TransferResult.failed(TransferResult.Status.INSUFFICIENT_FUNDS));
+                    }
+                    return null;
+                });
+                return;
+            }
+            if (!from.debitForTransfer(slot.amountPaise, transferId, to)) {
+                completeLater(slot.transferDone, TransferResult.failed(TransferResult.Status.INSUFFICIENT_FUNDS));
+                return;
+            }
+            // Step two runs on the payee's shard
+            if (!overflow.isEmpty()
+                    || !postCredit(target, to, from, slot.amountPaise, slot.transferHigh, slot.transferLow,
+                                   slot.transferDone)) {
+                CommandRing.Slot credit = new CommandRing.Slot();
+                credit.account = to;
+                credit.counterparty = from;
+                credit.amountPaise = slot.amountPaise;
+                credit.transferHigh = slot.transferHigh;
+                credit.transferLow = slot.transferLow;
+                credit.transferDone = slot.transferDone;
+                overflow.add(credit);
+                pendingCredits = overflow.size();
+            }
+        }
+
+        private void completeLater(CompletableFuture<?> future, Object outcome) {
+            batchFutures.add(future);
+            batchOutcomes.add(outcome);
+        }
+
+        // Wait until this thread's journal records are on disk, then complete the batch
+        @SuppressWarnings("unchecked")
+        private void completeBatch() {
+            if (batchFutures.isEmpty()) {
+                return;
+            }
+            RuntimeException failure = null;
+            try {
+                bankService.awaitDurable();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (int i = 0; i < batchFutures.size(); i++) {
+                CompletableFuture<Object> future = (CompletableFuture<Object>) batchFutures.get(i);
+                Object outcome = batchOutcomes.get(i);
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else if (outcome instanceof Throwable error) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(outcome);
+                }
+            }
+            batchFutures.clear();
+            batchOutcomes.clear();
+        }
+
+        private boolean flushOverflow() {
+            boolean moved = false;
+            while (!overflow.isEmpty()) {
+                CommandRing.Slot credit = overflow.peek();
+                if (!postCredit(shardOf(credit.account.getAccountNumber()), credit.account, credit.counterparty,
+                        credit.amountPaise, credit.transferHigh, credit.transferLow, credit.transferDone)) {
+                    break;
+                }
+                overflow.poll();
+                moved = true;
+            }
+            if (moved) {
+                pendingCredits = overflow.size();
+            }
+            return moved;
+        }
+
+        // Queue the credit step in the target shard's ring if it has room
+        private boolean postCredit(int target, Account to, Account from, long amountPaise, long transferHigh,
+                                   long transferLow, CompletableFuture<TransferResult> future) {
+            CommandRing targetRing = shards[target].ring;
+            long sequence = targetRing.tryClaim();
+            if (sequence < 0) {
+                return false;
+            }
+            CommandRing.Slot slot = targetRing.slot(sequence);
+            slot.kind = CommandRing.TRANSFER_CREDIT;
+            slot.account = to;
+            slot.counterparty = from;
+            slot.amountPaise = amountPaise;
+            slot.transferHigh = transferHigh;
+            slot.transferLow = transferLow;
+            slot.transferDone = future;
+            publish(target, sequence);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,1444 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.CheckingAccount;
+import com.banking.model.Customer;
+import com.banking.model.MonthlySummary;
+import com.banking.model.SavingsAccount;
+import com.banking.model.TransactionLedger;
+import com.banking.model.TransactionType;
+import com.banking.model.User;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * SnapshotCodec writes and reads the bank's users and customers in a compact,
+ * versioned binary format, replacing Java serialization for snapshots.
+ *
+ * Layout (all integers are unsigned LEB128 varints unless noted; "zigzag" marks
+ * signed values, so small negative numbers stay short):
+ *
+ *   header    int magic "BNKS", varint version, varint BlockCodec id of the chunks
+ *   types     count, then one length-prefixed UTF-8 label per TransactionType;
+ *             ledger rows refer to types by their index in this dictionary
+ *   users     count, then per user: username, salt bytes, hash bytes
+ *   chunks    customers in groups of up to 4096, each group encoded on its own;
+ *             a chunk is its customers back to back: name, email, user reference,
+ *             accounts. Chunks may be in any order in the file.
+ *   directory per chunk, in customer order: file offset, stored length, length
+ *             once decompressed, customer count, int CRC32C of the stored bytes;
+ *             then the length of the header and users, int CRC32C of those bytes,
+ *             and int CRC32C of the directory itself
+ *   index     count, then per customer: chunk offset plus the customer's offset in the
+ *             decompressed chunk (zigzag difference from the previous customer's),
+ *             username or null, account count, and per account its number and the
+ *             length of its ledger in bytes; then int CRC32C of the index
+ *   trailer   long offset of the directory, then int magic "BNKE"
+ *
+ * Each account is: kind, number, creation time, overdraft limit (checking) or the
+ * 8 raw bytes of the interest rate (savings), balance, monthly summaries and the
+ * ledger. Ledger rows are stored as differences from the previous row where that
+ * keeps them short: timestamps and the high half of time-ordered ids as deltas and
+ * balances as the change from the previous balance. Amounts are fixed-point paise.
+ * The random low half of each id and transfer ids are 8 raw bytes each.
+ *
+ * Chunks are encoded and decoded in parallel on a ForkJoinPool. Each chunk is encoded
+ * into its own buffer and written with a positional FileChannel write at the next free
+ * offset, so writers do not wait for each other and at most one chunk per worker is
+ * held in memory. The index lets MappedSnapshot find a customer's record, and skip
+ * over ledgers, without decoding the records before it.
+ *
+ * Accounts are captured (header plus ledger length) under their own lock and encoded
+ * after the lock is released. write() can also take a View captured earlier, while
+ * the bank was quiesced, so the file shows every account at the same moment. The
+ * file is forced to disk before write() returns.
+ *
+ * Chunks may be compressed with a BlockCodec: each worker compresses the chunk it
+ * encoded, and each decoder decompresses the chunk it reads, so neither side holds
+ * more than a chunk per worker. A chunk that does not get smaller is stored as it
+ * is. Index offsets only point into the file itself when the codec is "none", which
+ * is the only case MappedSnapshot maps.
+ *
+ * Checksums use the JDK's CRC32C, which runs at close to memory speed. read() checks
+ * every one. Given a LoadReport it salvages what it can instead: a chunk that fails
+ * its checksum or cannot be decoded is skipped, and the report names the customers and
+ * accounts it held (from the index, when that is intact). Damage to the header, users
+ * or directory still fails the read, as nothing after them could be trusted.
+ *
+ * Older versions are still read: version 1 holds the customers in one sequence with
+ * no index or trailer, version 2 adds the index (with offsets as plain differences)
+ * and a trailer pointing at it, but has no chunks, version 3 has chunks but no codec
+ * (no compression, and no decompressed length in the directory), and version 4 has no
+ * checksums.
+ *
+ * The header and users are read and written through a FileChannel with a large
+ * direct buffer.
+ */
+final class SnapshotCodec {
+
+    static final int MAGIC = 0x424E4B53;     // "BNKS"
+    static final int END_MAGIC = 0x424E4B45; // "BNKE"
+    static final int VERSION = 5;
+    static final int FIRST_INDEXED_VERSION = 2;
+    static final int FIRST_CHUNKED_VERSION = 3;
+    static final int FIRST_COMPRESSED_VERSION = 4;
+    static final int FIRST_CHECKSUMMED_VERSION = 5;
+
+    // Customers per chunk; enough to keep a worker busy, small enough to bound memory
+    static final int CHUNK_CUSTOMERS = 4096;
+
+    // long index offset + int end magic
+    static final int TRAILER_SIZE = 12;
+
+    // An int CRC32C
+    static final int CHECKSUM_SIZE = 4;
+
+    private static final byte KIND_SAVINGS = 0;
+    private static final byte KIND_CHECKING = 1;
+
+    private static final byte USER_NONE = 0;
+    private static final byte USER_BY_NAME = 1;   // one of the snapshot's users
+    private static final byte USER_INLINE = 2;    // not in the users map; stored with the customer
+
+    // Set on a ledger row's type byte when the row is a transfer leg
+    private static final int TRANSFER_FLAG = 0x80;
+
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * The users and customers read from a snapshot.
+     */
+    static final class Snapshot {
+        final Map<String, User> users;
+        final List<Customer> customers;
+
+        Snapshot(Map<String, User> users, List<Customer> customers) {
+            this.users = users;
+            this.customers = customers;
+        }
+    }
+
+    /**
+     * A copy of the bank to write later: the users and customers, and for every account
+     * its header and how many ledger rows it had when captured. Ledgers only grow, so
+     * the rows are read from the live ledger when the view is written, while the bank
+     * keeps appending to it.
+     */
+    static final class View {
+        final Map<String, User> users;
+        final List<Customer> customers;
+        final AccountHeader[][] accounts;  // per customer, in account order
+
+        private View(Map<String, User> users, List<Customer> customers, AccountHeader[][] accounts) {
+            this.users = users;
+            this.customers = customers;
+            this.accounts = accounts;
+        }
+
+        /**
+         * Capture every account of the given customers, each under its own lock.
+         * Callers that need all accounts at the same point in time run this while the
+         * bank is quiesced (see BankService.callQuiesced).
+         */
+        static View capture(Map<String, User> users, List<Customer> customers) {
+            return capture(users, customers, WriteListener.NONE);
+        }
+
+        /**
+         * Capture as above, telling the listener about each object as it is captured
+         * rather than as it is written; accounts are reported while their lock is held.
+         */
+        static View capture(Map<String, User> users, List<Customer> customers, WriteListener listener) {
+            for (User user : users.values()) {
+                listener.userWritten(user);
+            }
+            AccountHeader[][] accounts = new AccountHeader[customers.size()][];
+            for (int c = 0; c < accounts.length; c++) {
+                listener.customerWritten(customers.get(c));
+                Account[] owned = customers.get(c).getAccounts().toArray(new Account[0]);
+                accounts[c] = new AccountHeader[owned.length];
+                for (int a = 0; a < owned.length; a++) {
+                    synchronized (owned[a]) {
+                        accounts[c][a] = AccountHeader.capture(owned[a]);
+                        listener.accountWritten(owned[a], accounts[c][a].rows);
+                    }
+                }
+            }
+            return new View(users, customers, accounts);
+        }
+    }
+
+    /**
+     * Check whether a file starts with the snapshot magic number.
+     */
+    static boolean isSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // keep reading
+            }
+            return !head.hasRemaining() && head.getInt(0) == MAGIC;
+        }
+    }
+
+    // ---- Writing ----
+
+    /**
+     * Told about each object as write() saves it (used for dirty tracking). Users and
+     * customers are reported before they are written; accounts right after, while
+     * their lock is still held, with the number of ledger rows written.
+     */
+    interface WriteListener {
+        WriteListener NONE = new WriteListener() {
+        };
+
+        default void userWritten(User user) {
+        }
+
+        default void customerWritten(Customer customer) {
+        }
+
+        default void accountWritten(Account account, int rows) {
+        }
+    }
+
+    static void write(Path file, Map<String, User> users, List<Customer> customers) throws IOException {
+        write(file, users, customers, WriteListener.NONE, ForkJoinPool.commonPool());
+    }
+
+    static void write(Path file, Map<String, User> users, List<Customer> customers, WriteListener listener)
+            throws IOException {
+        write(file, users, customers, listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Write a snapshot, encoding chunks of customers in parallel on the given pool.
+     * Each account is captured under its own lock as its chunk is encoded.
+     */
+    static void write(Path file, Map<String, User> users, List<Customer> customers, WriteListener listener,
+                      ForkJoinPool pool) throws IOException {
+        write(file, users, customers, null, listener, pool, BlockCodec.none());
+    }
+
+    /**
+     * Write a snapshot with its chunks compressed by the given codec.
+     */
+    static void write(Path file, Map<String, User> users, List<Customer> customers, WriteListener listener,
+                      ForkJoinPool pool, BlockCodec codec) throws IOException {
+        write(file, users, customers, null, listener, pool, codec);
+    }
+
+    /**
+     * Write a snapshot of a view captured earlier.
+     */
+    static void write(Path file, View view, ForkJoinPool pool, BlockCodec codec) throws IOException {
+        write(file, view.users, view.customers, view.accounts, WriteListener.NONE, pool, codec);
+    }
+
+    // captured holds the account headers per customer, or is null to capture them while writing
+    private static void write(Path file, Map<String, User> users, List<Customer> customers,
+                              AccountHeader[][] captured, WriteListener listener, ForkJoinPool pool,
+                              BlockCodec codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.startChecksum();
+            out.putInt(MAGIC);
+            out.putVarLong(VERSION);
+            out.putVarLong(codec.getId());
+
+            writeTypes(out);
+
+            out.putVarLong(users.size());
+            for (User user : users.values()) {
+                listener.userWritten(user);
+                writeUser(out, user);
+            }
+            long headerLength = out.position();
+            int headerChecksum = out.endChecksum();
+            out.flush();
+
+            AtomicLong nextOffset = new AtomicLong(out.position());
+            int chunkCount = (customers.size() + CHUNK_CUSTOMERS - 1) / CHUNK_CUSTOMERS;
+            List<EncodeChunk> chunks = new ArrayList<>(chunkCount);
+            for (int start = 0; start < customers.size(); start += CHUNK_CUSTOMERS) {
+                int end = Math.min(customers.size(), start + CHUNK_CUSTOMERS);
+                chunks.add(new EncodeChunk(channel, customers.subList(start, end),
+                        captured == null ? null : Arrays.copyOfRange(captured, start, end),
+                        users, listener, codec, nextOffset));
+            }
+            runAll(pool, chunks);
+            for (EncodeChunk chunk : chunks) {
+                if (chunk.failure != null) {
+                    throw chunk.failure;
+                }
+            }
+
+            Output tail = new Output(channel, BUFFER_SIZE, nextOffset.get());
+            long directoryOffset = tail.position();
+            tail.startChecksum();
+            tail.putVarLong(chunks.size());
+            for (EncodeChunk chunk : chunks) {
+                tail.putVarLong(chunk.offset);
+                tail.putVarLong(chunk.length);
+                tail.putVarLong(chunk.rawLength);
+                tail.putVarLong(chunk.customers.size());
+                tail.putInt(chunk.checksum);
+            }
+            tail.putVarLong(headerLength);
+            tail.putInt(headerChecksum);
+            tail.putInt(tail.endChecksum());
+
+            tail.startChecksum();
+            tail.putVarLong(customers.size());
+            long previous = 0;
+            for (EncodeChunk chunk : chunks) {
+                for (int c = 0; c < chunk.customers.size(); c++) {
+                    long offset = chunk.offset + chunk.customerOffsets[c];
+                    tail.putZigZag(offset - previous);
+                    previous = offset;
+                    User user = chunk.customers.get(c).getUser();
+                    tail.putNullableString(user == null ? null : user.getUsername());
+                    String[] numbers = chunk.accountNumbers[c];
+                    tail.putVarLong(numbers.length);
+                    for (int a = 0; a < numbers.length; a++) {
+                        tail.putString(numbers[a]);
+                        tail.putVarLong(chunk.ledgerBytes[c][a]);
+                    }
+                }
+            }
+            tail.putInt(tail.endChecksum());
+            tail.putLong(directoryOffset);
+            tail.putInt(END_MAGIC);
+            tail.flush();
+            // On disk before the caller renames it into place
+            channel.force(true);
+        }
+    }
+
+    // Run tasks on the pool, or on this thread when the pool would not add anything
+    private static void runAll(ForkJoinPool pool, List<? extends RecursiveAction> tasks) {
+        if (pool.getParallelism() > 1 && tasks.size() > 1) {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (RecursiveAction task : tasks) {
+                task.invoke();
+            }
+        }
+    }
+
+    /**
+     * Encodes one chunk of customers in memory, then claims the next free offset in
+     * the file and writes the chunk there.
+     */
+    private static final class EncodeChunk extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        final List<Customer> customers;
+        private final AccountHeader[][] captured;
+        private final Map<String, User> users;
+        private final WriteListener listener;
+        private final BlockCodec codec;
+        private final AtomicLong nextOffset;
+
+        long offset;
+        long length;      // as stored
+        long rawLength;   // before compression
+        int checksum;     // of the stored bytes
+        final long[] customerOffsets;  // from the start of the chunk
+        final String[][] accountNumbers;
+        final long[][] ledgerBytes;
+        IOException failure;
+
+        EncodeChunk(FileChannel channel, List<Customer> customers, AccountHeader[][] captured,
+                    Map<String, User> users, WriteListener listener, BlockCodec codec, AtomicLong nextOffset) {
+            this.channel = channel;
+            this.customers = customers;
+            this.captured = captured;
+            this.users = users;
+            this.listener = listener;
+            this.codec = codec;
+            this.nextOffset = nextOffset;
+            this.customerOffsets = new long[customers.size()];
+            this.accountNumbers = new String[customers.size()][];
+            this.ledgerBytes = new long[customers.size()][];
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Output out = new Output();
+                for (int c = 0; c < customers.size(); c++) {
+                    Customer customer = customers.get(c);
+                    listener.customerWritten(customer);
+                    customerOffsets[c] = out.position();
+                    writeCustomerHeader(out, customer, users::get);
+                    AccountHeader[] headers = captured != null ? captured[c] : capture(customer);
+                    out.putVarLong(headers.length);
+                    accountNumbers[c] = new String[headers.length];
+                    ledgerBytes[c] = new long[headers.length];
+                    for (int a = 0; a < headers.length; a++) {
+                        AccountHeader header = headers[a];
+                        writeAccountHeader(out, header);
+                        // Rows appended since the capture are left for the next snapshot
+                        long start = out.position();
+                        writeRows(out, header.ledger, 0, header.rows);
+                        ledgerBytes[c][a] = out.position() - start;
+                        accountNumbers[c][a] = header.number;
+                    }
+                }
+                ByteBuffer bytes = out.toBuffer();
+                rawLength = bytes.remaining();
+                byte[] compressed = new byte[bytes.remaining()];
+                int stored = codec.compress(bytes.array(), bytes.arrayOffset(), bytes.remaining(), compressed, 0);
+                if (stored >= 0) {
+                    bytes = ByteBuffer.wrap(compressed, 0, stored);
+                }
+                length = bytes.remaining();
+                CRC32C crc = new CRC32C();
+                crc.update(bytes.duplicate());
+                checksum = (int) crc.getValue();
+                offset = nextOffset.getAndAdd(length);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes, offset + bytes.position());
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        // Capture each account under its lock, so its balance, ledger and summaries
+        // agree, and report it while the lock is still held
+        private AccountHeader[] capture(Customer customer) {
+            Account[] accounts = customer.getAccounts().toArray(new Account[0]);
+            AccountHeader[] headers = new AccountHeader[accounts.length];
+            for (int a = 0; a < accounts.length; a++) {
+                synchronized (accounts[a]) {
+                    headers[a] = AccountHeader.capture(accounts[a]);
+                    listener.accountWritten(accounts[a], headers[a].rows);
+                }
+            }
+            return headers;
+        }
+    }
+
+    static void writeTypes(Output out) throws IOException {
+        TransactionType[] types = TransactionType.values();
+        out.putVarLong(types.length);
+        for (TransactionType type : types) {
+            out.putString(type.getLabel());
+        }
+    }
+
+    static TransactionType[] readTypes(Input in) throws IOException {
+        int typeCount = in.getCount();
+        TransactionType[] types = new TransactionType[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            String label = in.getString();
+            types[i] = TransactionType.fromLabel(label);
+            if (types[i] == null) {
+                throw new StreamCorruptedException("Unknown transaction type " + label);
+            }
+        }
+        return types;
+    }
+
+    // Name, email and a reference to the customer's user; knownUsers finds the saved user by name
+    static void writeCustomerHeader(Output out, Customer customer, Function<String, User> knownUsers)
+            throws IOException {
+        out.putNullableString(customer.getName());
+        out.putNullableString(customer.getEmail());
+        User user = customer.getUser();
+        if (user == null) {
+            out.putByte(USER_NONE);
+        } else if (knownUsers.apply(user.getUsername()) == user) {
+            out.putByte(USER_BY_NAME);
+            out.putString(user.getUsername());
+        } else {
+            out.putByte(USER_INLINE);
+            writeUser(out, user);
+        }
+    }
+
+    static Customer readCustomerHeader(Input in, Map<String, User> users) throws IOException {
+        String name = in.getNullableString();
+        String email = in.getNullableString();
+        User user;
+        byte reference = in.getByte();
+        if (reference == USER_NONE) {
+            user = null;
+        } else if (reference == USER_BY_NAME) {
+            String username = in.getString();
+            user = users.get(username);
+            if (user == null) {
+                throw new StreamCorruptedException("Customer refers to unknown user " + username);
+            }
+        } else if (reference == USER_INLINE) {
+            user = readUser(in);
+        } else {
+            throw new StreamCorruptedException("Bad user reference " + reference);
+        }
+        return new Customer(name, email, user);
+    }
+
+    static void writeUser(Output out, User user) throws IOException {
+        out.putString(user.getUsername());
+        out.putBytes(user.getPasswordSalt());
+        out.putBytes(user.getPasswordHash());
+    }
+
+    static User readUser(Input in) throws IOException {
+        String username = in.getString();
+        byte[] salt = in.getBytes();
+        byte[] hash = in.getBytes();
+        return User.fromStored(username, salt, hash);
+    }
+
+    // Everything about an account except its ledger rows; caller holds the account lock
+    static void writeAccountHeader(Output out, Account account) throws IOException {
+        writeAccountHeader(out, AccountHeader.capture(account));
+    }
+
+    static void writeAccountHeader(Output out, AccountHeader header) throws IOException {
+        out.putByte(header.kind);
+        out.putString(header.number);
+        putDateTime(out, header.createdAt);
+        if (header.kind == KIND_CHECKING) {
+            out.putZigZag(header.parameter);
+        } else {
+            out.putLong(header.parameter);
+        }
+        out.putZigZag(header.balancePaise);
+
+        List<MonthlySummary> summaries = header.summaries;
+        out.putVarLong(summaries.size());
+        for (MonthlySummary summary : summaries) {
+            YearMonth month = summary.getMonth();
+            out.putZigZag(month.getYear() * 12L + month.getMonthValue() - 1);
+            out.putVarLong(summary.getDepositCount());
+            out.putZigZag(summary.getDepositTotalPaise());
+            out.putVarLong(summary.getWithdrawalCount());
+            out.putZigZag(summary.getWithdrawalTotalPaise());
+            out.putZigZag(summary.getOpeningBalancePaise());
+            out.putZigZag(summary.getClosingBalancePaise());
+            out.putZigZag(summary.getMinBalancePaise());
+            out.putZigZag(summary.getMaxBalancePaise());
+        }
+    }
+
+    /**
+     * Write ledger rows [from, to). Each row is encoded relative to the one before it,
+     * so a reader appending them to a ledger that already holds row from - 1 can
+     * decode them against that row.
+     */
+    static void writeRows(Output out, TransactionLedger ledger, int from, int to) throws IOException {
+        out.putVarLong(to - from);
+        long previousTimestamp = 0;
+        long previousBalance = 0;
+        long previousIdHigh = 0;
+        if (from > 0) {
+            previousTimestamp = ledger.getTimestampMicros(from - 1);
+            previousBalance = ledger.getResultingBalancePaise(from - 1);
+            previousIdHigh = ledger.getIdHigh(from - 1);
+        }
+        for (int row = from; row < to; row++) {
+            boolean transfer = ledger.isTransfer(row);
+            out.putByte((byte) (ledger.getType(row).ordinal() | (transfer ? TRANSFER_FLAG : 0)));
+            long timestamp = ledger.getTimestampMicros(row);
+            out.putZigZag(timestamp - previousTimestamp);
+            out.putZigZag(ledger.getAmountPaise(row));
+            long balance = ledger.getResultingBalancePaise(row);
+            out.putZigZag(balance - previousBalance);
+            long idHigh = ledger.getIdHigh(row);
+            out.putZigZag(idHigh - previousIdHigh);
+            out.putLong(ledger.getIdLow(row));
+            if (transfer) {
+                out.putLong(ledger.getTransferIdHigh(row));
+                out.putLong(ledger.getTransferIdLow(row));
+            }
+            previousTimestamp = timestamp;
+            previousBalance = balance;
+            previousIdHigh = idHigh;
+        }
+    }
+
+    static void putDateTime(Output out, LocalDateTime dateTime) throws IOException {
+        if (dateTime == null) {
+            out.putByte((byte) 0);
+        } else {
+            out.putByte((byte) 1);
+            out.putZigZag(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.putVarLong(dateTime.getNano());
+        }
+    }
+
+    // ---- Reading ----
+
+    static Snapshot read(Path file) throws IOException {
+        return read(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Read a snapshot, decoding its chunks in parallel on the given pool. Any damage
+     * fails the read.
+     */
+    static Snapshot read(Path file, ForkJoinPool pool) throws IOException {
+        return read(file, pool, null);
+    }
+
+    /**
+     * Read a snapshot, decoding its chunks in parallel on the given pool. With a report,
+     * damaged chunks are skipped and recorded in it; without one, any damage fails the
+     * read.
+     */
+    static Snapshot read(Path file, ForkJoinPool pool, PersistenceService.LoadReport report) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            if (in.getInt() != MAGIC) {
+                throw new StreamCorruptedException("Not a bank snapshot: " + file);
+            }
+            long version = in.getVarLong();
+            if (version < 1 || version > VERSION) {
+                throw new StreamCorruptedException("Unsupported snapshot version " + version);
+            }
+            BlockCodec codec = version >= FIRST_COMPRESSED_VERSION ? BlockCodec.forId(in.getCount())
+                    : BlockCodec.none();
+
+            TransactionType[] types = readTypes(in);
+
+            int userCount = in.getCount();
+            Map<String, User> users = new HashMap<>(Math.max(16, userCount * 4 / 3 + 1));
+            for (int i = 0; i < userCount; i++) {
+                User user = readUser(in);
+                users.put(user.getUsername(), user);
+            }
+
+            if (version >= FIRST_CHUNKED_VERSION) {
+                return new Snapshot(users, readChunks(file, channel, in.position(), version, codec, users, types,
+                        pool, report));
+            }
+
+            int customerCount = in.getCount();
+            List<Customer> customers = new ArrayList<>(customerCount);
+            for (int i = 0; i < customerCount; i++) {
+                customers.add(readCustomer(in, users, types));
+            }
+            if (version >= FIRST_INDEXED_VERSION) {
+                // The index only matters to MappedSnapshot; check that it is where the trailer says
+                long indexOffset = in.position();
+                skipIndex(in);
+                if (in.getLong() != indexOffset) {
+                    throw new StreamCorruptedException("Snapshot index is misplaced: " + file);
+                }
+            }
+            if (in.getInt() != END_MAGIC) {
+                throw new StreamCorruptedException("Snapshot is truncated or corrupt: " + file);
+            }
+            return new Snapshot(users, customers);
+        }
+    }
+
+    private static Customer readCustomer(Input in, Map<String, User> users, TransactionType[] types)
+            throws IOException {
+        Customer customer = readCustomerHeader(in, users);
+        int accountCount = in.getCount();
+        for (int a = 0; a < accountCount; a++) {
+            AccountHeader header = readAccountHeader(in);
+            Account account = header.newAccount();
+            readRows(in, account.getLedger(), 0, types);
+            header.restore(account);
+            customer.addAccount(account);
+        }
+        return customer;
+    }
+
+    private static List<Customer> readChunks(Path file, FileChannel channel, long chunksStart, long version,
+                                             BlockCodec codec, Map<String, User> users, TransactionType[] types,
+                                             ForkJoinPool pool, PersistenceService.LoadReport report)
+            throws IOException {
+        long size = channel.size();
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        long directoryOffset = trailer.getLong(0);
+        if (trailer.getInt(8) != END_MAGIC || directoryOffset < chunksStart || directoryOffset > size - TRAILER_SIZE) {
+            throw new StreamCorruptedException("Snapshot is truncated or corrupt: " + file);
+        }
+        Input in = new Input(channel, 64 << 10, directoryOffset);
+        Directory directory = readDirectory(in, version, chunksStart, directoryOffset, file);
+        if (directory.checksummed) {
+            // Users are only trusted once the bytes they were read from check out
+            if (directory.headerLength != chunksStart
+                    || in.checksum(0, chunksStart) != directory.headerChecksum) {
+                throw new StreamCorruptedException("Snapshot header or users fail their checksum: " + file);
+            }
+            long indexEnd = size - TRAILER_SIZE - CHECKSUM_SIZE;
+            if (!directory.indexIntact(in, indexEnd)) {
+                if (report == null) {
+                    throw new StreamCorruptedException("Snapshot index fails its checksum: " + file);
+                }
+                report.addProblem("The index fails its checksum; only mapped loads need it");
+            }
+        }
+
+        int chunkCount = directory.size();
+        List<DecodeChunk> chunks = new ArrayList<>(chunkCount);
+        int customerCount = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(new DecodeChunk(channel, directory, i, codec, users, types));
+            customerCount += directory.counts[i];
+        }
+        runAll(pool, chunks);
+
+        List<Customer> customers = new ArrayList<>(customerCount);
+        boolean[] damaged = new boolean[chunkCount];
+        boolean anyDamaged = false;
+        for (int i = 0; i < chunkCount; i++) {
+            DecodeChunk chunk = chunks.get(i);
+            if (chunk.failure == null) {
+                customers.addAll(chunk.decoded);
+            } else if (report == null) {
+                throw chunk.failure;
+            } else {
+                damaged[i] = anyDamaged = true;
+                report.chunkLost("Chunk " + i + " at offset " + directory.offsets[i] + ": "
+                        + chunk.failure.getMessage(), directory.counts[i]);
+            }
+        }
+        if (anyDamaged) {
+            readLostCustomers(new Input(channel, 64 << 10, directory.indexStart), directory, damaged, report);
+        }
+        return customers;
+    }
+
+    // Name the customers and accounts of damaged chunks from the index
+    static void readLostCustomers(Input in, Directory directory, boolean[] damaged,
+                                  PersistenceService.LoadReport report) {
+        try {
+            int customerCount = in.getCount();
+            int chunk = 0;
+            int leftInChunk = directory.size() == 0 ? 0 : directory.counts[0];
+            for (int c = 0; c < customerCount; c++) {
+                while (leftInChunk == 0) {
+                    leftInChunk = directory.counts[++chunk];
+                }
+                leftInChunk--;
+                in.getVarLong();
+                String username = in.getNullableString();
+                int accountCount = in.getCount();
+                List<String> accountNumbers = new ArrayList<>(accountCount);
+                for (int a = 0; a < accountCount; a++) {
+                    accountNumbers.add(in.getString());
+                    in.getVarLong();
+                }
+                if (damaged[chunk]) {
+                    report.customerLost(username, accountNumbers);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            report.addProblem("Cannot tell which customers were lost: the index is damaged too");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Snapshot ends unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * Reads one chunk with a positional read, checks it, decompresses it and decodes
+     * its customers.
+     */
+    private static final class DecodeChunk extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final Directory directory;
+        private final int chunk;
+        private final BlockCodec codec;
+        private final Map<String, User> users;
+        private final TransactionType[] types;
+
+        final List<Customer> decoded = new ArrayList<>();
+        IOException failure;
+
+        DecodeChunk(FileChannel channel, Directory directory, int chunk, BlockCodec codec, Map<String, User> users,
+                    TransactionType[] types) {
+            this.channel = channel;
+            this.directory = directory;
+            this.chunk = chunk;
+            this.codec = codec;
+            this.users = users;
+            this.types = types;
+        }
+
+        @Override
+        protected void compute() {
+            long offset = directory.offsets[chunk];
+            int length = directory.lengths[chunk];
+            int rawLength = directory.rawLengths[chunk];
+            try {
+                ByteBuffer bytes = ByteBuffer.allocate(length);
+                readFully(channel, bytes, offset);
+                bytes.flip();
+                if (directory.checksummed && checksum(bytes) != directory.checksums[chunk]) {
+                    throw new StreamCorruptedException("Chunk at offset " + offset + " fails its checksum");
+                }
+                if (length != rawLength) {
+                    byte[] raw = new byte[rawLength];
+                    codec.decompress(bytes.array(), 0, length, raw, 0, rawLength);
+                    bytes = ByteBuffer.wrap(raw);
+                }
+                Input in = new Input(bytes, 0);
+                for (int i = 0; i < directory.counts[chunk]; i++) {
+                    decoded.add(readCustomer(in, users, types));
+                }
+                if (in.position() != rawLength) {
+                    throw new StreamCorruptedException("Chunk at offset " + offset + " has trailing bytes");
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                // Bad values that got past the checks above, e.g. an impossible date
+                failure = new StreamCorruptedException("Chunk at offset " + offset + " is corrupt: " + e);
+            }
+            if (failure != null) {
+                decoded.clear();
+            }
+        }
+    }
+
+    static int checksum(ByteBuffer bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A chunk directory: where each chunk is and how to check it, plus the checksums
+     * of the header and users (version 5 and later).
+     */
+    static final class Directory {
+        final boolean checksummed;
+        final long[] offsets;
+        final int[] lengths;      // as stored
+        final int[] rawLengths;   // once decompressed
+        final int[] counts;
+        final int[] checksums;    // of the stored bytes
+        long headerLength;
+        int headerChecksum;
+        long indexStart;
+
+        Directory(int chunkCount, boolean checksummed) {
+            this.checksummed = checksummed;
+            this.offsets = new long[chunkCount];
+            this.lengths = new int[chunkCount];
+            this.rawLengths = new int[chunkCount];
+            this.counts = new int[chunkCount];
+            this.checksums = new int[chunkCount];
+        }
+
+        int size() {
+            return offsets.length;
+        }
+
+        /**
+         * Check the index against the checksum stored at indexEnd.
+         */
+        boolean indexIntact(Input in, long indexEnd) throws IOException {
+            return indexEnd >= indexStart && in.checksum(indexStart, indexEnd) == in.getIntAt(indexEnd);
+        }
+    }
+
+    /**
+     * Read a chunk directory (the input is positioned at its start) and check it
+     * against its own checksum. Afterwards the input is positioned at the index.
+     *
+     * @param chunksStart     Where the first chunk may start
+     * @param directoryOffset Where the directory starts; chunks end before it
+     */
+    static Directory readDirectory(Input in, long version, long chunksStart, long directoryOffset, Path file)
+            throws IOException {
+        long start = in.position();
+        int chunkCount = in.getCount();
+        in.checkFits(chunkCount);
+        Directory directory = new Directory(chunkCount, version >= FIRST_CHECKSUMMED_VERSION);
+        for (int i = 0; i < chunkCount; i++) {
+            long offset = in.getVarLong();
+            long length = in.getVarLong();
+            long rawLength = version >= FIRST_COMPRESSED_VERSION ? in.getVarLong() : length;
+            int count = in.getCount();
+            if (offset < chunksStart || rawLength > Integer.MAX_VALUE || length > rawLength
+                    || offset + length > directoryOffset) {
+                throw new StreamCorruptedException("Bad chunk " + i + " in " + file);
+            }
+            directory.offsets[i] = offset;
+            directory.lengths[i] = (int) length;
+            directory.rawLengths[i] = (int) rawLength;
+            directory.counts[i] = count;
+            if (directory.checksummed) {
+                directory.checksums[i] = in.getInt();
+            }
+        }
+        if (directory.checksummed) {
+            directory.headerLength = in.getVarLong();
+            directory.headerChecksum = in.getInt();
+            long end = in.position();
+            if (in.getInt() != in.checksum(start, end)) {
+                throw new StreamCorruptedException("Snapshot directory fails its checksum: " + file);
+            }
+        }
+        directory.indexStart = in.position();
+        return directory;
+    }
+
+    private static void skipIndex(Input in) throws IOException {
+        int customerCount = in.getCount();
+        for (int c = 0; c < customerCount; c++) {
+            in.getVarLong();
+            int usernameLength = in.getCount();
+            if (usernameLength > 0) {
+                in.skip(usernameLength - 1);
+            }
+            int accountCount = in.getCount();
+            for (int a = 0; a < accountCount; a++) {
+                in.skip(in.getCount());
+                in.getVarLong();
+            }
+        }
+    }
+
+    /**
+     * An account header as read from a snapshot or delta, applied to a new or an
+     * existing account once its rows have been read.
+     */
+    static final class AccountHeader {
+        byte kind;
+        String number;
+        LocalDateTime createdAt;
+        long parameter;   // overdraft limit in paise, or the interest rate's bits
+        long balancePaise;
+        final List<MonthlySummary> summaries = new ArrayList<>();
+
+        // Set when captured from a live account: its ledger and the rows it held then
+        TransactionLedger ledger;
+        int rows;
+
+        /**
+         * Copy an account's header and ledger length; caller holds the account lock.
+         */
+        static AccountHeader capture(Account account) {
+            AccountHeader header = new AccountHeader();
+            if (account instanceof CheckingAccount checking) {
+                header.kind = KIND_CHECKING;
+                header.parameter = checking.getOverdraftLimitPaise();
+            } else if (account instanceof SavingsAccount savings) {
+                header.kind = KIND_SAVINGS;
+                header.parameter = Double.doubleToRawLongBits(savings.getInterestRate());
+            } else {
+                throw new IllegalArgumentException("Cannot write account type " + account.getClass().getName());
+            }
+            header.number = account.getAccountNumber();
+            header.createdAt = account.getCreatedAt();
+            header.balancePaise = account.getBalancePaise();
+            header.summaries.addAll(account.getMonthlySummaries());
+            header.ledger = account.getLedger();
+            header.rows = header.ledger.size();
+            return header;
+        }
+
+        Account newAccount() {
+            return kind == KIND_CHECKING
+                    ? new CheckingAccount(number, 0.0)
+                    : new SavingsAccount(number, Double.longBitsToDouble(parameter));
+        }
+
+        /**
+         * Set the account's parameters, summaries, balance and creation time.
+         */
+        void restore(Account account) throws IOException {
+            if (account instanceof CheckingAccount checking && kind == KIND_CHECKING) {
+                checking.setOverdraftLimitPaise(parameter);
+            } else if (account instanceof SavingsAccount savings && kind == KIND_SAVINGS) {
+                savings.setInterestRate(Double.longBitsToDouble(parameter));
+            } else {
+                throw new StreamCorruptedException("Account " + number + " changed kind");
+            }
+            for (MonthlySummary summary : summaries) {
+                account.restoreMonthlySummary(summary);
+            }
+            account.restoreState(balancePaise, createdAt);
+        }
+    }
+
+    static AccountHeader readAccountHeader(Input in) throws IOException {
+        AccountHeader header = new AccountHeader();
+        header.kind = in.getByte();
+        if (header.kind != KIND_CHECKING && header.kind != KIND_SAVINGS) {
+            throw new StreamCorruptedException("Unknown account kind " + header.kind);
+        }
+        header.number = in.getString();
+        header.createdAt = in.getByte() == 0 ? null
+                : LocalDateTime.ofEpochSecond(in.getZigZag(), (int) in.getVarLong(), ZoneOffset.UTC);
+        header.parameter = header.kind == KIND_CHECKING ? in.getZigZag() : in.getLong();
+        header.balancePaise = in.getZigZag();
+
+        int summaryCount = in.getCount();
+        for (int i = 0; i < summaryCount; i++) {
+            long monthIndex = in.getZigZag();
+            YearMonth month = YearMonth.of((int) Math.floorDiv(monthIndex, 12L), (int) Math.floorMod(monthIndex, 12L) + 1);
+            int depositCount = in.getCount();
+            long depositTotal = in.getZigZag();
+            int withdrawalCount = in.getCount();
+            long withdrawalTotal = in.getZigZag();
+            long opening = in.getZigZag();
+            long closing = in.getZigZag();
+            long min = in.getZigZag();
+            long max = in.getZigZag();
+            header.summaries.add(new MonthlySummary(month, depositCount, depositTotal, withdrawalCount,
+                    withdrawalTotal, opening, closing, min, max));
+        }
+        return header;
+    }
+
+    /**
+     * Read rows written by writeRows(out, ledger, from, to) and append them to a ledger.
+     * Rows the ledger already holds (an overlap with an earlier delta) are skipped.
+     *
+     * @param from The ledger index of the first row in the input
+     */
+    static void readRows(Input in, TransactionLedger ledger, int from, TransactionType[] types) throws IOException {
+        int count = in.getCount();
+        in.checkFits(count);
+        if (from > ledger.size()) {
+            throw new StreamCorruptedException("Ledger rows start at " + from + " but only " + ledger.size()
+                    + " rows are known");
+        }
+        ledger.reserve(from + count);
+        long timestamp = 0;
+        long rowBalance = 0;
+        long idHigh = 0;
+        if (from > 0) {
+            timestamp = ledger.getTimestampMicros(from - 1);
+            rowBalance = ledger.getResultingBalancePaise(from - 1);
+            idHigh = ledger.getIdHigh(from - 1);
+        }
+        for (int i = 0; i < count; i++) {
+            int typeByte = in.getByte() & 0xFF;
+            int typeIndex = typeByte & ~TRANSFER_FLAG;
+            if (typeIndex >= types.length) {
+                throw new StreamCorruptedException("Bad transaction type index " + typeIndex);
+            }
+            timestamp += in.getZigZag();
+            long amount = in.getZigZag();
+            rowBalance += in.getZigZag();
+            idHigh += in.getZigZag();
+            long idLow = in.getLong();
+            long transferHigh = 0;
+            long transferLow = 0;
+            if ((typeByte & TRANSFER_FLAG) != 0) {
+                transferHigh = in.getLong();
+                transferLow = in.getLong();
+            }
+            if (from + i >= ledger.size()) {
+                ledger.appendExisting(timestamp, types[typeIndex], amount, rowBalance, idHigh, idLow,
+                        transferHigh, transferLow);
+            }
+        }
+    }
+
+    // ---- Buffered channel I/O ----
+
+    static final class Output {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private long flushed;
+
+        // Between startChecksum() and endChecksum(): the checksum of the bytes flushed so
+        // far, and where the bytes still to be added start in the buffer
+        private CRC32C checksum;
+        private int checksumFrom;
+
+        Output(FileChannel channel) {
+            this(channel, BUFFER_SIZE);
+        }
+
+        // A smaller buffer suits small files such as deltas
+        Output(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        // Continue writing the channel at the given file offset
+        Output(FileChannel channel, int bufferSize, long position) throws IOException {
+            this(channel, bufferSize);
+            channel.position(position);
+            this.flushed = position;
+        }
+
+        // Write into a growing heap buffer instead of a file (see toBuffer())
+        Output() {
+            this.channel = null;
+            this.buffer = ByteBuffer.allocate(64 << 10);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                makeRoom(bytes);
+            }
+        }
+
+        private void makeRoom(int bytes) throws IOException {
+            if (channel != null) {
+                flush();
+            } else {
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max(buffer.capacity() * 2L, buffer.position() + (long) bytes)));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        /**
+         * Start a CRC32C of the bytes written from here on.
+         */
+        void startChecksum() {
+            checksum = new CRC32C();
+            checksumFrom = buffer.position();
+        }
+
+        /**
+         * @return The CRC32C of the bytes written since startChecksum()
+         */
+        int endChecksum() {
+            updateChecksum();
+            int value = (int) checksum.getValue();
+            checksum = null;
+            return value;
+        }
+
+        private void updateChecksum() {
+            if (checksum != null) {
+                checksum.update(buffer.duplicate().limit(buffer.position()).position(checksumFrom));
+                checksumFrom = buffer.position();
+            }
+        }
+
+        /**
+         * The bytes written so far, ready to be read (in-memory outputs only).
+         */
+        ByteBuffer toBuffer() {
+            return buffer.duplicate().flip();
+        }
+
+        void flush() throws IOException {
+            updateChecksum();
+            checksumFrom = 0;
+            buffer.flip();
+            flushed += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Bytes written so far, counting those still in the buffer
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putZigZag(long value) throws IOException {
+            putVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putVarLong(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                if (!buffer.hasRemaining()) {
+                    makeRoom(bytes.length - offset);
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        void putString(String value) throws IOException {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Length + 1, so that 0 stands for null
+        void putNullableString(String value) throws IOException {
+            if (value == null) {
+                putVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length + 1L);
+            for (int offset = 0; offset < bytes.length; ) {
+                if (!buffer.hasRemaining()) {
+                    makeRoom(bytes.length - offset);
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+    }
+
+    static final class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long consumed;  // bytes read from the channel
+
+        Input(FileChannel channel) {
+            this(channel, BUFFER_SIZE);
+        }
+
+        Input(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            buffer.limit(0);
+        }
+
+        // Continue reading the channel at the given file offset
+        Input(FileChannel channel, int bufferSize, long position) throws IOException {
+            this(channel, bufferSize);
+            channel.position(position);
+            this.consumed = position;
+        }
+
+        /**
+         * Read from a buffer holding the whole file (e.g. a mapped file), starting at
+         * the given offset. Nothing is copied.
+         */
+        Input(ByteBuffer file, long offset) throws IOException {
+            if (offset < 0 || offset > file.limit()) {
+                throw new StreamCorruptedException("Bad offset " + offset);
+            }
+            this.channel = null;
+            this.buffer = file.duplicate().position((int) offset);
+        }
+
+        // Offset in the file of the next byte to be read
+        long position() {
+            return channel == null ? buffer.position() : consumed - buffer.remaining();
+        }
+
+        /**
+         * CRC32C of the bytes from one offset to another, read without moving the input.
+         */
+        int checksum(long from, long to) throws IOException {
+            if (from < 0 || to < from) {
+                throw new StreamCorruptedException("Bad range " + from + ".." + to);
+            }
+            if (channel == null) {
+                if (to > buffer.limit()) {
+                    throw new EOFException("Snapshot ends unexpectedly");
+                }
+                return SnapshotCodec.checksum(buffer.duplicate().limit((int) to).position((int) from));
+            }
+            CRC32C crc = new CRC32C();
+            ByteBuffer part = ByteBuffer.allocate((int) Math.min(to - from, 1 << 20));
+            for (long offset = from; offset < to; offset += part.limit()) {
+                part.clear().limit((int) Math.min(part.capacity(), to - offset));
+                readFully(channel, part, offset);
+                crc.update(part.flip());
+            }
+            return (int) crc.getValue();
+        }
+
+        /**
+         * Read the int at an offset without moving the input.
+         */
+        int getIntAt(long offset) throws IOException {
+            if (channel == null) {
+                if (offset < 0 || offset + 4 > buffer.limit()) {
+                    throw new EOFException("Snapshot ends unexpectedly");
+                }
+                return buffer.getInt((int) offset);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(4);
+            readFully(channel, bytes, offset);
+            return bytes.getInt(0);
+        }
+
+        void skip(long bytes) throws IOException {
+            if (bytes < 0) {
+                throw new StreamCorruptedException("Bad length " + bytes);
+            }
+            while (bytes > 0) {
+                if (!buffer.hasRemaining()) {
+                    require(1);
+                }
+                int chunk = (int) Math.min(buffer.remaining(), bytes);
+                buffer.position(buffer.position() + chunk);
+                bytes -= chunk;
+            }
+        }
+
+        // Make at least 'bytes' bytes available, or as many as are left in the file
+        private boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            if (channel == null) {
+                return false;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                consumed += read;
+            }
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (!fill(bytes)) {
+                throw new EOFException("Snapshot ends unexpectedly");
+            }
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        long getVarLong() throws IOException {
+            fill(10);
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!buffer.hasRemaining()) {
+                    throw new EOFException("Snapshot ends unexpectedly");
+                }
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Varint is too long");
+        }
+
+        long getZigZag() throws IOException {
+            long value = getVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // A count or length, checked so that corrupt input cannot ask for huge arrays
+        int getCount() throws IOException {
+            long value = getVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE - 8) {
+                throw new StreamCorruptedException("Bad count " + value);
+            }
+            return (int) value;
+        }
+
+        byte[] getBytes() throws IOException {
+            return readBytes(getCount());
+        }
+
+        // Every item takes at least one byte, so a count larger than the file is corrupt
+        void checkFits(int count) throws IOException {
+            if (count > (channel == null ? buffer.limit() : channel.size())) {
+                throw new StreamCorruptedException("Bad length " + count);
+            }
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            checkFits(length);
+            byte[] bytes = new byte[length];
+            for (int offset = 0; offset < length; ) {
+                if (!buffer.hasRemaining()) {
+                    require(1);
+                }
+                int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        String getNullableString() throws IOException {
+            int length = getCount();
+            return length == 0 ? null : new String(readBytes(length - 1), StandardCharsets.UTF_8);
+        }
+    }
+}
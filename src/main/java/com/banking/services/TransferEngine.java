@@ -0,0 +1,292 @@
+package com.banking.services;
+
+import com.banking.model.Account;
+import com.banking.model.TransactionId;
+import com.banking.model.TransactionIds;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TransferEngine moves money between any two accounts in the bank.
+ *
+ * Accounts are resolved through the bank-wide account directory kept by BankService,
+ * so the payer and payee can belong to different customers. Both accounts are locked
+ * in a fixed global order (see Account.callWithBothLocked) for the whole transfer:
+ * concurrent transfers in opposite directions cannot deadlock, and the balance check
+ * and the debit happen under the same lock, so money cannot be spent twice.
+ *
+ * The debit and credit are recorded as a withdrawal and a deposit that share one
+ * transfer id, which links the two legs in both accounts' histories.
+ *
+ * Each transfer passes the bank's MutationGate once for both legs, so a checkpoint
+ * sees either the whole transfer or none of it.
+ *
+ * Large batches (payroll, bulk payments) go through transferBatch(), which splits the
+ * batch into groups of transfers that share no account and runs the groups in parallel
+ * on a ForkJoinPool. Within a group the transfers run in batch order, so every account
+ * sees its transfers in the order they appear in the batch.
+ */
+public class TransferEngine {
+
+    // Groups are split across tasks until a task has at most this many transfers
+    private static final int TRANSFERS_PER_TASK = 256;
+
+    private final BankService bankService;
+    private final ForkJoinPool pool;
+
+    public TransferEngine(BankService bankService) {
+        this(bankService, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bankService The bank whose account directory resolves account numbers
+     * @param pool        The pool that runs independent groups of a batch
+     */
+    public TransferEngine(BankService bankService, ForkJoinPool pool) {
+        this.bankService = bankService;
+        this.pool = pool;
+    }
+
+    /**
+     * Transfer money between two accounts identified by number.
+     *
+     * @param fromAccountNumber The account to debit
+     * @param toAccountNumber   The account to credit
+     * @param amountPaise       The amount to move, in paise
+     * @return The outcome, with the transfer id if it completed
+     */
+    public TransferResult transfer(String fromAccountNumber, String toAccountNumber, long amountPaise) {
+        if (amountPaise <= 0) {
+            return TransferResult.failed(TransferResult.Status.INVALID_AMOUNT);
+        }
+        if (fromAccountNumber == null || fromAccountNumber.equals(toAccountNumber)) {
+            return TransferResult.failed(TransferResult.Status.SAME_ACCOUNT);
+        }
+        BankService.AccountEntry from = bankService.findAccountByNumber(fromAccountNumber);
+        BankService.AccountEntry to = bankService.findAccountByNumber(toAccountNumber);
+        if (from == null || to == null) {
+            return TransferResult.failed(TransferResult.Status.UNKNOWN_ACCOUNT);
+        }
+        return transfer(from.getAccount(), to.getAccount(), amountPaise);
+    }
+
+    /**
+     * Transfer money between two already resolved accounts.
+     *
+     * @param from        The account to debit
+     * @param to          The account to credit
+     * @param amountPaise The amount to move, in paise
+     * @return The outcome, with the transfer id if it completed
+     */
+    public TransferResult transfer(Account from, Account to, long amountPaise) {
+        if (amountPaise <= 0) {
+            return TransferResult.failed(TransferResult.Status.INVALID_AMOUNT);
+        }
+        if (from == to) {
+            return TransferResult.failed(TransferResult.Status.SAME_ACCOUNT);
+        }
+        TransactionId transferId = TransactionIds.generator().next();
+        MutationGate gate = bankService.getMutationGate();
+        gate.enter();
+        try {
+            return Account.callWithBothLocked(from, to, () -> {
+                if (!from.debitForTransfer(amountPaise, transferId, to)) {
+                    return TransferResult.failed(TransferResult.Status.INSUFFICIENT_FUNDS);
+                }
+                to.creditForTransfer(amountPaise, transferId, from);
+                return TransferResult.completed(transferId);
+            });
+        } finally {
+            gate.exit();
+        }
+    }
+
+    /**
+     * Run a batch of transfers, in parallel where they touch disjoint accounts.
+     *
+     * Transfers are grouped so that two transfers sharing an account (directly or
+     * through a chain of other transfers) land in the same group. Each group runs
+     * sequentially in batch order; different groups run at the same time. The result
+     * is therefore the same as running the batch one transfer at a time, as long as
+     * nothing outside the batch touches the same accounts meanwhile.
+     *
+     * @param requests The transfers, in the order they should apply to each account
+     * @return One result per request, in the same order as the requests
+     */
+    public List<TransferResult> transferBatch(List<TransferRequest> requests) {
+        int n = requests.size();
+        TransferResult[] results = new TransferResult[n];
+        Account[] from = new Account[n];
+        Account[] to = new Account[n];
+
+        // Give every distinct account a slot and union the two slots of each transfer
+        Map<Account, Integer> slots = new IdentityHashMap<>();
+        int[] parent = new int[2 * n];
+        int[] fromSlot = new int[n];
+        for (int i = 0; i < n; i++) {
+            TransferRequest request = requests.get(i);
+            TransferResult.Status rejected = resolve(request, i, from, to);
+            if (rejected != null) {
+                results[i] = TransferResult.failed(rejected);
+                fromSlot[i] = -1;
+                continue;
+            }
+            int a = slot(slots, parent, from[i]);
+            int b = slot(slots, parent, to[i]);
+            union(parent, a, b);
+            fromSlot[i] = a;
+        }
+
+        // Lay the groups out one after another, each keeping batch order
+        int[] groupOfRoot = new int[slots.size()];
+        Arrays.fill(groupOfRoot, -1);
+        int[] groupOf = new int[n];
+        int groupCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (fromSlot[i] < 0) continue;
+            int root = find(parent, fromSlot[i]);
+            if (groupOfRoot[root] < 0) {
+                groupOfRoot[root] = groupCount++;
+            }
+            groupOf[i] = groupOfRoot[root];
+        }
+        int[] groupStart = new int[groupCount + 1];
+        for (int i = 0; i < n; i++) {
+            if (fromSlot[i] >= 0) groupStart[groupOf[i] + 1]++;
+        }
+        for (int g = 0; g < groupCount; g++) {
+            groupStart[g + 1] += groupStart[g];
+        }
+        int[] members = new int[groupStart[groupCount]];
+        int[] next = Arrays.copyOf(groupStart, groupCount);
+        for (int i = 0; i < n; i++) {
+            if (fromSlot[i] >= 0) members[next[groupOf[i]]++] = i;
+        }
+
+        Batch batch = new Batch(requests, from, to, results, groupStart, members);
+        if (groupCount <= 1 || pool.getParallelism() <= 1) {
+            batch.runGroups(0, groupCount);
+        } else {
+            pool.invoke(new GroupTask(batch, 0, groupCount));
+        }
+        return Arrays.asList(results);
+    }
+
+    // Check a request and look up its accounts; returns why it was rejected, or null
+    private TransferResult.Status resolve(TransferRequest request, int i, Account[] from, Account[] to) {
+        if (request.getAmountPaise() <= 0) {
+            return TransferResult.Status.INVALID_AMOUNT;
+        }
+        String fromNumber = request.getFromAccountNumber();
+        if (fromNumber == null || fromNumber.equals(request.getToAccountNumber())) {
+            return TransferResult.Status.SAME_ACCOUNT;
+        }
+        BankService.AccountEntry fromEntry = bankService.findAccountByNumber(fromNumber);
+        BankService.AccountEntry toEntry = bankService.findAccountByNumber(request.getToAccountNumber());
+        if (fromEntry == null || toEntry == null) {
+            return TransferResult.Status.UNKNOWN_ACCOUNT;
+        }
+        if (fromEntry.getAccount() == toEntry.getAccount()) {
+            return TransferResult.Status.SAME_ACCOUNT;
+        }
+        from[i] = fromEntry.getAccount();
+        to[i] = toEntry.getAccount();
+        return null;
+    }
+
+    private static int slot(Map<Account, Integer> slots, int[] parent, Account account) {
+        Integer slot = slots.get(account);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(account, slot);
+            parent[slot] = slot;
+        }
+        return slot;
+    }
+
+    // Union-find with path halving
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * The resolved batch shared by all tasks. Each task writes the results of its own
+     * groups only, and ForkJoinPool.invoke makes those writes visible to the caller.
+     */
+    private final class Batch {
+        private final List<TransferRequest> requests;
+        private final Account[] from;
+        private final Account[] to;
+        private final TransferResult[] results;
+        private final int[] groupStart;
+        private final int[] members;
+
+        Batch(List<TransferRequest> requests, Account[] from, Account[] to, TransferResult[] results,
+              int[] groupStart, int[] members) {
+            this.requests = requests;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+            this.groupStart = groupStart;
+            this.members = members;
+        }
+
+        int transfersIn(int firstGroup, int endGroup) {
+            return groupStart[endGroup] - groupStart[firstGroup];
+        }
+
+        void runGroups(int firstGroup, int endGroup) {
+            for (int m = groupStart[firstGroup]; m < groupStart[endGroup]; m++) {
+                int i = members[m];
+                results[i] = transfer(from[i], to[i], requests.get(i).getAmountPaise());
+            }
+        }
+    }
+
+    /**
+     * Runs a range of groups, splitting it in half while it holds many transfers.
+     * A single group is never split, which is what keeps per-account order.
+     */
+    private static final class GroupTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Batch batch;
+        private final int firstGroup;
+        private final int endGroup;
+
+        GroupTask(Batch batch, int firstGroup, int endGroup) {
+            this.batch = batch;
+            this.firstGroup = firstGroup;
+            this.endGroup = endGroup;
+        }
+
+        @Override
+        protected void compute() {
+            if (endGroup - firstGroup == 1 || batch.transfersIn(firstGroup, endGroup) <= TRANSFERS_PER_TASK) {
+                batch.runGroups(firstGroup, endGroup);
+                return;
+            }
+            int middle = (firstGroup + endGroup) >>> 1;
+            invokeAll(new GroupTask(batch, firstGroup, middle), new GroupTask(batch, middle, endGroup));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.banking.services;
+
+/**
+ * TransferRequest is one line of a batch of transfers (for example a payroll file):
+ * move an amount from one account to another, both identified by account number.
+ */
+public final class TransferRequest {
+
+    private final String fromAccountNumber;
+    private final String toAccountNumber;
+    private final long amountPaise;
+
+    /**
+     * @param fromAccountNumber The account to debit
+     * @param toAccountNumber   The account to credit
+     * @param amountPaise       The amount to move, in paise
+     */
+    public TransferRequest(String fromAccountNumber, String toAccountNumber, long amountPaise) {
+        this.fromAccountNumber = fromAccountNumber;
+        this.toAccountNumber = toAccountNumber;
+        this.amountPaise = amountPaise;
+    }
+
+    public String getFromAccountNumber() {
+        return fromAccountNumber;
+    }
+
+    public String getToAccountNumber() {
+        return toAccountNumber;
+    }
+
+    public long getAmountPaise() {
+        return amountPaise;
+    }
+
+    @Override
+    public String toString() {
+        return fromAccountNumber + " -> " + toAccountNumber + " : " + amountPaise;
+    }
+}
@@ -0,0 +1,59 @@
+package com.banking.services;
+
+import com.banking.model.TransactionId;
+
+/**
+ * TransferResult tells the caller what happened to one transfer request.
+ * A completed transfer carries the id shared by its debit and credit transactions.
+ */
+public final class TransferResult {
+
+    /**
+     * The outcome of a transfer.
+     */
+    public enum Status {
+        COMPLETED,
+        INVALID_AMOUNT,
+        SAME_ACCOUNT,
+        UNKNOWN_ACCOUNT,
+        INSUFFICIENT_FUNDS
+    }
+
+    private final Status status;
+    private final TransactionId transferId;
+
+    private TransferResult(Status status, TransactionId transferId) {
+        this.status = status;
+        this.transferId = transferId;
+    }
+
+    static TransferResult completed(TransactionId transferId) {
+        return new TransferResult(Status.COMPLETED, transferId);
+    }
+
+    static TransferResult failed(Status status) {
+        return new TransferResult(status, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the id linking the two legs of the transfer.
+     *
+     * @return The transfer id, or null if the transfer did not complete
+     */
+    public TransactionId getTransferId() {
+        return transferId;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.COMPLETED;
+    }
+
+    @Override
+    public String toString() {
+        return transferId == null ? status.toString() : status + " " + transferId;
+    }
+}
@@ -3,14 +3,22 @@
  import com.banking.model.Account;
  import com.banking.model.CheckingAccount;
  import com.banking.model.Customer;
+ import com.banking.model.Money;
+ import com.banking.model.MonthlySummary;
  import com.banking.model.SavingsAccount;
  import com.banking.model.Transaction;
  import com.banking.model.User;
  import com.banking.services.AuthenticationService;
  import com.banking.services.EmailService;
  import com.banking.services.BankService;
+ import com.banking.services.BlockCodec;
+ import com.banking.services.BlockOutputStream;
+ import com.banking.services.CheckpointService;
  import com.banking.services.DatabaseService;
+ import com.banking.services.Journal;
  import com.banking.services.MonthlyStatementService;
+ import com.banking.services.PersistenceService;
+ import com.banking.services.TransferResult;
  
  import javax.swing.BorderFactory;
  import javax.swing.DefaultListModel;
@@ -32,15 +40,23 @@
  import java.awt.GridBagConstraints;
  import java.awt.GridBagLayout;
  import java.awt.Insets;
+ import java.awt.event.WindowAdapter;
+ import java.awt.event.WindowEvent;
  import java.text.NumberFormat;
  import java.util.Locale;
  import java.util.List;
  import java.nio.file.Path;
  import java.time.Instant;
  import java.time.Duration;
+ import java.time.YearMonth;
+ import java.time.format.DateTimeParseException;
  import java.util.Properties;
  import java.io.InputStream;
  import java.io.IOException;
+ import java.io.OutputStream;
+ import java.io.OutputStreamWriter;
+ import java.nio.charset.StandardCharsets;
+ import java.util.concurrent.ForkJoinPool;
  import javax.mail.MessagingException;
 
 
@@ -72,7 +88,10 @@ public class MainWindow extends JFrame {
     private final NumberFormat INR = NumberFormat.getCurrencyInstance(Locale.forLanguageTag("en-IN"));
 
      // Persistence and session
-     private final com.banking.services.PersistenceService persistenceService = new com.banking.services.PersistenceService();
+     // Snapshots and exports are compressed with -Dbanking.compression=lz|deflate[:level]|none (default none)
+     private final BlockCodec compression = BlockCodec.forName(System.getProperty("banking.compression", "none"));
+     private final com.banking.services.PersistenceService persistenceService =
+             new com.banking.services.PersistenceService(ForkJoinPool.commonPool(), compression);
      private Instant lastActivity = Instant.now();
      private final Duration sessionTimeout = Duration.ofMinutes(15);
  
@@ -95,16 +114,65 @@ public class MainWindow extends JFrame {
          
          // Test database connection and initialize
          initializeDatabase();
+         openCheckpoints();
+         openJournal();
          
          showAuth();
      }
 
+    // Log balance changes to a write-ahead journal when -Dbanking.journal.dir is set
+    private void openJournal() {
+        String dir = System.getProperty("banking.journal.dir");
+        if (dir == null || dir.isBlank()) return;
+        try {
+            bankService.setJournal(new Journal(Path.of(dir)));
+            System.out.println("Journal enabled in " + dir);
+        } catch (IOException e) {
+            System.err.println("Could not open journal: " + e.getMessage());
+        }
+    }
+
+    // Restore the newest checkpoint and keep checkpointing in the background when -Dbanking.checkpoint.dir is set
+    private void openCheckpoints() {
+        String dir = System.getProperty("banking.checkpoint.dir");
+        if (dir == null || dir.isBlank()) return;
+        CheckpointService service = new CheckpointService(Path.of(dir), authenticationService, bankService);
+        try {
+            Path restored = service.restore();
+            if (restored != null) {
+                System.out.println("Restored checkpoint " + restored);
+            }
+            service.start();
+        } catch (IOException e) {
+            System.err.println("Could not start checkpoints: " + e.getMessage());
+            return;
+        }
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                try {
+                    // Last checkpoint before the application exits
+                    service.close();
+                } catch (IOException ex) {
+                    System.err.println("Final checkpoint failed: " + ex.getMessage());
+                }
+            }
+        });
+        System.out.println("Checkpoints enabled in " + dir);
+    }
+
     private void initializeDatabase() {
         try {
             if (databaseService.testConnection()) {
                 System.out.println("Database connection successful!");
                 databaseService.initializeDatabase();
                 System.out.println("Database initialized successfully!");
+                addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        databaseService.close();
+                    }
+                });
             } else {
                 System.err.println("Database connection failed. Application will continue with file-based storage.");
             }
@@ -341,12 +409,7 @@ public class MainWindow extends JFrame {
      }
  
      private Account findAccountByNumber(String accountNumber) {
-         Customer c = getCurrentCustomer();
-         if (c == null) return null;
-         for (Account a : c.getAccounts()) {
-             if (a.getAccountNumber().equals(accountNumber)) return a;
-         }
-         return null;
+         return currentUsername == null ? null : bankService.findAccount(currentUsername, accountNumber);
      }
  
      private void actionCreateAccount() {
@@ -361,8 +424,8 @@ public class MainWindow extends JFrame {
          Customer c = getCurrentCustomer();
          if (c == null) { dashStatus.setText("No customer context."); return; }
 
-         // Prevent duplicate account numbers for the same customer
-         if (findAccountByNumber(accountNumber) != null) {
+         // Prevent duplicate account numbers across the bank
+         if (bankService.findAccountByNumber(accountNumber) != null) {
              JOptionPane.showMessageDialog(this, "Account number already exists.", "Error", JOptionPane.ERROR_MESSAGE);
              return;
          }
@@ -400,7 +463,10 @@ public class MainWindow extends JFrame {
                  JOptionPane.showMessageDialog(this, "Amount must be positive.", "Error", JOptionPane.ERROR_MESSAGE);
                  return;
              }
-             acc.deposit(amount);
+             if (!bankService.deposit(currentUsername, acc.getAccountNumber(), amount)) {
+                 JOptionPane.showMessageDialog(this, "Deposit failed.", "Error", JOptionPane.ERROR_MESSAGE);
+                 return;
+             }
              dashStatus.setText("Deposit successful.");
              refreshAccountsList();
 
@@ -430,7 +496,7 @@ public class MainWindow extends JFrame {
                  JOptionPane.showMessageDialog(this, "Amount must be positive.", "Error", JOptionPane.ERROR_MESSAGE);
                  return;
              }
-             boolean ok = acc.withdraw(amount);
+             boolean ok = bankService.withdraw(currentUsername, acc.getAccountNumber(), amount);
              if (ok) {
                  dashStatus.setText("Withdrawal processed.");
                 Customer customer = getCurrentCustomer();
@@ -457,7 +523,19 @@ public class MainWindow extends JFrame {
          if (accountNumber == null) return;
          Account acc = findAccountByNumber(accountNumber);
          if (acc == null) { dashStatus.setText("Account not found."); return; }
-         List<Transaction> txs = acc.getTransactionList();
+         String monthStr = JOptionPane.showInputDialog(this, "Month to show (yyyy-MM), or leave blank for full history:", YearMonth.now().toString());
+         if (monthStr == null) return;
+         List<Transaction> txs;
+         if (monthStr.isBlank()) {
+             txs = acc.getTransactionList();
+         } else {
+             try {
+                 txs = acc.transactionsInMonth(YearMonth.parse(monthStr.trim()));
+             } catch (DateTimeParseException ex) {
+                 JOptionPane.showMessageDialog(this, "Invalid month. Use the form 2024-05.", "Error", JOptionPane.ERROR_MESSAGE);
+                 return;
+             }
+         }
          if (txs.isEmpty()) {
              JOptionPane.showMessageDialog(this, "No transactions to show.");
              return;
@@ -475,14 +553,14 @@ public class MainWindow extends JFrame {
           if (currentUsername == null) { dashStatus.setText("Not logged in."); return; }
           if (isSessionExpired()) { doLogout(); return; }
           List<Account> accounts = bankService.getAccountsForCustomer(currentUsername);
-          if (accounts.size() < 2) {
-              JOptionPane.showMessageDialog(this, "Need at least two accounts to transfer.");
+          if (accounts.isEmpty()) {
+              JOptionPane.showMessageDialog(this, "You need an account to transfer from.");
               return;
           }
           String from = getSelectedAccountNumber();
           if (from == null) from = promptAccountNumber();
           if (from == null) return;
-          String to = JOptionPane.showInputDialog(this, "Enter destination account number:");
+          String to = JOptionPane.showInputDialog(this, "Enter destination account number (yours or a payee's):");
           if (to == null || to.isBlank()) return;
           if (from.equals(to)) {
               JOptionPane.showMessageDialog(this, "Source and destination cannot be the same.");
@@ -496,8 +574,8 @@ public class MainWindow extends JFrame {
                   JOptionPane.showMessageDialog(this, "Amount must be positive.");
                   return;
               }
-              boolean ok = bankService.transfer(currentUsername, from, to, amount);
-              if (ok) {
+              TransferResult result = bankService.transferToPayee(currentUsername, from, to, amount);
+              if (result.isSuccess()) {
                   dashStatus.setText("Transfer complete.");
                   refreshAccountsList();
 
@@ -510,6 +588,10 @@ public class MainWindow extends JFrame {
                      sendEmailAsync(customer.getEmail(), subject, body);
                  }
                  touchActivity();
+              } else if (result.getStatus() == TransferResult.Status.INSUFFICIENT_FUNDS) {
+                  JOptionPane.showMessageDialog(this, "Transfer failed. Insufficient balance.", "Error", JOptionPane.ERROR_MESSAGE);
+              } else if (result.getStatus() == TransferResult.Status.UNKNOWN_ACCOUNT) {
+                  JOptionPane.showMessageDialog(this, "Transfer failed. Account not found.", "Error", JOptionPane.ERROR_MESSAGE);
               } else {
                   JOptionPane.showMessageDialog(this, "Transfer failed. Check balances and accounts.", "Error", JOptionPane.ERROR_MESSAGE);
               }
@@ -539,6 +621,14 @@ public class MainWindow extends JFrame {
               details.append("Created At: ").append(acc.getCreatedAt().toString()).append('\n');
           }
           details.append("Balance: ").append(INR.format(acc.getBalance())).append('\n');
+          MonthlySummary month = acc.getMonthlySummary(YearMonth.now());
+          if (month != null) {
+              details.append("This Month: ").append(month.getDepositCount()).append(" deposits (")
+                      .append(INR.format(Money.toRupees(month.getDepositTotalPaise()))).append("), ")
+                      .append(month.getWithdrawalCount()).append(" withdrawals (")
+                      .append(INR.format(Money.toRupees(month.getWithdrawalTotalPaise())))
+                      .append(")\n");
+          }
           JOptionPane.showMessageDialog(this, details.toString(), "Account Details", JOptionPane.INFORMATION_MESSAGE);
       }
 
@@ -547,12 +637,31 @@ public class MainWindow extends JFrame {
           chooser.setDialogTitle("Save Data");
           if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
               Path file = chooser.getSelectedFile().toPath();
-              try {
-                  persistenceService.save(file, authenticationService, bankService);
-                  dashStatus.setText("Saved.");
-              } catch (Exception ex) {
-                  JOptionPane.showMessageDialog(this, "Save failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-              }
+              dashStatus.setText("Saving...");
+              // Written on a worker thread so the window stays responsive
+              new SwingWorker<Void, Void>() {
+                  @Override
+                  protected Void doInBackground() throws IOException {
+                      // Start a new journal segment first: the snapshot covers everything before it
+                      Journal journal = bankService.getJournal();
+                      long mark = journal != null ? journal.mark() : 0;
+                      persistenceService.save(file, authenticationService, bankService);
+                      if (journal != null) journal.truncateBefore(mark);
+                      return null;
+                  }
+
+                  @Override
+                  protected void done() {
+                      try {
+                          get();
+                          dashStatus.setText("Saved.");
+                      } catch (Exception ex) {
+                          Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                          dashStatus.setText(" ");
+                          JOptionPane.showMessageDialog(MainWindow.this, "Save failed: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                      }
+                  }
+              }.execute();
           }
       }
 
@@ -562,9 +671,20 @@ public class MainWindow extends JFrame {
           if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
               Path file = chooser.getSelectedFile().toPath();
               try {
-                  persistenceService.load(file, authenticationService, bankService);
+                  // Customers are read from the file as they are used; the journal is replayed on top
+                  PersistenceService.LoadReport report = persistenceService.loadMapped(file, authenticationService,
+                          bankService, bankService.getJournal());
+                  if (report.getReplay() != null) {
+                      System.out.println("Journal replay: " + report.getReplay());
+                  }
                   dashStatus.setText("Loaded.");
                   refreshAccountsList();
+                  if (report.isDamaged()) {
+                      JOptionPane.showMessageDialog(this, "The file was damaged. " + report.getLostCustomers()
+                              + " customer(s) could not be read; " + report.getRebuiltAccounts() + " of "
+                              + report.getLostAccounts().size() + " lost account(s) were rebuilt from the journal.\n"
+                              + String.join("\n", report.getProblems()), "Load", JOptionPane.WARNING_MESSAGE);
+                  }
               } catch (Exception ex) {
                   JOptionPane.showMessageDialog(this, "Load failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
               }
@@ -593,7 +713,7 @@ public class MainWindow extends JFrame {
           chooser.setDialogTitle("Export Transaction History");
           if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
               Path file = chooser.getSelectedFile().toPath();
-              try (java.io.BufferedWriter writer = java.nio.file.Files.newBufferedWriter(file)) {
+              try (java.io.BufferedWriter writer = newExportWriter(file)) {
                   for (Transaction t : acc.getTransactionList()) {
                       writer.write(t.getDescription());
                       writer.newLine();
@@ -606,6 +726,15 @@ public class MainWindow extends JFrame {
       }
    
  
+     // A text writer for exports, compressed in blocks unless compression is off
+     private java.io.BufferedWriter newExportWriter(Path file) throws IOException {
+         if (compression.getId() == BlockCodec.NONE_ID) {
+             return java.nio.file.Files.newBufferedWriter(file);
+         }
+         OutputStream out = new BlockOutputStream(java.nio.file.Files.newOutputStream(file), compression);
+         return new java.io.BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+     }
+
      private String promptAccountNumber() {
          return JOptionPane.showInputDialog(this, "Enter account number:");
      }
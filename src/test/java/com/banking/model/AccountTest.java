@@ -4,6 +4,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
 public class AccountTest {
     
     private Account account;
@@ -123,10 +134,120 @@ public class AccountTest {
         assertTransaction(account.getTransactionList().get(3), "withdrawal", 200.0, 750.0);
     }
     
+    @Test
+    void testTransactionsInCurrentMonth() {
+        account.deposit(100.0);
+        account.withdraw(40.0);
+        
+        YearMonth thisMonth = YearMonth.from(account.getTransactionList().get(0).getDate());
+        List<Transaction> monthly = account.transactionsInMonth(thisMonth);
+        assertEquals(2, monthly.size());
+        assertEquals("withdrawal", monthly.get(1).getType());
+        assertTrue(account.transactionsInMonth(thisMonth.minusMonths(1)).isEmpty());
+        
+        LocalDateTime from = thisMonth.atDay(1).atStartOfDay();
+        assertEquals(2, account.transactionsBetween(from, from.plusMonths(1)).size());
+    }
+    
+    @Test
+    void testMonthlySummaryIsUpdatedOnEachTransaction() {
+        account.deposit(1000.0);
+        account.withdraw(300.0);
+        account.deposit(50.0);
+        account.withdraw(600.0);
+        
+        YearMonth thisMonth = YearMonth.from(account.getTransactionList().get(0).getDate());
+        MonthlySummary summary = account.getMonthlySummary(thisMonth);
+        assertNotNull(summary);
+        assertEquals(2, summary.getDepositCount());
+        assertEquals(105000L, summary.getDepositTotalPaise());
+        assertEquals(2, summary.getWithdrawalCount());
+        assertEquals(90000L, summary.getWithdrawalTotalPaise());
+        assertEquals(0L, summary.getOpeningBalancePaise());
+        assertEquals(15000L, summary.getClosingBalancePaise());
+        assertEquals(0L, summary.getMinBalancePaise());
+        assertEquals(100000L, summary.getMaxBalancePaise());
+        assertEquals(1, account.getMonthlySummaries().size());
+        
+        // Declined transactions are not counted
+        account.withdraw(10000.0);
+        assertEquals(2, account.getMonthlySummary(thisMonth).getWithdrawalCount());
+        assertNull(account.getMonthlySummary(thisMonth.minusMonths(1)));
+    }
+    
+    @Test
+    void testMonthlySummariesSurviveSerialization() throws Exception {
+        Account account = new SavingsAccount("SERIAL123", 0.05);
+        account.deposit(100.0);
+        YearMonth thisMonth = YearMonth.from(account.getTransactionList().get(0).getDate());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(account);
+        }
+        Account copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Account) in.readObject();
+        }
+        
+        assertEquals(1, copy.getMonthlySummary(thisMonth).getDepositCount());
+        copy.deposit(25.0);
+        assertEquals(2, copy.getMonthlySummary(thisMonth).getDepositCount());
+        assertEquals(12500L, copy.getMonthlySummary(thisMonth).getClosingBalancePaise());
+    }
+    
     private void assertTransaction(Transaction transaction, String expectedType, 
                                  double expectedAmount, double expectedBalance) {
         assertEquals(expectedType, transaction.getType());
         assertEquals(expectedAmount, transaction.getAmount(), 0.01);
         assertEquals(expectedBalance, transaction.getResultingBalance(), 0.01);
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testAccountsSerializedByTheFirstReleaseStillLoad() throws Exception {
+        // Written by the first release, when balances and amounts were doubles in rupees
+        List<Customer> customers;
+        try (ObjectInputStream in = new ObjectInputStream(
+                Files.newInputStream(Path.of("src/test/resources/legacy/baseline-bank.ser")))) {
+            Map<String, User> users = (Map<String, User>) in.readObject();
+            assertEquals(2, users.size());
+            customers = (List<Customer>) in.readObject();
+        }
+
+        Account savings = customers.get(0).getAccounts().get(0);
+        assertEquals("S-1001", savings.getAccountNumber());
+        assertEquals(44_925L, savings.getBalancePaise());
+        assertEquals(0.04, ((SavingsAccount) savings).getInterestRate(), 1e-9);
+        List<Transaction> history = savings.getTransactionList();
+        assertEquals(3, history.size());
+        assertTransaction(history.get(0), "deposit", 1000.0, 1000.0);
+        assertTransaction(history.get(1), "withdrawal", 250.5, 749.5);
+        assertTransaction(history.get(2), "withdrawal", 300.25, 449.25);
+        assertEquals(36, history.get(0).getTransactionId().length());
+
+        CheckingAccount checking = (CheckingAccount) customers.get(0).getAccounts().get(1);
+        assertEquals(50_000L, checking.getOverdraftLimitPaise());
+        assertEquals(-14_975L, checking.getBalancePaise());
+        assertEquals(3, checking.getLedger().size());
+
+        // Monthly summaries are rebuilt from the converted history
+        MonthlySummary summary = checking.getMonthlySummaries().get(0);
+        assertEquals(0L, summary.getOpeningBalancePaise());
+        assertEquals(-14_975L, summary.getClosingBalancePaise());
+        assertEquals(2, summary.getDepositCount());
+
+        // The converted account keeps working and saves in the current layout
+        checking.deposit(100.0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(checking);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            CheckingAccount copy = (CheckingAccount) in.readObject();
+            assertEquals(-4_975L, copy.getBalancePaise());
+            assertEquals(4, copy.getLedger().size());
+            assertEquals(50_000L, copy.getOverdraftLimitPaise());
+        }
+    }
 }
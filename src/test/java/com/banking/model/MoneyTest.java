@@ -0,0 +1,74 @@
+package com.banking.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+public class MoneyTest {
+    
+    @Test
+    void testOfRupeesRoundsToNearestPaisa() {
+        assertEquals(25075L, Money.ofRupees(250.75));
+        assertEquals(10L, Money.ofRupees(0.1));
+        assertEquals(-5000L, Money.ofRupees(-50.0));
+        assertEquals(0L, Money.ofRupees(0.004));
+    }
+    
+    @Test
+    void testOfRupeesRejectsOutOfRangeAmounts() {
+        assertThrows(ArithmeticException.class, () -> Money.ofRupees(1e300));
+        assertThrows(ArithmeticException.class, () -> Money.ofRupees(-1e300));
+    }
+    
+    @Test
+    void testOfRupeesRejectsNonFiniteAmounts() {
+        assertThrows(IllegalArgumentException.class, () -> Money.ofRupees(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> Money.ofRupees(Double.POSITIVE_INFINITY));
+        assertThrows(IllegalArgumentException.class, () -> Money.ofRupees(Double.NEGATIVE_INFINITY));
+    }
+    
+    @Test
+    void testRepeatedAdditionDoesNotDrift() {
+        // 0.1 added a thousand times drifts with doubles but not with paise
+        long total = 0L;
+        for (int i = 0; i < 1000; i++) {
+            total = Money.add(total, Money.ofRupees(0.1));
+        }
+        assertEquals(10000L, total);
+        assertEquals(100.0, Money.toRupees(total));
+    }
+    
+    @Test
+    void testExactArithmeticOverflow() {
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1L));
+        assertThrows(ArithmeticException.class, () -> Money.subtract(Long.MIN_VALUE, 1L));
+    }
+    
+    @Test
+    void testCompare() {
+        assertTrue(Money.compare(100L, 200L) < 0);
+        assertTrue(Money.compare(200L, 100L) > 0);
+        assertEquals(0, Money.compare(100L, 100L));
+    }
+    
+    @Test
+    void testApplyRateRoundingModes() {
+        // 5% of 10.05 = 0.5025 rupees = 50.25 paise
+        assertEquals(50L, Money.applyRate(1005L, 0.05, RoundingMode.HALF_EVEN));
+        assertEquals(51L, Money.applyRate(1005L, 0.05, RoundingMode.UP));
+        assertEquals(50L, Money.applyRate(1005L, 0.05, RoundingMode.DOWN));
+        // 2.5% of 1.00 = 2.5 paise
+        assertEquals(2L, Money.applyRate(100L, 0.025, RoundingMode.HALF_EVEN));
+        assertEquals(3L, Money.applyRate(100L, 0.025, RoundingMode.HALF_UP));
+    }
+    
+    @Test
+    void testBigDecimalConversion() {
+        assertEquals(new BigDecimal("250.75"), Money.toBigDecimal(25075L));
+        assertEquals(25075L, Money.fromBigDecimal(new BigDecimal("250.75")));
+        assertEquals(25075L, Money.fromBigDecimal(new BigDecimal("250.7500")));
+        assertEquals(100L, Money.fromBigDecimal(BigDecimal.ONE));
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.math.RoundingMode;
+
 public class SavingsAccountTest {
     
     private SavingsAccount savingsAccount;
@@ -125,4 +127,18 @@ public class SavingsAccountTest {
         Transaction interestTransaction = account2.getTransactionList().get(1);
         assertEquals(expectedInterest, interestTransaction.getAmount(), 0.01);
     }
+    
+    @Test
+    void testApplyInterestRoundingMode() {
+        savingsAccount.deposit(10.05); // 5% interest = 50.25 paise
+        
+        SavingsAccount roundedUp = new SavingsAccount("SAVINGS789", INTEREST_RATE);
+        roundedUp.deposit(10.05);
+        
+        savingsAccount.applyInterest();
+        roundedUp.applyInterest(RoundingMode.UP);
+        
+        assertEquals(1055L, savingsAccount.getBalancePaise());
+        assertEquals(1056L, roundedUp.getBalancePaise());
+    }
 }
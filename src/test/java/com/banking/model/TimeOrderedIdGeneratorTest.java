@@ -0,0 +1,97 @@
+package com.banking.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TimeOrderedIdGeneratorTest {
+    
+    private final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+    
+    @Test
+    void testVersionAndVariantBits() {
+        TransactionId id = generator.next();
+        
+        assertEquals(7, id.version());
+        assertEquals(0b10L, id.getLow() >>> 62);
+        assertEquals('7', id.toString().charAt(14));
+    }
+    
+    @Test
+    void testEmbeddedTimestamp() {
+        long before = System.currentTimeMillis();
+        TransactionId id = generator.next();
+        long after = System.currentTimeMillis();
+        
+        assertTrue(id.timestampMillis() >= before);
+        assertTrue(id.timestampMillis() <= after + 1);
+    }
+    
+    @Test
+    void testIdsFromOneThreadAreStrictlyIncreasing() {
+        TransactionId previous = generator.next();
+        for (int i = 0; i < 100_000; i++) {
+            TransactionId next = generator.next();
+            assertTrue(next.compareTo(previous) > 0);
+            // String form sorts the same way, which keeps B-tree inserts append-only
+            assertTrue(next.toString().compareTo(previous.toString()) > 0);
+            previous = next;
+        }
+    }
+    
+    @Test
+    void testIdsAreUniqueAcrossThreads() throws InterruptedException {
+        Set<TransactionId> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ids.add(generator.next());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 20_000, ids.size());
+    }
+    
+    @Test
+    void testStringAndBinaryRoundTrip() {
+        TransactionId id = generator.next();
+        
+        assertEquals(36, id.toString().length());
+        assertEquals(id, TransactionId.fromString(id.toString()));
+        assertEquals(id, TransactionId.fromBytes(id.toBytes()));
+        assertEquals(java.util.UUID.fromString(id.toString()).toString(), id.toString());
+    }
+    
+    @Test
+    void testInvalidStringsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TransactionId.fromString("not-an-id"));
+        assertThrows(IllegalArgumentException.class, () -> TransactionId.fromString("zzzzzzzz-zzzz-zzzz-zzzz-zzzzzzzzzzzz"));
+        assertThrows(IllegalArgumentException.class, () -> TransactionId.fromBytes(new byte[8]));
+    }
+    
+    @Test
+    void testGeneratorCanBeSwapped() {
+        TransactionIdGenerator original = TransactionIds.generator();
+        try {
+            TransactionIds.use(new RandomIdGenerator());
+            Account account = new Account("SWAP") {};
+            account.deposit(10.0);
+            assertEquals(4, account.getLedger().getId(0).version());
+        } finally {
+            TransactionIds.use(original);
+        }
+        Account account = new Account("DEFAULT") {};
+        account.deposit(10.0);
+        assertEquals(7, account.getLedger().getId(0).version());
+    }
+}
@@ -0,0 +1,311 @@
+package com.banking.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TransactionLedgerTest {
+    
+    private TransactionLedger ledger;
+    
+    @BeforeEach
+    void setUp() {
+        ledger = new TransactionLedger();
+    }
+    
+    @Test
+    void testEmptyLedger() {
+        assertEquals(0, ledger.size());
+        assertTrue(ledger.isEmpty());
+        assertTrue(ledger.asList().isEmpty());
+    }
+    
+    @Test
+    void testAppendAndReadColumns() {
+        int row = ledger.append(TransactionType.DEPOSIT, 25075L, 25075L);
+        
+        assertEquals(0, row);
+        assertEquals(1, ledger.size());
+        assertEquals(TransactionType.DEPOSIT, ledger.getType(0));
+        assertEquals(25075L, ledger.getAmountPaise(0));
+        assertEquals(25075L, ledger.getResultingBalancePaise(0));
+        assertNotNull(ledger.getDate(0));
+        assertEquals(36, ledger.getTransactionId(0).length());
+    }
+    
+    @Test
+    void testGrowsPastInitialCapacity() {
+        long balance = 0L;
+        for (int i = 1; i <= 1000; i++) {
+            balance += i;
+            ledger.append(TransactionType.DEPOSIT, i, balance);
+        }
+        
+        assertEquals(1000, ledger.size());
+        assertEquals(1L, ledger.getAmountPaise(0));
+        assertEquals(1000L, ledger.getAmountPaise(999));
+        assertEquals(500500L, ledger.getResultingBalancePaise(999));
+    }
+    
+    @Test
+    void testTimestampsNeverDecrease() {
+        for (int i = 0; i < 100; i++) {
+            ledger.append(TransactionType.DEPOSIT, 100L, 100L * (i + 1));
+        }
+        for (int i = 1; i < ledger.size(); i++) {
+            assertTrue(ledger.getTimestampMicros(i) >= ledger.getTimestampMicros(i - 1));
+        }
+    }
+    
+    @Test
+    void testIdsAreUnique() {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            ledger.append(TransactionType.WITHDRAWAL, 1L, -1L - i);
+            ids.add(ledger.getTransactionId(i));
+        }
+        assertEquals(500, ids.size());
+    }
+    
+    @Test
+    void testListViewReadsFromColumns() {
+        ledger.append(TransactionType.DEPOSIT, 100000L, 100000L);
+        ledger.append(TransactionType.WITHDRAWAL, 25025L, 74975L);
+        
+        List<Transaction> view = ledger.asList();
+        assertEquals(2, view.size());
+        
+        Transaction withdrawal = view.get(1);
+        assertEquals("withdrawal", withdrawal.getType());
+        assertEquals(250.25, withdrawal.getAmount(), 0.001);
+        assertEquals(749.75, withdrawal.getResultingBalance(), 0.001);
+        assertEquals(ledger.getTransactionId(1), withdrawal.getTransactionId());
+        assertEquals(ledger.getDate(1), withdrawal.getDate());
+        assertTrue(withdrawal.getDescription().contains("WITHDRAWAL"));
+    }
+    
+    @Test
+    void testListViewIsLiveAndReadOnly() {
+        List<Transaction> view = ledger.asList();
+        ledger.append(TransactionType.DEPOSIT, 100L, 100L);
+        
+        assertEquals(1, view.size());
+        assertThrows(UnsupportedOperationException.class,
+                () -> view.add(new Transaction("deposit", 1.0, 1.0)));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.get(1));
+    }
+    
+    @Test
+    void testSerializationRoundTrip() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            ledger.append(i % 2 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAWAL, i, i * 10L);
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ledger);
+        }
+        TransactionLedger copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (TransactionLedger) in.readObject();
+        }
+        
+        assertEquals(ledger.size(), copy.size());
+        for (int i = 0; i < ledger.size(); i++) {
+            assertEquals(ledger.getTransactionId(i), copy.getTransactionId(i));
+            assertEquals(ledger.getTimestampMicros(i), copy.getTimestampMicros(i));
+            assertEquals(ledger.getType(i), copy.getType(i));
+            assertEquals(ledger.getAmountPaise(i), copy.getAmountPaise(i));
+            assertEquals(ledger.getResultingBalancePaise(i), copy.getResultingBalancePaise(i));
+        }
+        
+        // Appending after deserialization grows the trimmed columns
+        copy.append(TransactionType.DEPOSIT, 5L, 5L);
+        assertEquals(21, copy.size());
+    }
+    
+    @Test
+    void testTransferIdColumnsAreAllocatedOnDemandAndSerialized() throws Exception {
+        ledger.append(TransactionType.DEPOSIT, 100L, 100L);
+        assertFalse(ledger.isTransfer(0));
+        assertNull(ledger.getTransferId(0));
+        
+        TransactionId transferId = TransactionIds.generator().next();
+        for (int i = 0; i < 10; i++) {
+            ledger.append(TransactionType.WITHDRAWAL, 1L, 99L - i, transferId.getHigh(), transferId.getLow());
+        }
+        ledger.append(TransactionType.DEPOSIT, 1L, 90L);
+        
+        assertFalse(ledger.isTransfer(0));
+        assertEquals(transferId, ledger.getTransferId(1));
+        assertEquals(transferId, ledger.getTransferId(10));
+        assertFalse(ledger.isTransfer(11));
+        assertEquals(transferId.toString(), ledger.asList().get(5).getTransferId());
+        assertNull(ledger.asList().get(11).getTransferId());
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ledger);
+        }
+        TransactionLedger copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (TransactionLedger) in.readObject();
+        }
+        for (int i = 0; i < ledger.size(); i++) {
+            assertEquals(ledger.getTransferId(i), copy.getTransferId(i));
+        }
+    }
+    
+    @Test
+    void testReadersSeeTransferColumnsWhileTheFirstTransferIsRecorded() throws InterruptedException {
+        TransactionId transferId = TransactionIds.generator().next();
+        LocalDateTime from = LocalDateTime.of(2000, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.now().plusDays(1);
+        AtomicReference<TransactionLedger> current = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    TransactionLedger shared = current.get();
+                    if (shared == null) {
+                        continue;
+                    }
+                    // Row 0 is not a transfer, but its transfer columns appear under the reader
+                    shared.isTransfer(0);
+                    shared.getTransferId(0);
+                    TransactionLedger.Cursor cursor = shared.cursor(from, to);
+                    while (cursor.next()) {
+                        cursor.isTransfer();
+                    }
+                    int last = shared.size() - 1;
+                    if (last > 0) {
+                        assertEquals(transferId, shared.getTransferId(last));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        try {
+            // Every round publishes a new ledger, then records its first transfer
+            for (int round = 0; round < 200_000 && failure.get() == null; round++) {
+                TransactionLedger shared = new TransactionLedger();
+                shared.append(TransactionType.DEPOSIT, 100L, 100L);
+                current.set(shared);
+                shared.append(TransactionType.WITHDRAWAL, 1L, 99L, transferId.getHigh(), transferId.getLow());
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+    
+    @Test
+    void testSerializingAViewRowDetachesIt() throws Exception {
+        ledger.append(TransactionType.DEPOSIT, 500L, 500L);
+        Transaction row = ledger.asList().get(0);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(row);
+        }
+        Transaction copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Transaction) in.readObject();
+        }
+        
+        assertEquals(Transaction.class, copy.getClass());
+        assertEquals(row.getTransactionId(), copy.getTransactionId());
+        assertEquals(row.getDate(), copy.getDate());
+        assertEquals(5.0, copy.getAmount(), 0.001);
+    }
+    
+    @Test
+    void testAppendExistingKeepsTimestampAndId() {
+        long micros = TransactionLedger.toEpochMicros(LocalDateTime.of(2024, 3, 15, 10, 30));
+        ledger.appendExisting(micros, TransactionType.DEPOSIT, 100L, 100L, 0x1234L, 0x5678L);
+        
+        assertEquals(LocalDateTime.of(2024, 3, 15, 10, 30), ledger.getDate(0));
+        assertEquals(0x1234L, ledger.getIdHigh(0));
+        assertEquals(0x5678L, ledger.getIdLow(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> ledger.appendExisting(micros - 1, TransactionType.DEPOSIT, 1L, 101L, 1L, 1L));
+    }
+    
+    @Test
+    void testRangeInMonth() {
+        addOnDay(2024, 1, 31);
+        addOnDay(2024, 2, 1);
+        addOnDay(2024, 2, 14);
+        addOnDay(2024, 2, 29);
+        addOnDay(2024, 3, 1);
+        
+        List<Transaction> february = ledger.rangeInMonth(YearMonth.of(2024, 2));
+        assertEquals(3, february.size());
+        assertEquals(LocalDate.of(2024, 2, 1), february.get(0).getDate().toLocalDate());
+        assertEquals(LocalDate.of(2024, 2, 29), february.get(2).getDate().toLocalDate());
+        assertThrows(IndexOutOfBoundsException.class, () -> february.get(3));
+        
+        assertTrue(ledger.rangeInMonth(YearMonth.of(2023, 12)).isEmpty());
+        assertTrue(ledger.rangeInMonth(YearMonth.of(2024, 4)).isEmpty());
+    }
+    
+    @Test
+    void testRangeBetweenIsHalfOpen() {
+        addOnDay(2024, 5, 1);
+        addOnDay(2024, 5, 2);
+        addOnDay(2024, 5, 3);
+        
+        List<Transaction> range = ledger.rangeBetween(LocalDate.of(2024, 5, 1).atTime(12, 0),
+                LocalDate.of(2024, 5, 3).atTime(9, 0));
+        assertEquals(1, range.size());
+        assertEquals(LocalDate.of(2024, 5, 2), range.get(0).getDate().toLocalDate());
+        
+        // Reversed bounds give an empty range rather than an error
+        assertTrue(ledger.rangeBetween(LocalDate.of(2024, 6, 1).atStartOfDay(),
+                LocalDate.of(2024, 5, 1).atStartOfDay()).isEmpty());
+    }
+    
+    @Test
+    void testMonthCursor() {
+        addOnDay(2024, 6, 30);
+        addOnDay(2024, 7, 1);
+        addOnDay(2024, 7, 20);
+        addOnDay(2024, 8, 1);
+        
+        TransactionLedger.Cursor cursor = ledger.monthCursor(YearMonth.of(2024, 7));
+        assertEquals(2, cursor.remaining());
+        long total = 0L;
+        int rows = 0;
+        while (cursor.next()) {
+            assertEquals(7, cursor.date().getMonthValue());
+            total += cursor.amountPaise();
+            rows++;
+        }
+        assertEquals(2, rows);
+        assertEquals(200L, total);
+        assertFalse(cursor.next());
+    }
+    
+    private void addOnDay(int year, int month, int day) {
+        long micros = TransactionLedger.toEpochMicros(LocalDate.of(year, month, day).atTime(9, 0));
+        long balance = ledger.isEmpty() ? 0L : ledger.getResultingBalancePaise(ledger.size() - 1);
+        ledger.appendExisting(micros, TransactionType.DEPOSIT, 100L, balance + 100L, 0L, ledger.size());
+    }
+}
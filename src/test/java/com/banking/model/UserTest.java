@@ -183,4 +183,57 @@ public class UserTest {
         assertTrue(unicodeUser.authenticate(unicodePassword));
         assertFalse(unicodeUser.authenticate("Passwrd123")); // Without umlauts
     }
+    
+    @Test
+    void testStoredCredentialsRoundTripWithoutHashing() {
+        String stored = user.toStoredCredentials();
+        assertTrue(stored.startsWith("PBKDF2WithHmacSHA256$100000$"), stored);
+        assertTrue(User.isStoredCredentials(stored));
+        
+        User restored = User.fromStoredCredentials(USERNAME, stored);
+        assertEquals(USERNAME, restored.getUsername());
+        assertArrayEquals(user.getPasswordSalt(), restored.getPasswordSalt());
+        assertArrayEquals(user.getPasswordHash(), restored.getPasswordHash());
+        assertEquals(stored, restored.toStoredCredentials());
+        assertTrue(restored.authenticate(PASSWORD));
+        assertFalse(restored.authenticate("WrongPassword123"));
+        
+        // Each PBKDF2 run takes tens of milliseconds; restoring takes none
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            User.fromStoredCredentials("user" + i, stored);
+        }
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+    }
+    
+    @Test
+    void testStoredCredentialsKeepTheirHashingParameters() throws Exception {
+        byte[] salt = "0123456789abcdef".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        javax.crypto.SecretKeyFactory factory = javax.crypto.SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        byte[] hash = factory.generateSecret(
+                new javax.crypto.spec.PBEKeySpec("OldPassword1".toCharArray(), salt, 1_000, 160)).getEncoded();
+        
+        User old = User.fromStored("olduser", "PBKDF2WithHmacSHA1", 1_000, salt, hash);
+        assertTrue(old.authenticate("OldPassword1"));
+        assertFalse(old.authenticate("OldPassword2"));
+        
+        User restored = User.fromStoredCredentials("olduser", old.toStoredCredentials());
+        assertEquals("PBKDF2WithHmacSHA1", restored.getPasswordAlgorithm());
+        assertEquals(1_000, restored.getPasswordIterations());
+        assertTrue(restored.authenticate("OldPassword1"));
+        
+        User defaults = User.fromStored("newuser", new byte[16], new byte[32]);
+        assertEquals("PBKDF2WithHmacSHA256", defaults.getPasswordAlgorithm());
+        assertEquals(100_000, defaults.getPasswordIterations());
+    }
+    
+    @Test
+    void testMalformedStoredCredentialsAreRejected() {
+        for (String text : new String[]{null, "", "TestPassword123", "a$b$c", "PBKDF2WithHmacSHA256$many$AA==$AA==",
+                "PBKDF2WithHmacSHA256$0$AA==$AA==", "PBKDF2WithHmacSHA256$1000$AA==$", "$1000$AA==$AA==",
+                "PBKDF2WithHmacSHA256$1000$not base64$AA=="}) {
+            assertFalse(User.isStoredCredentials(text), String.valueOf(text));
+            assertThrows(IllegalArgumentException.class, () -> User.fromStoredCredentials(USERNAME, text));
+        }
+    }
 }
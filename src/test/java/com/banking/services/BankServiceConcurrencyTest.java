@@ -0,0 +1,165 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress tests that hammer shared accounts from 64 threads at once and check
+ * that no update is lost and that transfers neither create nor destroy money.
+ */
+public class BankServiceConcurrencyTest {
+
+    private static final int THREADS = 64;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+
+    private BankService bankService;
+    private Customer customer;
+
+    @BeforeEach
+    void setUp() {
+        bankService = new BankService();
+        customer = new Customer("Stress Customer", "stress@example.com", new User("stressuser", "Password123"));
+        bankService.addCustomer(customer);
+    }
+
+    @Test
+    void testConcurrentDepositsAreNotLost() throws Exception {
+        Account account = new SavingsAccount("S-1", 0.0);
+        customer.addAccount(account);
+
+        runOnAllThreads(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                account.depositPaise(1);
+            }
+        });
+
+        long expected = (long) THREADS * OPERATIONS_PER_THREAD;
+        assertEquals(expected, account.getBalancePaise());
+        assertEquals(expected, account.getLedger().size());
+        assertEquals(expected, account.getLedger().getResultingBalancePaise(account.getLedger().size() - 1));
+    }
+
+    @Test
+    void testConcurrentDepositsAndWithdrawalsKeepLedgerConsistent() throws Exception {
+        Account account = new SavingsAccount("S-1", 0.0);
+        customer.addAccount(account);
+        account.depositPaise(10_000_000L);
+
+        runOnAllThreads(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                if ((i & 1) == 0) {
+                    account.depositPaise(7);
+                } else {
+                    assertTrue(account.withdrawPaise(5));
+                }
+            }
+        });
+
+        long perThread = (OPERATIONS_PER_THREAD / 2) * (7L - 5L);
+        assertEquals(10_000_000L + THREADS * perThread, account.getBalancePaise());
+
+        // Every row's resulting balance must follow from the row before it
+        TransactionLedger ledger = account.getLedger();
+        long running = 0;
+        for (int row = 0; row < ledger.size(); row++) {
+            long amount = ledger.getAmountPaise(row);
+            running += ledger.getType(row) == TransactionType.DEPOSIT ? amount : -amount;
+            assertEquals(running, ledger.getResultingBalancePaise(row), "row " + row);
+        }
+    }
+
+    @Test
+    void testConcurrentTransfersConserveMoneyWithoutDeadlock() throws Exception {
+        int accountCount = 8;
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            Account account = new CheckingAccount("C-" + i, 0.0);
+            account.depositPaise(1_000_000_000L);
+            customer.addAccount(account);
+            accounts.add(account);
+        }
+        long totalBefore = total(accounts);
+
+        runOnAllThreads(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int from = random.nextInt(accountCount);
+                int to = random.nextInt(accountCount - 1);
+                if (to >= from) to++;  // never the same account
+                bankService.transfer("stressuser", "C-" + from, "C-" + to, 1.25);
+            }
+        });
+
+        assertEquals(totalBefore, total(accounts));
+    }
+
+    @Test
+    void testOppositeTransfersBetweenTwoAccountsDoNotDeadlock() throws Exception {
+        Account a = new CheckingAccount("A", 0.0);
+        Account b = new CheckingAccount("B", 0.0);
+        a.depositPaise(100_000_000L);
+        b.depositPaise(100_000_000L);
+        customer.addAccount(a);
+        customer.addAccount(b);
+
+        runOnAllThreads(thread -> {
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                if ((thread & 1) == 0) {
+                    assertTrue(bankService.transfer("stressuser", "A", "B", 1.0));
+                } else {
+                    assertTrue(bankService.transfer("stressuser", "B", "A", 1.0));
+                }
+            }
+        });
+
+        // Half the threads moved money one way and half the other
+        assertEquals(100_000_000L, a.getBalancePaise());
+        assertEquals(100_000_000L, b.getBalancePaise());
+    }
+
+    private static long total(List<Account> accounts) {
+        long sum = 0;
+        for (Account account : accounts) {
+            sum += account.getBalancePaise();
+        }
+        return sum;
+    }
+
+    private interface Work {
+        void run(int thread);
+    }
+
+    // Start all threads together and fail if any of them throws or they take too long
+    private static void runOnAllThreads(Work work) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    work.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
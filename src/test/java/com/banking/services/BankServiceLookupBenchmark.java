@@ -0,0 +1,129 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Measures BankService lookup latency as the number of customers grows.
+ * With hash indexes the time per lookup should stay flat from 1k customers upwards.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -Xmx4g -cp "out:lib/*" com.banking.services.BankServiceLookupBenchmark 1000 10000 100000 1000000
+ * 10M customers need roughly 8 GB of heap (-Xmx10g).
+ */
+public class BankServiceLookupBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000, 1_000_000};
+    private static final int LOOKUPS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    // Usernames all have this many digits, so the serialized template can be patched in place
+    private static final int DIGITS = 9;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+            }
+        }
+
+        UserFactory users = new UserFactory();
+        System.out.printf("%12s %22s %22s%n", "customers", "findCustomer ns/op", "findAccount ns/op");
+        for (int size : sizes) {
+            BankService bank = new BankService();
+            for (int i = 0; i < size; i++) {
+                Customer customer = new Customer("Customer", "", users.create(i));
+                bank.addCustomer(customer);
+                customer.addAccount(new SavingsAccount(accountNumber(i), 0.0));
+            }
+
+            String[] usernames = new String[4096];
+            String[] accounts = new String[usernames.length];
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < usernames.length; i++) {
+                int n = random.nextInt(size);
+                usernames[i] = username(n);
+                accounts[i] = accountNumber(n);
+            }
+
+            double customerNs = Double.MAX_VALUE;
+            double accountNs = Double.MAX_VALUE;
+            long sink = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    sink += bank.findCustomerByUsername(usernames[i & 4095]).getName().length();
+                }
+                customerNs = Math.min(customerNs, (System.nanoTime() - start) / (double) LOOKUPS);
+
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    int k = i & 4095;
+                    sink += bank.findAccount(usernames[k], accounts[k]).getBalancePaise();
+                }
+                accountNs = Math.min(accountNs, (System.nanoTime() - start) / (double) LOOKUPS);
+            }
+            System.out.printf("%,12d %22.1f %22.1f%s%n", size, customerNs, accountNs, sink == 42 ? "*" : "");
+        }
+    }
+
+    private static String username(int n) {
+        return "u" + pad(n);
+    }
+
+    private static String accountNumber(int n) {
+        return "A" + pad(n);
+    }
+
+    private static String pad(int n) {
+        String digits = Integer.toString(n);
+        return "0".repeat(DIGITS - digits.length()) + digits;
+    }
+
+    /**
+     * Creates users without running PBKDF2 for each one: a single User is hashed once,
+     * serialized, and its username is rewritten in the byte stream for every copy.
+     */
+    private static final class UserFactory {
+        private final byte[] template;
+        private final int usernameOffset;
+
+        UserFactory() throws Exception {
+            String placeholder = username(0);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(new User(placeholder, "Password123"));
+            }
+            template = bytes.toByteArray();
+            usernameOffset = indexOf(template, placeholder.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        User create(int n) throws Exception {
+            byte[] copy = template.clone();
+            byte[] name = username(n).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(name, 0, copy, usernameOffset, name.length);
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(copy))) {
+                return (User) in.readObject();
+            }
+        }
+
+        private static int indexOf(byte[] haystack, byte[] needle) {
+            outer:
+            for (int i = 0; i <= haystack.length - needle.length; i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (haystack[i + j] != needle[j]) continue outer;
+                }
+                return i;
+            }
+            throw new IllegalStateException("username not found in serialized user");
+        }
+    }
+}
@@ -357,4 +357,70 @@ public class BankServiceTest {
         Customer found = bankService.findCustomerByUsername("duplicateuser");
         assertEquals("Customer 2", found.getName());
     }
+
+    @Test
+    void testAccountAddedAfterCustomerIsIndexed() {
+        User user = new User("indexuser", "Password123");
+        Customer customer = new Customer("Index Customer", "index@example.com", user);
+        bankService.addCustomer(customer);
+
+        Account account = new SavingsAccount("IDX001", 0.05);
+        customer.addAccount(account);
+
+        BankService.AccountEntry entry = bankService.findAccountByNumber("IDX001");
+        assertNotNull(entry);
+        assertSame(account, entry.getAccount());
+        assertSame(customer, entry.getCustomer());
+        assertSame(account, bankService.findAccount("indexuser", "IDX001"));
+    }
+
+    @Test
+    void testFindAccountDoesNotReturnAnotherCustomersAccount() {
+        Customer owner = new Customer("Owner", "owner@example.com", new User("owneruser", "Password123"));
+        Customer other = new Customer("Other", "other@example.com", new User("otheruser", "Password123"));
+        owner.addAccount(new SavingsAccount("OWN001", 0.05));
+        bankService.addCustomer(owner);
+        bankService.addCustomer(other);
+
+        assertNull(bankService.findAccount("otheruser", "OWN001"));
+        assertNotNull(bankService.findAccount("owneruser", "OWN001"));
+    }
+
+    @Test
+    void testImportCustomersRebuildsAccountIndex() {
+        Customer oldCustomer = new Customer("Old", "old@example.com", new User("oldidxuser", "Password123"));
+        oldCustomer.addAccount(new SavingsAccount("OLD001", 0.05));
+        bankService.addCustomer(oldCustomer);
+
+        Customer newCustomer = new Customer("New", "new@example.com", new User("newidxuser", "Password123"));
+        newCustomer.addAccount(new CheckingAccount("NEW001", 100.0));
+        bankService.importCustomers(List.of(newCustomer));
+
+        assertNull(bankService.findAccountByNumber("OLD001"));
+        assertNotNull(bankService.findAccountByNumber("NEW001"));
+
+        // The replaced customer is no longer watched
+        oldCustomer.addAccount(new SavingsAccount("OLD002", 0.05));
+        assertNull(bankService.findAccountByNumber("OLD002"));
+    }
+
+    @Test
+    void testNonFiniteAmountsAreRejected() {
+        Customer customer = new Customer("NaN Customer", "nan@example.com", new User("nanuser", "Password123"));
+        Account from = new SavingsAccount("NAN001", 0.05);
+        Account to = new CheckingAccount("NAN002", 100.0);
+        customer.addAccount(from);
+        customer.addAccount(to);
+        bankService.addCustomer(customer);
+        from.deposit(500.0);
+
+        for (double amount : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            assertFalse(bankService.deposit("nanuser", "NAN001", amount));
+            assertFalse(bankService.withdraw("nanuser", "NAN001", amount));
+            assertFalse(bankService.transfer("nanuser", "NAN001", "NAN002", amount));
+        }
+        assertEquals(500.0, from.getBalance(), 0.001);
+        assertEquals(0.0, to.getBalance(), 0.001);
+        assertEquals(1, from.getLedger().size());
+    }
 }
@@ -0,0 +1,161 @@
+package com.banking.services;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+public class BlockCodecTest {
+
+    private static final List<BlockCodec> CODECS = List.of(BlockCodec.lz(), BlockCodec.deflate(1),
+            BlockCodec.deflate(6), BlockCodec.deflate(9));
+
+    // Text-like data with plenty of repeats, plus some noise
+    private static byte[] sample(int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("2024-0").append(1 + random.nextInt(9)).append(" Deposit of Rs. ")
+                    .append(random.nextInt(100_000)).append(".00 into S").append(random.nextInt(50)).append('\n');
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.UTF_8), length);
+    }
+
+    private static byte[] roundTrip(BlockCodec codec, byte[] raw) throws IOException {
+        byte[] compressed = new byte[raw.length];
+        int stored = codec.compress(raw, 0, raw.length, compressed, 0);
+        if (stored < 0) {
+            return raw;
+        }
+        assertTrue(stored < raw.length);
+        byte[] restored = new byte[raw.length];
+        codec.decompress(compressed, 0, stored, restored, 0, raw.length);
+        return restored;
+    }
+
+    @Test
+    void testCodecsRoundTrip() throws Exception {
+        byte[] random = new byte[10_000];
+        new SplittableRandom(3).nextBytes(random);
+        byte[] zeros = new byte[100_000];
+        byte[] runs = new byte[70_000];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 300);
+        }
+        for (BlockCodec codec : CODECS) {
+            for (byte[] raw : List.of(sample(200_000, 1), zeros, runs, random, new byte[0], new byte[5],
+                    sample(13, 2), sample(64, 4))) {
+                assertArrayEquals(raw, roundTrip(codec, raw), codec.getName() + ", " + raw.length + " bytes");
+            }
+            byte[] compressed = new byte[zeros.length];
+            assertTrue(codec.compress(zeros, 0, zeros.length, compressed, 0) < zeros.length / 50, codec.getName());
+        }
+    }
+
+    @Test
+    void testIncompressibleBlocksAreRefused() {
+        byte[] random = new byte[4096];
+        new SplittableRandom(5).nextBytes(random);
+        for (BlockCodec codec : CODECS) {
+            assertEquals(-1, codec.compress(random, 0, random.length, new byte[random.length], 0), codec.getName());
+        }
+        assertEquals(-1, BlockCodec.none().compress(new byte[100], 0, 100, new byte[100], 0));
+    }
+
+    @Test
+    void testOffsetsWithinArrays() throws Exception {
+        byte[] raw = sample(50_000, 6);
+        byte[] padded = new byte[raw.length + 20];
+        System.arraycopy(raw, 0, padded, 7, raw.length);
+        for (BlockCodec codec : CODECS) {
+            byte[] compressed = new byte[raw.length + 3];
+            int stored = codec.compress(padded, 7, raw.length, compressed, 3);
+            assertTrue(stored > 0);
+            byte[] restored = new byte[raw.length + 11];
+            codec.decompress(compressed, 3, stored, restored, 11, raw.length);
+            assertArrayEquals(raw, Arrays.copyOfRange(restored, 11, restored.length), codec.getName());
+        }
+    }
+
+    @Test
+    void testDamagedBlocksAreRejected() {
+        byte[] raw = sample(20_000, 7);
+        for (BlockCodec codec : CODECS) {
+            byte[] compressed = new byte[raw.length];
+            int stored = codec.compress(raw, 0, raw.length, compressed, 0);
+            // Cut short, and expecting the wrong length
+            assertThrows(StreamCorruptedException.class,
+                    () -> codec.decompress(compressed, 0, stored / 2, new byte[raw.length], 0, raw.length));
+            assertThrows(StreamCorruptedException.class,
+                    () -> codec.decompress(compressed, 0, stored, new byte[raw.length + 1], 0, raw.length + 1));
+        }
+        // An LZ match reaching back before the start of the block
+        byte[] bad = {0x10, 'a', 0x10, 0x00, 0x00};
+        assertThrows(StreamCorruptedException.class,
+                () -> BlockCodec.lz().decompress(bad, 0, bad.length, new byte[10], 0, 10));
+    }
+
+    @Test
+    void testStreamsAcrossBlocksAndPools() throws Exception {
+        byte[] raw = sample(1_000_003, 8);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (BlockCodec codec : List.of(BlockCodec.lz(), BlockCodec.deflate(6), BlockCodec.none())) {
+                for (ForkJoinPool writers : List.of(pool, new ForkJoinPool(1))) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (BlockOutputStream out = new BlockOutputStream(bytes, codec, 64 << 10, writers)) {
+                        // Mixed single bytes and slices, across block boundaries
+                        out.write(raw[0]);
+                        out.write(raw, 1, 100_000);
+                        out.flush();
+                        out.write(raw, 100_001, raw.length - 100_001);
+                    }
+                    if (codec != BlockCodec.none()) {
+                        assertTrue(bytes.size() < raw.length / 2, codec.getName());
+                    }
+                    try (BlockInputStream in = new BlockInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                        assertEquals(codec.getId(), in.getCodec().getId());
+                        assertArrayEquals(raw, in.readAllBytes(), codec.getName());
+                        assertEquals(-1, in.read());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testTruncatedStreamIsRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BlockOutputStream out = new BlockOutputStream(bytes, BlockCodec.lz())) {
+            out.write(sample(300_000, 9));
+        }
+        byte[] whole = bytes.toByteArray();
+        InputStream in = new BlockInputStream(new ByteArrayInputStream(Arrays.copyOf(whole, whole.length - 20)));
+        assertThrows(IOException.class, in::readAllBytes);
+        assertThrows(StreamCorruptedException.class,
+                () -> new BlockInputStream(new ByteArrayInputStream("plain text".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void testCodecNames() throws Exception {
+        assertEquals("lz", BlockCodec.forName("LZ").getName());
+        assertEquals("deflate:9", BlockCodec.forName("deflate:9").getName());
+        assertEquals("deflate:6", BlockCodec.forName("deflate").getName());
+        assertEquals(BlockCodec.NONE_ID, BlockCodec.forName("none").getId());
+        assertEquals(BlockCodec.LZ_ID, BlockCodec.forId(BlockCodec.LZ_ID).getId());
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.forName("zstd"));
+        assertThrows(IllegalArgumentException.class, () -> BlockCodec.forName("deflate:12"));
+        assertThrows(StreamCorruptedException.class, () -> BlockCodec.forId(9));
+    }
+}
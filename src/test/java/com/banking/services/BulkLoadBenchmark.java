@@ -0,0 +1,80 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.postgresql.copy.CopyIn;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rows per second through the bulk-load pipeline (binary encoding, partitioning and
+ * the hand-off to writers) with 1 to 8 writers. The server side is a stand-in that
+ * drops the bytes after an optional per-chunk delay, so this measures the client;
+ * point DatabaseService.bulkLoad at a real database for end-to-end numbers.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.BulkLoadBenchmark [transactions] [chunk delay ms]
+ */
+public class BulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int accounts = Math.max(1, transactions / 1_000);
+
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            Customer customer = new Customer("Customer " + i, null, User.fromStored("user" + i, new byte[16], new byte[32]));
+            Account account = new SavingsAccount("S" + i, 0.04);
+            customer.addAccount(account);
+            account.getLedger().reserve(transactions / accounts);
+            for (int t = 0; t < transactions / accounts; t++) {
+                account.depositPaise(1 + t % 10_000);
+            }
+            customers.add(customer);
+        }
+
+        System.out.printf("%,d transactions in %,d accounts, %d ms per chunk%n", transactions, accounts, delayMillis);
+        for (int writers : new int[]{1, 2, 4, 8}) {
+            AtomicLong bytes = new AtomicLong();
+            CopyBulkLoader.CopyStarter discard = (conn, sql) -> discarding(bytes, delayMillis);
+            DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+            try (DatabaseService service = new DatabaseService(
+                    new ConnectionPool(database, writers, 30, 60, 0, 0, TimeUnit.SECONDS))) {
+                CopyBulkLoader.Result result = new CopyBulkLoader(service, writers,
+                        CopyBulkLoader.DEFAULT_CHUNK_BYTES, discard).load(customers);
+                System.out.printf("  %d writers: %,12.0f rows/s, %,6d MB sent, %,d stalls%n", writers,
+                        result.getTransactions() / (result.getElapsedNanos() / 1e9), bytes.get() >> 20,
+                        result.getStalls());
+            }
+        }
+    }
+
+    private static CopyIn discarding(AtomicLong bytes, long delayMillis) {
+        boolean[] active = {true};
+        return (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[]{CopyIn.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "writeToCopy":
+                            bytes.addAndGet((Integer) args[2]);
+                            if (delayMillis > 0) {
+                                Thread.sleep(delayMillis);
+                            }
+                            return null;
+                        case "endCopy":
+                            active[0] = false;
+                            return 0L;
+                        case "cancelCopy":
+                            active[0] = false;
+                            return null;
+                        case "isActive":
+                            return active[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
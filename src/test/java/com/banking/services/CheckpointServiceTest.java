@@ -0,0 +1,194 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CheckpointServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private AuthenticationService authService;
+    private BankService bankService;
+
+    @BeforeEach
+    void setUp() {
+        authService = new AuthenticationService();
+        bankService = new BankService();
+        for (int c = 0; c < 20; c++) {
+            String username = "user" + c;
+            authService.registerUser(username, "Password123");
+            Customer customer = new Customer("Customer " + c, null, authService.getUser(username));
+            customer.addAccount(new SavingsAccount("S" + c, 0.04));
+            customer.addAccount(new CheckingAccount("C" + c, 100.0));
+            bankService.addCustomer(customer);
+            bankService.deposit(username, "S" + c, 1000.0);
+        }
+    }
+
+    private CheckpointService service(int generations, long targetChanges, long minMillis, long maxMillis) {
+        return new CheckpointService(dir, authService, bankService, generations, targetChanges,
+                minMillis, maxMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long total(BankService bank) {
+        long total = 0;
+        for (Customer customer : bank.exportCustomers()) {
+            for (Account account : customer.getAccounts()) {
+                total += account.getBalancePaise();
+            }
+        }
+        return total;
+    }
+
+    @Test
+    void testCheckpointRestoresIntoNewServices() throws Exception {
+        bankService.withdraw("user3", "C3", 40.0);
+        Path file = service(3, 100, 0, 60_000).checkpoint();
+        assertTrue(Files.exists(file));
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        CheckpointService restored = new CheckpointService(dir, auth, bank);
+        assertEquals(file, restored.restore());
+        assertNotNull(auth.login("user3", "Password123"));
+        assertEquals(bankService.findAccount("user3", "C3").getBalancePaise(),
+                bank.findAccount("user3", "C3").getBalancePaise());
+        assertEquals(bankService.findAccount("user3", "S3").getLedger().size(),
+                bank.findAccount("user3", "S3").getLedger().size());
+    }
+
+    @Test
+    void testOnlyTheNewestGenerationsAreKept() throws Exception {
+        CheckpointService checkpoints = service(2, 100, 0, 60_000);
+        List<Path> written = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            bankService.deposit("user1", "S1", 1.0);
+            written.add(checkpoints.checkpoint());
+        }
+        assertEquals(written.subList(2, 4), checkpoints.getGenerations());
+        assertEquals(4, checkpoints.getCheckpointCount());
+        assertTrue(written.get(3).getFileName().toString().contains("4"));
+    }
+
+    @Test
+    void testRestoreFallsBackWhenNewestIsCorrupt() throws Exception {
+        CheckpointService checkpoints = service(3, 100, 0, 60_000);
+        Path older = checkpoints.checkpoint();
+        long olderBalance = bankService.findAccount("user2", "S2").getBalancePaise();
+        bankService.deposit("user2", "S2", 5.0);
+        Path newer = checkpoints.checkpoint();
+        byte[] bytes = Files.readAllBytes(newer);
+        Files.write(newer, java.util.Arrays.copyOf(bytes, bytes.length / 2));
+
+        BankService bank = new BankService();
+        assertEquals(older, new CheckpointService(dir, new AuthenticationService(), bank).restore());
+        assertEquals(olderBalance, bank.findAccount("user2", "S2").getBalancePaise());
+    }
+
+    @Test
+    void testCheckpointFollowsTheRateOfChange() throws Exception {
+        CheckpointService byCount = service(3, 5, 0, 60_000);
+        byCount.checkpoint();
+        assertFalse(byCount.checkpointDue());
+        for (int i = 0; i < 4; i++) {
+            bankService.deposit("user0", "S0", 1.0);
+        }
+        assertFalse(byCount.checkpointDue());
+        bankService.deposit("user0", "S0", 1.0);
+        assertTrue(byCount.checkpointDue());
+
+        // A single change is saved once the maximum interval has passed
+        CheckpointService byTime = service(3, 1_000, 0, 50);
+        byTime.checkpoint();
+        bankService.deposit("user0", "S0", 1.0);
+        Thread.sleep(80);
+        assertTrue(byTime.checkpointDue());
+    }
+
+    @Test
+    void testSchedulerCheckpointsInTheBackground() throws Exception {
+        Path leftover = dir.resolve(CheckpointService.PREFIX + "9.snap.tmp");
+        Files.write(leftover, new byte[] {1, 2, 3});
+        CheckpointService checkpoints = service(3, 3, 0, 60_000);
+        checkpoints.start();
+        assertFalse(Files.exists(leftover));
+        for (int i = 0; i < 3; i++) {
+            bankService.deposit("user4", "S4", 1.0);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (checkpoints.getCheckpointCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, checkpoints.getCheckpointCount());
+
+        // close() saves what changed since
+        bankService.deposit("user4", "S4", 1.0);
+        checkpoints.close();
+        assertEquals(2, checkpoints.getCheckpointCount());
+        BankService bank = new BankService();
+        new CheckpointService(dir, new AuthenticationService(), bank).restore();
+        assertEquals(bankService.findAccount("user4", "S4").getBalancePaise(),
+                bank.findAccount("user4", "S4").getBalancePaise());
+    }
+
+    @Test
+    void testCheckpointsTakenDuringTransfersKeepTheTotal() throws Exception {
+        long expected = total(bankService);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                while (running.get()) {
+                    int from = random.nextInt(20);
+                    int to = random.nextInt(20);
+                    bankService.getTransferEngine().transfer("S" + from, "C" + to, 1 + random.nextInt(5_000));
+                    bankService.getTransferEngine().transfer("C" + to, "S" + from, 1 + random.nextInt(5_000));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        CheckpointService checkpoints = service(10, 100, 0, 60_000);
+        try {
+            for (int i = 0; i < 10; i++) {
+                checkpoints.checkpoint();
+                Thread.sleep(5);
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertEquals(expected, total(bankService));
+        for (Path file : checkpoints.getGenerations()) {
+            SnapshotCodec.Snapshot snapshot = SnapshotCodec.read(file);
+            long total = 0;
+            for (Customer customer : snapshot.customers) {
+                for (Account account : customer.getAccounts()) {
+                    total += account.getBalancePaise();
+                    TransactionLedger ledger = account.getLedger();
+                    // The ledger ends at the balance captured with it
+                    if (ledger.size() > 0) {
+                        assertEquals(account.getBalancePaise(), ledger.getResultingBalancePaise(ledger.size() - 1));
+                    }
+                }
+            }
+            assertEquals(expected, total, "Checkpoint " + file.getFileName() + " caught a transfer half done");
+        }
+    }
+}
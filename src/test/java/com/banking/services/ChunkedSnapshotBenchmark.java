@@ -0,0 +1,80 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Save and load throughput of the chunked snapshot format as pool threads are added,
+ * from one thread up to the number of cores.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.ChunkedSnapshotBenchmark [customers] [transactionsPerAccount] [directory]
+ */
+public class ChunkedSnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("chunked-bench");
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int c = 0; c < customers; c++) {
+            Customer customer = new Customer("Customer " + c, "customer" + c + "@example.com", null);
+            Account savings = new SavingsAccount("S" + c, 0.04);
+            Account checking = new CheckingAccount("C" + c, 500.0);
+            customer.addAccount(savings);
+            customer.addAccount(checking);
+            bank.addCustomer(customer);
+            for (int t = 0; t < transactions; t++) {
+                (((t & 1) == 0) ? savings : checking).depositPaise(1 + random.nextInt(1_000_000));
+            }
+        }
+        Path file = dir.resolve("bank.snap");
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%,d customers, %,d transactions, %d cores%n", customers,
+                customers * (long) transactions, cores);
+
+        // Warm up, so the first row is not also measuring the JIT
+        PersistenceService warmUp = new PersistenceService();
+        for (int round = 0; round < 2; round++) {
+            warmUp.save(file, auth, bank);
+            warmUp.load(file, new AuthenticationService(), new BankService());
+        }
+
+        double baseSave = 0;
+        double baseLoad = 0;
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(cores, threads * 2) : cores + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                PersistenceService persistence = new PersistenceService(pool);
+                long bestSave = Long.MAX_VALUE;
+                long bestLoad = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    persistence.save(file, auth, bank);
+                    bestSave = Math.min(bestSave, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    persistence.load(file, new AuthenticationService(), new BankService());
+                    bestLoad = Math.min(bestLoad, System.nanoTime() - start);
+                }
+                double mb = Files.size(file) / (1024.0 * 1024.0);
+                double save = mb / (bestSave / 1e9);
+                double load = mb / (bestLoad / 1e9);
+                if (threads == 1) {
+                    baseSave = save;
+                    baseLoad = load;
+                }
+                System.out.printf("%3d threads: save %,7.1f MB/s (%.1fx), load %,7.1f MB/s (%.1fx), %,.0f MB%n",
+                        threads, save, save / baseSave, load, load / baseLoad, mb);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
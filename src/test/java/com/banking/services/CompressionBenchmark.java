@@ -0,0 +1,71 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Snapshot size, save time and load time for each block codec: none, the LZ codec and
+ * Deflate at levels 1, 6 and 9, all on the common pool.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.CompressionBenchmark [customers] [transactionsPerAccount] [directory]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("compression-bench");
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int c = 0; c < customers; c++) {
+            Customer customer = new Customer("Customer " + c, "customer" + c + "@example.com", null);
+            Account savings = new SavingsAccount("S" + c, 0.04);
+            Account checking = new CheckingAccount("C" + c, 500.0);
+            customer.addAccount(savings);
+            customer.addAccount(checking);
+            bank.addCustomer(customer);
+            for (int t = 0; t < transactions; t++) {
+                (((t & 1) == 0) ? savings : checking).depositPaise(100 * (1 + random.nextInt(10_000)));
+            }
+        }
+        System.out.printf("%,d customers, %,d transactions, %d cores%n", customers,
+                customers * (long) transactions, Runtime.getRuntime().availableProcessors());
+
+        double baseSize = 0;
+        for (BlockCodec codec : List.of(BlockCodec.none(), BlockCodec.lz(), BlockCodec.deflate(1),
+                BlockCodec.deflate(6), BlockCodec.deflate(9))) {
+            PersistenceService persistence = new PersistenceService(ForkJoinPool.commonPool(), codec);
+            Path file = dir.resolve("bank-" + codec.getId() + ".snap");
+            long bestSave = Long.MAX_VALUE;
+            long bestLoad = Long.MAX_VALUE;
+            // The first round warms up the JIT
+            for (int round = 0; round < 4; round++) {
+                long start = System.nanoTime();
+                persistence.save(file, auth, bank);
+                long save = System.nanoTime() - start;
+                start = System.nanoTime();
+                persistence.load(file, new AuthenticationService(), new BankService());
+                long load = System.nanoTime() - start;
+                if (round > 0) {
+                    bestSave = Math.min(bestSave, save);
+                    bestLoad = Math.min(bestLoad, load);
+                }
+            }
+            double mb = Files.size(file) / (1024.0 * 1024.0);
+            if (baseSize == 0) {
+                baseSize = mb;
+            }
+            System.out.printf("%-10s %,8.1f MB (%4.1f%%), save %,7.0f ms, load %,7.0f ms%n", codec.getName(), mb,
+                    100 * mb / baseSize, bestSave / 1e6, bestLoad / 1e6);
+            Files.delete(file);
+        }
+    }
+}
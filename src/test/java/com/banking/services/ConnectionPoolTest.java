@@ -0,0 +1,292 @@
+package com.banking.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * A stand-in JDBC connection: remembers auto-commit, rollbacks and closing, and
+     * answers statements and queries with empty results.
+     */
+    static final class FakeConnection {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final AtomicBoolean valid = new AtomicBoolean(true);
+        volatile boolean autoCommit = true;
+        volatile boolean readOnly;
+        volatile int isolation = Connection.TRANSACTION_READ_COMMITTED;
+        volatile boolean closed;
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    calls.add(method.getName());
+                    switch (method.getName()) {
+                        case "close":
+                            closed = true;
+                            return null;
+                        case "isClosed":
+                            return closed;
+                        case "isValid":
+                            return valid.get() && !closed;
+                        case "getAutoCommit":
+                            return autoCommit;
+                        case "setAutoCommit":
+                            autoCommit = (Boolean) args[0];
+                            return null;
+                        case "isReadOnly":
+                            return readOnly;
+                        case "setReadOnly":
+                            readOnly = (Boolean) args[0];
+                            return null;
+                        case "getTransactionIsolation":
+                            return isolation;
+                        case "setTransactionIsolation":
+                            isolation = (Integer) args[0];
+                            return null;
+                        default:
+                            return empty(method.getReturnType());
+                    }
+                });
+
+        // Statements whose queries find nothing
+        private static Object empty(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type.isInterface() && type.getName().startsWith("java.sql.")) {
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                        (proxy, method, args) -> empty(method.getReturnType()));
+            }
+            return null;
+        }
+    }
+
+    static final class FakeDriver implements ConnectionPool.ConnectionFactory {
+        final List<FakeConnection> opened = new CopyOnWriteArrayList<>();
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public Connection connect() throws SQLException {
+            if (failures.get() > 0 && failures.decrementAndGet() >= 0) {
+                throw new SQLException("Connection refused");
+            }
+            FakeConnection connection = new FakeConnection();
+            opened.add(connection);
+            return connection.connection;
+        }
+    }
+
+    @Test
+    void testConnectionsAreReused() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 4, 1, 60, 0, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertFalse(connection.isClosed());
+                assertEquals(1, pool.getMetrics().getActive());
+                assertEquals(0, pool.getMetrics().getIdle());
+            }
+        }
+        assertEquals(1, driver.opened.size());
+        ConnectionPool.Metrics metrics = pool.getMetrics();
+        assertEquals(0, metrics.getActive());
+        assertEquals(1, metrics.getIdle());
+        assertEquals(5, metrics.getBorrowCount());
+        assertEquals(1, metrics.getCreated());
+
+        // Two at once need two connections, and both are kept
+        Connection a = pool.getConnection();
+        Connection b = pool.getConnection();
+        assertEquals(2, pool.getMetrics().getActive());
+        a.close();
+        b.close();
+        assertEquals(2, pool.getMetrics().getIdle());
+        assertEquals(2, driver.opened.size());
+
+        pool.close();
+        assertTrue(driver.opened.get(0).closed);
+        assertTrue(driver.opened.get(1).closed);
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+
+    @Test
+    void testReturnedConnectionIsResetAndProxyIsDead() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 2, 1, 60, 0, 0, TimeUnit.SECONDS);
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement();
+        connection.close();
+        connection.close();
+
+        FakeConnection physical = driver.opened.get(0);
+        assertTrue(physical.calls.contains("rollback"));
+        assertTrue(physical.autoCommit);
+        assertFalse(physical.closed);
+        assertTrue(connection.isClosed());
+        assertThrows(SQLException.class, connection::createStatement);
+        assertEquals(1, pool.getMetrics().getIdle());
+    }
+
+    @Test
+    void testReturnedConnectionGetsItsOriginalSettingsBack() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 1, 1, 60, 0, 0, TimeUnit.SECONDS);
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        }
+
+        FakeConnection physical = driver.opened.get(0);
+        assertTrue(physical.autoCommit);
+        assertFalse(physical.readOnly);
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, physical.isolation);
+        assertTrue(physical.calls.contains("clearWarnings"));
+
+        // A borrower that changes nothing costs no extra calls on return
+        physical.calls.clear();
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+        }
+        assertFalse(physical.calls.contains("setReadOnly"));
+        assertFalse(physical.calls.contains("setTransactionIsolation"));
+        assertEquals(1, driver.opened.size());
+    }
+
+    @Test
+    void testBorrowersWaitWhenPoolIsFull() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 2, 100, 60_000, 0, 0, TimeUnit.MILLISECONDS);
+        Connection a = pool.getConnection();
+        Connection b = pool.getConnection();
+        long start = System.nanoTime();
+        assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(1, pool.getMetrics().getTimeouts());
+        a.close();
+        b.close();
+        pool.close();
+
+        // A waiter gets the connection given back
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            pool = new ConnectionPool(driver, 1, 5, 60, 0, 0, TimeUnit.SECONDS);
+            Connection held = pool.getConnection();
+            Future<Connection> waiter = executor.submit(pool::getConnection);
+            while (pool.getMetrics().getWaiting() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(20);
+            held.close();
+            Connection handedOver = waiter.get(5, TimeUnit.SECONDS);
+            assertFalse(handedOver.isClosed());
+            assertTrue(pool.getMetrics().getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(pool.getMetrics().getAverageWaitMillis() > 0);
+            handedOver.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testBrokenAndExpiredConnectionsAreReplaced() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        // Validate anything idle at all
+        pool = new ConnectionPool(driver, 2, 1_000, 0, 0, 0, TimeUnit.MILLISECONDS);
+        pool.getConnection().close();
+        driver.opened.get(0).valid.set(false);
+        Thread.sleep(2);
+        pool.getConnection().close();
+        assertEquals(2, driver.opened.size());
+        assertTrue(driver.opened.get(0).closed);
+        pool.close();
+
+        driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 2, 1_000, 60_000, 50, 0, TimeUnit.MILLISECONDS);
+        Connection connection = pool.getConnection();
+        Thread.sleep(80);
+        connection.close();
+        // Too old to go back in the pool
+        assertEquals(0, pool.getMetrics().getIdle());
+        assertTrue(driver.opened.get(0).closed);
+        pool.getConnection().close();
+        assertEquals(2, driver.opened.size());
+    }
+
+    @Test
+    void testFailedConnectDoesNotLosePermits() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        driver.failures.set(3);
+        pool = new ConnectionPool(driver, 1, 100, 60_000, 0, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++) {
+            SQLException e = assertThrows(SQLException.class, pool::getConnection);
+            assertEquals("Connection refused", e.getMessage());
+        }
+        pool.getConnection().close();
+        assertEquals(0, pool.getMetrics().getTimeouts());
+    }
+
+    @Test
+    void testLeakedConnectionIsReported() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 2, 1_000, 60_000, 0, 30, TimeUnit.MILLISECONDS);
+        Connection leaked = pool.getConnection();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getMetrics().getLeaks() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getMetrics().getLeaks());
+        Thread.sleep(100);
+        // Reported once only
+        assertEquals(1, pool.getMetrics().getLeaks());
+        leaked.close();
+    }
+
+    @Test
+    void testDatabaseServiceBorrowsOneConnectionPerOperation() throws Exception {
+        FakeDriver driver = new FakeDriver();
+        pool = new ConnectionPool(driver, 1, 1, 60, 0, 0, TimeUnit.SECONDS);
+        DatabaseService database = new DatabaseService(pool);
+        database.initializeDatabase();
+        assertNull(database.loadUser("nobody"));
+        assertNull(database.loadCustomer("nobody"));
+        assertTrue(database.loadAllCustomers().isEmpty());
+        assertTrue(database.testConnection());
+
+        ConnectionPool.Metrics metrics = database.getPoolMetrics();
+        assertEquals(5, metrics.getBorrowCount());
+        assertEquals(1, metrics.getCreated());
+        assertEquals(0, metrics.getActive());
+        database.close();
+        assertTrue(driver.opened.get(0).closed);
+    }
+}
@@ -0,0 +1,458 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.postgresql.copy.CopyIn;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CopyBulkLoaderTest {
+
+    @TempDir
+    Path dir;
+
+    private DatabaseService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    /**
+     * A stand-in for the server's end of COPY FROM STDIN: keeps the bytes of every
+     * stream, and can be made slow or made to fail.
+     */
+    static final class CapturingCopy implements CopyBulkLoader.CopyStarter {
+        final List<Stream> streams = new CopyOnWriteArrayList<>();
+        volatile long delayMillis;
+        volatile boolean failTransactions;
+        // Transaction chunks being written right now, and how many were written while another was
+        final AtomicInteger writing = new AtomicInteger();
+        final AtomicInteger transactionChunks = new AtomicInteger();
+        final AtomicInteger overlappingChunks = new AtomicInteger();
+
+        static final class Stream {
+            final String sql;
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            volatile boolean ended;
+            volatile boolean cancelled;
+
+            Stream(String sql) {
+                this.sql = sql;
+            }
+        }
+
+        @Override
+        public CopyIn start(java.sql.Connection conn, String sql) {
+            Stream stream = new Stream(sql);
+            streams.add(stream);
+            return (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[]{CopyIn.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "writeToCopy":
+                                if (failTransactions && sql.equals(CopyBulkLoader.COPY_TRANSACTIONS)) {
+                                    throw new SQLException("Disk full");
+                                }
+                                boolean transactions = sql.equals(CopyBulkLoader.COPY_TRANSACTIONS);
+                                boolean overlapped = transactions && writing.incrementAndGet() > 1;
+                                try {
+                                    if (delayMillis > 0) {
+                                        Thread.sleep(delayMillis);
+                                    }
+                                } finally {
+                                    if (transactions) {
+                                        overlapped |= writing.getAndDecrement() > 1;
+                                        transactionChunks.incrementAndGet();
+                                        if (overlapped) {
+                                            overlappingChunks.incrementAndGet();
+                                        }
+                                    }
+                                }
+                                synchronized (stream.bytes) {
+                                    stream.bytes.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                                }
+                                return null;
+                            case "endCopy":
+                                stream.ended = true;
+                                return 0L;
+                            case "cancelCopy":
+                                stream.cancelled = true;
+                                return null;
+                            case "isActive":
+                                return !stream.ended && !stream.cancelled;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        List<Stream> of(String sql) {
+            List<Stream> matching = new ArrayList<>();
+            for (Stream stream : streams) {
+                if (stream.sql.equals(sql)) {
+                    matching.add(stream);
+                }
+            }
+            return matching;
+        }
+    }
+
+    // Decode a binary COPY stream into rows of raw field bytes (null for NULL)
+    private static List<byte[][]> decode(byte[] stream) {
+        ByteBuffer in = ByteBuffer.wrap(stream);
+        byte[] signature = new byte[PgCopyEncoder.SIGNATURE.length];
+        in.get(signature);
+        assertArrayEquals(PgCopyEncoder.SIGNATURE, signature);
+        assertEquals(0, in.getInt());
+        in.position(in.position() + 4 + in.getInt(in.position()));
+        List<byte[][]> rows = new ArrayList<>();
+        for (short fields = in.getShort(); fields != -1; fields = in.getShort()) {
+            byte[][] row = new byte[fields][];
+            for (int f = 0; f < fields; f++) {
+                int length = in.getInt();
+                if (length >= 0) {
+                    row[f] = new byte[length];
+                    in.get(row[f]);
+                }
+            }
+            rows.add(row);
+        }
+        assertFalse(in.hasRemaining());
+        return rows;
+    }
+
+    private static String text(byte[] field) {
+        return field == null ? null : new String(field, StandardCharsets.UTF_8);
+    }
+
+    // The server's reading of a binary numeric
+    private static BigDecimal numeric(byte[] field) {
+        ByteBuffer in = ByteBuffer.wrap(field);
+        int ndigits = in.getShort();
+        int weight = in.getShort();
+        int sign = in.getShort() & 0xFFFF;
+        int dscale = in.getShort();
+        BigDecimal value = BigDecimal.ZERO;
+        for (int i = 0; i < ndigits; i++) {
+            int digit = in.getShort();
+            assertTrue(digit >= 0 && digit < 10_000);
+            value = value.add(BigDecimal.valueOf(digit).scaleByPowerOfTen(4 * (weight - i)));
+        }
+        if (ndigits > 0) {
+            assertNotEquals(0, in.getShort(8), "No leading zero digit");
+            assertNotEquals(0, in.getShort(8 + 2 * (ndigits - 1)), "No trailing zero digit");
+        }
+        value = value.setScale(dscale);
+        return sign == PgCopyEncoder.NUMERIC_NEGATIVE ? value.negate() : value;
+    }
+
+    private static long int8(byte[] field) {
+        assertEquals(8, field.length);
+        return ByteBuffer.wrap(field).getLong();
+    }
+
+    private DatabaseService recorded(DatabaseServiceTest.RecordingDatabase database, int poolSize,
+                                     CapturingCopy copy) {
+        service = new DatabaseService(new ConnectionPool(database, poolSize, 5, 60, 0, 0, TimeUnit.SECONDS));
+        service.copyStarter = copy;
+        return service;
+    }
+
+    private static List<Customer> customers(int count, int rows) {
+        List<Customer> customers = new ArrayList<>();
+        for (int c = 0; c < count; c++) {
+            Customer customer = new Customer("Customer " + c, "c" + c + "@example.com",
+                    User.fromStored("user" + c, new byte[16], new byte[32]));
+            Account savings = new SavingsAccount("S-" + c, 0.0425);
+            Account checking = new CheckingAccount("C-" + c, 250.5);
+            customer.addAccount(savings);
+            customer.addAccount(checking);
+            for (int i = 0; i < rows; i++) {
+                savings.depositPaise(100 + i);
+                checking.withdrawPaise(7);
+            }
+            customers.add(customer);
+        }
+        return customers;
+    }
+
+    @Test
+    void testEncoderWritesPostgresBinaryFormat() {
+        PgCopyEncoder encoder = new PgCopyEncoder(16).header();
+        encoder.row(3).text("Ünal").int4(-2).int8(1L << 40);
+        encoder.row(2).nullField().text(null);
+        long[][] numerics = {
+                {12345, 2}, {-5, 2}, {0, 2}, {1_000_000, 2}, {1_000_000_000_000L, 2},
+                {425, 4}, {7, 0}, {-99_990_000, 4}, {10_000, 0}
+        };
+        encoder.row(numerics.length);
+        for (long[] n : numerics) {
+            encoder.numeric(n[0], (int) n[1]);
+        }
+        encoder.row(3)
+                .timestamp(LocalDateTime.of(2000, 1, 1, 0, 0))
+                .timestamp(LocalDateTime.of(2000, 1, 2, 0, 0, 0, 1_999))
+                .timestamp(LocalDateTime.of(1999, 12, 31, 23, 59, 59));
+        encoder.trailer();
+
+        List<byte[][]> rows = decode(encoder.toByteArray());
+        assertEquals(4, rows.size());
+        assertEquals("Ünal", text(rows.get(0)[0]));
+        assertArrayEquals(new byte[]{-1, -1, -1, -2}, rows.get(0)[1]);
+        assertEquals(1L << 40, int8(rows.get(0)[2]));
+        assertNull(rows.get(1)[0]);
+        assertNull(rows.get(1)[1]);
+        for (int i = 0; i < numerics.length; i++) {
+            assertEquals(BigDecimal.valueOf(numerics[i][0], (int) numerics[i][1]), numeric(rows.get(2)[i]),
+                    "Numeric " + Arrays.toString(numerics[i]));
+        }
+        // Zero has no digits; 123.45 is 123 and 4500 ten-thousandths
+        assertEquals(8, rows.get(2)[2].length);
+        assertArrayEquals(new byte[]{0, 2, 0, 0, 0, 0, 0, 2, 0, 123, 0x11, (byte) 0x94}, rows.get(2)[0]);
+        assertEquals(0L, int8(rows.get(3)[0]));
+        assertEquals(86_400_000_001L, int8(rows.get(3)[1]));
+        assertEquals(-1_000_000L, int8(rows.get(3)[2]));
+
+        assertThrows(IllegalArgumentException.class, () -> encoder.numeric(1, 5));
+        assertThrows(ArithmeticException.class, () -> encoder.numeric(Long.MAX_VALUE, 2));
+    }
+
+    @Test
+    void testBulkLoadCopiesAccountsAndPartitionsTransactions() throws Exception {
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 4, copy);
+        List<Customer> customers = customers(25, 30);
+        customers.add(new Customer("No Login", null, null));
+        CopyBulkLoader loader = new CopyBulkLoader(service, 3, 2048, copy);
+        CopyBulkLoader.Result result = loader.load(customers);
+
+        assertEquals(25, result.getCustomers());
+        assertEquals(50, result.getAccounts());
+        assertEquals(25 * 2 * 30, result.getTransactions());
+        assertEquals(3, result.getPartitions());
+        assertEquals(25, database.batchRows("INSERT INTO customers").size());
+
+        // Accounts: one stream, every field in its binary form
+        List<CapturingCopy.Stream> accountStreams = copy.of(CopyBulkLoader.COPY_ACCOUNTS);
+        assertEquals(1, accountStreams.size());
+        assertTrue(accountStreams.get(0).ended);
+        List<byte[][]> accountRows = decode(accountStreams.get(0).bytes.toByteArray());
+        assertEquals(50, accountRows.size());
+        byte[][] savings = accountRows.get(0);
+        assertEquals("S-0", text(savings[0]));
+        assertEquals("user0", text(savings[1]));
+        assertEquals("SavingsAccount", text(savings[2]));
+        Account account = customers.get(0).getAccounts().get(0);
+        assertEquals(Money.toBigDecimal(account.getBalancePaise()), numeric(savings[3]));
+        assertEquals(new BigDecimal("0.0425"), numeric(savings[4]));
+        assertNull(savings[5]);
+        assertEquals(PgCopyEncoder.toPostgresMicros(account.getCreatedAt()), int8(savings[6]));
+        byte[][] checking = accountRows.get(1);
+        assertEquals("CheckingAccount", text(checking[2]));
+        assertNull(checking[4]);
+        assertEquals(new BigDecimal("250.50"), numeric(checking[5]));
+
+        // Transactions: one stream per writer, each account wholly in its partition, rows in ledger order
+        List<CapturingCopy.Stream> streams = copy.of(CopyBulkLoader.COPY_TRANSACTIONS);
+        assertEquals(3, streams.size());
+        Map<String, List<byte[][]>> byAccount = new HashMap<>();
+        Map<String, Integer> partitionOf = new HashMap<>();
+        for (int s = 0; s < streams.size(); s++) {
+            assertTrue(streams.get(s).ended);
+            for (byte[][] row : decode(streams.get(s).bytes.toByteArray())) {
+                String number = text(row[1]);
+                byAccount.computeIfAbsent(number, k -> new ArrayList<>()).add(row);
+                assertEquals(s, (int) partitionOf.merge(number, s, (a, b) -> a.equals(b) ? a : -1));
+            }
+        }
+        assertEquals(3, new HashSet<>(partitionOf.values()).size());
+        for (Customer customer : customers.subList(0, 25)) {
+            for (Account a : customer.getAccounts()) {
+                TransactionLedger ledger = a.getLedger();
+                List<byte[][]> rows = byAccount.get(a.getAccountNumber());
+                assertEquals(ledger.size(), rows.size());
+                for (int r = 0; r < ledger.size(); r++) {
+                    byte[][] row = rows.get(r);
+                    assertEquals(ledger.getTransactionId(r), text(row[0]));
+                    assertEquals(ledger.getType(r).getLabel(), text(row[2]));
+                    assertEquals(Money.toBigDecimal(ledger.getAmountPaise(r)), numeric(row[3]));
+                    assertEquals(Money.toBigDecimal(ledger.getResultingBalancePaise(r)), numeric(row[4]));
+                    assertEquals(PgCopyEncoder.toPostgresMicros(ledger.getDate(r)), int8(row[5]));
+                    assertNull(row[6]);
+                }
+            }
+        }
+
+        // Each writer moved its accounts' high-water marks, and committed
+        List<Map<Integer, Object>> marks = database.batchRows("UPDATE accounts SET persisted_rows");
+        assertEquals(50, marks.size());
+        for (Map<Integer, Object> mark : marks) {
+            assertEquals(30, mark.get(1));
+        }
+        assertEquals(1 + 3, database.count("commit"));
+        assertEquals(0, service.getPoolMetrics().getActive());
+    }
+
+    @Test
+    void testHighWaterMarksSkipSavedRows() throws Exception {
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 2, copy);
+        List<Customer> customers = customers(2, 10);
+        List<Map<String, Object>> persisted = new ArrayList<>();
+        persisted.add(Map.of("account_number", "S-0", "persisted_rows", 4));
+        persisted.add(Map.of("account_number", "C-0", "persisted_rows", 10));
+        persisted.add(Map.of("account_number", "S-1", "persisted_rows", 99));
+        database.answers.put("RETURNING account_number, persisted_rows", persisted);
+
+        CopyBulkLoader.Result result = service.bulkLoad(customers, 8);
+        // Clamped to the pool
+        assertEquals(2, result.getPartitions());
+        assertEquals(6 + 10, result.getTransactions());
+
+        Map<String, List<String>> ids = new HashMap<>();
+        for (CapturingCopy.Stream stream : copy.of(CopyBulkLoader.COPY_TRANSACTIONS)) {
+            for (byte[][] row : decode(stream.bytes.toByteArray())) {
+                ids.computeIfAbsent(text(row[1]), k -> new ArrayList<>()).add(text(row[0]));
+            }
+        }
+        TransactionLedger ledger = customers.get(0).getAccounts().get(0).getLedger();
+        List<String> expected = new ArrayList<>();
+        for (int r = 4; r < 10; r++) {
+            expected.add(ledger.getTransactionId(r));
+        }
+        assertEquals(expected, ids.get("S-0"));
+        assertNull(ids.get("C-0"));
+        assertNull(ids.get("S-1"));
+        assertEquals(10, ids.get("C-1").size());
+        // Only accounts with new rows move their mark
+        assertEquals(Set.of("S-0", "C-1"), new HashSet<>(database.batchRows("UPDATE accounts SET persisted_rows")
+                .stream().map(mark -> (String) mark.get(2)).toList()));
+    }
+
+    @Test
+    void testSlowWriterMakesEncoderWait() throws Exception {
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 2, copy);
+        List<Customer> customers = customers(10, 100);
+        copy.delayMillis = 2;
+        CopyBulkLoader.Result result = new CopyBulkLoader(service, 1, 512, copy).load(customers);
+        assertTrue(result.getStalls() > 0, "Encoder waited for the writer: " + result);
+
+        // Nothing was lost or reordered while waiting
+        List<byte[][]> rows = decode(copy.of(CopyBulkLoader.COPY_TRANSACTIONS).get(0).bytes.toByteArray());
+        assertEquals(10 * 2 * 100, rows.size());
+        int row = 0;
+        for (Customer customer : customers) {
+            for (Account account : customer.getAccounts()) {
+                for (int r = 0; r < account.getLedger().size(); r++) {
+                    assertEquals(account.getLedger().getTransactionId(r), text(rows.get(row++)[0]));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testWritersStreamAtTheSameTime() throws Exception {
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 3, copy);
+        List<Customer> customers = customers(10, 100);
+        copy.delayMillis = 2;
+        CopyBulkLoader.Result result = new CopyBulkLoader(service, 2, 512, copy).load(customers);
+        assertEquals(10 * 2 * 100, result.getTransactions());
+
+        List<CapturingCopy.Stream> streams = copy.of(CopyBulkLoader.COPY_TRANSACTIONS);
+        assertEquals(2, streams.size());
+        for (CapturingCopy.Stream stream : streams) {
+            assertTrue(stream.bytes.size() > 512);
+        }
+        // Both writers were fed from the start, not one partition after the other
+        assertTrue(copy.overlappingChunks.get() > copy.transactionChunks.get() / 2,
+                copy.overlappingChunks + " of " + copy.transactionChunks + " chunks were written alongside another");
+    }
+
+    @Test
+    void testFailedWriterStopsLoadAndRollsBack() throws Exception {
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 3, copy);
+        copy.failTransactions = true;
+        AtomicBoolean finished = new AtomicBoolean();
+        SQLException e = assertThrows(SQLException.class, () -> {
+            new CopyBulkLoader(service, 2, 256, copy).load(customers(20, 50));
+            finished.set(true);
+        });
+        assertEquals("Disk full", e.getMessage());
+        assertFalse(finished.get());
+        for (CapturingCopy.Stream stream : copy.of(CopyBulkLoader.COPY_TRANSACTIONS)) {
+            assertTrue(stream.cancelled);
+        }
+        // Accounts were committed; no writer committed its partition
+        assertEquals(1, database.count("commit"));
+        assertTrue(database.batchRows("UPDATE accounts SET persisted_rows").isEmpty());
+        assertEquals(0, service.getPoolMetrics().getActive());
+    }
+
+    @Test
+    void testBulkLoadSnapshot() throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        Map<String, User> users = new HashMap<>();
+        for (Customer customer : customers(5, 20)) {
+            users.put(customer.getUser().getUsername(), customer.getUser());
+            bank.addCustomer(customer);
+        }
+        auth.importUsers(users);
+        assertTrue(bank.transfer("user0", "S-0", "C-0", 1.0));
+        Path file = dir.resolve("bank.snapshot");
+        new PersistenceService().save(file, auth, bank);
+
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        CapturingCopy copy = new CapturingCopy();
+        recorded(database, 3, copy);
+        CopyBulkLoader.Result result = service.bulkLoadSnapshot(file, 3);
+        assertEquals(5, result.getCustomers());
+        assertEquals(10, result.getAccounts());
+        assertEquals(10 * 20 + 2, result.getTransactions());
+
+        int transfers = 0;
+        long rows = 0;
+        for (CapturingCopy.Stream stream : copy.of(CopyBulkLoader.COPY_TRANSACTIONS)) {
+            for (byte[][] row : decode(stream.bytes.toByteArray())) {
+                rows++;
+                if (row[6] != null) {
+                    transfers++;
+                    assertEquals(36, row[6].length);
+                }
+            }
+        }
+        assertEquals(result.getTransactions(), rows);
+        assertEquals(2, transfers);
+    }
+}
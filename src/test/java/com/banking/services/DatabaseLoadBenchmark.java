@@ -0,0 +1,89 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for DatabaseService.loadAllCustomers to rebuild customers, users, accounts and
+ * ledgers from result sets, against the recording stand-in database, so only the
+ * client-side cost is measured: no query is repeated per customer and no password is
+ * hashed, so the time grows with the rows read. Point the service at a real database
+ * for end-to-end numbers.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -Xmx4g -cp "out:lib/*" com.banking.services.DatabaseLoadBenchmark [customers] [transactions per account]
+ */
+public class DatabaseLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rowsPerAccount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String credentials = new User("template", "Password123").toStoredCredentials();
+
+        DatabaseServiceTest.RecordingDatabase database = new DatabaseServiceTest.RecordingDatabase();
+        List<Map<String, Object>> customerRows = new ArrayList<>(customers);
+        List<Map<String, Object>> accountRows = new ArrayList<>(customers * 2);
+        List<Map<String, Object>> transactionRows = new ArrayList<>(customers * 2 * rowsPerAccount);
+        Timestamp opened = Timestamp.valueOf(LocalDateTime.of(2026, 1, 1, 9, 0));
+        for (int c = 0; c < customers; c++) {
+            customerRows.add(row("id", c, "username", "user" + c, "name", "Customer " + c,
+                    "email", "user" + c + "@example.com", "password_hash", credentials));
+            for (String kind : new String[]{"S", "C"}) {
+                String number = kind + c;
+                boolean savings = kind.equals("S");
+                accountRows.add(row("account_number", number, "customer_id", c,
+                        "account_type", savings ? "SavingsAccount" : "CheckingAccount",
+                        "balance", BigDecimal.valueOf(rowsPerAccount * 100L, 2),
+                        savings ? "interest_rate" : "overdraft_limit", savings ? new BigDecimal("0.0400") : new BigDecimal("100.00"),
+                        "created_at", opened, "persisted_rows", rowsPerAccount));
+            }
+        }
+        // Accounts in number order, as the query returns them
+        List<String> numbers = new ArrayList<>();
+        for (Map<String, Object> account : accountRows) {
+            numbers.add((String) account.get("account_number"));
+        }
+        numbers.sort(null);
+        long id = 0;
+        for (String number : numbers) {
+            for (int r = 0; r < rowsPerAccount; r++) {
+                transactionRows.add(row("account_number", number, "transaction_id", TransactionId.format(++id, 1),
+                        "transaction_type", "deposit", "amount", new BigDecimal("1.00"),
+                        "resulting_balance", BigDecimal.valueOf(r + 1L),
+                        "transaction_date", Timestamp.valueOf(LocalDateTime.of(2026, 1, 2, 0, 0).plusSeconds(r))));
+            }
+        }
+        database.answers.put("FROM customers c JOIN users", customerRows);
+        database.answers.put("FROM accounts a", accountRows);
+        database.answers.put("FROM transactions t", transactionRows);
+
+        System.out.printf("%,d customers, %,d accounts, %,d transactions%n",
+                customers, accountRows.size(), transactionRows.size());
+        try (DatabaseService service = new DatabaseService(new ConnectionPool(database, 1, 30, 60, 0, 0, TimeUnit.SECONDS))) {
+            for (int run = 1; run <= 3; run++) {
+                long start = System.nanoTime();
+                List<Customer> loaded = service.loadAllCustomers();
+                long elapsed = System.nanoTime() - start;
+                long rows = customerRows.size() + accountRows.size() + transactionRows.size();
+                System.out.printf("  run %d: %,d customers in %,8.0f ms, %,12.0f rows/s%n",
+                        run, loaded.size(), elapsed / 1e6, rows / (elapsed / 1e9));
+            }
+        }
+    }
+
+    private static Map<String, Object> row(Object... columnsAndValues) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,69 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Compares delta saves with full snapshot saves as the number of changed accounts
+ * grows, for the same bank. A full save costs the same however little changed; a
+ * delta save should grow with the changes.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.IncrementalSnapshotBenchmark [customers] [transactionsPerAccount] [directory]
+ */
+public class IncrementalSnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("incremental-bench");
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        SplittableRandom random = new SplittableRandom(7);
+        Account[] accounts = new Account[customers * 2];
+        for (int c = 0; c < customers; c++) {
+            Customer customer = new Customer("Customer " + c, "customer" + c + "@example.com", null);
+            Account savings = new SavingsAccount("S" + c, 0.04);
+            Account checking = new CheckingAccount("C" + c, 500.0);
+            customer.addAccount(savings);
+            customer.addAccount(checking);
+            bank.addCustomer(customer);
+            accounts[2 * c] = savings;
+            accounts[2 * c + 1] = checking;
+            for (int t = 0; t < transactions; t++) {
+                (((t & 1) == 0) ? savings : checking).depositPaise(1 + random.nextInt(1_000_000));
+            }
+        }
+        System.out.printf("%,d customers, %,d transactions%n", customers, customers * (long) transactions);
+
+        PersistenceService persistence = new PersistenceService();
+        Path full = dir.resolve("full.snap");
+        try (IncrementalSnapshotStore store = new IncrementalSnapshotStore(dir.resolve("incremental"), auth, bank,
+                Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            store.open();
+            long start = System.nanoTime();
+            store.save();
+            System.out.printf("first base: %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            for (int changed : new int[] {1, 10, 100, 1_000, 10_000, accounts.length}) {
+                for (int round = 0; round < 3; round++) {
+                    for (int i = 0; i < changed; i++) {
+                        accounts[random.nextInt(accounts.length)].depositPaise(1 + random.nextInt(10_000));
+                    }
+                    start = System.nanoTime();
+                    store.save();
+                    long delta = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    persistence.save(full, auth, bank);
+                    long fullSave = System.nanoTime() - start;
+                    System.out.printf("%,7d deposits: delta save %,9.2f ms | full save %,9.2f ms, %,d bytes | %.0fx%n",
+                            changed, delta / 1e6, fullSave / 1e6, Files.size(full), (double) fullSave / delta);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+public class IncrementalSnapshotStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private AuthenticationService authService;
+    private BankService bankService;
+    private IncrementalSnapshotStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        authService = new AuthenticationService();
+        bankService = new BankService();
+        authService.registerUser("alice", "Password123");
+        Customer alice = new Customer("Alice", "alice@example.com", authService.getUser("alice"));
+        alice.addAccount(new SavingsAccount("S1", 0.04));
+        alice.addAccount(new CheckingAccount("C1", 100.0));
+        bankService.addCustomer(alice);
+        bankService.deposit("alice", "S1", 500.0);
+
+        // Never compacts on its own, so tests decide when bases are written
+        store = new IncrementalSnapshotStore(dir, authService, bankService, Integer.MAX_VALUE, Long.MAX_VALUE);
+        store.open();
+        store.save();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private List<String> files() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(file -> names.add(file.getFileName().toString()));
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private BankService reopen(AuthenticationService auth) throws IOException {
+        BankService bank = new BankService();
+        try (IncrementalSnapshotStore reopened = new IncrementalSnapshotStore(dir, auth, bank)) {
+            reopened.open();
+        }
+        return bank;
+    }
+
+    private void assertSameAccount(Account expected, Account actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getBalancePaise(), actual.getBalancePaise());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        TransactionLedger el = expected.getLedger();
+        TransactionLedger al = actual.getLedger();
+        assertEquals(el.size(), al.size());
+        for (int row = 0; row < el.size(); row++) {
+            assertEquals(el.getTimestampMicros(row), al.getTimestampMicros(row));
+            assertEquals(el.getType(row), al.getType(row));
+            assertEquals(el.getAmountPaise(row), al.getAmountPaise(row));
+            assertEquals(el.getResultingBalancePaise(row), al.getResultingBalancePaise(row));
+            assertEquals(el.getId(row), al.getId(row));
+            assertEquals(el.getTransferId(row), al.getTransferId(row));
+        }
+        assertEquals(expected.getMonthlySummaries().size(), actual.getMonthlySummaries().size());
+    }
+
+    @Test
+    void testFirstSaveWritesBase() throws IOException {
+        assertEquals(List.of("base-1.snap"), files());
+        assertEquals(1, store.getBasesWritten());
+        assertFalse(bankService.findAccount("alice", "S1").isDirty());
+    }
+
+    @Test
+    void testDeltaHoldsOnlyChangedAccountsAndNewRows() throws IOException {
+        Account savings = bankService.findAccount("alice", "S1");
+        Account checking = bankService.findAccount("alice", "C1");
+        assertEquals(1, savings.getCheckpointedRows());
+
+        bankService.deposit("alice", "S1", 25.0);
+        assertTrue(savings.isDirty());
+        assertFalse(checking.isDirty());
+        store.save();
+
+        assertEquals(List.of("base-1.snap", "delta-2.snap"), files());
+        assertEquals(2, savings.getCheckpointedRows());
+        assertFalse(savings.isDirty());
+
+        // Nothing changed: no file is written
+        store.save();
+        assertEquals(1, store.getDeltasWritten());
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService loaded = reopen(auth);
+        assertSameAccount(savings, loaded.findAccount("alice", "S1"));
+        assertSameAccount(checking, loaded.findAccount("alice", "C1"));
+    }
+
+    @Test
+    void testDeltasCarryNewUsersCustomersAccountsAndTransfers() throws IOException {
+        authService.registerUser("bob", "Password456");
+        Customer bob = new Customer("Bob", null, authService.getUser("bob"));
+        bob.addAccount(new SavingsAccount("S2", 0.03));
+        bankService.addCustomer(bob);
+        bankService.deposit("bob", "S2", 80.0);
+        store.save();
+
+        bankService.findCustomerByUsername("alice").addAccount(new CheckingAccount("C9", 10.0));
+        assertTrue(bankService.transferToPayee("alice", "S1", "S2", 30.0).isSuccess());
+        ((CheckingAccount) bankService.findAccount("alice", "C1")).setOverdraftLimit(400.0);
+        store.save();
+        bankService.deposit("bob", "S2", 1.0);
+        store.save();
+        assertEquals(3, store.getDeltasWritten());
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService loaded = reopen(auth);
+        assertNotNull(auth.login("bob", "Password456"));
+        assertSame(auth.getUser("bob"), loaded.findCustomerByUsername("bob").getUser());
+        assertEquals(List.of("S1", "C1", "C9"), loaded.getAccountsForCustomer("alice").stream()
+                .map(Account::getAccountNumber).toList());
+        for (String number : new String[] {"S1", "C1", "C9", "S2"}) {
+            assertSameAccount(bankService.findAccountByNumber(number).getAccount(),
+                    loaded.findAccountByNumber(number).getAccount());
+        }
+        assertEquals(40_000L, ((CheckingAccount) loaded.findAccount("alice", "C1")).getOverdraftLimitPaise());
+    }
+
+    @Test
+    void testSaveBaseReplacesDeltas() throws IOException {
+        bankService.deposit("alice", "S1", 1.0);
+        store.save();
+        bankService.deposit("alice", "S1", 2.0);
+        store.save();
+        store.saveBase();
+        assertEquals(List.of("base-4.snap"), files());
+
+        bankService.deposit("alice", "S1", 3.0);
+        store.save();
+        assertEquals(List.of("base-4.snap", "delta-5.snap"), files());
+
+        BankService loaded = reopen(new AuthenticationService());
+        assertSameAccount(bankService.findAccount("alice", "S1"), loaded.findAccount("alice", "S1"));
+    }
+
+    @Test
+    void testCompactorFoldsDeltasIntoBase() throws Exception {
+        store.close();
+        store = new IncrementalSnapshotStore(dir, authService, bankService, 2, Long.MAX_VALUE);
+        store.open();
+        assertFalse(store.compactionDue());
+        bankService.deposit("alice", "S1", 1.0);
+        store.save();
+        bankService.deposit("alice", "S1", 2.0);
+        store.save();
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.getBasesWritten() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, store.getBasesWritten());
+        assertEquals(List.of("base-4.snap"), files());
+    }
+
+    @Test
+    void testDeltasSavedDuringTransfersKeepTheTotal() throws Exception {
+        for (int c = 0; c < 10; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            customer.addAccount(new SavingsAccount("S-" + c, 0.04));
+            customer.addAccount(new CheckingAccount("C-" + c, 0.0));
+            bankService.addCustomer(customer);
+            bankService.findAccountByNumber("S-" + c).getAccount().depositPaise(100_000L);
+        }
+        store.save();
+        long expected = total(bankService);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                while (running.get()) {
+                    int from = random.nextInt(10);
+                    int to = random.nextInt(10);
+                    bankService.getTransferEngine().transfer("S-" + from, "C-" + to, 1 + random.nextInt(5_000));
+                    bankService.getTransferEngine().transfer("C-" + to, "S-" + from, 1 + random.nextInt(5_000));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (int i = 0; i < 20; i++) {
+                store.save();
+                Thread.sleep(2);
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        // The last delta was written while transfers were running
+        assertEquals(expected, total(reopen(new AuthenticationService())), "A delta caught a transfer half done");
+    }
+
+    @Test
+    void testCloseLetsARunningCompactionFinish() throws Exception {
+        for (int c = 0; c < 2_000; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            Account account = new SavingsAccount("S-" + c, 0.04);
+            customer.addAccount(account);
+            bankService.addCustomer(customer);
+            for (int i = 0; i < 50; i++) {
+                account.depositPaise(100 + i);
+            }
+        }
+        store.close();
+        store = new IncrementalSnapshotStore(dir, authService, bankService, 1, Long.MAX_VALUE);
+        store.open();
+        bankService.deposit("alice", "S1", 1.0);
+        store.save();
+        assertTrue(store.compactionDue());
+        // Let the compactor start on the base, then close while it may still be writing
+        Thread.sleep(120);
+        store.close();
+
+        assertTrue(files().stream().noneMatch(name -> name.endsWith(".tmp")), files().toString());
+        assertEquals(total(bankService), total(reopen(new AuthenticationService())));
+    }
+
+    private static long total(BankService bank) {
+        long total = 0;
+        for (Customer customer : bank.exportCustomers()) {
+            for (Account account : customer.getAccounts()) {
+                total += account.getBalancePaise();
+            }
+        }
+        return total;
+    }
+
+    @Test
+    void testChangeDuringOpenStoreAfterReopenIsSavedAsDelta() throws IOException {
+        store.close();
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        try (IncrementalSnapshotStore reopened = new IncrementalSnapshotStore(dir, auth, bank,
+                Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            reopened.open();
+            assertFalse(bank.findAccount("alice", "S1").isDirty());
+            bank.deposit("alice", "S1", 7.0);
+            reopened.save();
+            assertEquals(1, reopened.getDeltasWritten());
+            assertEquals(0, reopened.getBasesWritten());
+        }
+        BankService loaded = reopen(new AuthenticationService());
+        assertEquals(bank.findAccount("alice", "S1").getBalancePaise(),
+                loaded.findAccount("alice", "S1").getBalancePaise());
+    }
+}
@@ -0,0 +1,70 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures durable deposits per second with the write-ahead journal at several
+ * group-commit windows. Every deposit waits until it is forced to disk; a longer
+ * window lets more deposits share each force.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.JournalBenchmark [threads] [seconds] [directory]
+ */
+public class JournalBenchmark {
+
+    private static final int ACCOUNTS = 1_000;
+    private static final long[] WINDOWS_MICROS = {0, 100, 1_000, 5_000};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path base = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("journal-bench");
+
+        BankService bank = new BankService();
+        Customer customer = new Customer("Bench", "", null);
+        bank.addCustomer(customer);
+        Account[] accounts = new Account[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new CheckingAccount("ACC" + i, 0.0);
+            customer.addAccount(accounts[i]);
+        }
+
+        for (long window : WINDOWS_MICROS) {
+            Path dir = base.resolve("window-" + window);
+            try (Journal journal = new Journal(dir, window, 50_000, TimeUnit.MICROSECONDS)) {
+                bank.setJournal(journal);
+                long[] counts = new long[threads];
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    int index = t;
+                    workers[t] = new Thread(() -> {
+                        SplittableRandom random = new SplittableRandom(index);
+                        long done = 0;
+                        while (System.nanoTime() < deadline) {
+                            accounts[random.nextInt(ACCOUNTS)].depositPaise(100L);
+                            bank.awaitDurable();
+                            done++;
+                        }
+                        counts[index] = done;
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread worker : workers) worker.start();
+                for (Thread worker : workers) worker.join();
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                long total = 0;
+                for (long count : counts) total += count;
+                System.out.printf("window=%5dus threads=%d: %,10.0f durable ops/s, %,8d forces (%.1f ops/force)%n",
+                        window, threads, total / elapsed, journal.getForceCount(),
+                        (double) total / Math.max(1, journal.getForceCount()));
+            }
+            bank.setJournal(null);
+        }
+    }
+}
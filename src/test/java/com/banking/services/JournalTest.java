@@ -0,0 +1,284 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class JournalTest {
+
+    @TempDir
+    Path dir;
+
+    private AuthenticationService authService;
+    private BankService bankService;
+    private PersistenceService persistence;
+    private Journal journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        authService = new AuthenticationService();
+        authService.registerUser("alice", "Password123!");
+        bankService = new BankService();
+        Customer alice = new Customer("Alice", "alice@example.com", authService.getUser("alice"));
+        alice.addAccount(new SavingsAccount("S1", 0.04));
+        alice.addAccount(new CheckingAccount("C1", 100.0));
+        bankService.addCustomer(alice);
+        persistence = new PersistenceService();
+        journal = new Journal(dir.resolve("journal"), 0, 10, TimeUnit.MILLISECONDS);
+        bankService.setJournal(journal);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+    }
+
+    // Load the snapshot into a fresh bank and replay a journal reopened on the same directory
+    private BankService recover(Path snapshot) throws Exception {
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            Journal.ReplayResult result = reopened.replay(recovered);
+            assertTrue(result.getProblems().isEmpty(), result.getProblems().toString());
+        }
+        return recovered;
+    }
+
+    private static long balance(BankService bank, String accountNumber) {
+        return bank.findAccountByNumber(accountNumber).getAccount().getBalancePaise();
+    }
+
+    @Test
+    void testReplayRestoresChangesMadeAfterSnapshot() throws Exception {
+        assertTrue(bankService.deposit("alice", "S1", 1_000.0));
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+
+        assertTrue(bankService.deposit("alice", "S1", 250.0));
+        assertTrue(bankService.withdraw("alice", "C1", 50.0));
+        assertTrue(bankService.transfer("alice", "S1", "C1", 300.0));
+        journal.close();
+
+        BankService recovered = recover(snapshot);
+        assertEquals(95_000L, balance(recovered, "S1"));
+        assertEquals(25_000L, balance(recovered, "C1"));
+
+        Account original = bankService.findAccountByNumber("S1").getAccount();
+        Account replayed = recovered.findAccountByNumber("S1").getAccount();
+        assertEquals(original.getLedger().size(), replayed.getLedger().size());
+        for (int row = 0; row < original.getLedger().size(); row++) {
+            assertEquals(original.getLedger().getId(row), replayed.getLedger().getId(row));
+            assertEquals(original.getLedger().getTimestampMicros(row), replayed.getLedger().getTimestampMicros(row));
+        }
+        assertEquals(original.getTransactionList().get(2).getTransferId(),
+                replayed.getTransactionList().get(2).getTransferId());
+    }
+
+    @Test
+    void testReplayIsIdempotent() throws Exception {
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+        bankService.deposit("alice", "S1", 10.0);
+        journal.close();
+
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            assertEquals(1, reopened.replay(recovered).getApplied());
+            Journal.ReplayResult second = reopened.replay(recovered);
+            assertEquals(0, second.getApplied());
+            assertEquals(1, second.getSkipped());
+        }
+        assertEquals(1_000L, balance(recovered, "S1"));
+    }
+
+    @Test
+    void testAccountsOpenedAfterSnapshotAreRecreated() throws Exception {
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+        Customer alice = bankService.findCustomerByUsername("alice");
+        alice.addAccount(new CheckingAccount("C2", 200.0));
+        bankService.deposit("alice", "C2", 75.0);
+        journal.close();
+
+        BankService recovered = recover(snapshot);
+        Account reopened = recovered.findAccount("alice", "C2");
+        assertTrue(reopened instanceof CheckingAccount);
+        assertEquals(20_000L, ((CheckingAccount) reopened).getOverdraftLimitPaise());
+        assertEquals(7_500L, reopened.getBalancePaise());
+    }
+
+    @Test
+    void testTransferWithMissingCreditIsCompleted() throws Exception {
+        bankService.deposit("alice", "S1", 100.0);
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+
+        // Simulate a crash between the two legs of a transfer
+        Account s1 = bankService.findAccountByNumber("S1").getAccount();
+        Account c1 = bankService.findAccountByNumber("C1").getAccount();
+        assertTrue(s1.debitForTransfer(4_000L, TransactionIds.generator().next(), c1));
+        journal.flush();
+        journal.close();
+
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            assertEquals(1, reopened.replay(recovered).getTransfersCompleted());
+        }
+        assertEquals(6_000L, balance(recovered, "S1"));
+        assertEquals(4_000L, balance(recovered, "C1"));
+    }
+
+    @Test
+    void testCreditAlreadyInSnapshotIsNotRepeated() throws Exception {
+        bankService.deposit("alice", "S1", 100.0);
+        Account s1 = bankService.findAccountByNumber("S1").getAccount();
+        Account c1 = bankService.findAccountByNumber("C1").getAccount();
+        TransactionId transferId = TransactionIds.generator().next();
+        assertTrue(s1.debitForTransfer(4_000L, transferId, c1));
+
+        // The credit reaches the snapshot but not the journal
+        bankService.setJournal(null);
+        c1.creditForTransfer(4_000L, transferId, s1);
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+        journal.flush();
+        journal.close();
+
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            Journal.ReplayResult result = reopened.replay(recovered);
+            assertEquals(0, result.getTransfersCompleted());
+            assertTrue(result.getProblems().isEmpty(), result.getProblems().toString());
+        }
+        assertEquals(6_000L, balance(recovered, "S1"));
+        assertEquals(4_000L, balance(recovered, "C1"));
+        assertEquals(1, recovered.findAccountByNumber("C1").getAccount().getLedger().size());
+    }
+
+    @Test
+    void testTransferIsNotCompletedWhenThePayerStopsAtAGap() throws Exception {
+        bankService.deposit("alice", "S1", 100.0);
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+
+        // A row the journal never saw leaves a gap before the payer's debit
+        Account s1 = bankService.findAccountByNumber("S1").getAccount();
+        Account c1 = bankService.findAccountByNumber("C1").getAccount();
+        bankService.setJournal(null);
+        s1.depositPaise(1_000L);
+        bankService.setJournal(journal);
+        TransactionId transferId = TransactionIds.generator().next();
+        assertTrue(s1.debitForTransfer(4_000L, transferId, c1));
+        journal.flush();
+        journal.close();
+
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            Journal.ReplayResult result = reopened.replay(recovered);
+            assertEquals(0, result.getTransfersCompleted());
+            assertTrue(result.getProblems().stream().anyMatch(problem -> problem.startsWith("Gap in S1")),
+                    result.getProblems().toString());
+            assertTrue(result.getProblems().stream().anyMatch(problem -> problem.contains(transferId.toString())),
+                    result.getProblems().toString());
+        }
+        // The debit was not applied, so neither is the credit
+        assertEquals(10_000L, balance(recovered, "S1"));
+        assertEquals(0L, balance(recovered, "C1"));
+    }
+
+    @Test
+    void testTransactionTheJournalCannotLogIsUndone() throws Exception {
+        Account s1 = bankService.findAccountByNumber("S1").getAccount();
+        s1.depositPaise(5_000L);
+        journal.close();
+
+        assertThrows(IllegalStateException.class, () -> s1.depositPaise(1_000L));
+        assertThrows(IllegalStateException.class, () -> s1.withdrawPaise(2_000L));
+        assertEquals(5_000L, s1.getBalancePaise());
+        assertEquals(1, s1.getLedger().size());
+        assertEquals(5_000L, s1.getLedger().getResultingBalancePaise(0));
+        assertEquals(1, s1.getMonthlySummaries().stream().mapToInt(MonthlySummary::getDepositCount).sum());
+        assertEquals(0, s1.getMonthlySummaries().stream().mapToInt(MonthlySummary::getWithdrawalCount).sum());
+
+        // Once the journal is gone the account records normally again
+        s1.setTransactionListener(null);
+        s1.depositPaise(1_000L);
+        assertEquals(6_000L, s1.getBalancePaise());
+        assertEquals(2, s1.getLedger().size());
+    }
+
+    @Test
+    void testTornTailIsReportedAndIgnored() throws Exception {
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+        bankService.deposit("alice", "S1", 10.0);
+        journal.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(dir.resolve("journal"))) {
+            segment = files.sorted().reduce((a, b) -> b).orElseThrow();
+        }
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        BankService recovered = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), recovered);
+        try (Journal reopened = new Journal(dir.resolve("journal"))) {
+            Journal.ReplayResult result = reopened.replay(recovered);
+            assertEquals(1, result.getApplied());
+            assertEquals(1, result.getProblems().size());
+        }
+        assertEquals(1_000L, balance(recovered, "S1"));
+    }
+
+    @Test
+    void testMarkAndTruncateDropCoveredSegments() throws Exception {
+        bankService.deposit("alice", "S1", 10.0);
+        long mark = journal.mark();
+        Path snapshot = dir.resolve("bank.dat");
+        persistence.save(snapshot, authService, bankService);
+        journal.truncateBefore(mark);
+        bankService.deposit("alice", "S1", 5.0);
+        journal.close();
+
+        BankService recovered = recover(snapshot);
+        assertEquals(1_500L, balance(recovered, "S1"));
+    }
+
+    @Test
+    void testConcurrentWritersShareForces() throws Exception {
+        journal.close();
+        journal = new Journal(dir.resolve("grouped"), 2, 1_000, TimeUnit.MILLISECONDS);
+        bankService.setJournal(journal);
+        int threads = 8;
+        int depositsPerThread = 50;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < depositsPerThread; i++) {
+                    bankService.deposit("alice", "S1", 1.0);
+                }
+            }));
+        }
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+
+        assertEquals(threads * depositsPerThread * 100L, balance(bankService, "S1"));
+        assertTrue(journal.getForceCount() < threads * depositsPerThread,
+                "forces: " + journal.getForceCount());
+    }
+}
@@ -0,0 +1,91 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Compares a full snapshot load with a memory-mapped lazy load: time until the bank
+ * can serve a lookup, time to serve a working set of customers, and heap in use.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.MappedLoadBenchmark [customers] [transactionsPerAccount] [workingSet] [directory]
+ */
+public class MappedLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int workingSet = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        Path dir = args.length > 3 ? Path.of(args[3]) : Files.createTempDirectory("mapped-bench");
+
+        Path file = dir.resolve("bank.snap");
+        {
+            AuthenticationService auth = new AuthenticationService();
+            BankService bank = new BankService();
+            SplittableRandom random = new SplittableRandom(7);
+            for (int c = 0; c < customers; c++) {
+                // Stored credentials, so the set-up does not spend its time hashing passwords
+                User user = User.fromStored("user" + c, new byte[16], new byte[32]);
+                Customer customer = new Customer("Customer " + c, null, user);
+                Account savings = new SavingsAccount("S" + c, 0.04);
+                customer.addAccount(savings);
+                customer.addAccount(new CheckingAccount("C" + c, 500.0));
+                bank.addCustomer(customer);
+                for (int t = 0; t < transactions; t++) {
+                    savings.depositPaise(1 + random.nextInt(1_000_000));
+                }
+            }
+            new PersistenceService().save(file, auth, bank);
+        }
+        System.out.printf("%,d customers, %,d transactions, %,d bytes, working set %,d customers%n",
+                customers, customers * (long) transactions, Files.size(file), workingSet);
+
+        for (int round = 0; round < 3; round++) {
+            run("full  ", file, customers, workingSet, false);
+            run("mapped", file, customers, workingSet, true);
+        }
+    }
+
+    private static void run(String label, Path file, int customers, int workingSet, boolean mapped) throws Exception {
+        System.gc();
+        long heapBefore = usedHeap();
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        PersistenceService persistence = new PersistenceService();
+
+        long start = System.nanoTime();
+        if (mapped) {
+            persistence.loadMapped(file, auth, bank);
+        } else {
+            persistence.load(file, auth, bank);
+        }
+        bank.findAccount("user0", "S0");
+        long ready = System.nanoTime() - start;
+
+        SplittableRandom random = new SplittableRandom(11);
+        long rows = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < workingSet; i++) {
+            int c = random.nextInt(customers);
+            rows += bank.findAccount("user" + c, "S" + c).getLedger().size();
+        }
+        long served = System.nanoTime() - start;
+
+        System.gc();
+        long heap = usedHeap() - heapBefore;
+        System.out.printf("%s: ready in %,7.1f ms, working set in %,7.1f ms (%,d rows), heap %,6d MB%n",
+                label, ready / 1e6, served / 1e6, rows, heap >> 20);
+        // Keep the bank reachable until the heap has been measured
+        if (bank.getMappedDecodedCount() < 0) {
+            System.out.println(bank);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,176 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MappedSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private AuthenticationService authService;
+    private BankService bankService;
+    private PersistenceService persistence;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authService = new AuthenticationService();
+        bankService = new BankService();
+        persistence = new PersistenceService();
+        for (int c = 0; c < 50; c++) {
+            String username = "user" + c;
+            authService.registerUser(username, "Password123");
+            Customer customer = new Customer("Customer " + c, null, authService.getUser(username));
+            customer.addAccount(new SavingsAccount("S" + c, 0.04));
+            customer.addAccount(new CheckingAccount("C" + c, 100.0));
+            bankService.addCustomer(customer);
+            for (int t = 0; t <= c; t++) {
+                bankService.deposit(username, "S" + c, 10.0 + t);
+            }
+            bankService.withdraw(username, "C" + c, 50.0);
+        }
+        assertTrue(bankService.transferToPayee("user3", "S3", "S4", 5.0).isSuccess());
+        file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+    }
+
+    private static void assertSameLedger(Account expected, Account actual) {
+        assertEquals(expected.getBalancePaise(), actual.getBalancePaise());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        TransactionLedger el = expected.getLedger();
+        TransactionLedger al = actual.getLedger();
+        assertEquals(el.size(), al.size());
+        for (int row = 0; row < el.size(); row++) {
+            assertEquals(el.getTimestampMicros(row), al.getTimestampMicros(row));
+            assertEquals(el.getType(row), al.getType(row));
+            assertEquals(el.getAmountPaise(row), al.getAmountPaise(row));
+            assertEquals(el.getResultingBalancePaise(row), al.getResultingBalancePaise(row));
+            assertEquals(el.getId(row), al.getId(row));
+            assertEquals(el.getTransferId(row), al.getTransferId(row));
+        }
+    }
+
+    @Test
+    void testCustomersAreDecodedOnFirstLookup() throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, auth, loaded);
+
+        // Users are read up front; customers are not
+        assertNotNull(auth.login("user7", "Password123"));
+        assertEquals(0, loaded.getMappedDecodedCount());
+
+        Customer customer = loaded.findCustomerByUsername("user7");
+        assertNotNull(customer);
+        assertSame(auth.getUser("user7"), customer.getUser());
+        assertEquals(1, loaded.getMappedDecodedCount());
+        assertSame(customer, loaded.findCustomerByUsername("user7"));
+
+        BankService.AccountEntry entry = loaded.findAccountByNumber("C9");
+        assertEquals("Customer 9", entry.getCustomer().getName());
+        assertEquals(2, loaded.getMappedDecodedCount());
+        assertNull(loaded.findAccountByNumber("X1"));
+        assertNull(loaded.findCustomerByUsername("nobody"));
+    }
+
+    @Test
+    void testLedgerIsReadOnFirstUse() throws Exception {
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, new AuthenticationService(), loaded);
+
+        Account account = loaded.findAccount("user3", "S3");
+        Account original = bankService.findAccount("user3", "S3");
+        assertFalse(account.isLedgerLoaded());
+        // Balance and summaries come from the account header
+        assertEquals(original.getBalancePaise(), account.getBalancePaise());
+        assertEquals(original.getMonthlySummaries().size(), account.getMonthlySummaries().size());
+        assertFalse(account.isLedgerLoaded());
+
+        assertSameLedger(original, account);
+        assertTrue(account.isLedgerLoaded());
+    }
+
+    @Test
+    void testMappedAccountsKeepWorking() throws Exception {
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, new AuthenticationService(), loaded);
+
+        assertTrue(loaded.deposit("user5", "S5", 1.0));
+        Account account = loaded.findAccount("user5", "S5");
+        TransactionLedger ledger = account.getLedger();
+        assertEquals(bankService.findAccount("user5", "S5").getLedger().size() + 1, ledger.size());
+        assertEquals(account.getBalancePaise(), ledger.getResultingBalancePaise(ledger.size() - 1));
+
+        // A transfer decodes the payee's customer too
+        assertTrue(loaded.transferToPayee("user5", "S5", "C40", 1.0).isSuccess());
+        assertEquals(bankService.findAccount("user40", "C40").getBalancePaise() + 100L,
+                loaded.findAccountByNumber("C40").getAccount().getBalancePaise());
+    }
+
+    @Test
+    void testExportDecodesEveryCustomerInOrder() throws Exception {
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, new AuthenticationService(), loaded);
+        loaded.findCustomerByUsername("user20");
+        Customer added = new Customer("Added later", null, null);
+        loaded.addCustomer(added);
+
+        List<Customer> expected = bankService.exportCustomers();
+        List<Customer> exported = loaded.exportCustomers();
+        assertEquals(expected.size() + 1, exported.size());
+        assertSame(added, exported.get(exported.size() - 1));
+        for (int c = 0; c < expected.size(); c++) {
+            assertEquals(expected.get(c).getName(), exported.get(c).getName());
+            for (int a = 0; a < 2; a++) {
+                assertSameLedger(expected.get(c).getAccounts().get(a), exported.get(c).getAccounts().get(a));
+            }
+        }
+        assertSame(loaded.findCustomerByUsername("user20"), exported.get(20));
+    }
+
+    @Test
+    void testCustomerAddedAfterLoadWinsItsUsername() throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, auth, loaded);
+        Customer replacement = new Customer("Replacement", null, auth.getUser("user1"));
+        loaded.addCustomer(replacement);
+        assertSame(replacement, loaded.findCustomerByUsername("user1"));
+
+        // Decoding the snapshot's user1 later does not take the username back
+        loaded.findAccountByNumber("S1");
+        assertSame(replacement, loaded.findCustomerByUsername("user1"));
+    }
+
+    @Test
+    void testSavingOverTheMappedFile() throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.loadMapped(file, auth, loaded);
+        assertTrue(loaded.deposit("user2", "S2", 3.0));
+        persistence.save(file, auth, loaded);
+
+        BankService reloaded = new BankService();
+        persistence.load(file, new AuthenticationService(), reloaded);
+        assertSameLedger(loaded.findAccount("user2", "S2"), reloaded.findAccount("user2", "S2"));
+        assertSameLedger(bankService.findAccount("user49", "S49"), reloaded.findAccount("user49", "S49"));
+    }
+
+    @Test
+    void testCorruptIndexIsRejected() throws Exception {
+        byte[] bytes = Files.readAllBytes(file);
+        // Point the trailer's index offset past the end of the file
+        bytes[bytes.length - 12] = 0x7F;
+        Files.write(file, bytes);
+        assertThrows(java.io.IOException.class,
+                () -> persistence.loadMapped(file, new AuthenticationService(), new BankService()));
+    }
+}
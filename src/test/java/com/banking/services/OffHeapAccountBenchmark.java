@@ -0,0 +1,130 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Compares a bank keeping account state on the heap with one using an
+ * OffHeapAccountStore in direct memory and in a mapped file: heap in use, the time of
+ * a full collection, and the collections made while deposits run alongside short-lived
+ * garbage.
+ *
+ * Defaults to 10M and 100M accounts, which need a large heap for the Account handles
+ * alone (e.g. -Xmx24g for 100M); pass smaller counts on small machines.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -Xmx24g -cp "out:lib/*" com.banking.services.OffHeapAccountBenchmark [accounts...] [--dir directory]
+ */
+public class OffHeapAccountBenchmark {
+
+    private static final int DEPOSITS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = null;
+        int counts = args.length;
+        if (args.length >= 2 && args[args.length - 2].equals("--dir")) {
+            dir = Path.of(args[args.length - 1]);
+            counts -= 2;
+        }
+        if (dir == null) {
+            dir = Files.createTempDirectory("offheap-bench");
+        }
+        int[] accounts = new int[counts == 0 ? 2 : counts];
+        if (counts == 0) {
+            accounts[0] = 10_000_000;
+            accounts[1] = 100_000_000;
+        }
+        for (int i = 0; i < counts; i++) {
+            accounts[i] = Integer.parseInt(args[i]);
+        }
+        for (int n : accounts) {
+            System.out.printf("%,d accounts%n", n);
+            run("heap  ", n, null);
+            try (OffHeapAccountStore store = new OffHeapAccountStore()) {
+                run("direct", n, store);
+            }
+            Path file = dir.resolve("accounts.dat");
+            try (OffHeapAccountStore store = new OffHeapAccountStore(file)) {
+                run("file  ", n, store);
+            }
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String label, int accounts, OffHeapAccountStore store) {
+        System.gc();
+        long heapBefore = usedHeap();
+        BankService bank = new BankService();
+        if (store != null) {
+            bank.setAccountStore(store);
+        }
+        long start = System.nanoTime();
+        Account[] all = new Account[accounts];
+        for (int i = 0; i < accounts; i += 2) {
+            Customer customer = new Customer("Customer " + i, null, null);
+            customer.addAccount(all[i] = new SavingsAccount("S" + i, 0.04));
+            if (i + 1 < accounts) {
+                customer.addAccount(all[i + 1] = new CheckingAccount("C" + i, 500.0));
+            }
+            bank.addCustomer(customer);
+        }
+        long built = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        System.gc();
+        long fullGc = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+
+        // Deposits into random accounts with garbage alongside, as a request thread would make
+        SplittableRandom random = new SplittableRandom(5);
+        long checksum = 0;
+        long gcBefore = gcCount();
+        long gcTimeBefore = gcMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < DEPOSITS; i++) {
+            Account account = all[random.nextInt(accounts)];
+            account.depositPaise(1 + random.nextInt(10_000));
+            byte[] garbage = new byte[256];
+            checksum += garbage.length + account.getBalancePaise();
+        }
+        long churn = System.nanoTime() - start;
+        long collections = gcCount() - gcBefore;
+        long gcTime = gcMillis() - gcTimeBefore;
+
+        System.out.printf("  %s: built in %,8.0f ms, heap %,6d MB, full GC %,6.0f ms;"
+                        + " %,d deposits in %,6.0f ms with %,d GCs taking %,d ms%n",
+                label, built / 1e6, heap >> 20, fullGc / 1e6, DEPOSITS, churn / 1e6, collections, gcTime);
+        if (store != null) {
+            bank.setAccountStore(null);
+        }
+        if (checksum == 42) {
+            System.out.println(bank);
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,246 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class OffHeapAccountStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private OffHeapAccountStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new OffHeapAccountStore();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (store.size() == 0) {
+            store.close();
+        }
+    }
+
+    // A bank of 'customers' customers with a savings and a checking account each, on stored credentials
+    private static BankService newBank(AuthenticationService auth, int customers) {
+        BankService bank = new BankService();
+        Map<String, User> users = new HashMap<>();
+        for (int c = 0; c < customers; c++) {
+            User user = User.fromStored("user" + c, new byte[16], new byte[32]);
+            users.put(user.getUsername(), user);
+            Customer customer = new Customer("Customer " + c, null, user);
+            customer.addAccount(new SavingsAccount("S" + c, 0.04));
+            customer.addAccount(new CheckingAccount("C" + c, 100.0));
+            bank.addCustomer(customer);
+        }
+        auth.importUsers(users);
+        return bank;
+    }
+
+    @Test
+    void testAccountStateMovesIntoTheStoreAndBack() {
+        SavingsAccount savings = new SavingsAccount("S1", 0.05);
+        CheckingAccount checking = new CheckingAccount("C1", 200.0);
+        savings.depositPaise(10_000);
+        LocalDateTime created = savings.getCreatedAt();
+
+        savings.moveTo(store);
+        checking.moveTo(store);
+        assertSame(store, savings.getStateStore());
+        assertEquals(2, store.size());
+        assertEquals(10_000, savings.getBalancePaise());
+        assertEquals(created, savings.getCreatedAt());
+        assertEquals(1, savings.getLedger().size());
+        assertEquals(0.05, savings.getInterestRate());
+        assertEquals(20_000, checking.getOverdraftLimitPaise());
+
+        // Changes go to the record
+        savings.applyInterest();
+        assertEquals(10_500, savings.getBalancePaise());
+        assertTrue(checking.withdrawPaise(15_000));
+        assertFalse(checking.withdrawPaise(6_000));
+        checking.setOverdraftLimit(300.0);
+        assertTrue(checking.withdrawPaise(6_000));
+        savings.setInterestRate(0.1);
+        assertEquals(-21_000, checking.getBalancePaise());
+        assertEquals(2, checking.getLedger().size());
+
+        savings.moveToHeap();
+        checking.moveToHeap();
+        assertNull(savings.getStateStore());
+        assertEquals(0, store.size());
+        assertEquals(10_500, savings.getBalancePaise());
+        assertEquals(created, savings.getCreatedAt());
+        assertEquals(2, savings.getLedger().size());
+        assertEquals(0.1, savings.getInterestRate());
+        assertEquals(30_000, checking.getOverdraftLimitPaise());
+        assertEquals(-21_000, checking.getBalancePaise());
+    }
+
+    @Test
+    void testRecordsKeepNumberAndTypeAndSlotsAreReused() {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Account account = i % 2 == 0 ? new SavingsAccount("S" + i, 0.01) : new CheckingAccount("C" + i, 0);
+            account.moveTo(store);
+            accounts.add(account);
+        }
+        Account other = new Account("X".repeat(40)) {};
+        other.moveTo(store);
+        assertEquals(101, store.size());
+        assertEquals(64L << 20, store.getCapacityBytes());
+
+        for (int slot = 0; slot < 100; slot++) {
+            assertEquals(accounts.get(slot).getAccountNumber(), store.getAccountNumber(slot));
+            assertEquals(slot % 2 == 0 ? OffHeapAccountStore.KIND_SAVINGS : OffHeapAccountStore.KIND_CHECKING,
+                    store.getKind(slot));
+        }
+        // Too long to keep in the record, but the handle still has it
+        assertNull(store.getAccountNumber(100));
+        assertEquals(OffHeapAccountStore.KIND_OTHER, store.getKind(100));
+
+        accounts.get(10).moveToHeap();
+        Account next = new SavingsAccount("S-new", 0.02);
+        next.moveTo(store);
+        assertEquals("S-new", store.getAccountNumber(10));
+        assertEquals(0, next.getBalancePaise());
+        assertEquals(0, next.getLedger().size());
+
+        assertThrows(IllegalStateException.class, store::close);
+        for (Account account : accounts) {
+            account.moveToHeap();
+        }
+        other.moveToHeap();
+        next.moveToHeap();
+    }
+
+    @Test
+    void testBankBehavesTheSameWithAStore() throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = newBank(auth, 20);
+        bank.deposit("user0", "S0", 1_000.0);
+        bank.setAccountStore(store);
+        assertEquals(40, store.size());
+        // Accounts opened later go in as well
+        bank.findCustomerByUsername("user1").addAccount(new SavingsAccount("S1b", 0.03));
+        assertEquals(41, store.size());
+
+        assertTrue(bank.deposit("user1", "S1b", 250.0));
+        assertTrue(bank.transferToPayee("user0", "S0", "C5", 400.0).isSuccess());
+        assertTrue(bank.withdraw("user5", "C5", 450.0));
+        assertFalse(bank.withdraw("user5", "C5", 100.0));
+        assertEquals(60_000, bank.findAccount("user0", "S0").getBalancePaise());
+        assertEquals(-5_000, bank.findAccount("user5", "C5").getBalancePaise());
+        assertEquals(2, bank.findAccount("user5", "C5").getLedger().size());
+
+        // A snapshot of the stored bank loads into a bank without a store, and back into one
+        Path file = dir.resolve("bank.snap");
+        new PersistenceService().save(file, auth, bank);
+        AuthenticationService loadedAuth = new AuthenticationService();
+        BankService loaded = new BankService();
+        new PersistenceService().load(file, loadedAuth, loaded);
+        assertEquals(-5_000, loaded.findAccount("user5", "C5").getBalancePaise());
+        assertEquals(2, loaded.findAccount("user0", "S0").getLedger().size());
+        assertNull(loaded.findAccount("user0", "S0").getStateStore());
+        assertEquals(bank.findAccount("user0", "S0").getCreatedAt(), loaded.findAccount("user0", "S0").getCreatedAt());
+
+        // Loading replaces the bank's accounts, which leave the store
+        new PersistenceService().loadMapped(file, auth, bank);
+        Account mapped = bank.findAccount("user1", "S1b");
+        assertSame(store, mapped.getStateStore());
+        assertEquals(25_000, mapped.getBalancePaise());
+        assertEquals(1, mapped.getLedger().size());
+
+        bank.setAccountStore(null);
+        assertNull(mapped.getStateStore());
+        assertEquals(25_000, mapped.getBalancePaise());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testSerializedAccountCarriesStoredState() throws Exception {
+        CheckingAccount account = new CheckingAccount("C1", 50.0);
+        account.depositPaise(1_234);
+        account.moveTo(store);
+        account.withdrawPaise(34);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(account);
+        }
+        CheckingAccount copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (CheckingAccount) in.readObject();
+        }
+        assertNull(copy.getStateStore());
+        assertEquals(1_200, copy.getBalancePaise());
+        assertEquals(5_000, copy.getOverdraftLimitPaise());
+        assertEquals(2, copy.getLedger().size());
+        assertEquals(account.getCreatedAt(), copy.getCreatedAt());
+        assertEquals(1, copy.getMonthlySummaries().size());
+        account.moveToHeap();
+    }
+
+    @Test
+    void testFileBackedStoreUnderConcurrentTransfers() throws Exception {
+        store = new OffHeapAccountStore(dir.resolve("accounts.dat"));
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = newBank(auth, 50);
+        for (int c = 0; c < 50; c++) {
+            bank.deposit("user" + c, "S" + c, 1_000.0);
+        }
+        bank.setAccountStore(store);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        int from = (seed * 31 + i * 7) % 50;
+                        int to = (from + 1 + i % 49) % 50;
+                        bank.transferToPayee("user" + from, "S" + from, "S" + to, 1.0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long total = 0;
+        int rows = 0;
+        for (int c = 0; c < 50; c++) {
+            Account account = bank.findAccount("user" + c, "S" + c);
+            total += account.getBalancePaise();
+            rows += account.getLedger().size();
+        }
+        assertEquals(50 * 100_000L, total);
+        assertEquals(50 + 2 * 2_000, rows);
+
+        bank.setAccountStore(null);
+        store.close();
+    }
+}
@@ -0,0 +1,422 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PersistenceServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private AuthenticationService authService;
+    private BankService bankService;
+    private PersistenceService persistence;
+
+    @BeforeEach
+    void setUp() {
+        authService = new AuthenticationService();
+        authService.registerUser("alice", "Password123");
+        bankService = new BankService();
+        persistence = new PersistenceService();
+
+        Customer alice = new Customer("Alice Ünal", "alice@example.com", authService.getUser("alice"));
+        SavingsAccount savings = new SavingsAccount("S1", 0.045);
+        CheckingAccount checking = new CheckingAccount("C1", 250.75);
+        alice.addAccount(savings);
+        alice.addAccount(checking);
+        bankService.addCustomer(alice);
+        bankService.addCustomer(new Customer("No Login", null, null));
+
+        savings.deposit(1_000.0);
+        savings.withdraw(99.99);
+        checking.withdraw(200.0);
+        assertTrue(bankService.transfer("alice", "S1", "C1", 123.45));
+        savings.applyInterest();
+    }
+
+    private void assertSameBank(BankService expected, BankService actual) {
+        List<Customer> expectedCustomers = expected.exportCustomers();
+        List<Customer> actualCustomers = actual.exportCustomers();
+        assertEquals(expectedCustomers.size(), actualCustomers.size());
+        for (int c = 0; c < expectedCustomers.size(); c++) {
+            Customer e = expectedCustomers.get(c);
+            Customer a = actualCustomers.get(c);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getEmail(), a.getEmail());
+            assertEquals(e.getAccounts().size(), a.getAccounts().size());
+            for (int i = 0; i < e.getAccounts().size(); i++) {
+                Account ea = e.getAccounts().get(i);
+                Account aa = a.getAccounts().get(i);
+                assertEquals(ea.getClass(), aa.getClass());
+                assertEquals(ea.getAccountNumber(), aa.getAccountNumber());
+                assertEquals(ea.getBalancePaise(), aa.getBalancePaise());
+                assertEquals(ea.getCreatedAt(), aa.getCreatedAt());
+                TransactionLedger el = ea.getLedger();
+                TransactionLedger al = aa.getLedger();
+                assertEquals(el.size(), al.size());
+                for (int row = 0; row < el.size(); row++) {
+                    assertEquals(el.getTimestampMicros(row), al.getTimestampMicros(row));
+                    assertEquals(el.getType(row), al.getType(row));
+                    assertEquals(el.getAmountPaise(row), al.getAmountPaise(row));
+                    assertEquals(el.getResultingBalancePaise(row), al.getResultingBalancePaise(row));
+                    assertEquals(el.getId(row), al.getId(row));
+                    assertEquals(el.getTransferId(row), al.getTransferId(row));
+                }
+                List<MonthlySummary> es = ea.getMonthlySummaries();
+                List<MonthlySummary> as = aa.getMonthlySummaries();
+                assertEquals(es.size(), as.size());
+                for (int m = 0; m < es.size(); m++) {
+                    assertEquals(es.get(m).getMonth(), as.get(m).getMonth());
+                    assertEquals(es.get(m).getDepositTotalPaise(), as.get(m).getDepositTotalPaise());
+                    assertEquals(es.get(m).getWithdrawalCount(), as.get(m).getWithdrawalCount());
+                    assertEquals(es.get(m).getMinBalancePaise(), as.get(m).getMinBalancePaise());
+                    assertEquals(es.get(m).getClosingBalancePaise(), as.get(m).getClosingBalancePaise());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testBinaryRoundTrip() throws Exception {
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+
+        AuthenticationService loadedAuth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.load(file, loadedAuth, loaded);
+
+        assertSameBank(bankService, loaded);
+        assertNotNull(loadedAuth.login("alice", "Password123"));
+        assertSame(loadedAuth.getUser("alice"), loaded.findCustomerByUsername("alice").getUser());
+        CheckingAccount checking = (CheckingAccount) loaded.findAccount("alice", "C1");
+        assertEquals(25_075L, checking.getOverdraftLimitPaise());
+        assertEquals(0.045, ((SavingsAccount) loaded.findAccount("alice", "S1")).getInterestRate());
+
+        // Loaded accounts keep working
+        assertTrue(loaded.deposit("alice", "S1", 1.0));
+        assertEquals(bankService.findAccount("alice", "S1").getBalancePaise() + 100L,
+                loaded.findAccount("alice", "S1").getBalancePaise());
+    }
+
+    @Test
+    void testSnapshotsSavedDuringTransfersKeepTheTotal() throws Exception {
+        BankService bank = new BankService();
+        for (int c = 0; c < 10; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            customer.addAccount(new SavingsAccount("S" + c, 0.04));
+            customer.addAccount(new CheckingAccount("C" + c, 0.0));
+            bank.addCustomer(customer);
+            customer.getAccounts().get(0).depositPaise(100_000L);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                while (running.get()) {
+                    int from = random.nextInt(10);
+                    int to = random.nextInt(10);
+                    bank.getTransferEngine().transfer("S" + from, "C" + to, 1 + random.nextInt(5_000));
+                    bank.getTransferEngine().transfer("C" + to, "S" + from, 1 + random.nextInt(5_000));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Path file = dir.resolve("bank" + i + ".dat");
+                persistence.save(file, new AuthenticationService(), bank);
+                files.add(file);
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        for (Path file : files) {
+            BankService loaded = new BankService();
+            persistence.load(file, new AuthenticationService(), loaded);
+            long total = 0;
+            for (Customer customer : loaded.exportCustomers()) {
+                for (Account account : customer.getAccounts()) {
+                    total += account.getBalancePaise();
+                }
+            }
+            assertEquals(1_000_000L, total, file.getFileName() + " caught a transfer half done");
+        }
+    }
+
+    @Test
+    void testLegacySerializedFileStillLoads() throws Exception {
+        Path file = dir.resolve("bank.dat");
+        persistence.saveSerialized(file, authService, bankService);
+
+        AuthenticationService loadedAuth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.load(file, loadedAuth, loaded);
+
+        assertSameBank(bankService, loaded);
+        assertNotNull(loadedAuth.login("alice", "Password123"));
+    }
+
+    @Test
+    void testFileSavedByTheFirstReleaseLoads() throws Exception {
+        // Java serialization from the first release, with balances and amounts as doubles in rupees
+        Path file = Path.of("src/test/resources/legacy/baseline-bank.ser");
+        AuthenticationService loadedAuth = new AuthenticationService();
+        BankService loaded = new BankService();
+        persistence.load(file, loadedAuth, loaded);
+
+        assertNotNull(loadedAuth.login("alice", "Password123!"));
+        assertNotNull(loadedAuth.login("bob", "Password456!"));
+        assertEquals(44_925L, loaded.findAccount("alice", "S-1001").getBalancePaise());
+        assertEquals(-14_975L, loaded.findAccount("alice", "C-2001").getBalancePaise());
+        assertEquals(9_999L, loaded.findAccount("bob", "S-1002").getBalancePaise());
+        List<Transaction> history = loaded.findAccount("alice", "C-2001").getTransactionList();
+        assertEquals(3, history.size());
+        assertEquals(30_025L, history.get(1).getAmountPaise());
+        assertEquals(50_025L, history.get(1).getResultingBalancePaise());
+        assertEquals("withdrawal", history.get(2).getType());
+
+        // Saved again in the current format, nothing is lost
+        Path snapshot = dir.resolve("bank.snap");
+        persistence.save(snapshot, loadedAuth, loaded);
+        BankService reloaded = new BankService();
+        persistence.load(snapshot, new AuthenticationService(), reloaded);
+        assertSameBank(loaded, reloaded);
+    }
+
+    @Test
+    void testLegacyFileWithForeignClassIsRejected() throws Exception {
+        Path file = dir.resolve("evil.dat");
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+            HashMap<String, Object> users = new HashMap<>();
+            users.put("x", URI.create("http://example.com/"));
+            out.writeObject(users);
+            out.writeObject(new ArrayList<>());
+        }
+        assertThrows(InvalidClassException.class,
+                () -> persistence.load(file, new AuthenticationService(), new BankService()));
+    }
+
+    @Test
+    void testTruncatedSnapshotIsRejected() throws Exception {
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 7));
+
+        BankService loaded = new BankService();
+        assertThrows(IOException.class, () -> persistence.load(file, new AuthenticationService(), loaded));
+        assertTrue(loaded.exportCustomers().isEmpty());
+    }
+
+    @Test
+    void testBinarySnapshotIsSmallerThanSerialized() throws Exception {
+        Account savings = bankService.findAccount("alice", "S1");
+        for (int i = 0; i < 2_000; i++) {
+            savings.depositPaise(100L + i);
+        }
+        Path binary = dir.resolve("bank.snap");
+        Path serialized = dir.resolve("bank.dat");
+        persistence.save(binary, authService, bankService);
+        persistence.saveSerialized(serialized, authService, bankService);
+        assertTrue(Files.size(binary) * 2 < Files.size(serialized),
+                Files.size(binary) + " vs " + Files.size(serialized));
+    }
+
+    @Test
+    void testChunkedSnapshotKeepsCustomerOrderAcrossPools() throws Exception {
+        // Enough customers for several chunks, the last one partly filled
+        int count = SnapshotCodec.CHUNK_CUSTOMERS * 2 + 100;
+        for (int c = 0; c < count; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            SavingsAccount account = new SavingsAccount("N" + c, 0.01);
+            customer.addAccount(account);
+            bankService.addCustomer(customer);
+            for (int t = 0; t < c % 5; t++) {
+                account.depositPaise(1_000L + t);
+            }
+        }
+        Path file = dir.resolve("bank.snap");
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            new PersistenceService(pool).save(file, authService, bankService);
+
+            BankService parallel = new BankService();
+            new PersistenceService(pool).load(file, new AuthenticationService(), parallel);
+            assertSameBank(bankService, parallel);
+
+            BankService serial = new BankService();
+            new PersistenceService(new java.util.concurrent.ForkJoinPool(1)).load(file, new AuthenticationService(),
+                    serial);
+            assertSameBank(bankService, serial);
+        } finally {
+            pool.shutdown();
+        }
+
+        // Customer offsets in the index are absolute, whichever order the chunks landed in
+        BankService mapped = new BankService();
+        persistence.loadMapped(file, new AuthenticationService(), mapped);
+        assertEquals("Customer " + (count - 1), mapped.findAccountByNumber("N" + (count - 1)).getCustomer().getName());
+        assertSameBank(bankService, mapped);
+    }
+
+    @Test
+    void testCompressedSnapshotRoundTrip() throws Exception {
+        for (int c = 0; c < SnapshotCodec.CHUNK_CUSTOMERS + 10; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            SavingsAccount account = new SavingsAccount("Z" + c, 0.01);
+            customer.addAccount(account);
+            bankService.addCustomer(customer);
+            for (int t = 0; t < 3; t++) {
+                account.depositPaise(500L);
+            }
+        }
+        Path plain = dir.resolve("plain.snap");
+        persistence.save(plain, authService, bankService);
+        for (BlockCodec codec : List.of(BlockCodec.lz(), BlockCodec.deflate(1), BlockCodec.deflate(9))) {
+            Path file = dir.resolve(codec.getName().replace(':', '-') + ".snap");
+            new PersistenceService(java.util.concurrent.ForkJoinPool.commonPool(), codec)
+                    .save(file, authService, bankService);
+            assertTrue(Files.size(file) < Files.size(plain), codec.getName() + " did not shrink the snapshot");
+
+            BankService loaded = new BankService();
+            AuthenticationService auth = new AuthenticationService();
+            persistence.load(file, auth, loaded);
+            assertSameBank(bankService, loaded);
+            assertNotNull(auth.login("alice", "Password123"));
+
+            // Compressed chunks cannot be mapped, so loadMapped reads the whole file
+            BankService mapped = new BankService();
+            persistence.loadMapped(file, new AuthenticationService(), mapped);
+            assertEquals(0, mapped.getMappedDecodedCount());
+            assertSameBank(bankService, mapped);
+        }
+    }
+
+    // Where the snapshot's chunks are, read from its directory
+    static SnapshotCodec.Directory directoryOf(Path file) throws IOException {
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file)) {
+            java.nio.ByteBuffer trailer = java.nio.ByteBuffer.allocate(SnapshotCodec.TRAILER_SIZE);
+            channel.read(trailer, channel.size() - SnapshotCodec.TRAILER_SIZE);
+            long directoryOffset = trailer.getLong(0);
+            SnapshotCodec.Input in = new SnapshotCodec.Input(channel, 1 << 16, directoryOffset);
+            return SnapshotCodec.readDirectory(in, SnapshotCodec.VERSION, 0, directoryOffset, file);
+        }
+    }
+
+    static void flipByte(Path file, long offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) offset] ^= 0x10;
+        Files.write(file, bytes);
+    }
+
+    @Test
+    void testDamagedChunkIsSkippedAndReported() throws Exception {
+        for (int c = 0; c < SnapshotCodec.CHUNK_CUSTOMERS + 10; c++) {
+            Customer customer = new Customer("Customer " + c, null, null);
+            customer.addAccount(new CheckingAccount("D" + c, 0.0));
+            bankService.addCustomer(customer);
+        }
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+        SnapshotCodec.Directory directory = directoryOf(file);
+        assertEquals(2, directory.size());
+        // Somewhere in the middle of the first chunk, inside a ledger or a name
+        flipByte(file, directory.offsets[0] + directory.lengths[0] / 2);
+
+        assertThrows(java.io.StreamCorruptedException.class, () -> SnapshotCodec.read(file));
+        for (boolean mapped : new boolean[] {false, true}) {
+            BankService loaded = new BankService();
+            AuthenticationService auth = new AuthenticationService();
+            PersistenceService.LoadReport report = mapped ? persistence.loadMapped(file, auth, loaded)
+                    : persistence.load(file, auth, loaded);
+            if (mapped) {
+                // A mapped load checks a chunk only when one of its customers is first used
+                assertFalse(report.isDamaged());
+                assertNotNull(loaded.findAccountByNumber("D" + (SnapshotCodec.CHUNK_CUSTOMERS + 5)));
+                assertFalse(report.isDamaged());
+            }
+
+            // The second chunk still loads, and so do the users
+            assertEquals(12, loaded.exportCustomers().size());
+            assertNotNull(loaded.findAccountByNumber("D" + (SnapshotCodec.CHUNK_CUSTOMERS + 5)));
+            assertNull(loaded.findAccountByNumber("D0"));
+            assertNull(loaded.findCustomerByUsername("alice"));
+            assertNotNull(auth.getUser("alice"));
+            assertEquals(mapped ? 12 : 0, loaded.getMappedDecodedCount());
+
+            assertTrue(report.isDamaged());
+            assertEquals(1, report.getDamagedChunks());
+            assertEquals(SnapshotCodec.CHUNK_CUSTOMERS, report.getLostCustomers());
+            assertEquals(List.of("alice"), report.getLostUsernames());
+            assertEquals("alice", report.getLostAccounts().get("S1"));
+            assertEquals("", report.getLostAccounts().get("D0"));
+            assertNull(report.getReplay());
+        }
+    }
+
+    @Test
+    void testIntactSnapshotReportsNothing() throws Exception {
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+        PersistenceService.LoadReport report = persistence.load(file, new AuthenticationService(), new BankService());
+        assertFalse(report.isDamaged());
+        assertEquals(0, report.getLostCustomers());
+        assertTrue(report.getProblems().isEmpty());
+    }
+
+    @Test
+    void testDamagedUsersOrDirectoryAreRejected() throws Exception {
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+        byte[] intact = Files.readAllBytes(file);
+        SnapshotCodec.Directory directory = directoryOf(file);
+
+        // A flipped byte in a password hash still parses, but fails the header checksum
+        flipByte(file, directory.headerLength - 3);
+        assertThrows(java.io.StreamCorruptedException.class,
+                () -> persistence.load(file, new AuthenticationService(), new BankService()));
+        assertThrows(java.io.StreamCorruptedException.class,
+                () -> persistence.loadMapped(file, new AuthenticationService(), new BankService()));
+
+        Files.write(file, intact);
+        flipByte(file, directory.offsets[0] + directory.lengths[0] + 1);
+        assertThrows(IOException.class, () -> persistence.load(file, new AuthenticationService(), new BankService()));
+    }
+
+    @Test
+    void testDamagedIndexOnlyStopsMappedLoads() throws Exception {
+        Path file = dir.resolve("bank.snap");
+        persistence.save(file, authService, bankService);
+        SnapshotCodec.Directory directory = directoryOf(file);
+        flipByte(file, directory.indexStart + 2);
+
+        assertThrows(java.io.StreamCorruptedException.class, () -> SnapshotCodec.read(file));
+        BankService loaded = new BankService();
+        PersistenceService.LoadReport report = persistence.loadMapped(file, new AuthenticationService(), loaded);
+        assertTrue(report.isDamaged());
+        assertEquals(0, report.getDamagedChunks());
+        assertSameBank(bankService, loaded);
+    }
+}
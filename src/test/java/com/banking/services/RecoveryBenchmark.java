@@ -0,0 +1,63 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cold-start time of RecoveryService: loading the snapshot and replaying the
+ * journal written after it, with one thread and with every available core.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.RecoveryBenchmark [accounts] [eventsAfterSnapshot] [directory]
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("recovery-bench");
+
+        BankService bank = new BankService();
+        try (RecoveryService recovery = new RecoveryService(dir, new AuthenticationService(), bank,
+                Long.MAX_VALUE, 1, TimeUnit.DAYS)) {
+            recovery.recover();
+            Customer customer = new Customer("Bench", "", null);
+            Account[] all = new Account[accounts];
+            for (int i = 0; i < accounts; i++) {
+                all[i] = new CheckingAccount("ACC" + i, 0.0);
+                customer.addAccount(all[i]);
+            }
+            bank.addCustomer(customer);
+            recovery.snapshot();
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < events; i++) {
+                all[random.nextInt(accounts)].depositPaise(100L);
+            }
+        }
+        System.out.printf("%,d accounts, %,d journaled events after the snapshot%n", accounts, events);
+
+        int[] parallelisms = {1, Runtime.getRuntime().availableProcessors()};
+        for (int round = 0; round < 3; round++) {
+            for (int parallelism : parallelisms) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                BankService recovered = new BankService();
+                long start = System.nanoTime();
+                Journal.ReplayResult result;
+                try (RecoveryService recovery = new RecoveryService(dir, new AuthenticationService(), recovered,
+                        Long.MAX_VALUE, 1, TimeUnit.DAYS)) {
+                    result = recovery.recover(pool);
+                } finally {
+                    pool.shutdown();
+                }
+                double millis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("threads=%d: recovered in %,.0f ms (%,.0f events/s), %s%n",
+                        parallelism, millis, result.getApplied() / (millis / 1e3), result);
+            }
+        }
+    }
+}
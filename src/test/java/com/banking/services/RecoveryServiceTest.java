@@ -0,0 +1,168 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class RecoveryServiceTest {
+
+    private static final int ACCOUNTS = 20;
+
+    @TempDir
+    Path dir;
+
+    private static long balance(BankService bank, String accountNumber) {
+        return bank.findAccountByNumber(accountNumber).getAccount().getBalancePaise();
+    }
+
+    private static long segmentCount(Path journalDir) throws Exception {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.count();
+        }
+    }
+
+    // Start a bank with one customer and ACCOUNTS accounts, and snapshot it
+    private RecoveryService startBank(BankService bank, long snapshotEveryEvents) throws Exception {
+        AuthenticationService auth = new AuthenticationService();
+        RecoveryService recovery = new RecoveryService(dir, auth, bank, snapshotEveryEvents, 1, TimeUnit.HOURS);
+        recovery.recover();
+        auth.registerUser("alice", "Password123");
+        Customer alice = new Customer("Alice", "alice@example.com", auth.getUser("alice"));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            alice.addAccount(new CheckingAccount("R" + i, 0.0));
+        }
+        bank.addCustomer(alice);
+        recovery.snapshot();
+        return recovery;
+    }
+
+    @Test
+    void testRecoverReplaysEventsAfterLatestSnapshotInParallel() throws Exception {
+        BankService bank = new BankService();
+        try (RecoveryService recovery = startBank(bank, Long.MAX_VALUE)) {
+            for (int round = 1; round <= 10; round++) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    bank.deposit("alice", "R" + i, round * (i + 1));
+                }
+            }
+            assertTrue(bank.transfer("alice", "R0", "R1", 5.0));
+            // Everything since the snapshot is in the journal, waiting to be replayed
+            assertEquals(ACCOUNTS * 10 + 2, recovery.getJournal().getEventsSinceMark());
+        }
+
+        BankService recovered = new BankService();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (RecoveryService recovery = new RecoveryService(dir, new AuthenticationService(), recovered)) {
+            Journal.ReplayResult result = recovery.recover(pool);
+            assertEquals(ACCOUNTS * 10 + 2, result.getApplied());
+            assertEquals(0, result.getSkipped());
+            assertTrue(result.getProblems().isEmpty(), result.getProblems().toString());
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(balance(bank, "R" + i), balance(recovered, "R" + i));
+            assertEquals(bank.findAccountByNumber("R" + i).getAccount().getLedger().size(),
+                    recovered.findAccountByNumber("R" + i).getAccount().getLedger().size());
+        }
+    }
+
+    @Test
+    void testSnapshotEveryNEventsTruncatesJournal() throws Exception {
+        BankService bank = new BankService();
+        try (RecoveryService recovery = startBank(bank, 10)) {
+            long snapshotsBefore = recovery.getSnapshotCount();
+            for (int i = 0; i < 25; i++) {
+                bank.deposit("alice", "R0", 1.0);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (recovery.getSnapshotCount() == snapshotsBefore && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(recovery.getSnapshotCount() > snapshotsBefore);
+            assertTrue(recovery.getJournal().getEventsSinceMark() < 25);
+        }
+
+        BankService recovered = new BankService();
+        try (RecoveryService recovery = new RecoveryService(dir, new AuthenticationService(), recovered)) {
+            Journal.ReplayResult result = recovery.recover();
+            assertTrue(result.getApplied() < 25);
+        }
+        assertEquals(2_500L, balance(recovered, "R0"));
+    }
+
+    @Test
+    void testSnapshotAfterTimeOnlyWhenEventsWereJournaled() throws Exception {
+        BankService bank = new BankService();
+        AuthenticationService auth = new AuthenticationService();
+        try (RecoveryService recovery = new RecoveryService(dir, auth, bank, Long.MAX_VALUE, 50,
+                TimeUnit.MILLISECONDS)) {
+            recovery.recover();
+            Customer customer = new Customer("Bob", "", null);
+            customer.addAccount(new SavingsAccount("B1", 0.02));
+            bank.addCustomer(customer);
+            recovery.snapshot();
+            assertEquals(1, segmentCount(dir.resolve(RecoveryService.JOURNAL_DIRECTORY)));
+
+            // Nothing journaled: the interval passes without a snapshot
+            Thread.sleep(200);
+            assertEquals(1, recovery.getSnapshotCount());
+
+            bank.findAccountByNumber("B1").getAccount().deposit(1.0);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (recovery.getSnapshotCount() == 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, recovery.getSnapshotCount());
+        }
+    }
+
+    @Test
+    void testDamagedSnapshotIsRebuiltFromJournal() throws Exception {
+        BankService bank = new BankService();
+        AuthenticationService auth = new AuthenticationService();
+        java.util.Map<String, User> users = new java.util.HashMap<>();
+        for (int c = 0; c < 3; c++) {
+            users.put("user" + c, User.fromStored("user" + c, new byte[16], new byte[32]));
+        }
+        try (RecoveryService recovery = new RecoveryService(dir, auth, bank, Long.MAX_VALUE, 1, TimeUnit.HOURS)) {
+            recovery.recover();
+            auth.importUsers(users);
+            for (int c = 0; c < 3; c++) {
+                Customer customer = new Customer("Customer " + c, null, users.get("user" + c));
+                bank.addCustomer(customer);
+                customer.addAccount(new SavingsAccount("V" + c, 0.02));
+                bank.deposit("user" + c, "V" + c, 100.0 + c);
+            }
+            // Saved but the journal not yet truncated, as if the process stopped in between
+            new PersistenceService().save(dir.resolve(RecoveryService.SNAPSHOT_FILE), auth, bank);
+        }
+        Path snapshot = dir.resolve(RecoveryService.SNAPSHOT_FILE);
+        SnapshotCodec.Directory directory = PersistenceServiceTest.directoryOf(snapshot);
+        PersistenceServiceTest.flipByte(snapshot, directory.offsets[0] + 3);
+
+        BankService recovered = new BankService();
+        try (RecoveryService recovery = new RecoveryService(dir, new AuthenticationService(), recovered)) {
+            recovery.recover();
+            PersistenceService.LoadReport report = recovery.getLoadReport();
+            assertEquals(1, report.getDamagedChunks());
+            assertEquals(3, report.getLostCustomers());
+            assertEquals(3, report.getRebuiltAccounts());
+            assertTrue(Files.exists(dir.resolve(RecoveryService.SNAPSHOT_FILE + RecoveryService.DAMAGED_SUFFIX)));
+        }
+        for (int c = 0; c < 3; c++) {
+            assertEquals(balance(bank, "V" + c), balance(recovered, "V" + c));
+            // The name was lost with the chunk; the username stands in for it
+            assertEquals("user" + c, recovered.findCustomerByUsername("user" + c).getName());
+            assertSame(recovered.findCustomerByUsername("user" + c),
+                    recovered.findAccountByNumber("V" + c).getCustomer());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class ShardedCommandPipelineTest {
+
+    private static final int ACCOUNTS = 16;
+
+    private BankService bankService;
+    private ShardedCommandPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        bankService = new BankService();
+        Customer customer = new Customer("Pipeline", "pipeline@example.com", null);
+        bankService.addCustomer(customer);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            customer.addAccount(new CheckingAccount("P" + i, 0.0));
+        }
+        // A small ring so that back-pressure and credit overflow are exercised
+        pipeline = new ShardedCommandPipeline(bankService, 4, 8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    private Account account(int i) {
+        return bankService.findAccountByNumber("P" + i).getAccount();
+    }
+
+    @Test
+    void testDepositAndWithdraw() throws Exception {
+        assertTrue(pipeline.deposit("P0", 10_000L).get(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.withdraw("P0", 4_000L).get(5, TimeUnit.SECONDS));
+        assertFalse(pipeline.withdraw("P0", 6_001L).get(5, TimeUnit.SECONDS));
+        assertFalse(pipeline.deposit("MISSING", 1L).get(5, TimeUnit.SECONDS));
+
+        assertEquals(6_000L, account(0).getBalancePaise());
+    }
+
+    @Test
+    void testTransfersWithinAndAcrossShards() throws Exception {
+        pipeline.deposit("P0", 100_000L).get(5, TimeUnit.SECONDS);
+        int sameShard = -1;
+        int otherShard = -1;
+        for (int i = 1; i < ACCOUNTS; i++) {
+            if (pipeline.shardOf("P" + i) == pipeline.shardOf("P0")) {
+                if (sameShard < 0) sameShard = i;
+            } else if (otherShard < 0) {
+                otherShard = i;
+            }
+        }
+        assertTrue(otherShard > 0);
+
+        TransferResult across = pipeline.transfer("P0", "P" + otherShard, 30_000L).get(5, TimeUnit.SECONDS);
+        assertTrue(across.isSuccess());
+        assertEquals(70_000L, account(0).getBalancePaise());
+        assertEquals(30_000L, account(otherShard).getBalancePaise());
+        assertEquals(across.getTransferId().toString(),
+                account(otherShard).getTransactionList().get(0).getTransferId());
+
+        if (sameShard > 0) {
+            assertTrue(pipeline.transfer("P0", "P" + sameShard, 10_000L).get(5, TimeUnit.SECONDS).isSuccess());
+            assertEquals(10_000L, account(sameShard).getBalancePaise());
+        }
+
+        assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS,
+                pipeline.transfer("P" + otherShard, "P0", 30_001L).get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(TransferResult.Status.UNKNOWN_ACCOUNT,
+                pipeline.transfer("P0", "MISSING", 1L).get(5, TimeUnit.SECONDS).getStatus());
+    }
+
+    @Test
+    void testManyProducersConserveMoney() throws Exception {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            pipeline.deposit("P" + i, 1_000_000L);
+        }
+        int producers = 8;
+        int commandsPerProducer = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        List<Future<List<CompletableFuture<TransferResult>>>> submitted = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                submitted.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<CompletableFuture<TransferResult>> futures = new ArrayList<>(commandsPerProducer);
+                    for (int i = 0; i < commandsPerProducer; i++) {
+                        int from = random.nextInt(ACCOUNTS);
+                        int to = random.nextInt(ACCOUNTS - 1);
+                        if (to >= from) to++;
+                        futures.add(pipeline.transfer("P" + from, "P" + to, 1 + random.nextInt(500)));
+                    }
+                    return futures;
+                }));
+            }
+            for (Future<List<CompletableFuture<TransferResult>>> producer : submitted) {
+                for (CompletableFuture<TransferResult> future : producer.get(60, TimeUnit.SECONDS)) {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            total += account(i).getBalancePaise();
+            assertTrue(account(i).getBalancePaise() >= 0);
+        }
+        assertEquals(ACCOUNTS * 1_000_000L, total);
+    }
+
+    @Test
+    void testFuturesCompleteOnlyOnceTheJournalIsDurable(@TempDir Path dir) throws Exception {
+        // The flusher never runs during the test, so every force comes from the pipeline
+        try (Journal journal = new Journal(dir, 0, 1, TimeUnit.HOURS)) {
+            bankService.setJournal(journal);
+            assertTrue(pipeline.deposit("P0", 100_000L).get(5, TimeUnit.SECONDS));
+            assertTrue(journal.getForceCount() >= 1);
+
+            int otherShard = 1;
+            while (pipeline.shardOf("P" + otherShard) == pipeline.shardOf("P0")) {
+                otherShard++;
+            }
+            long before = journal.getForceCount();
+            assertTrue(pipeline.transfer("P0", "P" + otherShard, 1_000L).get(5, TimeUnit.SECONDS).isSuccess());
+            assertTrue(journal.getForceCount() > before);
+
+            // Commands drained together share one force
+            before = journal.getForceCount();
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                futures.add(pipeline.deposit("P" + (i % ACCOUNTS), 1L));
+            }
+            for (CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(journal.getForceCount() - before < 1_000);
+            pipeline.close();
+            bankService.setJournal(null);
+        }
+    }
+
+    @Test
+    void testCloseDrainsQueuedCommandsAndRejectsNewOnes() {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            futures.add(pipeline.deposit("P" + (i % ACCOUNTS), 1L));
+        }
+        pipeline.close();
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.isDone());
+        }
+        assertThrows(IllegalStateException.class, () -> pipeline.deposit("P0", 1L));
+    }
+}
@@ -0,0 +1,67 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures ShardedCommandPipeline throughput for a mix of deposits and transfers
+ * submitted from several producer threads.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.ShardedPipelineBenchmark [shards] [producers] [opsPerProducer]
+ */
+public class ShardedPipelineBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int shards = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int opsPerProducer = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        BankService bank = new BankService();
+        Customer customer = new Customer("Bench", "", null);
+        bank.addCustomer(customer);
+        String[] numbers = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            numbers[i] = "ACC" + i;
+            Account account = new CheckingAccount(numbers[i], 0.0);
+            account.depositPaise(1_000_000_000L);
+            customer.addAccount(account);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start;
+            // Closing the pipeline drains it, so the time runs until the try block ends
+            try (ShardedCommandPipeline pipeline = new ShardedCommandPipeline(bank, shards, 1 << 16)) {
+                Thread[] threads = new Thread[producers];
+                for (int p = 0; p < producers; p++) {
+                    int seed = p;
+                    threads[p] = new Thread(() -> {
+                        SplittableRandom random = new SplittableRandom(seed);
+                        CompletableFuture<?> last = null;
+                        for (int i = 0; i < opsPerProducer; i++) {
+                            int from = random.nextInt(ACCOUNTS);
+                            if ((i & 1) == 0) {
+                                last = pipeline.deposit(numbers[from], 100L);
+                            } else {
+                                int to = random.nextInt(ACCOUNTS - 1);
+                                if (to >= from) to++;
+                                last = pipeline.transfer(numbers[from], numbers[to], 100L);
+                            }
+                        }
+                        last.join();
+                    });
+                }
+                start = System.nanoTime();
+                for (Thread thread : threads) thread.start();
+                for (Thread thread : threads) thread.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("shards=%d producers=%d: %,.0f ops/s%n",
+                    shards, producers, (double) producers * opsPerProducer / seconds);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Compares the binary snapshot format with the old Java serialization format:
+ * save time, load time and file size for the same bank.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.SnapshotBenchmark [customers] [transactionsPerAccount] [directory]
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("snapshot-bench");
+
+        AuthenticationService auth = new AuthenticationService();
+        BankService bank = new BankService();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int c = 0; c < customers; c++) {
+            Customer customer = new Customer("Customer " + c, "customer" + c + "@example.com", null);
+            Account savings = new SavingsAccount("S" + c, 0.04);
+            Account checking = new CheckingAccount("C" + c, 500.0);
+            customer.addAccount(savings);
+            customer.addAccount(checking);
+            bank.addCustomer(customer);
+            for (int t = 0; t < transactions; t++) {
+                Account account = (t & 1) == 0 ? savings : checking;
+                int deposit = 1 + random.nextInt(1_000_000);
+                account.depositPaise(deposit);
+                account.withdrawPaise(1 + random.nextInt(deposit));
+            }
+        }
+        System.out.printf("%,d customers, %,d transactions%n", customers, customers * transactions * 2L);
+
+        PersistenceService persistence = new PersistenceService();
+        Path binary = dir.resolve("bank.snap");
+        Path serialized = dir.resolve("bank.dat");
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            persistence.saveSerialized(serialized, auth, bank);
+            long serializedSave = System.nanoTime() - start;
+            start = System.nanoTime();
+            persistence.load(serialized, new AuthenticationService(), new BankService());
+            long serializedLoad = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            persistence.save(binary, auth, bank);
+            long binarySave = System.nanoTime() - start;
+            start = System.nanoTime();
+            persistence.load(binary, new AuthenticationService(), new BankService());
+            long binaryLoad = System.nanoTime() - start;
+
+            System.out.printf("serialization: save %,6d ms, load %,6d ms, %,d bytes | "
+                            + "binary: save %,6d ms, load %,6d ms, %,d bytes | "
+                            + "speed-up save %.1fx load %.1fx, %.1fx smaller%n",
+                    serializedSave / 1_000_000, serializedLoad / 1_000_000, Files.size(serialized),
+                    binarySave / 1_000_000, binaryLoad / 1_000_000, Files.size(binary),
+                    (double) serializedSave / binarySave, (double) serializedLoad / binaryLoad,
+                    (double) Files.size(serialized) / Files.size(binary));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.banking.services;
+
+import com.banking.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures batch transfer throughput against the number of worker threads.
+ * The batch is a payroll-style file: many payers and payees with little overlap,
+ * so most transfers fall into small independent groups.
+ *
+ * Run with the compiled main and test classes on the class path, e.g.
+ *   java -cp "out:lib/*" com.banking.services.TransferBatchBenchmark [transfers] [accounts]
+ */
+public class TransferBatchBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 400_000;
+
+        BankService bank = new BankService();
+        Customer customer = new Customer("Bulk", "", null);
+        bank.addCustomer(customer);
+        for (int i = 0; i < accounts; i++) {
+            Account account = new CheckingAccount("ACC" + i, 0.0);
+            account.depositPaise(1_000_000_000L);
+            customer.addAccount(account);
+        }
+
+        SplittableRandom random = new SplittableRandom(7);
+        List<TransferRequest> batch = new ArrayList<>(transfers);
+        for (int i = 0; i < transfers; i++) {
+            int from = random.nextInt(accounts);
+            int to = random.nextInt(accounts - 1);
+            if (to >= from) to++;
+            batch.add(new TransferRequest("ACC" + from, "ACC" + to, 1 + random.nextInt(10_000)));
+        }
+
+        System.out.printf("%d transfers over %d accounts%n", transfers, accounts);
+        System.out.printf("%10s %16s%n", "threads", "transfers/s");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            TransferEngine engine = new TransferEngine(bank, pool);
+            double best = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                engine.transferBatch(batch);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                best = Math.max(best, transfers / seconds);
+            }
+            pool.shutdown();
+            System.out.printf("%10d %,16.0f%n", threads, best);
+        }
+    }
+}
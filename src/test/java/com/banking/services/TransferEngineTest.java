@@ -0,0 +1,233 @@
+package com.banking.services;
+
+import com.banking.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TransferEngineTest {
+
+    private BankService bankService;
+    private TransferEngine engine;
+    private Account alice;
+    private Account bob;
+
+    @BeforeEach
+    void setUp() {
+        bankService = new BankService();
+        engine = bankService.getTransferEngine();
+
+        Customer aliceCustomer = new Customer("Alice", "alice@example.com", new User("alice", "Password123"));
+        Customer bobCustomer = new Customer("Bob", "bob@example.com", new User("bob", "Password123"));
+        bankService.addCustomer(aliceCustomer);
+        bankService.addCustomer(bobCustomer);
+
+        alice = new SavingsAccount("ALICE1", 0.0);
+        bob = new CheckingAccount("BOB1", 0.0);
+        aliceCustomer.addAccount(alice);
+        bobCustomer.addAccount(bob);
+        alice.depositPaise(100_000L);
+    }
+
+    @Test
+    void testTransferBetweenCustomers() {
+        TransferResult result = engine.transfer("ALICE1", "BOB1", 25_050L);
+
+        assertTrue(result.isSuccess());
+        assertEquals(74_950L, alice.getBalancePaise());
+        assertEquals(25_050L, bob.getBalancePaise());
+    }
+
+    @Test
+    void testLegsShareTheTransferId() {
+        TransferResult result = engine.transfer("ALICE1", "BOB1", 1_000L);
+        TransactionId transferId = result.getTransferId();
+        assertNotNull(transferId);
+
+        Transaction debit = alice.getTransactionList().get(1);
+        Transaction credit = bob.getTransactionList().get(0);
+        assertEquals("withdrawal", debit.getType());
+        assertEquals("deposit", credit.getType());
+        assertEquals(transferId.toString(), debit.getTransferId());
+        assertEquals(transferId.toString(), credit.getTransferId());
+        assertNotEquals(debit.getTransactionId(), credit.getTransactionId());
+
+        // The plain deposit made in setUp is not linked to anything
+        assertNull(alice.getTransactionList().get(0).getTransferId());
+    }
+
+    @Test
+    void testInsufficientFundsLeavesBothAccountsUntouched() {
+        TransferResult result = engine.transfer("ALICE1", "BOB1", 100_001L);
+
+        assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS, result.getStatus());
+        assertNull(result.getTransferId());
+        assertEquals(100_000L, alice.getBalancePaise());
+        assertEquals(0L, bob.getBalancePaise());
+        assertEquals(0, bob.getLedger().size());
+    }
+
+    @Test
+    void testRejectedRequests() {
+        assertEquals(TransferResult.Status.INVALID_AMOUNT, engine.transfer("ALICE1", "BOB1", 0L).getStatus());
+        assertEquals(TransferResult.Status.SAME_ACCOUNT, engine.transfer("ALICE1", "ALICE1", 10L).getStatus());
+        assertEquals(TransferResult.Status.UNKNOWN_ACCOUNT, engine.transfer("ALICE1", "NOBODY", 10L).getStatus());
+    }
+
+    @Test
+    void testTransferToPayeeRequiresOwnershipOfTheSourceAccount() {
+        assertTrue(bankService.transferToPayee("alice", "ALICE1", "BOB1", 10.0).isSuccess());
+        assertEquals(TransferResult.Status.UNKNOWN_ACCOUNT,
+                bankService.transferToPayee("bob", "ALICE1", "BOB1", 10.0).getStatus());
+        assertEquals(99_000L, alice.getBalancePaise());
+    }
+
+    @Test
+    void testConcurrentOppositeTransfersNeitherDeadlockNorDoubleSpend() throws Exception {
+        bob.depositPaise(100_000L);
+        int threads = 32;
+        int transfersPerThread = 2_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                boolean aliceToBob = (t & 1) == 0;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    int completed = 0;
+                    for (int i = 0; i < transfersPerThread; i++) {
+                        TransferResult result = aliceToBob
+                                ? engine.transfer("ALICE1", "BOB1", 70L)
+                                : engine.transfer("BOB1", "ALICE1", 70L);
+                        if (result.isSuccess()) completed++;
+                    }
+                    return completed;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Money is conserved and neither account went below zero
+        assertEquals(200_000L, alice.getBalancePaise() + bob.getBalancePaise());
+        assertTrue(alice.getBalancePaise() >= 0);
+        assertTrue(bob.getBalancePaise() >= 0);
+        assertEquals(alice.getLedger().getResultingBalancePaise(alice.getLedger().size() - 1), alice.getBalancePaise());
+    }
+
+    @Test
+    void testBatchReturnsOneResultPerRequestInOrder() {
+        List<TransferResult> results = bankService.transferBatch(List.of(
+                new TransferRequest("ALICE1", "BOB1", 1_000L),
+                new TransferRequest("ALICE1", "NOBODY", 1_000L),
+                new TransferRequest("BOB1", "BOB1", 1_000L),
+                new TransferRequest("BOB1", "ALICE1", 0L),
+                new TransferRequest("BOB1", "ALICE1", 400L)));
+
+        assertEquals(5, results.size());
+        assertEquals(TransferResult.Status.COMPLETED, results.get(0).getStatus());
+        assertEquals(TransferResult.Status.UNKNOWN_ACCOUNT, results.get(1).getStatus());
+        assertEquals(TransferResult.Status.SAME_ACCOUNT, results.get(2).getStatus());
+        assertEquals(TransferResult.Status.INVALID_AMOUNT, results.get(3).getStatus());
+        assertEquals(TransferResult.Status.COMPLETED, results.get(4).getStatus());
+        assertEquals(99_400L, alice.getBalancePaise());
+        assertEquals(600L, bob.getBalancePaise());
+    }
+
+    @Test
+    void testBatchKeepsPerAccountOrder() {
+        // BOB1 starts empty, so the second transfer only succeeds if it runs after the first,
+        // and the third must fail because the second has emptied BOB1 again
+        List<TransferResult> results = bankService.transferBatch(List.of(
+                new TransferRequest("ALICE1", "BOB1", 5_000L),
+                new TransferRequest("BOB1", "ALICE1", 5_000L),
+                new TransferRequest("BOB1", "ALICE1", 1L)));
+
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS, results.get(2).getStatus());
+    }
+
+    @Test
+    void testLargeBatchOfDisjointAndChainedTransfers() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TransferEngine parallel = new TransferEngine(bankService, pool);
+        try {
+            Customer payroll = new Customer("Payroll", "payroll@example.com", new User("payroll", "Password123"));
+            bankService.addCustomer(payroll);
+            int employees = 2_000;
+            List<TransferRequest> requests = new ArrayList<>();
+            for (int i = 0; i < employees; i++) {
+                Account employer = new CheckingAccount("EMPLOYER" + i, 0.0);
+                Account employee = new SavingsAccount("EMPLOYEE" + i, 0.0);
+                employer.depositPaise(10_000L);
+                payroll.addAccount(employer);
+                payroll.addAccount(employee);
+                requests.add(new TransferRequest("EMPLOYER" + i, "EMPLOYEE" + i, 6_000L));
+                // The second payment only fits if the first has not run yet, so exactly one fails
+                requests.add(new TransferRequest("EMPLOYER" + i, "EMPLOYEE" + i, 6_000L));
+                // Then the employee passes money on along a chain, linking every group together
+                requests.add(new TransferRequest("EMPLOYEE" + i, "ALICE1", 1_000L));
+            }
+
+            List<TransferResult> results = parallel.transferBatch(requests);
+
+            for (int i = 0; i < employees; i++) {
+                assertTrue(results.get(3 * i).isSuccess());
+                assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS, results.get(3 * i + 1).getStatus());
+                assertTrue(results.get(3 * i + 2).isSuccess());
+                assertEquals(5_000L, bankService.findAccountByNumber("EMPLOYEE" + i).getAccount().getBalancePaise());
+            }
+            assertEquals(100_000L + employees * 1_000L, alice.getBalancePaise());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testDisjointGroupsRunInParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TransferEngine parallel = new TransferEngine(bankService, pool);
+        try {
+            Customer bulk = new Customer("Bulk", "bulk@example.com", new User("bulk", "Password123"));
+            bankService.addCustomer(bulk);
+            List<TransferRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                Account a = new CheckingAccount("PA" + i, 0.0);
+                Account b = new CheckingAccount("PB" + i, 0.0);
+                a.depositPaise(1_000L);
+                bulk.addAccount(a);
+                bulk.addAccount(b);
+                for (int k = 0; k < 10; k++) {
+                    requests.add(new TransferRequest("PA" + i, "PB" + i, 100L));
+                }
+            }
+
+            List<TransferResult> results = parallel.transferBatch(requests);
+
+            for (TransferResult result : results) {
+                assertTrue(result.isSuccess());
+            }
+            for (int i = 0; i < 1_000; i++) {
+                assertEquals(0L, bankService.findAccountByNumber("PA" + i).getAccount().getBalancePaise());
+                assertEquals(1_000L, bankService.findAccountByNumber("PB" + i).getAccount().getBalancePaise());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}